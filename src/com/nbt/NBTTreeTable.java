@@ -42,6 +42,10 @@ import javax.swing.tree.TreePath;
 import org.jdesktop.swingx.JXTreeTable;
 import org.jnbt.ByteArrayTag.ByteWrapper;
 import org.jnbt.ByteTag;
+import org.jnbt.IntArrayTag.IntWrapper;
+import org.jnbt.IntTag;
+import org.jnbt.LongArrayTag.LongWrapper;
+import org.jnbt.LongTag;
 import org.jnbt.NBTConstants;
 
 import resources.Resource;
@@ -127,6 +131,9 @@ public class NBTTreeTable extends JXTreeTable implements TreeWillExpandListener
 	int size = 16;
 	final Image byteImage = imageFactory
 		.createImage(ByteTag.TAG_TYPE, size);
+	final Image intImage = imageFactory.createImage(IntTag.TAG_TYPE, size);
+	final Image longImage = imageFactory
+		.createImage(LongTag.TAG_TYPE, size);
 	final Image compoundImage = imageFactory.createImage(
 		NBTConstants.TYPE_COMPOUND, size);
 	setTreeCellRenderer(new DefaultTreeCellRenderer() {
@@ -135,15 +142,15 @@ public class NBTTreeTable extends JXTreeTable implements TreeWillExpandListener
 	    public Component getTreeCellRendererComponent(JTree tree,
 		    Object value, boolean isSelected, boolean isExpanded,
 		    boolean isLeaf, int row, boolean hasFocus) {
-		super.getTreeCellRendererComponent(tree, value, isSelected,
-			isExpanded, isLeaf, row, hasFocus);
-
+		// render the key rather than the whole node, which for a
+		// compound would format every tag within it
+		Object text = value;
 		if (value instanceof NBTNode) {
 		    NBTNode node = (NBTNode) value;
-		    Object o = node.getValueAt(NBTNode.COLUMN_KEY);
-		    String text = (o == null ? null : o.toString());
-		    setText(text);
+		    text = node.getValueAt(NBTNode.COLUMN_KEY);
 		}
+		super.getTreeCellRendererComponent(tree, text, isSelected,
+			isExpanded, isLeaf, row, hasFocus);
 
 		Image image = null;
 		if (value instanceof Block) {
@@ -160,6 +167,10 @@ public class NBTTreeTable extends JXTreeTable implements TreeWillExpandListener
 		    image = sprite.getImage();
 		} else if (value instanceof ByteWrapper) {
 		    image = byteImage;
+		} else if (value instanceof IntWrapper) {
+		    image = intImage;
+		} else if (value instanceof LongWrapper) {
+		    image = longImage;
 		} else if (value instanceof NBTFileBranch.TagWrapper) {
 		    image = compoundImage;
 		}
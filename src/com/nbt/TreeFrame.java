@@ -80,8 +80,12 @@ import org.jnbt.ByteTag;
 import org.jnbt.CompoundTag;
 import org.jnbt.DoubleTag;
 import org.jnbt.FloatTag;
+import org.jnbt.IntArrayTag;
+import org.jnbt.IntArrayTag.IntWrapper;
 import org.jnbt.IntTag;
 import org.jnbt.ListTag;
+import org.jnbt.LongArrayTag;
+import org.jnbt.LongArrayTag.LongWrapper;
 import org.jnbt.LongTag;
 import org.jnbt.Mutable;
 import org.jnbt.NBTConstants;
@@ -154,6 +158,8 @@ public class TreeFrame extends JFrame {
     protected Action addStringAction;
     protected Action addListAction;
     protected Action addCompoundAction;
+    protected Action addIntArrayAction;
+    protected Action addLongArrayAction;
 
     protected Action helpAction;
 
@@ -616,7 +622,9 @@ public class TreeFrame extends JFrame {
 			NBTConstants.TYPE_LONG, NBTConstants.TYPE_FLOAT,
 			NBTConstants.TYPE_DOUBLE, NBTConstants.TYPE_BYTE_ARRAY,
 			NBTConstants.TYPE_STRING, NBTConstants.TYPE_LIST,
-			NBTConstants.TYPE_COMPOUND };
+			NBTConstants.TYPE_COMPOUND,
+			NBTConstants.TYPE_INT_ARRAY,
+			NBTConstants.TYPE_LONG_ARRAY };
 		JComboBox comboBox = new JComboBox(new DefaultComboBoxModel(
 			items));
 		comboBox.setRenderer(new DefaultListCellRenderer() {
@@ -673,6 +681,26 @@ public class TreeFrame extends JFrame {
 
 	};
 
+	addIntArrayAction = new NBTAction("Add Int Array",
+		NBTConstants.TYPE_INT_ARRAY, "Add Int Array",
+		KeyEvent.VK_UNDEFINED) {
+
+	    public void actionPerformed(ActionEvent e) {
+		addTag(new IntArrayTag("new int array"));
+	    }
+
+	};
+
+	addLongArrayAction = new NBTAction("Add Long Array",
+		NBTConstants.TYPE_LONG_ARRAY, "Add Long Array",
+		KeyEvent.VK_UNDEFINED) {
+
+	    public void actionPerformed(ActionEvent e) {
+		addTag(new LongArrayTag("new long array"));
+	    }
+
+	};
+
 	String name = "About " + TITLE;
 	helpAction = new NBTAction(name, "Help", name, KeyEvent.VK_F1) {
 
@@ -733,6 +761,8 @@ public class TreeFrame extends JFrame {
 	actionMap.put(NBTConstants.TYPE_STRING, addStringAction);
 	actionMap.put(NBTConstants.TYPE_LIST, addListAction);
 	actionMap.put(NBTConstants.TYPE_COMPOUND, addCompoundAction);
+	actionMap.put(NBTConstants.TYPE_INT_ARRAY, addIntArrayAction);
+	actionMap.put(NBTConstants.TYPE_LONG_ARRAY, addLongArrayAction);
 	for (Action action : actionMap.values())
 	    action.setEnabled(false);
 
@@ -757,6 +787,16 @@ public class TreeFrame extends JFrame {
 		|| last instanceof ByteWrapper
 		|| parentLast instanceof ByteWrapper) {
 	    addByteAction.setEnabled(true);
+	} else if (last instanceof IntArrayTag
+		|| parentLast instanceof IntArrayTag
+		|| last instanceof IntWrapper
+		|| parentLast instanceof IntWrapper) {
+	    addIntAction.setEnabled(true);
+	} else if (last instanceof LongArrayTag
+		|| parentLast instanceof LongArrayTag
+		|| last instanceof LongWrapper
+		|| parentLast instanceof LongWrapper) {
+	    addLongAction.setEnabled(true);
 	} else if (last instanceof ListTag || parentLast instanceof ListTag) {
 	    if (!(last instanceof ListTag))
 		last = parentLast;
@@ -905,7 +945,7 @@ public class TreeFrame extends JFrame {
 		deleteAction, null, addByteAction, addShortAction,
 		addIntAction, addLongAction, addFloatAction, addDoubleAction,
 		addByteArrayAction, addStringAction, addListAction,
-		addCompoundAction };
+		addCompoundAction, addIntArrayAction, addLongArrayAction };
 	for (Action action : editActions) {
 	    if (action == null) {
 		menuEdit.addSeparator();
@@ -935,7 +975,7 @@ public class TreeFrame extends JFrame {
 		null, addByteAction, addShortAction, addIntAction,
 		addLongAction, addFloatAction, addDoubleAction,
 		addByteArrayAction, addStringAction, addListAction,
-		addCompoundAction };
+		addCompoundAction, addIntArrayAction, addLongArrayAction };
 	for (Action action : actions) {
 	    if (action == null) {
 		toolBar.addSeparator();
@@ -1008,7 +1048,7 @@ public class TreeFrame extends JFrame {
 		NBTInputStream ns = null;
 		try {
 		    ns = new NBTInputStream(new FileInputStream(file));
-		    return (CompoundTag) ns.readTag();
+		    return (CompoundTag) ns.readLazyTag();
 		} finally {
 		    IOUtils.closeQuietly(ns);
 		}
@@ -1251,19 +1291,31 @@ public class TreeFrame extends JFrame {
 	}
 	Object scroll = tag;
 	if (last instanceof Mutable) {
-	    Mutable mutable = (Mutable) last;
-	    if (last instanceof ByteArrayTag) {
+	    Mutable<?> mutable = (Mutable<?>) last;
+	    if (last instanceof ByteArrayTag || last instanceof IntArrayTag
+		    || last instanceof LongArrayTag) {
 		mutable.add(null);
 	    } else if (last instanceof ByteWrapper) {
 		ByteWrapper wrapper = (ByteWrapper) last;
 		int index = wrapper.getIndex() + 1;
 		mutable.add(index, null);
 		scroll = index;
-	    } else if (last instanceof ListTag) {
-		mutable.add(tag);
-	    } else if (last instanceof CompoundTag
+	    } else if (last instanceof IntWrapper) {
+		IntWrapper wrapper = (IntWrapper) last;
+		int index = wrapper.getIndex() + 1;
+		mutable.add(index, null);
+		scroll = index;
+	    } else if (last instanceof LongWrapper) {
+		LongWrapper wrapper = (LongWrapper) last;
+		int index = wrapper.getIndex() + 1;
+		mutable.add(index, null);
+		scroll = index;
+	    } else if (last instanceof ListTag || last instanceof CompoundTag
 		    || last instanceof TagWrapper) {
-		mutable.add(tag);
+		// nodes which hold tags are mutable lists of tags
+		@SuppressWarnings("unchecked")
+		Mutable<Tag<?>> tags = (Mutable<Tag<?>>) mutable;
+		tags.add(tag);
 	    }
 	    nodesInserted(last, path);
 	}
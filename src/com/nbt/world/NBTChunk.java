@@ -17,6 +17,7 @@
 package com.nbt.world;
 
 import org.jnbt.CompoundTag;
+import org.jnbt.Tag;
 
 import com.nbt.NBTBranch;
 import com.terrain.Block;
@@ -38,6 +39,7 @@ public class NBTChunk extends WorldChunk implements NBTBranch {
 
     @Override
     public int getChildCount() {
+	Tag<?> chunkTag = getTag();
 	if (chunkTag instanceof CompoundTag) {
 	    CompoundTag tag = (CompoundTag) chunkTag;
 	    return tag.getChildCount();
@@ -47,6 +49,7 @@ public class NBTChunk extends WorldChunk implements NBTBranch {
 
     @Override
     public Object getChild(int index) {
+	Tag<?> chunkTag = getTag();
 	if (chunkTag instanceof CompoundTag) {
 	    CompoundTag tag = (CompoundTag) chunkTag;
 	    return tag.getChild(index);
@@ -56,6 +59,7 @@ public class NBTChunk extends WorldChunk implements NBTBranch {
 
     @Override
     public int getIndexOfChild(Object child) {
+	Tag<?> chunkTag = getTag();
 	if (chunkTag instanceof CompoundTag) {
 	    CompoundTag tag = (CompoundTag) chunkTag;
 	    tag.getIndexOfChild(child);
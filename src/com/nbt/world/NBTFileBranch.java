@@ -286,7 +286,6 @@ public class NBTFileBranch implements NBTNode, NBTBranch, Saveable {
 
 	private final File file;
 	private CompoundTag tag;
-	private int hashCode;
 
 	public TagWrapper(File file) {
 	    Validate.notNull(file, "file must not be null");
@@ -296,7 +295,7 @@ public class NBTFileBranch implements NBTNode, NBTBranch, Saveable {
 	    NBTInputStream is = null;
 	    try {
 		is = new NBTInputStream(new FileInputStream(file));
-		this.tag = (CompoundTag) is.readTag();
+		this.tag = (CompoundTag) is.readLazyTag();
 	    } catch (IOException e) {
 		// TODO: don't be lazy
 		throw new IOError(e);
@@ -353,15 +352,12 @@ public class NBTFileBranch implements NBTNode, NBTBranch, Saveable {
 
 	@Override
 	public void mark() {
-	    this.hashCode = hashCode();
+	    tag.mark();
 	}
 
 	@Override
 	public boolean hasChanged() {
-	    if (this.hashCode == 0)
-		// TODO: perhaps I should throw an exception instead?
-		return false;
-	    return (this.hashCode != hashCode());
+	    return tag.hasChanged();
 	}
 
 	@Override
@@ -29,6 +29,7 @@ import java.net.URL;
 import javax.imageio.ImageIO;
 
 import org.jnbt.NBTConstants;
+import org.jnbt.TagRegistry;
 
 /**
  * This class generates and caches simple text-only icons.
@@ -72,7 +73,13 @@ public class ImageFactory {
 	    return createImage("()", Color.BLACK, size, size);
 	case NBTConstants.TYPE_COMPOUND:
 	    return createImage("{}", Color.BLACK, size, size);
+	case NBTConstants.TYPE_INT_ARRAY:
+	    return createImage("[I", Color.ORANGE, size, size);
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    return createImage("[L", Color.YELLOW, size, size);
 	default:
+	    if (TagRegistry.isRegistered(type))
+		return createImage("?", Color.GRAY, size, size);
 	    throw new IllegalArgumentException("invalid type");
 	}
     }
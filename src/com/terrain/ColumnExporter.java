@@ -0,0 +1,123 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.terrain;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+
+import org.jnbt.CompoundTag;
+import org.jnbt.NBTColumnReader;
+import org.jnbt.NBTColumnWriter;
+import org.jnbt.NBTDecoder;
+import org.jnbt.NBTInputStream;
+import org.jnbt.NBTSymbolTable;
+import org.jnbt.Tag;
+
+/**
+ * <p>
+ * Exports the chunks of a world into a columnar archive, one row per chunk,
+ * so that questions about many chunks, such as the distribution of
+ * <code>Level.LastUpdate</code>, can be answered by reading a few columns
+ * with {@link NBTColumnReader} instead of decoding every chunk.
+ * </p>
+ * 
+ * <p>
+ * Chunks are read as saved on disk; unsaved changes to loaded chunks are not
+ * exported. Only the tags at the paths of the writer are decoded.
+ * </p>
+ * 
+ * <pre>
+ * NBTColumnWriter writer = new NBTColumnWriter(out, &quot;Level.xPos&quot;,
+ * 	&quot;Level.zPos&quot;, &quot;Level.LastUpdate&quot;,
+ * 	&quot;Level.Blocks&quot;);
+ * writer.setCodec(&quot;Level.Blocks&quot;, CompressionCodec.LZ);
+ * ColumnExporter exporter = new ColumnExporter(writer);
+ * exporter.export(world);
+ * exporter.close();
+ * </pre>
+ * 
+ * @author Taggart Spilman
+ */
+public class ColumnExporter implements Closeable {
+
+    private final NBTColumnWriter writer;
+    private final Set<String> paths;
+    private final NBTSymbolTable symbols = new NBTSymbolTable();
+
+    public ColumnExporter(NBTColumnWriter writer) {
+	this.writer = writer;
+	this.paths = writer.getPaths();
+    }
+
+    /**
+     * Exports every chunk of every region of a world.
+     * 
+     * @param world
+     *            The world.
+     * @return The number of chunks exported.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public int export(WorldDirectory world) throws IOException {
+	int count = 0;
+	for (Region region : world.getRegions()) {
+	    if (region instanceof RegionFile)
+		count += export((RegionFile) region);
+	}
+	return count;
+    }
+
+    /**
+     * Exports every chunk of a region, in the order of the region file.
+     * 
+     * @param region
+     *            The region.
+     * @return The number of chunks exported.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public int export(RegionFile region) throws IOException {
+	int count = 0;
+	NBTDecoder decoder = NBTDecoder.get();
+	for (int z = 0; z < 32; z++) {
+	    for (int x = 0; x < 32; x++) {
+		if (!region.hasChunk(x, z))
+		    continue;
+		region.readChunk(x, z, decoder);
+		NBTInputStream is = decoder.getInputStream();
+		is.setSymbolTable(symbols);
+		Tag<?> tag = is.readTag(paths);
+		if (!(tag instanceof CompoundTag))
+		    throw new IOException("Invalid chunk: " + x + ", " + z
+			    + ".");
+		writer.addRow((CompoundTag) tag);
+		count++;
+	    }
+	}
+	return count;
+    }
+
+    /**
+     * Closes the writer, which writes the footer of the archive.
+     */
+    @Override
+    public void close() throws IOException {
+	writer.close();
+    }
+
+}
@@ -66,11 +66,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.lang3.Validate;
+import org.jnbt.CompressionCodec;
+import org.jnbt.GzipCodec;
+import org.jnbt.NBTDecoder;
+import org.jnbt.UncompressedCodec;
+import org.jnbt.ZlibCodec;
 
 /**
  * http://pastebin.com/niWTqLvk
@@ -79,6 +81,11 @@ public class RegionFile {
 
     private static final int VERSION_GZIP = 1;
     private static final int VERSION_DEFLATE = 2;
+    private static final int VERSION_NONE = 3;
+    /**
+     * any other codec, recognized by the magic bytes of its data
+     */
+    private static final int VERSION_CUSTOM = 127;
 
     private static final int SECTOR_BYTES = 4096;
     private static final int SECTOR_INTS = SECTOR_BYTES / 4;
@@ -93,6 +100,7 @@ public class RegionFile {
     private ArrayList<Boolean> sectorFree;
     private int sizeDelta;
     private long lastModified = 0;
+    private CompressionCodec codec = CompressionCodec.ZLIB;
 
     public RegionFile(File path) throws IOException {
 	Validate.notNull(path, "path must not be null");
@@ -156,6 +164,29 @@ public class RegionFile {
 	return lastModified;
     }
 
+    /**
+     * the codec used to compress chunks as they are written -- zlib unless
+     * changed; chunks are always read with the codec they were written with
+     */
+    public CompressionCodec getCompression() {
+	return codec;
+    }
+
+    public synchronized void setCompression(CompressionCodec codec) {
+	Validate.notNull(codec, "codec must not be null");
+	this.codec = codec;
+    }
+
+    private static int getVersion(CompressionCodec codec) {
+	if (codec instanceof GzipCodec)
+	    return VERSION_GZIP;
+	if (codec instanceof ZlibCodec)
+	    return VERSION_DEFLATE;
+	if (codec instanceof UncompressedCodec)
+	    return VERSION_NONE;
+	return VERSION_CUSTOM;
+    }
+
     /**
      * gets how much the region file has grown since it was last checked
      */
@@ -171,6 +202,69 @@ public class RegionFile {
      */
     public synchronized InputStream getChunkInputStream(int x, int z)
 	    throws IOException {
+	int length = seekChunk(x, z);
+	byte version = file.readByte();
+	switch (version) {
+	case VERSION_GZIP:
+	    byte[] data = new byte[length - 1];
+	    file.read(data);
+	    return CompressionCodec.GZIP.decompress(new ByteArrayInputStream(
+		    data));
+	case VERSION_DEFLATE:
+	    data = new byte[length - 1];
+	    file.read(data);
+	    return CompressionCodec.ZLIB.decompress(new ByteArrayInputStream(
+		    data));
+	case VERSION_NONE:
+	    data = new byte[length - 1];
+	    file.read(data);
+	    return new ByteArrayInputStream(data);
+	case VERSION_CUSTOM:
+	    data = new byte[length - 1];
+	    file.read(data);
+	    return CompressionCodec.decompressAny(new ByteArrayInputStream(
+		    data));
+	}
+
+	throw new IOException("unknown version " + version);
+    }
+
+    /**
+     * reads the chunk into a decoder and decompresses it there, reusing the
+     * decoder's buffers and inflater instead of allocating new ones
+     */
+    public synchronized void readChunk(int x, int z, NBTDecoder decoder)
+	    throws IOException {
+	int length = seekChunk(x, z) - 1;
+	byte version = file.readByte();
+	CompressionCodec codec;
+	switch (version) {
+	case VERSION_GZIP:
+	    codec = CompressionCodec.GZIP;
+	    break;
+	case VERSION_DEFLATE:
+	    codec = CompressionCodec.ZLIB;
+	    break;
+	case VERSION_NONE:
+	    codec = CompressionCodec.NONE;
+	    break;
+	case VERSION_CUSTOM:
+	    codec = null;
+	    break;
+	default:
+	    throw new IOException("unknown version " + version);
+	}
+
+	byte[] data = decoder.getInputBuffer(length);
+	file.readFully(data, 0, length);
+	decoder.reset(data, 0, length, codec);
+    }
+
+    /**
+     * seeks to the version byte of the chunk at (x,z) and returns the chunk
+     * length
+     */
+    private int seekChunk(int x, int z) throws IOException {
 	if (outOfBounds(x, z))
 	    throw new IllegalArgumentException("out of bounds");
 
@@ -190,27 +284,31 @@ public class RegionFile {
 	if (length > SECTOR_BYTES * numSectors)
 	    throw new IOException("invalid length: " + length + " > 4096 * "
 		    + numSectors);
+	if (length < 1)
+	    throw new IOException("invalid length: " + length);
+	return length;
+    }
 
-	byte version = file.readByte();
-	switch (version) {
-	case VERSION_GZIP:
-	    byte[] data = new byte[length - 1];
-	    file.read(data);
-	    return new GZIPInputStream(new ByteArrayInputStream(data));
-	case VERSION_DEFLATE:
-	    data = new byte[length - 1];
-	    file.read(data);
-	    return new InflaterInputStream(new ByteArrayInputStream(data));
-	}
+    public OutputStream getChunkOutputStream(int x, int z) throws IOException {
+	if (outOfBounds(x, z))
+	    throw new IllegalArgumentException("out of bounds");
 
-	throw new IOException("unknown version " + version);
+	CompressionCodec codec = getCompression();
+	return codec.compress(new ChunkBuffer(x, z, getVersion(codec)));
     }
 
-    public OutputStream getChunkOutputStream(int x, int z) throws IOException {
+    /**
+     * compresses and writes an uncompressed chunk in one step -- the zlib
+     * codec sizes its output buffer from the input up front instead of
+     * growing it like ChunkBuffer does
+     */
+    public void writeChunk(int x, int z, byte[] data) throws IOException {
 	if (outOfBounds(x, z))
 	    throw new IllegalArgumentException("out of bounds");
 
-	return new DeflaterOutputStream(new ChunkBuffer(x, z));
+	CompressionCodec codec = getCompression();
+	byte[] compressed = codec.compress(data, 0, data.length);
+	write(x, z, getVersion(codec), compressed, compressed.length);
     }
 
     /**
@@ -219,17 +317,18 @@ public class RegionFile {
      */
     class ChunkBuffer extends ByteArrayOutputStream {
 
-	private final int x, z;
+	private final int x, z, version;
 
-	public ChunkBuffer(int x, int z) {
+	public ChunkBuffer(int x, int z, int version) {
 	    super(8096); // initialize to 8KB
 	    this.x = x;
 	    this.z = z;
+	    this.version = version;
 	}
 
 	@Override
 	public void close() {
-	    RegionFile.this.write(x, z, buf, count);
+	    RegionFile.this.write(x, z, version, buf, count);
 	}
 
     }
@@ -237,7 +336,15 @@ public class RegionFile {
     /**
      * write a chunk at (x,z) with length bytes of data to disk
      */
-    protected synchronized void write(int x, int z, byte[] data, int length) {
+    protected void write(int x, int z, byte[] data, int length) {
+	write(x, z, getVersion(getCompression()), data, length);
+    }
+
+    /**
+     * write a chunk at (x,z) with length bytes of data compressed as version
+     */
+    protected synchronized void write(int x, int z, int version, byte[] data,
+	    int length) {
 	try {
 	    int offset = getOffset(x, z);
 	    int sectorNumber = offset >> 8;
@@ -250,7 +357,7 @@ public class RegionFile {
 
 	    if (sectorNumber != 0 && sectorsAllocated == sectorsNeeded) {
 		// we can simply overwrite the old sectors
-		write(sectorNumber, data, length);
+		writeSectors(sectorNumber, version, data, length);
 	    } else {
 		// we need to allocate new sectors
 		// mark the sectors previously used for this chunk as free
@@ -282,7 +389,7 @@ public class RegionFile {
 		    setOffset(x, z, (sectorNumber << 8) | sectorsNeeded);
 		    for (int i = 0; i < sectorsNeeded; ++i)
 			sectorFree.set(sectorNumber + i, false);
-		    write(sectorNumber, data, length);
+		    writeSectors(sectorNumber, version, data, length);
 		} else {
 		    /*
 		     * no free space large enough found -- we need to grow the
@@ -296,7 +403,7 @@ public class RegionFile {
 		    }
 		    sizeDelta += SECTOR_BYTES * sectorsNeeded;
 
-		    write(sectorNumber, data, length);
+		    writeSectors(sectorNumber, version, data, length);
 		    setOffset(x, z, (sectorNumber << 8) | sectorsNeeded);
 		}
 	    }
@@ -309,11 +416,11 @@ public class RegionFile {
     /**
      * write a chunk data to the region file at specified sector number
      */
-    private void write(int sectorNumber, byte[] data, int length)
-	    throws IOException {
+    private void writeSectors(int sectorNumber, int version, byte[] data,
+	    int length) throws IOException {
 	file.seek(sectorNumber * SECTOR_BYTES);
 	file.writeInt(length + 1); // chunk length
-	file.writeByte(VERSION_DEFLATE); // chunk version number
+	file.writeByte(version); // chunk version number
 	file.write(data, 0, length); // chunk data
     }
 
@@ -20,9 +20,6 @@ import java.util.Formatter;
 import java.util.Locale;
 
 import org.apache.commons.lang3.Validate;
-import org.jnbt.ByteArrayTag;
-import org.jnbt.CompoundTag;
-import org.jnbt.Tag;
 
 import com.tag.Utils;
 
@@ -91,11 +88,7 @@ public class WorldBlock implements Block {
     }
 
     public void setBlockID(int blockID) {
-	byte[] bytes = getByteArray("Blocks");
-	if (bytes != null) {
-	    int index = getIndex();
-	    bytes[index] = (byte) blockID;
-	}
+	chunk.setByte("Blocks", getIndex(), (byte) blockID);
     }
 
     @Override
@@ -129,15 +122,7 @@ public class WorldBlock implements Block {
     }
 
     private byte[] getByteArray(String name) {
-	if (chunk.chunkTag instanceof CompoundTag) {
-	    CompoundTag tag = (CompoundTag) chunk.chunkTag;
-	    Tag<?> search = tag.search(name);
-	    if (search instanceof ByteArrayTag) {
-		ByteArrayTag baTag = (ByteArrayTag) search;
-		return baTag.getValue();
-	    }
-	}
-	return null;
+	return chunk.getByteArray(name);
     }
 
     private int halfByte(byte[] data, int index) {
@@ -22,14 +22,19 @@ import java.util.Formatter;
 import java.util.List;
 import java.util.Locale;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.Validate;
+import org.jnbt.ByteArrayTag;
 import org.jnbt.ByteTag;
 import org.jnbt.CompoundTag;
 import org.jnbt.IntTag;
 import org.jnbt.LongTag;
+import org.jnbt.NBTBinder;
+import org.jnbt.NBTBufferEncoder;
+import org.jnbt.NBTDecoder;
+import org.jnbt.NBTField;
 import org.jnbt.NBTInputStream;
-import org.jnbt.NBTOutputStream;
+import org.jnbt.NBTReader;
+import org.jnbt.NBTSymbolTable;
 import org.jnbt.Tag;
 
 import com.tag.Cache;
@@ -37,15 +42,61 @@ import com.tag.Cache;
 @SuppressWarnings("rawtypes")
 public class WorldChunk implements Chunk, Saveable {
 
+    /**
+     * Tag names shared by every chunk of every world.
+     */
+    private static final NBTSymbolTable SYMBOLS = new NBTSymbolTable();
+
+    /**
+     * Values from the chunk header, read without decoding the whole chunk.
+     */
+    private static class Header {
+
+	@NBTField("Level.xPos")
+	private int xPos = -1;
+	@NBTField("Level.zPos")
+	private int zPos = -1;
+	@NBTField("Level.LastUpdate")
+	private long lastUpdate = -1;
+	@NBTField("Level.TerrainPopulated")
+	private boolean terrainPopulated;
+
+    }
+
+    /**
+     * The arrays read by {@link WorldBlock} before the whole chunk is needed.
+     */
+    private static class BlockArrays {
+
+	@NBTField("Level.Blocks")
+	private byte[] blocks;
+	@NBTField("Level.Data")
+	private byte[] data;
+	@NBTField("Level.SkyLight")
+	private byte[] skyLight;
+	@NBTField("Level.BlockLight")
+	private byte[] blockLight;
+
+    }
+
     private final WorldRegion region;
     private final int x, z;
     private List<Block> blocks;
 
-    protected CompoundTag chunkTag;
+    /**
+     * The chunk's tag, which is not read until it is needed.
+     */
+    private CompoundTag chunkTag;
 
-    private final Cache<BlockLocation, Block> cache;
+    /**
+     * A read-only copy of the block arrays, used until the chunk's tag is
+     * read.
+     */
+    private BlockArrays blockArrays;
+
+    private Header header;
 
-    private int hashCode;
+    private final Cache<BlockLocation, Block> cache;
 
     protected WorldChunk(WorldRegion region, int x, int z) {
 	Validate.notNull(region, "region must not be null");
@@ -53,20 +104,6 @@ public class WorldChunk implements Chunk, Saveable {
 	this.x = x;
 	this.z = z;
 
-	// System.out.println("populate " + this);
-	NBTInputStream is = null;
-	try {
-	    boolean gzip = false;
-	    is = new NBTInputStream(region.getChunkInputStream(x, z), gzip);
-	    this.chunkTag = (CompoundTag) is.readTag();
-	} catch (IOException e) {
-	    // TODO: don't be lazy
-	    throw new IllegalArgumentException(e);
-	} finally {
-	    IOUtils.closeQuietly(is);
-	}
-	mark();
-
 	this.cache = new Cache<BlockLocation, Block>() {
 	    @Override
 	    public Block apply(BlockLocation key) {
@@ -88,10 +125,120 @@ public class WorldChunk implements Chunk, Saveable {
 	return this.region;
     }
 
-    public Tag<?> getTag() {
+    public synchronized Tag<?> getTag() {
+	if (chunkTag == null) {
+	    // System.out.println("populate " + this);
+	    try {
+		NBTInputStream is = readChunk();
+		this.chunkTag = (CompoundTag) is.readLazyTag();
+	    } catch (IOException e) {
+		// TODO: don't be lazy
+		throw new IllegalArgumentException(e);
+	    }
+	    this.blockArrays = null;
+	    mark();
+	}
 	return this.chunkTag;
     }
 
+    /**
+     * Gets one of the block arrays without reading the rest of the chunk. The
+     * returned array must not be modified unless it was obtained from
+     * {@link #getTag()}.
+     * 
+     * @param name
+     *            <code>Blocks</code>, <code>Data</code>, <code>SkyLight</code>
+     *            or <code>BlockLight</code>
+     * @return the array, or <code>null</code> if it does not exist
+     */
+    protected synchronized byte[] getByteArray(String name) {
+	if (chunkTag == null) {
+	    if (blockArrays == null)
+		blockArrays = bind(BlockArrays.class);
+	    if (name.equals("Blocks"))
+		return blockArrays.blocks;
+	    if (name.equals("Data"))
+		return blockArrays.data;
+	    if (name.equals("SkyLight"))
+		return blockArrays.skyLight;
+	    if (name.equals("BlockLight"))
+		return blockArrays.blockLight;
+	    return null;
+	}
+
+	Tag<?> search = chunkTag.search(name);
+	if (search instanceof ByteArrayTag) {
+	    ByteArrayTag baTag = (ByteArrayTag) search;
+	    return baTag.getValue();
+	}
+	return null;
+    }
+
+    /**
+     * Decompresses the chunk into the decoder of the current thread, which
+     * keeps its buffers from one chunk to the next.
+     * 
+     * @return the decoder's stream, positioned at the start of the chunk
+     */
+    private NBTInputStream readChunk() throws IOException {
+	NBTDecoder decoder = NBTDecoder.get();
+	region.readChunk(x, z, decoder);
+	NBTInputStream is = decoder.getInputStream();
+	is.setSymbolTable(SYMBOLS);
+	return is;
+    }
+
+    /**
+     * Sets one byte of a block array, loading the chunk's tag if necessary.
+     * 
+     * @param name
+     *            <code>Blocks</code>, <code>Data</code>, <code>SkyLight</code>
+     *            or <code>BlockLight</code>
+     * @param index
+     *            the index of the byte
+     * @param value
+     *            the new value
+     */
+    protected synchronized void setByte(String name, int index, byte value) {
+	Tag<?> search = ((CompoundTag) getTag()).search(name);
+	if (search instanceof ByteArrayTag) {
+	    ByteArrayTag baTag = (ByteArrayTag) search;
+	    baTag.getValue()[index] = value;
+	    baTag.setChanged();
+	}
+    }
+
+    protected synchronized boolean isLoaded() {
+	return (chunkTag != null);
+    }
+
+    /**
+     * Reads <code>xPos</code>, <code>zPos</code>, <code>LastUpdate</code> and
+     * <code>TerrainPopulated</code> while skipping everything else.
+     */
+    private synchronized Header readHeader() {
+	if (header == null)
+	    header = bind(Header.class);
+	return header;
+    }
+
+    /**
+     * Binds the fields of an object from the chunk, reading no further than
+     * the last of them.
+     */
+    private <T> T bind(Class<T> type) {
+	try {
+	    readChunk();
+	    NBTReader reader = NBTDecoder.get().getReader();
+	    reader.setSymbolTable(SYMBOLS);
+	    reader.next();
+	    return NBTBinder.of(type).readFields(reader);
+	} catch (IOException e) {
+	    // TODO: don't be lazy
+	    throw new IllegalArgumentException(e);
+	}
+    }
+
     @Override
     public Block getBlock(int x, int y, int z) {
 	return getBlock(new BlockLocation(x, y, z));
@@ -123,6 +270,8 @@ public class WorldChunk implements Chunk, Saveable {
 
     @Override
     public long getLastUpdate() {
+	if (!isLoaded())
+	    return readHeader().lastUpdate;
 	Tag search = chunkTag.search("LastUpdate");
 	if (search instanceof LongTag) {
 	    LongTag longTag = (LongTag) search;
@@ -143,6 +292,8 @@ public class WorldChunk implements Chunk, Saveable {
 
     @Override
     public int getXpos() {
+	if (!isLoaded())
+	    return readHeader().xPos;
 	Tag search = chunkTag.search("xPos");
 	if (search instanceof IntTag) {
 	    IntTag intTag = (IntTag) search;
@@ -153,6 +304,8 @@ public class WorldChunk implements Chunk, Saveable {
 
     @Override
     public int getZpos() {
+	if (!isLoaded())
+	    return readHeader().zPos;
 	Tag search = chunkTag.search("zPos");
 	if (search instanceof IntTag) {
 	    IntTag intTag = (IntTag) search;
@@ -163,6 +316,8 @@ public class WorldChunk implements Chunk, Saveable {
 
     @Override
     public boolean isTerrainPopulated() {
+	if (!isLoaded())
+	    return readHeader().terrainPopulated;
 	Tag search = chunkTag.search("TerrainPopulated");
 	if (search instanceof ByteTag) {
 	    ByteTag byteTag = (ByteTag) search;
@@ -181,37 +336,28 @@ public class WorldChunk implements Chunk, Saveable {
     }
 
     @Override
-    public void mark() {
-	this.hashCode = hashCode();
+    public synchronized void mark() {
+	if (chunkTag != null)
+	    chunkTag.mark();
     }
 
     @Override
-    public boolean hasChanged() {
-	if (this.hashCode == 0)
-	    // TODO: perhaps I should throw an exception instead?
-	    return false;
-
-	if (chunkTag.hasChanged())
-	    return true;
-
-	return (this.hashCode != hashCode());
+    public synchronized boolean hasChanged() {
+	// the tag has never been handed out if it is not loaded
+	return (chunkTag != null && chunkTag.hasChanged());
     }
 
     @Override
     public void save() throws IOException {
+	if (!isLoaded())
+	    return;
+
 	Region region = getRegion();
 	if (region instanceof WorldRegion) {
 	    WorldRegion worldRegion = (WorldRegion) region;
 	    int x = getLocalX(), z = getLocalZ();
-	    NBTOutputStream out = null;
-	    try {
-		boolean gzip = false;
-		out = new NBTOutputStream(
-			worldRegion.getChunkOutputStream(x, z), gzip);
-		out.writeTag(chunkTag);
-	    } finally {
-		IOUtils.closeQuietly(out);
-	    }
+	    byte[] data = NBTBufferEncoder.encode(chunkTag);
+	    worldRegion.writeChunk(x, z, data);
 	}
 	mark();
     }
@@ -196,11 +196,9 @@ public class WorldDirectory implements World, Saveable {
 	    if (region instanceof Saveable) {
 		Saveable saveable = (Saveable) region;
 		if (saveable.hasChanged())
-		    System.out.println("world has changed");
-		return true;
+		    return true;
 	    }
 	}
-	System.out.println("world has not changed");
 	return false;
     }
 
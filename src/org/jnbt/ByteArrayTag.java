@@ -8,7 +8,6 @@ import org.apache.commons.lang3.ArrayUtils;
 
 import com.nbt.NBTBranch;
 import com.nbt.NBTNode;
-import com.tag.HexUtils;
 
 /*
  * JNBT License
@@ -56,7 +55,7 @@ public class ByteArrayTag extends Tag<byte[]> implements Mutable<Byte>,
     public static final String TAG_NAME = "TAG_Byte_Array";
     public static final int TAG_TYPE = 7;
 
-    private boolean modified;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
     public ByteArrayTag(String name) {
 	super(name);
@@ -143,16 +142,6 @@ public class ByteArrayTag extends Tag<byte[]> implements Mutable<Byte>,
 	return -1;
     }
 
-    @Override
-    public void mark() {
-	this.modified = false;
-    }
-
-    @Override
-    public boolean hasChanged() {
-	return this.modified;
-    }
-
     @Override
     public String toString() {
 	StringBuilder sb = new StringBuilder(TAG_NAME);
@@ -160,10 +149,11 @@ public class ByteArrayTag extends Tag<byte[]> implements Mutable<Byte>,
 	if (!name.isEmpty())
 	    sb.append("(\"").append(name).append("\")");
 	sb.append(":");
-	for (byte b : getValue()) {
-	    sb.append(" ");
-	    String hex = HexUtils.toHex(b);
-	    sb.append(hex);
+	byte[] bytes = getValue();
+	sb.ensureCapacity(sb.length() + bytes.length * 3);
+	for (byte b : bytes) {
+	    sb.append(' ').append(HEX_DIGITS[(b >> 4) & 0xF])
+		    .append(HEX_DIGITS[b & 0xF]);
 	}
 	return sb.toString();
     }
@@ -212,7 +202,7 @@ public class ByteArrayTag extends Tag<byte[]> implements Mutable<Byte>,
 		if (value instanceof Byte) {
 		    byte[] bytes = getValue();
 		    bytes[index] = (Byte) value;
-		    modified = true;
+		    setChanged();
 		}
 	    }
 	}
@@ -0,0 +1,144 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * A <code>TAG_Byte_Array</code> which reads its bytes from a slice of a
+ * <code>ByteBuffer</code> instead of holding a copy of them.
+ * </p>
+ * 
+ * <p>
+ * {@link #get(int)}, {@link #length()} and {@link #getBuffer()} never copy.
+ * The first call to {@link #getValue()} copies the slice into a new array,
+ * after which the tag behaves like any other <code>ByteArrayTag</code>. The
+ * underlying buffer must not change while the view is in use.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see NBTBufferDecoder
+ */
+public class ByteArrayTagView extends ByteArrayTag {
+
+    private ByteBuffer buffer;
+
+    /**
+     * The object whose identity this tag's hash code is based on. It is not
+     * affected by copying the slice, so reading a view does not make it
+     * appear changed.
+     */
+    private Object identity;
+
+    public ByteArrayTagView(String name, ByteBuffer buffer) {
+	super(name);
+	this.buffer = buffer.slice();
+	this.identity = this.buffer;
+    }
+
+    /**
+     * Gets a read-only view of the bytes.
+     * 
+     * @return the bytes of this tag, starting at position 0
+     */
+    public synchronized ByteBuffer getBuffer() {
+	if (buffer == null)
+	    return ByteBuffer.wrap(super.getValue()).asReadOnlyBuffer();
+	return buffer.asReadOnlyBuffer();
+    }
+
+    public synchronized byte get(int index) {
+	if (buffer == null)
+	    return super.getValue()[index];
+	return buffer.get(index);
+    }
+
+    public synchronized int length() {
+	if (buffer == null)
+	    return super.getValue().length;
+	return buffer.remaining();
+    }
+
+    /**
+     * Returns <code>true</code> until the bytes have been copied out of the
+     * underlying buffer.
+     * 
+     * @return whether this tag still reads from the buffer
+     */
+    public synchronized boolean isView() {
+	return (buffer != null);
+    }
+
+    @Override
+    public synchronized byte[] getValue() {
+	if (buffer != null) {
+	    byte[] bytes = new byte[buffer.remaining()];
+	    buffer.duplicate().get(bytes);
+	    buffer = null;
+	    // copying the slice is not a change
+	    initValue(bytes);
+	}
+	return super.getValue();
+    }
+
+    @Override
+    public synchronized void setValue(byte[] value) {
+	buffer = null;
+	identity = value;
+	super.setValue(value);
+    }
+
+    @Override
+    public int getChildCount() {
+	return length();
+    }
+
+    @Override
+    public Object getValueAt(int column) {
+	switch (column) {
+	case COLUMN_VALUE:
+	    return length() + " bytes";
+	default:
+	    return super.getValueAt(column);
+	}
+    }
+
+    /**
+     * Writes the bytes without copying them into an intermediate array when
+     * the underlying buffer is backed by one.
+     */
+    synchronized void writeTo(DataOutput out) throws IOException {
+	if (buffer == null)
+	    out.write(super.getValue());
+	else
+	    NBTOutputStream.write(out, buffer);
+    }
+
+    @Override
+    public int hashCode() {
+	final int prime = 31;
+	int result = 1;
+	String name = getName();
+	result = prime * result + ((name == null) ? 0 : name.hashCode());
+	result = prime * result + System.identityHashCode(identity);
+	return result;
+    }
+
+}
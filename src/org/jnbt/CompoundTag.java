@@ -32,8 +32,6 @@ package org.jnbt;
  * POSSIBILITY OF SUCH DAMAGE.
  */
 
-import java.util.Collection;
-import java.util.LinkedHashMap;
 import java.util.Map;
 
 import com.nbt.NBTBranch;
@@ -63,9 +61,31 @@ public class CompoundTag extends Tag<Map<String, Tag<?>>> implements
 	super(name, value);
     }
 
+    /**
+     * Sets the children of this compound. A map that cannot look up its
+     * entries by position is copied.
+     */
+    @Override
+    public void setValue(Map<String, Tag<?>> value) {
+	if (value != null && !(value instanceof IndexedMap))
+	    value = new IndexedMap<Tag<?>>(value);
+	Map<String, Tag<?>> old = peekValue();
+	if (old != null && old != value) {
+	    for (Tag<?> child : old.values())
+		orphan(child);
+	}
+	super.setValue(value);
+	for (Tag<?> child : getValue().values())
+	    adopt(child);
+    }
+
     @Override
     protected Map<String, Tag<?>> createDefaultValue() {
-	return new LinkedHashMap<String, Tag<?>>();
+	return new IndexedMap<Tag<?>>();
+    }
+
+    private IndexedMap<Tag<?>> getMap() {
+	return (IndexedMap<Tag<?>>) getValue();
     }
 
     @Override
@@ -77,7 +97,11 @@ public class CompoundTag extends Tag<Map<String, Tag<?>>> implements
     public void add(Tag<?> value) {
 	Map<String, Tag<?>> list = getValue();
 	String name = value.getName();
-	list.put(name, value);
+	Tag<?> old = list.put(name, value);
+	if (old != null)
+	    orphan(old);
+	adopt(value);
+	setChanged();
     }
 
     @Override
@@ -87,13 +111,37 @@ public class CompoundTag extends Tag<Map<String, Tag<?>>> implements
 
     @Override
     public void remove(int index) {
+	IndexedMap<Tag<?>> map = getMap();
+	orphan(map.removeAt(index));
+	setChanged();
+    }
+
+    /**
+     * Removes the child with the specified name.
+     * 
+     * @param name
+     *            The name.
+     * @return The child that was removed, or <code>null</code> if there was
+     *         none.
+     */
+    public Tag<?> remove(String name) {
 	Map<String, Tag<?>> map = getValue();
-	int i = 0;
-	for (String key : map.keySet()) {
-	    if (i++ == index) {
-		map.remove(key);
-		break;
-	    }
+	Tag<?> old = map.remove(name);
+	if (old != null) {
+	    orphan(old);
+	    setChanged();
+	}
+	return old;
+    }
+
+    @Override
+    public void mark() {
+	if (!hasChanged())
+	    return;
+	super.mark();
+	for (Tag<?> child : getValue().values()) {
+	    if (child.hasChanged())
+		child.mark();
 	}
     }
 
@@ -120,9 +168,8 @@ public class CompoundTag extends Tag<Map<String, Tag<?>>> implements
 
     @Override
     public Object getChild(int index) {
-	Map<String, Tag<?>> map = getValue();
-	Collection<Tag<?>> values = map.values();
-	return values.toArray()[index];
+	IndexedMap<Tag<?>> map = getMap();
+	return map.getAt(index);
     }
 
     @Override
@@ -133,8 +180,16 @@ public class CompoundTag extends Tag<Map<String, Tag<?>>> implements
 
     @Override
     public int getIndexOfChild(Object child) {
-	if (child != null) {
-	    Map<String, Tag<?>> map = getValue();
+	if (child instanceof Tag) {
+	    IndexedMap<Tag<?>> map = getMap();
+	    int index = map.indexOf(((Tag<?>) child).getName());
+	    if (index != -1) {
+		Tag<?> t = map.getAt(index);
+		if (t == child || t.equals(child))
+		    return index;
+	    }
+
+	    // the child may have been renamed after it was added
 	    int i = 0;
 	    for (Tag<?> t : map.values()) {
 		if (t.equals(child))
@@ -145,6 +200,18 @@ public class CompoundTag extends Tag<Map<String, Tag<?>>> implements
 	return -1;
     }
 
+    /**
+     * Gets the child with the specified name.
+     * 
+     * @param name
+     *            The name.
+     * @return The child, or <code>null</code> if there is none.
+     */
+    public Tag<?> getChild(String name) {
+	Map<String, Tag<?>> map = getValue();
+	return map.get(name);
+    }
+
     @Override
     public Tag<?> search(String name) {
 	Map<String, Tag<?>> map = getValue();
@@ -163,35 +230,75 @@ public class CompoundTag extends Tag<Map<String, Tag<?>>> implements
 	return null;
     }
 
+    /**
+     * Finds the first tag within this compound, in the order they would be
+     * written, which holds a value. A {@link TagIndex} over a tree which
+     * contains this compound is used to find it, if there is one.
+     * 
+     * @param value
+     *            A number or a string.
+     * @return The tag, or <code>null</code> if there is none.
+     * @see TagIndex#find(Object)
+     */
     @Override
     public Tag<?> search(Object value) {
-	throw new UnsupportedOperationException("stub");
+	return TagIndex.search(this, value);
     }
 
     @Override
     public String toString() {
-	// TODO: dirty hack to improve performance
-	StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
-	for (StackTraceElement element : stackTrace) {
-	    if (element.getMethodName().equals("convertValueToText"))
-		return "";
-	}
+	StringBuilder sb = new StringBuilder();
+	appendTo(sb, "");
+	return sb.toString();
+    }
 
-	StringBuilder sb = new StringBuilder(TAG_NAME);
+    @Override
+    void appendTo(StringBuilder sb, String indent) {
+	sb.append(TAG_NAME);
 	String name = getName();
 	if (!name.isEmpty())
 	    sb.append("(\"").append(name).append("\")");
 	Map<String, Tag<?>> map = getValue();
 	int size = map.size();
-	sb.append(": ").append(size).append(" entries\r\n{\r\n");
-	for (Map.Entry<String, Tag<?>> entry : map.entrySet()) {
-	    Tag<?> tag = entry.getValue();
-	    String s = tag.toString();
-	    s = s.replaceAll("\r\n", "\r\n   ");
-	    sb.append("   ").append(s).append("\r\n");
+	sb.append(": ").append(size).append(" entries\r\n").append(indent)
+		.append("{\r\n");
+	String childIndent = indent + "   ";
+	for (Tag<?> tag : map.values()) {
+	    sb.append(childIndent);
+	    tag.appendTo(sb, childIndent);
+	    sb.append("\r\n");
 	}
-	sb.append("}");
-	return sb.toString();
+	sb.append(indent).append("}");
+    }
+
+    @Override
+    public int hashCode() {
+	final int prime = 31;
+	int result = 1;
+	String name = getName();
+	result = prime * result + ((name == null) ? 0 : name.hashCode());
+	result = prime * result + getValue().hashCode();
+	return result;
+    }
+
+    /**
+     * Compares the names and children of two compounds, whether or not either
+     * is lazy.
+     */
+    @Override
+    public boolean equals(Object obj) {
+	if (this == obj)
+	    return true;
+	if (!(obj instanceof CompoundTag))
+	    return false;
+	CompoundTag other = (CompoundTag) obj;
+	String name = getName();
+	if (name == null) {
+	    if (other.getName() != null)
+		return false;
+	} else if (!name.equals(other.getName()))
+	    return false;
+	return getValue().equals(other.getValue());
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * A compression format for NBT data, such as gzip for <code>.dat</code> files
+ * or zlib for the chunks of a region file.
+ * </p>
+ * 
+ * <p>
+ * Every codec has a compression level and a buffer size. Their meaning is up
+ * to the codec, but a lower level always trades ratio for speed. The format of
+ * compressed data can be recognized by its first bytes with
+ * {@link #detect(InputStream)}.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ */
+public abstract class CompressionCodec {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /**
+     * The number of bytes {@link #detect(InputStream)} looks at.
+     */
+    static final int MAGIC_LENGTH = 4;
+
+    public static final CompressionCodec NONE = new UncompressedCodec();
+    public static final CompressionCodec GZIP = new GzipCodec();
+    public static final CompressionCodec ZLIB = new ZlibCodec();
+    public static final CompressionCodec LZ = new LZCodec();
+
+    private final int level;
+    private final int bufferSize;
+
+    protected CompressionCodec(int level, int bufferSize) {
+	if (bufferSize <= 0)
+	    throw new IllegalArgumentException("bufferSize must be positive");
+	this.level = level;
+	this.bufferSize = bufferSize;
+    }
+
+    public int getLevel() {
+	return level;
+    }
+
+    public int getBufferSize() {
+	return bufferSize;
+    }
+
+    /**
+     * Gets the name of the format, for example <code>gzip</code>.
+     * 
+     * @return The name.
+     */
+    public abstract String getName();
+
+    /**
+     * Wraps a stream so that data written to it is compressed. Closing the
+     * returned stream finishes the compressed data and closes
+     * <code>out</code>.
+     * 
+     * @param out
+     *            The stream to receive compressed data.
+     * @return The compressing stream.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public abstract OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * Wraps a stream of compressed data.
+     * 
+     * @param in
+     *            The compressed data.
+     * @return The decompressed data.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public abstract InputStream decompress(InputStream in) throws IOException;
+
+    /**
+     * Checks whether compressed data starts the way this format does.
+     * 
+     * @param magic
+     *            The first bytes of the data.
+     * @param length
+     *            The number of bytes in <code>magic</code>, which may be less
+     *            than {@link #MAGIC_LENGTH} for very short data.
+     * @return <code>true</code> if the data looks like this format
+     */
+    protected abstract boolean matches(byte[] magic, int length);
+
+    /**
+     * Compresses an array in one step.
+     * 
+     * @param data
+     *            The data.
+     * @param offset
+     *            The offset of the first byte.
+     * @param length
+     *            The number of bytes.
+     * @return The compressed data.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public byte[] compress(byte[] data, int offset, int length)
+	    throws IOException {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+		Math.max(length / 2, 64));
+	OutputStream out = compress(bytes);
+	out.write(data, offset, length);
+	out.close();
+	return bytes.toByteArray();
+    }
+
+    /**
+     * Identifies the format of compressed data from its first bytes, leaving
+     * the stream where it was. Data which matches no format is assumed to be
+     * uncompressed.
+     * 
+     * @param in
+     *            The data, which must support <code>mark</code>.
+     * @return The codec for the data.
+     * @throws IOException
+     *             if an I/O error occurs.
+     * @throws IllegalArgumentException
+     *             if the stream does not support <code>mark</code>.
+     */
+    public static CompressionCodec detect(InputStream in) throws IOException {
+	if (!in.markSupported())
+	    throw new IllegalArgumentException("mark is not supported");
+
+	byte[] magic = new byte[MAGIC_LENGTH];
+	in.mark(MAGIC_LENGTH);
+	int length = 0;
+	try {
+	    while (length < MAGIC_LENGTH) {
+		int n = in.read(magic, length, MAGIC_LENGTH - length);
+		if (n == -1)
+		    break;
+		length += n;
+	    }
+	} finally {
+	    in.reset();
+	}
+
+	CompressionCodec[] codecs = { GZIP, ZLIB, LZ };
+	for (CompressionCodec codec : codecs) {
+	    if (codec.matches(magic, length))
+		return codec;
+	}
+	return NONE;
+    }
+
+    /**
+     * Decompresses data in whichever format it turns out to be in.
+     * 
+     * @param in
+     *            The data.
+     * @return The decompressed data.
+     * @throws IOException
+     *             if an I/O error occurs.
+     * @see #detect(InputStream)
+     */
+    public static InputStream decompressAny(InputStream in) throws IOException {
+	if (!in.markSupported())
+	    in = new BufferedInputStream(in);
+	return detect(in).decompress(in);
+    }
+
+    @Override
+    public String toString() {
+	return getName() + " (level " + level + ", buffer " + bufferSize + ")";
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The gzip format, used by <code>level.dat</code> and other
+ * <code>.dat</code> files.
+ * 
+ * @author Taggart Spilman
+ */
+public class GzipCodec extends CompressionCodec {
+
+    public GzipCodec() {
+	this(Deflater.DEFAULT_COMPRESSION, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param level
+     *            The deflate level, from 0 to 9, or
+     *            <code>Deflater.DEFAULT_COMPRESSION</code>.
+     * @param bufferSize
+     *            The size of the buffer used by the streams.
+     */
+    public GzipCodec(int level, int bufferSize) {
+	super(level, bufferSize);
+	ZlibCodec.checkLevel(level);
+    }
+
+    @Override
+    public String getName() {
+	return "gzip";
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+	final int level = getLevel();
+	return new GZIPOutputStream(out, getBufferSize()) {
+	    {
+		def.setLevel(level);
+	    }
+	};
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+	return new GZIPInputStream(in, getBufferSize());
+    }
+
+    @Override
+    protected boolean matches(byte[] magic, int length) {
+	return (length >= 2 && (magic[0] & 0xFF) == 0x1F
+		&& (magic[1] & 0xFF) == 0x8B);
+    }
+
+}
@@ -0,0 +1,412 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>
+ * A map from names to values which keeps its entries in insertion order and
+ * can also address them by position. Entries are chained in a hash table for
+ * lookup by name and kept in an array for lookup by position, so
+ * {@link #get(Object)}, {@link #getAt(int)} and {@link #indexOf(String)} do
+ * not walk the entries.
+ * </p>
+ * 
+ * <p>
+ * Removing an entry takes constant time: it leaves a hole in the array rather
+ * than shifting the entries that follow it. The next lookup by position,
+ * through {@link #getAt(int)}, {@link #indexOf(String)} or
+ * {@link #removeAt(int)}, closes the holes in one pass from the first hole to
+ * the end of the array. Removing the entry at position <i>i</i> and then
+ * looking up by position therefore costs O(<i>n</i> - <i>i</i>), as it would
+ * for an <code>ArrayList</code>, while a run of removals between two lookups
+ * by position costs a single pass. Lookups by name and appends never close
+ * holes, except when the array is full. Replacing the value of an existing
+ * name keeps its position.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ */
+final class IndexedMap<V> extends AbstractMap<String, V> {
+
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private Node<V>[] table;
+    private Node<V>[] order;
+
+    /**
+     * The number of slots of {@link #order} in use, including holes.
+     */
+    private int end;
+
+    /**
+     * The position of the first hole, if {@link #end} exceeds {@link #size}.
+     */
+    private int hole;
+    private int size;
+    private int modCount;
+
+    private Set<Map.Entry<String, V>> entrySet;
+
+    public IndexedMap() {
+	this(DEFAULT_CAPACITY);
+    }
+
+    public IndexedMap(int capacity) {
+	if (capacity < 0)
+	    throw new IllegalArgumentException("capacity must not be negative");
+	int tableSize = DEFAULT_CAPACITY;
+	while (tableSize * 3 / 4 < capacity)
+	    tableSize <<= 1;
+	this.table = newArray(tableSize);
+	this.order = newArray(Math.max(capacity, DEFAULT_CAPACITY));
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static <V> Node<V>[] newArray(int length) {
+	// arrays of a generic type can only be created raw
+	return new Node[length];
+    }
+
+    public IndexedMap(Map<String, ? extends V> map) {
+	this(map.size());
+	putAll(map);
+    }
+
+    private static int hash(String key) {
+	int h = key.hashCode();
+	return h ^ (h >>> 16);
+    }
+
+    private Node<V> find(Object key) {
+	if (!(key instanceof String))
+	    return null;
+	String name = (String) key;
+	int hash = hash(name);
+	Node<V> node = table[hash & (table.length - 1)];
+	while (node != null) {
+	    if (node.hash == hash && node.key.equals(name))
+		return node;
+	    node = node.next;
+	}
+	return null;
+    }
+
+    @Override
+    public int size() {
+	return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+	return find(key) != null;
+    }
+
+    @Override
+    public V get(Object key) {
+	Node<V> node = find(key);
+	return (node == null ? null : node.value);
+    }
+
+    @Override
+    public V put(String key, V value) {
+	if (key == null)
+	    throw new NullPointerException("key must not be null");
+	int hash = hash(key);
+	int bucket = hash & (table.length - 1);
+	for (Node<V> node = table[bucket]; node != null; node = node.next) {
+	    if (node.hash == hash && node.key.equals(key)) {
+		V old = node.value;
+		node.value = value;
+		return old;
+	    }
+	}
+
+	if (end == order.length) {
+	    if (end > size) {
+		compact();
+	    } else {
+		order = Arrays.copyOf(order, order.length * 2);
+	    }
+	}
+	Node<V> node = new Node<V>(key, hash, value);
+	node.position = end;
+	order[end++] = node;
+	node.next = table[bucket];
+	table[bucket] = node;
+	size++;
+	modCount++;
+	if (size > table.length * 3 / 4)
+	    resize(table.length * 2);
+	return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+	Node<V> node = find(key);
+	if (node == null)
+	    return null;
+	unlink(node);
+	return node.value;
+    }
+
+    @Override
+    public void clear() {
+	Arrays.fill(table, null);
+	Arrays.fill(order, 0, end, null);
+	end = size = 0;
+	modCount++;
+    }
+
+    /**
+     * Gets the value at a position.
+     * 
+     * @param index
+     *            The position, in insertion order.
+     * @return The value.
+     * @throws IndexOutOfBoundsException
+     *             if the position is out of range.
+     */
+    public V getAt(int index) {
+	return nodeAt(index).value;
+    }
+
+    /**
+     * Removes the entry at a position.
+     * 
+     * @param index
+     *            The position, in insertion order.
+     * @return The value that was removed.
+     * @throws IndexOutOfBoundsException
+     *             if the position is out of range.
+     */
+    public V removeAt(int index) {
+	Node<V> node = nodeAt(index);
+	unlink(node);
+	return node.value;
+    }
+
+    /**
+     * Gets the position of a name.
+     * 
+     * @param key
+     *            The name.
+     * @return The position, in insertion order, or <code>-1</code> if the
+     *         name is not in this map.
+     */
+    public int indexOf(String key) {
+	Node<V> node = find(key);
+	if (node == null)
+	    return -1;
+	compact();
+	return node.position;
+    }
+
+    private Node<V> nodeAt(int index) {
+	if (index < 0 || index >= size)
+	    throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+		    + size);
+	compact();
+	return order[index];
+    }
+
+    private void unlink(Node<V> node) {
+	int bucket = node.hash & (table.length - 1);
+	Node<V> previous = null;
+	for (Node<V> n = table[bucket]; n != node; n = n.next)
+	    previous = n;
+	if (previous == null) {
+	    table[bucket] = node.next;
+	} else {
+	    previous.next = node.next;
+	}
+	node.next = null;
+
+	order[node.position] = null;
+	if (node.position == end - 1) {
+	    end--;
+	} else if (end == size || node.position < hole) {
+	    hole = node.position;
+	}
+	size--;
+	modCount++;
+    }
+
+    /**
+     * Closes the holes left by removed entries.
+     */
+    private void compact() {
+	if (end == size)
+	    return;
+	int j = hole;
+	for (int i = hole; i < end; i++) {
+	    Node<V> node = order[i];
+	    if (node != null) {
+		node.position = j;
+		order[j++] = node;
+	    }
+	}
+	Arrays.fill(order, j, end, null);
+	end = j;
+    }
+
+    private void resize(int length) {
+	Node<V>[] table = newArray(length);
+	for (int i = 0; i < end; i++) {
+	    Node<V> node = order[i];
+	    if (node != null) {
+		int bucket = node.hash & (length - 1);
+		node.next = table[bucket];
+		table[bucket] = node;
+	    }
+	}
+	this.table = table;
+    }
+
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+	if (entrySet == null) {
+	    entrySet = new AbstractSet<Map.Entry<String, V>>() {
+		@Override
+		public Iterator<Map.Entry<String, V>> iterator() {
+		    return new NodeIterator();
+		}
+
+		@Override
+		public int size() {
+		    return size;
+		}
+
+		@Override
+		public void clear() {
+		    IndexedMap.this.clear();
+		}
+	    };
+	}
+	return entrySet;
+    }
+
+    /**
+     * Follows the entries themselves rather than their slots, since a lookup
+     * by position may close holes while the iteration is in progress.
+     */
+    private class NodeIterator implements Iterator<Map.Entry<String, V>> {
+
+	private Node<V> next = seek(0);
+	private Node<V> last;
+	private int expectedModCount = modCount;
+
+	private Node<V> seek(int from) {
+	    for (int i = from; i < end; i++) {
+		if (order[i] != null)
+		    return order[i];
+	    }
+	    return null;
+	}
+
+	@Override
+	public boolean hasNext() {
+	    return next != null;
+	}
+
+	@Override
+	public Map.Entry<String, V> next() {
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    if (next == null)
+		throw new NoSuchElementException();
+	    last = next;
+	    next = seek(last.position + 1);
+	    return last;
+	}
+
+	@Override
+	public void remove() {
+	    if (last == null)
+		throw new IllegalStateException();
+	    if (modCount != expectedModCount)
+		throw new ConcurrentModificationException();
+	    unlink(last);
+	    last = null;
+	    expectedModCount = modCount;
+	}
+
+    }
+
+    private static final class Node<V> implements Map.Entry<String, V> {
+
+	private final String key;
+	private final int hash;
+	private V value;
+	private int position;
+	private Node<V> next;
+
+	public Node(String key, int hash, V value) {
+	    this.key = key;
+	    this.hash = hash;
+	    this.value = value;
+	}
+
+	@Override
+	public String getKey() {
+	    return key;
+	}
+
+	@Override
+	public V getValue() {
+	    return value;
+	}
+
+	@Override
+	public V setValue(V value) {
+	    V old = this.value;
+	    this.value = value;
+	    return old;
+	}
+
+	@Override
+	public int hashCode() {
+	    return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (!(obj instanceof Map.Entry))
+		return false;
+	    Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+	    Object otherValue = other.getValue();
+	    return key.equals(other.getKey())
+		    && (value == null ? otherValue == null : value
+			    .equals(otherValue));
+	}
+
+	@Override
+	public String toString() {
+	    return key + "=" + value;
+	}
+
+    }
+
+}
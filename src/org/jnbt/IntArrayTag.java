@@ -0,0 +1,217 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.ArrayUtils;
+
+import com.nbt.NBTBranch;
+import com.nbt.NBTNode;
+
+/**
+ * The <code>TAG_Int_Array</code> tag.
+ * 
+ * @author Taggart Spilman
+ */
+public class IntArrayTag extends Tag<int[]> implements Mutable<Integer>,
+	NBTBranch {
+
+    public static final String TAG_NAME = "TAG_Int_Array";
+    public static final int TAG_TYPE = 11;
+
+    public IntArrayTag(String name) {
+	super(name);
+    }
+
+    public IntArrayTag(String name, int[] value) {
+	super(name, value);
+    }
+
+    @Override
+    protected int[] createDefaultValue() {
+	return new int[] {};
+    }
+
+    @Override
+    public int getTagType() {
+	return TAG_TYPE;
+    }
+
+    @Override
+    public void add(Integer i) {
+	int[] value = getValue();
+	setValue(ArrayUtils.add(value, i == null ? 0 : i));
+    }
+
+    @Override
+    public void add(int index, Integer i) {
+	int[] value = getValue();
+	setValue(ArrayUtils.add(value, index, i == null ? 0 : i));
+    }
+
+    @Override
+    public void remove(int index) {
+	int[] value = getValue();
+	setValue(ArrayUtils.remove(value, index));
+    }
+
+    @Override
+    public boolean isCellEditable(int column) {
+	return false;
+    }
+
+    @Override
+    public Object getValueAt(int column) {
+	switch (column) {
+	case COLUMN_VALUE:
+	    int[] ints = getValue();
+	    return ints.length + " ints";
+	default:
+	    return super.getValueAt(column);
+	}
+    }
+
+    @Override
+    public Object getChild(int index) {
+	return new IntWrapper(index);
+    }
+
+    @Override
+    public int getChildCount() {
+	int[] value = getValue();
+	return value.length;
+    }
+
+    @Override
+    public int getIndexOfChild(Object child) {
+	if (child instanceof IntWrapper) {
+	    IntWrapper wrapper = (IntWrapper) child;
+	    return wrapper.getIndex();
+	}
+	return -1;
+    }
+
+    @Override
+    public int hashCode() {
+	final int prime = 31;
+	int result = 1;
+	String name = getName();
+	result = prime * result + ((name == null) ? 0 : name.hashCode());
+	result = prime * result + Arrays.hashCode(getValue());
+	return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+	if (this == obj)
+	    return true;
+	if (obj == null)
+	    return false;
+	if (getClass() != obj.getClass())
+	    return false;
+	IntArrayTag other = (IntArrayTag) obj;
+	if (!getName().equals(other.getName()))
+	    return false;
+	return Arrays.equals(getValue(), other.getValue());
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder sb = new StringBuilder(TAG_NAME);
+	String name = getName();
+	if (!name.isEmpty())
+	    sb.append("(\"").append(name).append("\")");
+	sb.append(":");
+	for (int i : getValue())
+	    sb.append(" ").append(i);
+	return sb.toString();
+    }
+
+    public class IntWrapper implements NBTNode {
+
+	private final int index;
+
+	public IntWrapper(int index) {
+	    this.index = index;
+	}
+
+	public IntArrayTag getTag() {
+	    return IntArrayTag.this;
+	}
+
+	public int getIndex() {
+	    return this.index;
+	}
+
+	@Override
+	public boolean isCellEditable(int column) {
+	    switch (column) {
+	    case NBTNode.COLUMN_VALUE:
+		return true;
+	    }
+	    return false;
+	}
+
+	@Override
+	public Object getValueAt(int column) {
+	    switch (column) {
+	    case NBTNode.COLUMN_KEY:
+		return index;
+	    case NBTNode.COLUMN_VALUE:
+		int[] ints = getValue();
+		return ints[index];
+	    }
+	    return null;
+	}
+
+	@Override
+	public void setValueAt(Object value, int column) {
+	    switch (column) {
+	    case NBTNode.COLUMN_VALUE:
+		if (value instanceof Number) {
+		    int[] ints = getValue();
+		    ints[index] = ((Number) value).intValue();
+		    setChanged();
+		}
+	    }
+	}
+
+	@Override
+	public int hashCode() {
+	    return 31 * System.identityHashCode(getTag()) + index;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (this == obj)
+		return true;
+	    if (obj == null)
+		return false;
+	    if (getClass() != obj.getClass())
+		return false;
+	    IntWrapper other = (IntWrapper) obj;
+	    if (getTag() != other.getTag())
+		return false;
+	    if (index != other.index)
+		return false;
+	    return true;
+	}
+
+    }
+
+}
@@ -0,0 +1,471 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * A fast LZ77 codec in pure Java, in the style of LZ4. It compresses less
+ * than zlib, but decompresses several times faster, which suits worlds that
+ * are read far more often than they are written.
+ * </p>
+ * 
+ * <p>
+ * The stream starts with the magic bytes <code>NBLZ</code> and is followed by
+ * blocks of at most {@link #getBufferSize()} bytes. Each block has a header of
+ * two big-endian ints, its uncompressed and compressed length, and a block
+ * whose lengths are equal is stored as is. A zero uncompressed length ends
+ * the stream. The compressed data is a series of sequences, each a token
+ * byte holding the number of literals and the length of the match, the
+ * literals, and a two-byte backwards offset of the match.
+ * </p>
+ * 
+ * <p>
+ * The level is the number of earlier positions searched for a match, as a
+ * power of two: level 1 looks only at the most recent position with the same
+ * hash, level 9 at up to 256. Level 0 stores every block uncompressed.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ */
+public class LZCodec extends CompressionCodec {
+
+    public static final int DEFAULT_LEVEL = 1;
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 16;
+
+    private static final byte[] MAGIC = { 'N', 'B', 'L', 'Z' };
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 15;
+
+    public LZCodec() {
+	this(DEFAULT_LEVEL, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param level
+     *            The level, from 0 to 9.
+     * @param bufferSize
+     *            The size of a block.
+     */
+    public LZCodec(int level, int bufferSize) {
+	super(level, bufferSize);
+	if (level < 0 || level > 9)
+	    throw new IllegalArgumentException("Invalid LZ level: " + level
+		    + ".");
+    }
+
+    @Override
+    public String getName() {
+	return "lz";
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+	return new LZOutputStream(out);
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+	return new LZInputStream(in);
+    }
+
+    @Override
+    protected boolean matches(byte[] magic, int length) {
+	if (length < MAGIC.length)
+	    return false;
+	for (int i = 0; i < MAGIC.length; i++) {
+	    if (magic[i] != MAGIC[i])
+		return false;
+	}
+	return true;
+    }
+
+    /**
+     * Gets the largest possible compressed size of a block.
+     */
+    static int maxCompressedLength(int length) {
+	return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses a block.
+     * 
+     * @param src
+     *            The data.
+     * @param length
+     *            The number of bytes to compress.
+     * @param dst
+     *            The output, at least {@link #maxCompressedLength(int)} long.
+     * @param head
+     *            The most recent position of each hash.
+     * @param prev
+     *            The previous position with the same hash as each position,
+     *            or <code>null</code> to search only the most recent one.
+     * @param maxChain
+     *            The number of positions to search.
+     * @return The number of bytes written to <code>dst</code>.
+     */
+    static int compressBlock(byte[] src, int length, byte[] dst, int[] head,
+	    int[] prev, int maxChain) {
+	Arrays.fill(head, -1);
+	int op = 0, anchor = 0, i = 0;
+	int limit = length - MIN_MATCH;
+	while (i <= limit) {
+	    int h = hash(src, i);
+	    int candidate = head[h];
+	    head[h] = i;
+	    if (prev != null)
+		prev[i] = candidate;
+
+	    int bestLength = 0, bestOffset = 0;
+	    for (int tries = maxChain; candidate >= 0 && tries > 0; tries--) {
+		int offset = i - candidate;
+		if (offset > MAX_OFFSET)
+		    break;
+		int n = 0, max = length - i;
+		while (n < max && src[candidate + n] == src[i + n])
+		    n++;
+		if (n > bestLength) {
+		    bestLength = n;
+		    bestOffset = offset;
+		}
+		if (prev == null)
+		    break;
+		candidate = prev[candidate];
+	    }
+
+	    if (bestLength < MIN_MATCH) {
+		i++;
+		continue;
+	    }
+
+	    op = writeSequence(src, anchor, i - anchor, bestOffset, bestLength,
+		    dst, op);
+	    int end = i + bestLength;
+	    if (prev != null) {
+		// index the positions covered by the match as well
+		for (int j = i + 1; j < end && j <= limit; j++) {
+		    h = hash(src, j);
+		    prev[j] = head[h];
+		    head[h] = j;
+		}
+	    }
+	    i = anchor = end;
+	}
+	return writeSequence(src, anchor, length - anchor, 0, 0, dst, op);
+    }
+
+    private static int hash(byte[] b, int i) {
+	int v = (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16
+		| (b[i + 3] & 0xFF) << 24;
+	return (v * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    /**
+     * Writes a sequence. A match length of 0 marks the last sequence of a
+     * block, which holds only literals.
+     */
+    private static int writeSequence(byte[] src, int anchor,
+	    int literalLength, int offset, int matchLength, byte[] dst,
+	    int op) {
+	int matchCode = (matchLength == 0 ? 0 : matchLength - MIN_MATCH);
+	int token = (Math.min(literalLength, 15) << 4)
+		| Math.min(matchCode, 15);
+	dst[op++] = (byte) token;
+	if (literalLength >= 15)
+	    op = writeLength(literalLength - 15, dst, op);
+	System.arraycopy(src, anchor, dst, op, literalLength);
+	op += literalLength;
+	if (matchLength == 0)
+	    return op;
+
+	dst[op++] = (byte) (offset >>> 8);
+	dst[op++] = (byte) offset;
+	if (matchCode >= 15)
+	    op = writeLength(matchCode - 15, dst, op);
+	return op;
+    }
+
+    private static int writeLength(int length, byte[] dst, int op) {
+	while (length >= 255) {
+	    dst[op++] = (byte) 255;
+	    length -= 255;
+	}
+	dst[op++] = (byte) length;
+	return op;
+    }
+
+    /**
+     * Decompresses a block.
+     * 
+     * @param src
+     *            The compressed data.
+     * @param srcLength
+     *            The number of compressed bytes.
+     * @param dst
+     *            The output.
+     * @param dstLength
+     *            The expected number of bytes.
+     * @throws IOException
+     *             if the block is corrupt.
+     */
+    static void decompressBlock(byte[] src, int srcLength, byte[] dst,
+	    int dstLength) throws IOException {
+	int ip = 0, op = 0;
+	try {
+	    while (true) {
+		int token = src[ip++] & 0xFF;
+		int literalLength = token >>> 4;
+		if (literalLength == 15) {
+		    int b;
+		    do {
+			b = src[ip++] & 0xFF;
+			literalLength += b;
+		    } while (b == 255);
+		}
+		if (ip + literalLength > srcLength
+			|| op + literalLength > dstLength)
+		    throw new IOException("Corrupt LZ block.");
+		System.arraycopy(src, ip, dst, op, literalLength);
+		ip += literalLength;
+		op += literalLength;
+		if (ip == srcLength)
+		    break;
+
+		int offset = (src[ip] & 0xFF) << 8 | (src[ip + 1] & 0xFF);
+		ip += 2;
+		int matchLength = token & 0x0F;
+		if (matchLength == 15) {
+		    int b;
+		    do {
+			b = src[ip++] & 0xFF;
+			matchLength += b;
+		    } while (b == 255);
+		}
+		matchLength += MIN_MATCH;
+		if (offset == 0 || offset > op || op + matchLength > dstLength)
+		    throw new IOException("Corrupt LZ block.");
+		int from = op - offset;
+		if (offset >= matchLength) {
+		    System.arraycopy(dst, from, dst, op, matchLength);
+		    op += matchLength;
+		} else {
+		    // the match overlaps the bytes it produces
+		    for (int end = op + matchLength; op < end;)
+			dst[op++] = dst[from++];
+		}
+	    }
+	} catch (ArrayIndexOutOfBoundsException e) {
+	    throw new IOException("Corrupt LZ block.", e);
+	}
+	if (op != dstLength)
+	    throw new IOException("Corrupt LZ block.");
+    }
+
+    private class LZOutputStream extends OutputStream {
+
+	private final OutputStream out;
+	private final byte[] block;
+	private byte[] compressed;
+	private int[] head, prev;
+	private int count;
+	private boolean closed;
+
+	public LZOutputStream(OutputStream out) throws IOException {
+	    this.out = out;
+	    this.block = new byte[getBufferSize()];
+	    out.write(MAGIC);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+	    if (count == block.length)
+		writeBlock();
+	    block[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+	    while (len > 0) {
+		if (count == block.length)
+		    writeBlock();
+		int n = Math.min(len, block.length - count);
+		System.arraycopy(b, off, block, count, n);
+		count += n;
+		off += n;
+		len -= n;
+	    }
+	}
+
+	private void writeBlock() throws IOException {
+	    if (count == 0)
+		return;
+
+	    int length = 0;
+	    int level = getLevel();
+	    if (level > 0) {
+		if (compressed == null) {
+		    compressed = new byte[maxCompressedLength(block.length)];
+		    head = new int[1 << HASH_BITS];
+		    if (level > 1)
+			prev = new int[block.length];
+		}
+		length = compressBlock(block, count, compressed, head, prev,
+			1 << (level - 1));
+	    }
+
+	    writeInt(count);
+	    if (level == 0 || length >= count) {
+		writeInt(count);
+		out.write(block, 0, count);
+	    } else {
+		writeInt(length);
+		out.write(compressed, 0, length);
+	    }
+	    count = 0;
+	}
+
+	private void writeInt(int v) throws IOException {
+	    out.write(v >>> 24);
+	    out.write(v >>> 16);
+	    out.write(v >>> 8);
+	    out.write(v);
+	}
+
+	@Override
+	public void flush() throws IOException {
+	    writeBlock();
+	    out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+	    if (closed)
+		return;
+	    closed = true;
+	    try {
+		writeBlock();
+		writeInt(0);
+	    } finally {
+		out.close();
+	    }
+	}
+
+    }
+
+    private static class LZInputStream extends InputStream {
+
+	private final DataInputStream in;
+	private byte[] block = new byte[0];
+	private byte[] compressed = new byte[0];
+	private int position, count;
+	private boolean finished;
+
+	public LZInputStream(InputStream in) throws IOException {
+	    this.in = new DataInputStream(in);
+	    byte[] magic = new byte[MAGIC.length];
+	    this.in.readFully(magic);
+	    if (!Arrays.equals(magic, MAGIC))
+		throw new IOException("Not an LZ stream.");
+	}
+
+	/**
+	 * Reads the next block.
+	 * 
+	 * @return <code>false</code> at the end of the stream
+	 */
+	private boolean fill() throws IOException {
+	    if (finished)
+		return false;
+
+	    int length = in.readInt();
+	    if (length == 0) {
+		finished = true;
+		return false;
+	    }
+	    int compressedLength = in.readInt();
+	    if (length < 0 || compressedLength <= 0
+		    || compressedLength > maxCompressedLength(length))
+		throw new IOException("Corrupt LZ block header.");
+
+	    if (block.length < length)
+		block = new byte[length];
+	    if (compressedLength == length) {
+		in.readFully(block, 0, length);
+	    } else {
+		if (compressed.length < compressedLength)
+		    compressed = new byte[compressedLength];
+		in.readFully(compressed, 0, compressedLength);
+		decompressBlock(compressed, compressedLength, block, length);
+	    }
+	    position = 0;
+	    count = length;
+	    return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+	    if (position == count && !fill())
+		return -1;
+	    return block[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+	    if (len == 0)
+		return 0;
+	    if (position == count && !fill())
+		return -1;
+	    int n = Math.min(len, count - position);
+	    System.arraycopy(block, position, b, off, n);
+	    position += n;
+	    return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+	    long skipped = 0;
+	    while (skipped < n) {
+		if (position == count && !fill())
+		    break;
+		int step = (int) Math.min(n - skipped, count - position);
+		position += step;
+		skipped += step;
+	    }
+	    return skipped;
+	}
+
+	@Override
+	public int available() {
+	    return count - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+	    in.close();
+	}
+
+    }
+
+}
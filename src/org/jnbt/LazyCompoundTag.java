@@ -0,0 +1,395 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * <p>
+ * A <code>TAG_Compound</code> which keeps its encoded payload and decodes each
+ * child the first time it is reached through {@link #getChild(int)} or
+ * {@link #search(String)}. Child compounds are themselves lazy, so expanding
+ * one node of a large tree decodes only the path to it.
+ * </p>
+ * 
+ * <p>
+ * The first call to {@link #getValue()}, including any modification through
+ * {@link #add(Tag)} or {@link #remove(int)}, decodes every child that is
+ * still encoded, after which the tag behaves like any other
+ * <code>CompoundTag</code>. So does {@link #equals(Object)} or
+ * {@link #hashCode()}, since a lazy compound is equal to any compound with
+ * the same name and children.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see NBTInputStream#readLazyTag()
+ */
+public class LazyCompoundTag extends CompoundTag {
+
+    /**
+     * The encoded children, or <code>null</code> once they have all been
+     * decoded.
+     */
+    private ByteBuffer payload;
+
+    /**
+     * The offset index, built on first access.
+     */
+    private String[] names;
+    private byte[] types;
+    private int[] heads, starts, ends;
+    private Tag<?>[] children;
+
+    /**
+     * The table used to share the names of children, or <code>null</code>.
+     */
+    private final NBTSymbolTable symbols;
+
+    /**
+     * Creates the tag.
+     * 
+     * @param name
+     *            The name.
+     * @param payload
+     *            The encoded children of the compound, including the
+     *            terminating <code>TAG_End</code>.
+     */
+    public LazyCompoundTag(String name, ByteBuffer payload) {
+	this(name, payload, null);
+    }
+
+    /**
+     * Creates the tag.
+     * 
+     * @param name
+     *            The name.
+     * @param payload
+     *            The encoded children of the compound, including the
+     *            terminating <code>TAG_End</code>.
+     * @param symbols
+     *            The table used to decode the names of children, or
+     *            <code>null</code>.
+     */
+    public LazyCompoundTag(String name, ByteBuffer payload,
+	    NBTSymbolTable symbols) {
+	super(name);
+	this.payload = payload.slice();
+	this.symbols = symbols;
+    }
+
+    /**
+     * Returns <code>true</code> until every child has been decoded.
+     * 
+     * @return whether this tag still holds encoded children
+     */
+    public synchronized boolean isLazy() {
+	return (payload != null);
+    }
+
+    private void index() {
+	if (names != null)
+	    return;
+
+	int capacity = 8;
+	String[] names = new String[capacity];
+	byte[] types = new byte[capacity];
+	int[] heads = new int[capacity], starts = new int[capacity];
+	int[] ends = new int[capacity];
+	int count = 0;
+
+	NBTBufferDecoder decoder = new NBTBufferDecoder(payload);
+	decoder.setSymbolTable(symbols);
+	try {
+	    while (true) {
+		int head = decoder.position();
+		int type = decoder.readType();
+		if (type == NBTConstants.TYPE_END)
+		    break;
+
+		if (count == capacity) {
+		    capacity *= 2;
+		    names = Arrays.copyOf(names, capacity);
+		    types = Arrays.copyOf(types, capacity);
+		    heads = Arrays.copyOf(heads, capacity);
+		    starts = Arrays.copyOf(starts, capacity);
+		    ends = Arrays.copyOf(ends, capacity);
+		}
+		names[count] = decoder.readName();
+		types[count] = (byte) type;
+		heads[count] = head;
+		starts[count] = decoder.position();
+		decoder.skipTagPayload(type);
+		ends[count] = decoder.position();
+		count++;
+	    }
+	} catch (Exception e) {
+	    // IOException, BufferUnderflowException, IllegalArgumentException
+	    throw new IllegalStateException("corrupt compound \"" + getName()
+		    + "\"", e);
+	}
+
+	this.names = Arrays.copyOf(names, count);
+	this.types = Arrays.copyOf(types, count);
+	this.heads = Arrays.copyOf(heads, count);
+	this.starts = Arrays.copyOf(starts, count);
+	this.ends = Arrays.copyOf(ends, count);
+	this.children = new Tag<?>[count];
+    }
+
+    private Tag<?> decode(int index) {
+	index();
+	Tag<?> child = children[index];
+	if (child == null) {
+	    ByteBuffer slice = payload.duplicate();
+	    slice.limit(ends[index]);
+	    slice.position(starts[index]);
+
+	    int type = types[index];
+	    String name = names[index];
+	    if (type == NBTConstants.TYPE_COMPOUND) {
+		child = new LazyCompoundTag(name, slice, symbols);
+	    } else {
+		try {
+		    NBTBufferDecoder decoder = new NBTBufferDecoder(slice);
+		    decoder.setSymbolTable(symbols);
+		    child = decoder.readTagPayload(type, name);
+		} catch (Exception e) {
+		    throw new IllegalStateException("corrupt tag \"" + name
+			    + "\"", e);
+		}
+	    }
+	    children[index] = child;
+	    adopt(child);
+	}
+	return child;
+    }
+
+    @Override
+    public synchronized Map<String, Tag<?>> getValue() {
+	if (payload != null) {
+	    index();
+	    Map<String, Tag<?>> map = new IndexedMap<Tag<?>>(names.length);
+	    for (int i = 0; i < names.length; i++)
+		map.put(names[i], decode(i));
+	    payload = null;
+	    names = null;
+	    types = null;
+	    heads = starts = ends = null;
+	    children = null;
+	    // the children are already adopted, and decoding them is no change
+	    initValue(map);
+	}
+	return super.getValue();
+    }
+
+    @Override
+    public synchronized void setValue(Map<String, Tag<?>> value) {
+	if (children != null) {
+	    for (Tag<?> child : children) {
+		if (child != null)
+		    orphan(child);
+	    }
+	}
+	payload = null;
+	names = null;
+	types = null;
+	heads = starts = ends = null;
+	children = null;
+	super.setValue(value);
+    }
+
+    /**
+     * Writes the payload of this compound, copying children that have not been
+     * decoded straight from the encoded payload.
+     * 
+     * @param out
+     *            The stream to write decoded children to.
+     * @param os
+     *            The underlying output.
+     * @return <code>false</code> if every child has been decoded, in which case
+     *         nothing was written
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    synchronized boolean writePayload(NBTOutputStream out, DataOutput os)
+	    throws IOException {
+	if (payload == null)
+	    return false;
+
+	index();
+	for (int i = 0; i < names.length; i++) {
+	    if (children[i] == null) {
+		ByteBuffer slice = payload.duplicate();
+		slice.limit(ends[i]);
+		slice.position(heads[i]);
+		NBTOutputStream.write(os, slice);
+	    } else {
+		out.writeTag(children[i]);
+	    }
+	}
+	os.writeByte(NBTConstants.TYPE_END);
+	return true;
+    }
+
+    /**
+     * Gets the encoded size of the payload of this compound, counting children
+     * that have not been decoded by the length of their encoding.
+     * 
+     * @return the size, or <code>-1</code> if every child has been decoded
+     * @see NBTBufferEncoder#encodedSize(Tag)
+     */
+    synchronized int getPayloadSize() {
+	if (payload == null)
+	    return -1;
+
+	index();
+	int size = 1;
+	for (int i = 0; i < names.length; i++) {
+	    if (children[i] == null) {
+		size += ends[i] - heads[i];
+	    } else {
+		size += NBTBufferEncoder.encodedSize(children[i]);
+	    }
+	}
+	return size;
+    }
+
+    /**
+     * Writes the payload of this compound to an encoder, copying children that
+     * have not been decoded straight from the encoded payload.
+     * 
+     * @param encoder
+     *            The encoder.
+     * @return <code>false</code> if every child has been decoded, in which case
+     *         nothing was written
+     */
+    synchronized boolean writePayload(NBTBufferEncoder encoder) {
+	if (payload == null)
+	    return false;
+
+	index();
+	for (int i = 0; i < names.length; i++) {
+	    if (children[i] == null) {
+		ByteBuffer slice = payload.duplicate();
+		slice.limit(ends[i]);
+		slice.position(heads[i]);
+		encoder.put(slice);
+	    } else {
+		encoder.writeTag(children[i]);
+	    }
+	}
+	encoder.put((byte) NBTConstants.TYPE_END);
+	return true;
+    }
+
+    @Override
+    public synchronized Object getChild(int index) {
+	if (payload == null)
+	    return super.getChild(index);
+	return decode(index);
+    }
+
+    @Override
+    public synchronized int getChildCount() {
+	if (payload == null)
+	    return super.getChildCount();
+	index();
+	return names.length;
+    }
+
+    @Override
+    public synchronized int getIndexOfChild(Object child) {
+	if (payload == null)
+	    return super.getIndexOfChild(child);
+	if (child != null) {
+	    index();
+	    // a child that has not been decoded cannot have been handed out
+	    for (int i = 0; i < children.length; i++) {
+		if (children[i] != null && children[i].equals(child))
+		    return i;
+	    }
+	}
+	return -1;
+    }
+
+    @Override
+    public synchronized Tag<?> getChild(String name) {
+	if (payload == null)
+	    return super.getChild(name);
+	index();
+	for (int i = 0; i < names.length; i++) {
+	    if (name.equals(names[i]))
+		return decode(i);
+	}
+	return null;
+    }
+
+    @Override
+    public synchronized Tag<?> search(String name) {
+	if (payload == null)
+	    return super.search(name);
+	index();
+	for (int i = 0; i < names.length; i++) {
+	    if (name.equals(names[i])) {
+		return decode(i);
+	    } else if (types[i] == NBTConstants.TYPE_COMPOUND) {
+		Searchable searchable = (Searchable) decode(i);
+		Tag<?> tag = searchable.search(name);
+		if (tag != null)
+		    return tag;
+	    }
+	}
+	return null;
+    }
+
+    @Override
+    public Object getValueAt(int column) {
+	switch (column) {
+	case COLUMN_VALUE:
+	    int size = getChildCount();
+	    return size + (size != 0 && size > 1 ? " entries" : " entry");
+	default:
+	    return super.getValueAt(column);
+	}
+    }
+
+    /**
+     * Marks this compound and the children that have been decoded, without
+     * decoding the rest.
+     */
+    @Override
+    public synchronized void mark() {
+	if (payload == null) {
+	    super.mark();
+	    return;
+	}
+	if (!hasChanged())
+	    return;
+	clearChanged();
+	if (children != null) {
+	    for (Tag<?> child : children) {
+		if (child != null && child.hasChanged())
+		    child.mark();
+	    }
+	}
+    }
+
+}
@@ -72,6 +72,24 @@ public class ListTag<E extends Tag<?>> extends Tag<List<E>> implements
 	setType(type);
     }
 
+    /**
+     * Creates a list of the specified type code.
+     * 
+     * @param name
+     *            The name.
+     * @param items
+     *            The items, which must be of the type.
+     * @param type
+     *            The type code.
+     * @return The list.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    static ListTag<?> newInstance(String name, List<Tag<?>> items, int type) {
+	// the registry maps type codes to raw classes
+	Class c = NBTUtils.getTypeClass(type);
+	return new ListTag(name, items, c);
+    }
+
     /**
      * Gets the type of item in this list.
      * 
@@ -86,6 +104,18 @@ public class ListTag<E extends Tag<?>> extends Tag<List<E>> implements
 	this.type = type;
     }
 
+    @Override
+    public void setValue(List<E> value) {
+	List<E> old = peekValue();
+	if (old != null && old != value) {
+	    for (E item : old)
+		orphan(item);
+	}
+	super.setValue(value);
+	for (E item : getValue())
+	    adopt(item);
+    }
+
     @Override
     protected List<E> createDefaultValue() {
 	return new ArrayList<E>();
@@ -100,18 +130,34 @@ public class ListTag<E extends Tag<?>> extends Tag<List<E>> implements
     public void add(E value) {
 	List list = (List) getValue();
 	list.add(value);
+	adopt(value);
+	setChanged();
     }
 
     @Override
     public void add(int index, E value) {
 	List list = (List) getValue();
 	list.add(index, value);
+	adopt(value);
+	setChanged();
     }
 
     @Override
     public void remove(int index) {
 	List<? extends Tag<?>> list = getValue();
-	list.remove(index);
+	orphan(list.remove(index));
+	setChanged();
+    }
+
+    @Override
+    public void mark() {
+	if (!hasChanged())
+	    return;
+	super.mark();
+	for (E item : getValue()) {
+	    if (item.hasChanged())
+		item.mark();
+	}
     }
 
     @Override
@@ -158,7 +204,14 @@ public class ListTag<E extends Tag<?>> extends Tag<List<E>> implements
 
     @Override
     public String toString() {
-	StringBuilder sb = new StringBuilder(TAG_NAME);
+	StringBuilder sb = new StringBuilder();
+	appendTo(sb, "");
+	return sb.toString();
+    }
+
+    @Override
+    void appendTo(StringBuilder sb, String indent) {
+	sb.append(TAG_NAME);
 	String name = getName();
 	if (!name.isEmpty())
 	    sb.append("(\"").append(name).append("\")");
@@ -167,14 +220,44 @@ public class ListTag<E extends Tag<?>> extends Tag<List<E>> implements
 	Class<E> type = getType();
 	String typeName = NBTUtils.getTypeName(type);
 	sb.append(": ").append(size).append(" entries of type ")
-		.append(typeName).append("\r\n{\r\n");
+		.append(typeName).append("\r\n").append(indent).append("{\r\n");
+	String childIndent = indent + "   ";
 	for (Tag<?> tag : value) {
-	    String s = tag.toString();
-	    s = s.replaceAll("\r\n", "\r\n   ");
-	    sb.append("   ").append(s).append("\r\n");
+	    sb.append(childIndent);
+	    tag.appendTo(sb, childIndent);
+	    sb.append("\r\n");
 	}
-	sb.append("}");
-	return sb.toString();
+	sb.append(indent).append("}");
+    }
+
+    @Override
+    public int hashCode() {
+	final int prime = 31;
+	int result = 1;
+	String name = getName();
+	result = prime * result + ((name == null) ? 0 : name.hashCode());
+	result = prime * result + getValue().hashCode();
+	return result;
+    }
+
+    /**
+     * Compares the names and items of two lists, however either stores its
+     * items.
+     */
+    @Override
+    public boolean equals(Object obj) {
+	if (this == obj)
+	    return true;
+	if (!(obj instanceof ListTag))
+	    return false;
+	ListTag<?> other = (ListTag<?>) obj;
+	String name = getName();
+	if (name == null) {
+	    if (other.getName() != null)
+		return false;
+	} else if (!name.equals(other.getName()))
+	    return false;
+	return getValue().equals(other.getValue());
     }
 
 }
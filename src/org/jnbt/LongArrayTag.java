@@ -0,0 +1,217 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.ArrayUtils;
+
+import com.nbt.NBTBranch;
+import com.nbt.NBTNode;
+
+/**
+ * The <code>TAG_Long_Array</code> tag.
+ * 
+ * @author Taggart Spilman
+ */
+public class LongArrayTag extends Tag<long[]> implements Mutable<Long>,
+	NBTBranch {
+
+    public static final String TAG_NAME = "TAG_Long_Array";
+    public static final int TAG_TYPE = 12;
+
+    public LongArrayTag(String name) {
+	super(name);
+    }
+
+    public LongArrayTag(String name, long[] value) {
+	super(name, value);
+    }
+
+    @Override
+    protected long[] createDefaultValue() {
+	return new long[] {};
+    }
+
+    @Override
+    public int getTagType() {
+	return TAG_TYPE;
+    }
+
+    @Override
+    public void add(Long l) {
+	long[] value = getValue();
+	setValue(ArrayUtils.add(value, l == null ? 0 : l));
+    }
+
+    @Override
+    public void add(int index, Long l) {
+	long[] value = getValue();
+	setValue(ArrayUtils.add(value, index, l == null ? 0 : l));
+    }
+
+    @Override
+    public void remove(int index) {
+	long[] value = getValue();
+	setValue(ArrayUtils.remove(value, index));
+    }
+
+    @Override
+    public boolean isCellEditable(int column) {
+	return false;
+    }
+
+    @Override
+    public Object getValueAt(int column) {
+	switch (column) {
+	case COLUMN_VALUE:
+	    long[] longs = getValue();
+	    return longs.length + " longs";
+	default:
+	    return super.getValueAt(column);
+	}
+    }
+
+    @Override
+    public Object getChild(int index) {
+	return new LongWrapper(index);
+    }
+
+    @Override
+    public int getChildCount() {
+	long[] value = getValue();
+	return value.length;
+    }
+
+    @Override
+    public int getIndexOfChild(Object child) {
+	if (child instanceof LongWrapper) {
+	    LongWrapper wrapper = (LongWrapper) child;
+	    return wrapper.getIndex();
+	}
+	return -1;
+    }
+
+    @Override
+    public int hashCode() {
+	final int prime = 31;
+	int result = 1;
+	String name = getName();
+	result = prime * result + ((name == null) ? 0 : name.hashCode());
+	result = prime * result + Arrays.hashCode(getValue());
+	return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+	if (this == obj)
+	    return true;
+	if (obj == null)
+	    return false;
+	if (getClass() != obj.getClass())
+	    return false;
+	LongArrayTag other = (LongArrayTag) obj;
+	if (!getName().equals(other.getName()))
+	    return false;
+	return Arrays.equals(getValue(), other.getValue());
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder sb = new StringBuilder(TAG_NAME);
+	String name = getName();
+	if (!name.isEmpty())
+	    sb.append("(\"").append(name).append("\")");
+	sb.append(":");
+	for (long l : getValue())
+	    sb.append(" ").append(l);
+	return sb.toString();
+    }
+
+    public class LongWrapper implements NBTNode {
+
+	private final int index;
+
+	public LongWrapper(int index) {
+	    this.index = index;
+	}
+
+	public LongArrayTag getTag() {
+	    return LongArrayTag.this;
+	}
+
+	public int getIndex() {
+	    return this.index;
+	}
+
+	@Override
+	public boolean isCellEditable(int column) {
+	    switch (column) {
+	    case NBTNode.COLUMN_VALUE:
+		return true;
+	    }
+	    return false;
+	}
+
+	@Override
+	public Object getValueAt(int column) {
+	    switch (column) {
+	    case NBTNode.COLUMN_KEY:
+		return index;
+	    case NBTNode.COLUMN_VALUE:
+		long[] longs = getValue();
+		return longs[index];
+	    }
+	    return null;
+	}
+
+	@Override
+	public void setValueAt(Object value, int column) {
+	    switch (column) {
+	    case NBTNode.COLUMN_VALUE:
+		if (value instanceof Number) {
+		    long[] longs = getValue();
+		    longs[index] = ((Number) value).longValue();
+		    setChanged();
+		}
+	    }
+	}
+
+	@Override
+	public int hashCode() {
+	    return 31 * System.identityHashCode(getTag()) + index;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (this == obj)
+		return true;
+	    if (obj == null)
+		return false;
+	    if (getClass() != obj.getClass())
+		return false;
+	    LongWrapper other = (LongWrapper) obj;
+	    if (getTag() != other.getTag())
+		return false;
+	    if (index != other.index)
+		return false;
+	    return true;
+	}
+
+    }
+
+}
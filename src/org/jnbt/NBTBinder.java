@@ -0,0 +1,662 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Binds compounds to objects of a class whose fields are annotated with
+ * {@link NBTField}, reading straight from an {@link NBTReader} and writing
+ * straight to an {@link NBTOutputStream} without creating any tags.
+ * </p>
+ * 
+ * <p>
+ * Each class is compiled once into a tree of the names it binds, with method
+ * handles to create an object and to get and set each field, so binding an
+ * object costs one lookup per tag and no reflection. Tags that are not bound
+ * are skipped without being decoded.
+ * </p>
+ * 
+ * <p>
+ * A field may be a primitive or its wrapper, a <code>String</code>, a
+ * <code>byte[]</code>, <code>int[]</code> or <code>long[]</code>, another
+ * class with annotated fields, which is bound to a compound, or a
+ * <code>List</code> of any of these. A <code>boolean</code> is bound to a
+ * <code>TAG_Byte</code>. Numbers are read into a field of any numeric type,
+ * though a floating point number is only read into a <code>float</code> or
+ * <code>double</code>. Fields that are <code>null</code> are not written.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see NBTField
+ */
+public final class NBTBinder<T> {
+
+    private static final Map<Class<?>, NBTBinder<?>> binders = new HashMap<Class<?>, NBTBinder<?>>();
+
+    private final Class<T> type;
+    private MethodHandle constructor;
+    private final Group root = new Group("");
+    private int fieldCount;
+
+    private NBTBinder(Class<T> type) {
+	this.type = type;
+    }
+
+    /**
+     * Gets the binder for a class, compiling it the first time.
+     * 
+     * @param type
+     *            The class, which must have a constructor without arguments.
+     * @return The binder.
+     * @throws IllegalArgumentException
+     *             if the class or one of its annotated fields cannot be
+     *             bound.
+     */
+    public static synchronized <T> NBTBinder<T> of(Class<T> type) {
+	@SuppressWarnings("unchecked")
+	NBTBinder<T> binder = (NBTBinder<T>) binders.get(type);
+	if (binder == null) {
+	    binder = new NBTBinder<T>(type);
+	    // registered first, so that a class may contain itself
+	    binders.put(type, binder);
+	    try {
+		binder.compile();
+	    } catch (RuntimeException e) {
+		binders.remove(type);
+		throw e;
+	    }
+	}
+	return binder;
+    }
+
+    private void compile() {
+	MethodHandles.Lookup lookup = MethodHandles.lookup();
+	try {
+	    Constructor<T> c = type.getDeclaredConstructor();
+	    c.setAccessible(true);
+	    constructor = lookup.unreflectConstructor(c).asType(
+		    MethodType.methodType(Object.class));
+	} catch (NoSuchMethodException e) {
+	    throw new IllegalArgumentException(type.getName()
+		    + " has no constructor without arguments");
+	} catch (IllegalAccessException e) {
+	    throw new IllegalArgumentException(e);
+	}
+
+	// the fields of superclasses come first
+	List<Class<?>> classes = new ArrayList<Class<?>>();
+	for (Class<?> c = type; c != null && c != Object.class; c = c
+		.getSuperclass())
+	    classes.add(0, c);
+	for (Class<?> c : classes) {
+	    for (Field field : c.getDeclaredFields()) {
+		NBTField annotation = field.getAnnotation(NBTField.class);
+		if (annotation != null)
+		    bind(lookup, field, annotation.value());
+	    }
+	}
+	if (fieldCount == 0)
+	    throw new IllegalArgumentException(type.getName()
+		    + " has no fields annotated with @NBTField");
+    }
+
+    private void bind(MethodHandles.Lookup lookup, Field field, String path) {
+	String description = field.getDeclaringClass().getName() + "."
+		+ field.getName();
+	int modifiers = field.getModifiers();
+	if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers))
+	    throw new IllegalArgumentException(description
+		    + " must not be static or final");
+	if (path.isEmpty())
+	    path = field.getName();
+
+	String[] names = path.split("\\.", -1);
+	Group group = root;
+	for (int i = 0; i < names.length; i++) {
+	    String name = names[i];
+	    if (name.isEmpty())
+		throw new IllegalArgumentException(description
+			+ " has an empty name in its path \"" + path + "\"");
+	    Object child = group.children.get(name);
+	    if (i < names.length - 1) {
+		if (child instanceof Binding)
+		    throw new IllegalArgumentException(description
+			    + " is within a tag bound to another field");
+		if (child == null)
+		    group.children.put(name, child = new Group(name));
+		group = (Group) child;
+	    } else {
+		if (child != null)
+		    throw new IllegalArgumentException(description
+			    + " is bound to the path of another field");
+		Value value = value(field.getType(), field.getGenericType(),
+			description);
+		try {
+		    group.children.put(name, new Binding(lookup, name, field,
+			    value));
+		} catch (IllegalAccessException e) {
+		    throw new IllegalArgumentException(e);
+		}
+	    }
+	}
+	fieldCount++;
+    }
+
+    private static Value value(Class<?> c, Type generic, String description) {
+	if (c == byte.class || c == Byte.class)
+	    return new Value(NBTConstants.TYPE_BYTE);
+	if (c == boolean.class || c == Boolean.class) {
+	    Value value = new Value(NBTConstants.TYPE_BYTE);
+	    value.bool = true;
+	    return value;
+	}
+	if (c == short.class || c == Short.class)
+	    return new Value(NBTConstants.TYPE_SHORT);
+	if (c == int.class || c == Integer.class)
+	    return new Value(NBTConstants.TYPE_INT);
+	if (c == long.class || c == Long.class)
+	    return new Value(NBTConstants.TYPE_LONG);
+	if (c == float.class || c == Float.class)
+	    return new Value(NBTConstants.TYPE_FLOAT);
+	if (c == double.class || c == Double.class)
+	    return new Value(NBTConstants.TYPE_DOUBLE);
+	if (c == String.class)
+	    return new Value(NBTConstants.TYPE_STRING);
+	if (c == byte[].class)
+	    return new Value(NBTConstants.TYPE_BYTE_ARRAY);
+	if (c == int[].class)
+	    return new Value(NBTConstants.TYPE_INT_ARRAY);
+	if (c == long[].class)
+	    return new Value(NBTConstants.TYPE_LONG_ARRAY);
+	if (c == List.class) {
+	    if (generic instanceof ParameterizedType) {
+		Type item = ((ParameterizedType) generic)
+			.getActualTypeArguments()[0];
+		if (item instanceof Class) {
+		    Value value = new Value(NBTConstants.TYPE_LIST);
+		    value.item = value((Class<?>) item, item, description);
+		    return value;
+		}
+	    }
+	    throw new IllegalArgumentException(description
+		    + " must be a list of a class");
+	}
+	if (c.isPrimitive() || c.isArray() || c.isInterface())
+	    throw new IllegalArgumentException(description
+		    + " has an unsupported type: " + c.getName());
+	Value value = new Value(NBTConstants.TYPE_COMPOUND);
+	value.binder = of(c);
+	return value;
+    }
+
+    /**
+     * Gets the class this binder creates.
+     * 
+     * @return The class.
+     */
+    public Class<T> getType() {
+	return type;
+    }
+
+    /**
+     * Binds the compound the reader is positioned on, reading it to its end.
+     * 
+     * @param reader
+     *            The reader, on which {@link NBTReader#next()} has just
+     *            returned <code>TAG_Compound</code>.
+     * @return The object.
+     * @throws IOException
+     *             if an I/O error occurs, or a tag does not have the type of
+     *             the field it is bound to.
+     */
+    public T read(NBTReader reader) throws IOException {
+	return read(reader, false);
+    }
+
+    /**
+     * Binds the compound the reader is positioned on, returning as soon as
+     * every field has been read. The reader is left within the compound, so
+     * this suits reading the head of a stream that is then discarded.
+     * 
+     * @param reader
+     *            The reader, on which {@link NBTReader#next()} has just
+     *            returned <code>TAG_Compound</code>.
+     * @return The object, whose fields for tags that were not found are left
+     *         as the constructor set them.
+     * @throws IOException
+     *             if an I/O error occurs, or a tag does not have the type of
+     *             the field it is bound to.
+     */
+    public T readFields(NBTReader reader) throws IOException {
+	return read(reader, true);
+    }
+
+    private T read(NBTReader reader, boolean partial) throws IOException {
+	try {
+	    checkType(reader, NBTConstants.TYPE_COMPOUND);
+	    Object object = (Object) constructor.invokeExact();
+	    readGroup(reader, root, object, partial ? fieldCount : -1);
+	    return type.cast(object);
+	} catch (Throwable t) {
+	    throw propagate(t);
+	}
+    }
+
+    /**
+     * Reads the children of a compound into the fields bound to them.
+     * 
+     * @param remaining
+     *            The number of fields to read before returning, or
+     *            <code>-1</code> to read to the end of the compound.
+     * @return The number of fields still to be read.
+     */
+    private int readGroup(NBTReader reader, Group group, Object object,
+	    int remaining) throws Throwable {
+	int type;
+	while (remaining != 0
+		&& (type = reader.next()) != NBTConstants.TYPE_END) {
+	    Object child = group.children.get(reader.name());
+	    if (child instanceof Binding) {
+		((Binding) child).read(reader, object);
+		if (remaining > 0)
+		    remaining--;
+	    } else if (child != null && type == NBTConstants.TYPE_COMPOUND) {
+		remaining = readGroup(reader, (Group) child, object, remaining);
+	    } else {
+		reader.skipValue();
+	    }
+	}
+	return remaining;
+    }
+
+    private Object readCompound(NBTReader reader) throws Throwable {
+	Object object = (Object) constructor.invokeExact();
+	readGroup(reader, root, object, -1);
+	return object;
+    }
+
+    /**
+     * Writes an object as a compound.
+     * 
+     * @param out
+     *            The stream.
+     * @param name
+     *            The name of the compound.
+     * @param object
+     *            The object.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void write(NBTOutputStream out, String name, T object)
+	    throws IOException {
+	NBTDataOutput os = out.getDataOutput();
+	os.writeByte(NBTConstants.TYPE_COMPOUND);
+	writeString(os, name);
+	try {
+	    writeGroup(os, root, object);
+	} catch (Throwable t) {
+	    throw propagate(t);
+	}
+    }
+
+    private void writeGroup(NBTDataOutput out, Group group, Object object)
+	    throws Throwable {
+	for (Object child : group.children.values()) {
+	    if (child instanceof Binding) {
+		((Binding) child).write(out, object);
+	    } else {
+		Group g = (Group) child;
+		if (g.isEmpty(object))
+		    continue;
+		out.writeByte(NBTConstants.TYPE_COMPOUND);
+		writeName(out, g.name);
+		writeGroup(out, g, object);
+	    }
+	}
+	out.writeByte(NBTConstants.TYPE_END);
+    }
+
+    private static Object readValue(NBTReader reader, Value value)
+	    throws Throwable {
+	switch (value.type) {
+	case NBTConstants.TYPE_BYTE:
+	    byte b = (byte) readIntegral(reader);
+	    return (value.bool ? Boolean.valueOf(b != 0) : Byte.valueOf(b));
+	case NBTConstants.TYPE_SHORT:
+	    return Short.valueOf((short) readIntegral(reader));
+	case NBTConstants.TYPE_INT:
+	    return Integer.valueOf((int) readIntegral(reader));
+	case NBTConstants.TYPE_LONG:
+	    return Long.valueOf(readIntegral(reader));
+	case NBTConstants.TYPE_FLOAT:
+	    return Float.valueOf((float) readReal(reader));
+	case NBTConstants.TYPE_DOUBLE:
+	    return Double.valueOf(readReal(reader));
+	case NBTConstants.TYPE_STRING:
+	    checkType(reader, NBTConstants.TYPE_STRING);
+	    return reader.stringValue();
+	case NBTConstants.TYPE_BYTE_ARRAY:
+	    checkType(reader, NBTConstants.TYPE_BYTE_ARRAY);
+	    return reader.byteArrayValue();
+	case NBTConstants.TYPE_INT_ARRAY:
+	    checkType(reader, NBTConstants.TYPE_INT_ARRAY);
+	    return reader.intArrayValue();
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    checkType(reader, NBTConstants.TYPE_LONG_ARRAY);
+	    return reader.longArrayValue();
+	case NBTConstants.TYPE_COMPOUND:
+	    checkType(reader, NBTConstants.TYPE_COMPOUND);
+	    return value.binder.readCompound(reader);
+	default:
+	    checkType(reader, NBTConstants.TYPE_LIST);
+	    List<Object> list = new ArrayList<Object>(Math.min(
+		    reader.listLength(), 1024));
+	    while (reader.next() != NBTConstants.TYPE_END)
+		list.add(readValue(reader, value.item));
+	    return list;
+	}
+    }
+
+    private static long readIntegral(NBTReader reader) throws IOException {
+	switch (reader.tagType()) {
+	case NBTConstants.TYPE_BYTE:
+	    return reader.byteValue();
+	case NBTConstants.TYPE_SHORT:
+	    return reader.shortValue();
+	case NBTConstants.TYPE_INT:
+	    return reader.intValue();
+	case NBTConstants.TYPE_LONG:
+	    return reader.longValue();
+	default:
+	    throw new IOException("Expected an integer for \"" + reader.name()
+		    + "\" but found "
+		    + NBTUtils.getTypeName(reader.tagType()) + ".");
+	}
+    }
+
+    private static double readReal(NBTReader reader) throws IOException {
+	switch (reader.tagType()) {
+	case NBTConstants.TYPE_FLOAT:
+	    return reader.floatValue();
+	case NBTConstants.TYPE_DOUBLE:
+	    return reader.doubleValue();
+	default:
+	    return readIntegral(reader);
+	}
+    }
+
+    private static void checkType(NBTReader reader, int type)
+	    throws IOException {
+	if (reader.tagType() != type)
+	    throw new IOException("Expected " + NBTUtils.getTypeName(type)
+		    + " for \"" + reader.name() + "\" but found "
+		    + NBTUtils.getTypeName(reader.tagType()) + ".");
+    }
+
+    private static void writeValue(NBTDataOutput out, Value value, Object v)
+	    throws Throwable {
+	switch (value.type) {
+	case NBTConstants.TYPE_BYTE:
+	    if (value.bool) {
+		out.writeByte((Boolean) v ? 1 : 0);
+	    } else {
+		out.writeByte((Byte) v);
+	    }
+	    break;
+	case NBTConstants.TYPE_SHORT:
+	    out.writeShort((Short) v);
+	    break;
+	case NBTConstants.TYPE_INT:
+	    out.writeInt((Integer) v);
+	    break;
+	case NBTConstants.TYPE_LONG:
+	    out.writeLong((Long) v);
+	    break;
+	case NBTConstants.TYPE_FLOAT:
+	    out.writeFloat((Float) v);
+	    break;
+	case NBTConstants.TYPE_DOUBLE:
+	    out.writeDouble((Double) v);
+	    break;
+	case NBTConstants.TYPE_STRING:
+	    writeString(out, (String) v);
+	    break;
+	case NBTConstants.TYPE_BYTE_ARRAY:
+	    byte[] bytes = (byte[]) v;
+	    out.writeInt(bytes.length);
+	    out.write(bytes);
+	    break;
+	case NBTConstants.TYPE_INT_ARRAY:
+	    int[] ints = (int[]) v;
+	    out.writeInt(ints.length);
+	    for (int i : ints)
+		out.writeInt(i);
+	    break;
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    long[] longs = (long[]) v;
+	    out.writeInt(longs.length);
+	    for (long l : longs)
+		out.writeLong(l);
+	    break;
+	case NBTConstants.TYPE_COMPOUND:
+	    NBTBinder<?> binder = value.binder;
+	    binder.writeGroup(out, binder.root, v);
+	    break;
+	default:
+	    List<?> list = (List<?>) v;
+	    out.writeByte(value.item.type);
+	    out.writeInt(list.size());
+	    for (Object item : list) {
+		if (item == null)
+		    throw new IllegalArgumentException(
+			    "a list must not contain null");
+		writeValue(out, value.item, item);
+	    }
+	}
+    }
+
+    private static void writeString(NBTDataOutput out, String s)
+	    throws IOException {
+	writeName(out, s.getBytes(NBTConstants.CHARSET));
+    }
+
+    private static void writeName(NBTDataOutput out, byte[] name)
+	    throws IOException {
+	out.writeStringLength(name.length);
+	out.write(name);
+    }
+
+    /**
+     * Returns a checked exception to be thrown, or throws an unchecked one.
+     * Method handles declare that they throw anything.
+     */
+    private static IOException propagate(Throwable t) {
+	if (t instanceof IOException)
+	    return (IOException) t;
+	if (t instanceof RuntimeException)
+	    throw (RuntimeException) t;
+	if (t instanceof Error)
+	    throw (Error) t;
+	throw new IllegalStateException(t);
+    }
+
+    /**
+     * The type of tag a field or item is bound to.
+     */
+    private static final class Value {
+
+	private final int type;
+	private boolean bool;
+	private NBTBinder<?> binder;
+	private Value item;
+
+	public Value(int type) {
+	    this.type = type;
+	}
+
+    }
+
+    /**
+     * A compound within the bound compound which holds bound tags.
+     */
+    private static final class Group {
+
+	private final byte[] name;
+	private final Map<String, Object> children = new LinkedHashMap<String, Object>();
+
+	public Group(String name) {
+	    this.name = name.getBytes(NBTConstants.CHARSET);
+	}
+
+	/**
+	 * Checks whether every field within this compound is
+	 * <code>null</code>, in which case the compound is not written.
+	 */
+	public boolean isEmpty(Object object) throws Throwable {
+	    for (Object child : children.values()) {
+		if (child instanceof Binding) {
+		    if (!((Binding) child).isNull(object))
+			return false;
+		} else if (!((Group) child).isEmpty(object)) {
+		    return false;
+		}
+	    }
+	    return true;
+	}
+
+    }
+
+    /**
+     * A field and the tag it is bound to. Primitive fields are read and
+     * written through handles of their own type, so they are never boxed.
+     */
+    private static final class Binding {
+
+	private final byte[] name;
+	private final Value value;
+	private final boolean primitive;
+	private final MethodHandle getter, setter;
+
+	public Binding(MethodHandles.Lookup lookup, String name, Field field,
+		Value value) throws IllegalAccessException {
+	    this.name = name.getBytes(NBTConstants.CHARSET);
+	    this.value = value;
+
+	    Class<?> c = field.getType();
+	    this.primitive = c.isPrimitive();
+	    Class<?> handleType = (primitive ? c : Object.class);
+	    field.setAccessible(true);
+	    this.getter = lookup.unreflectGetter(field).asType(
+		    MethodType.methodType(handleType, Object.class));
+	    this.setter = lookup.unreflectSetter(field).asType(
+		    MethodType.methodType(void.class, Object.class, handleType));
+	}
+
+	public void read(NBTReader reader, Object object) throws Throwable {
+	    if (!primitive) {
+		setter.invokeExact(object, readValue(reader, value));
+		return;
+	    }
+	    switch (value.type) {
+	    case NBTConstants.TYPE_BYTE:
+		if (value.bool) {
+		    setter.invokeExact(object, readIntegral(reader) != 0);
+		} else {
+		    setter.invokeExact(object, (byte) readIntegral(reader));
+		}
+		break;
+	    case NBTConstants.TYPE_SHORT:
+		setter.invokeExact(object, (short) readIntegral(reader));
+		break;
+	    case NBTConstants.TYPE_INT:
+		setter.invokeExact(object, (int) readIntegral(reader));
+		break;
+	    case NBTConstants.TYPE_LONG:
+		setter.invokeExact(object, readIntegral(reader));
+		break;
+	    case NBTConstants.TYPE_FLOAT:
+		setter.invokeExact(object, (float) readReal(reader));
+		break;
+	    case NBTConstants.TYPE_DOUBLE:
+		setter.invokeExact(object, readReal(reader));
+		break;
+	    }
+	}
+
+	public boolean isNull(Object object) throws Throwable {
+	    return !primitive && (Object) getter.invokeExact(object) == null;
+	}
+
+	public void write(NBTDataOutput out, Object object) throws Throwable {
+	    if (!primitive) {
+		Object v = (Object) getter.invokeExact(object);
+		if (v != null) {
+		    writeHead(out);
+		    writeValue(out, value, v);
+		}
+		return;
+	    }
+	    writeHead(out);
+	    switch (value.type) {
+	    case NBTConstants.TYPE_BYTE:
+		if (value.bool) {
+		    out.writeByte((boolean) getter.invokeExact(object) ? 1 : 0);
+		} else {
+		    out.writeByte((byte) getter.invokeExact(object));
+		}
+		break;
+	    case NBTConstants.TYPE_SHORT:
+		out.writeShort((short) getter.invokeExact(object));
+		break;
+	    case NBTConstants.TYPE_INT:
+		out.writeInt((int) getter.invokeExact(object));
+		break;
+	    case NBTConstants.TYPE_LONG:
+		out.writeLong((long) getter.invokeExact(object));
+		break;
+	    case NBTConstants.TYPE_FLOAT:
+		out.writeFloat((float) getter.invokeExact(object));
+		break;
+	    case NBTConstants.TYPE_DOUBLE:
+		out.writeDouble((double) getter.invokeExact(object));
+		break;
+	    }
+	}
+
+	private void writeHead(NBTDataOutput out) throws IOException {
+	    out.writeByte(value.type);
+	    writeName(out, name);
+	}
+
+    }
+
+}
@@ -0,0 +1,435 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * This class decodes uncompressed <strong>NBT</strong> directly from a
+ * <code>ByteBuffer</code>, which may be a heap buffer, a direct buffer or a
+ * memory-mapped file.
+ * </p>
+ * 
+ * <p>
+ * Unlike {@link NBTInputStream}, byte arrays are not copied: each
+ * <code>TAG_Byte_Array</code> is returned as a {@link ByteArrayTagView} over
+ * a slice of the buffer. All other tags are decoded as usual.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ */
+public class NBTBufferDecoder {
+
+    private final ByteBuffer buffer;
+
+    private NBTSymbolTable symbols;
+    private byte[] nameBuffer;
+    private DataInput dataInput;
+
+    /**
+     * Creates a decoder which reads from the current position of the specified
+     * buffer. The buffer itself is not modified.
+     * 
+     * @param buffer
+     *            The buffer.
+     */
+    public NBTBufferDecoder(ByteBuffer buffer) {
+	this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Sets a symbol table through which tag names are decoded.
+     * 
+     * @param symbols
+     *            The symbol table, or <code>null</code> to decode every name
+     *            separately.
+     * @see NBTInputStream#setSymbolTable(NBTSymbolTable)
+     */
+    public void setSymbolTable(NBTSymbolTable symbols) {
+	this.symbols = symbols;
+    }
+
+    /**
+     * Maps an uncompressed NBT file into memory.
+     * 
+     * @param file
+     *            The file.
+     * @return A decoder over the mapped file.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public static NBTBufferDecoder map(File file) throws IOException {
+	FileInputStream fis = new FileInputStream(file);
+	try {
+	    FileChannel channel = fis.getChannel();
+	    ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+		    channel.size());
+	    return new NBTBufferDecoder(buffer);
+	} finally {
+	    // the mapping remains valid after the channel is closed
+	    fis.close();
+	}
+    }
+
+    /**
+     * Gets the position of the next tag in the buffer.
+     * 
+     * @return The position.
+     */
+    public int position() {
+	return buffer.position();
+    }
+
+    /**
+     * Reads an NBT tag from the buffer.
+     * 
+     * @return The tag that was read.
+     * @throws IOException
+     *             if the buffer does not contain a valid tag.
+     */
+    public Tag<?> readTag() throws IOException {
+	try {
+	    return readTag(0);
+	} catch (BufferUnderflowException e) {
+	    EOFException eof = new EOFException("Unexpected end of buffer.");
+	    eof.initCause(e);
+	    throw eof;
+	} catch (IllegalArgumentException e) {
+	    // thrown by limit() and position() for impossible lengths
+	    throw new IOException(e);
+	} catch (StackOverflowError e) {
+	    throw new IOException("Tag is nested too deeply.");
+	}
+    }
+
+    private Tag<?> readTag(int depth) throws IOException {
+	int type = buffer.get() & 0xFF;
+
+	String name = "";
+	if (type != NBTConstants.TYPE_END)
+	    name = readName();
+
+	return readTagPayload(type, name, depth);
+    }
+
+    /**
+     * Reads the payload of a tag, given the name and type.
+     * 
+     * @param type
+     *            The type.
+     * @param name
+     *            The name.
+     * @return The tag.
+     * @throws IOException
+     *             if the buffer does not contain a valid payload.
+     */
+    Tag<?> readTagPayload(int type, String name) throws IOException {
+	try {
+	    return readTagPayload(type, name, 1);
+	} catch (BufferUnderflowException e) {
+	    EOFException eof = new EOFException("Unexpected end of buffer.");
+	    eof.initCause(e);
+	    throw eof;
+	} catch (IllegalArgumentException e) {
+	    throw new IOException(e);
+	} catch (StackOverflowError e) {
+	    throw new IOException("Tag is nested too deeply.");
+	}
+    }
+
+    /**
+     * Steps over the payload of a tag without decoding it.
+     * 
+     * @param type
+     *            The type.
+     * @throws IOException
+     *             if the buffer does not contain a valid payload.
+     */
+    void skipTagPayload(int type) throws IOException {
+	switch (type) {
+	case NBTConstants.TYPE_END:
+	    break;
+	case NBTConstants.TYPE_BYTE:
+	    skip(1);
+	    break;
+	case NBTConstants.TYPE_SHORT:
+	    skip(2);
+	    break;
+	case NBTConstants.TYPE_INT:
+	case NBTConstants.TYPE_FLOAT:
+	    skip(4);
+	    break;
+	case NBTConstants.TYPE_LONG:
+	case NBTConstants.TYPE_DOUBLE:
+	    skip(8);
+	    break;
+	case NBTConstants.TYPE_BYTE_ARRAY:
+	    skip(buffer.getInt());
+	    break;
+	case NBTConstants.TYPE_INT_ARRAY:
+	    skip(readArrayLength(4) * 4);
+	    break;
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    skip(readArrayLength(8) * 8);
+	    break;
+	case NBTConstants.TYPE_STRING:
+	    skip(buffer.getShort() & 0xFFFF);
+	    break;
+	case NBTConstants.TYPE_LIST:
+	    int childType = buffer.get();
+	    int length = readListLength(1);
+	    for (int i = 0; i < length; i++)
+		skipTagPayload(childType);
+	    break;
+	case NBTConstants.TYPE_COMPOUND:
+	    while (true) {
+		childType = buffer.get() & 0xFF;
+		if (childType == NBTConstants.TYPE_END)
+		    break;
+		skip(buffer.getShort() & 0xFFFF);
+		skipTagPayload(childType);
+	    }
+	    break;
+	default:
+	    TagCodec<?> codec = TagRegistry.getCodec(type);
+	    if (codec == null)
+		throw new IOException("Invalid tag type: " + type + ".");
+	    codec.skip(getDataInput());
+	}
+    }
+
+    /**
+     * Reads the length of an array and checks that its items fit in the
+     * buffer.
+     */
+    private int readArrayLength(int width) throws IOException {
+	int length = buffer.getInt();
+	if (length < 0 || length > buffer.remaining() / width)
+	    throw new IOException("Invalid array length: " + length + ".");
+	return length;
+    }
+
+    /**
+     * Reads the length of a list and checks that its items, each of at least
+     * the specified width, fit in the buffer.
+     */
+    private int readListLength(int width) throws IOException {
+	int length = buffer.getInt();
+	if (length < 0 || length > buffer.remaining() / width)
+	    throw new IOException("Invalid list length: " + length + ".");
+	return length;
+    }
+
+    private void skip(int n) throws IOException {
+	if (n < 0 || n > buffer.remaining())
+	    throw new IOException("Invalid length: " + n + ".");
+	buffer.position(buffer.position() + n);
+    }
+
+    /**
+     * Reads the type of the next tag.
+     * 
+     * @return The type.
+     */
+    int readType() {
+	return buffer.get() & 0xFF;
+    }
+
+    private Tag<?> readTagPayload(int type, String name, int depth)
+	    throws IOException {
+	switch (type) {
+	case NBTConstants.TYPE_END:
+	    if (depth == 0) {
+		throw new IOException(
+			"TAG_End found without a TAG_Compound/TAG_List tag preceding it.");
+	    } else {
+		return new EndTag();
+	    }
+	case NBTConstants.TYPE_BYTE:
+	    return new ByteTag(name, buffer.get());
+	case NBTConstants.TYPE_SHORT:
+	    return new ShortTag(name, buffer.getShort());
+	case NBTConstants.TYPE_INT:
+	    return new IntTag(name, buffer.getInt());
+	case NBTConstants.TYPE_LONG:
+	    return new LongTag(name, buffer.getLong());
+	case NBTConstants.TYPE_FLOAT:
+	    return new FloatTag(name, buffer.getFloat());
+	case NBTConstants.TYPE_DOUBLE:
+	    return new DoubleTag(name, buffer.getDouble());
+	case NBTConstants.TYPE_BYTE_ARRAY:
+	    int length = buffer.getInt();
+	    if (length < 0 || length > buffer.remaining())
+		throw new IOException("Invalid byte array length: " + length
+			+ ".");
+	    ByteBuffer slice = buffer.duplicate();
+	    slice.limit(slice.position() + length);
+	    buffer.position(buffer.position() + length);
+	    return new ByteArrayTagView(name, slice);
+	case NBTConstants.TYPE_STRING:
+	    return new StringTag(name, readString());
+	case NBTConstants.TYPE_LIST:
+	    int childType = buffer.get();
+	    if (NumericListTag.isNumeric(childType)) {
+		length = readListLength(NumericListTag.getWidth(childType));
+		NumericListTag<?> list = NumericListTag.newInstance(name,
+			childType, length);
+		list.read(buffer, 0, length);
+		list.mark();
+		return list;
+	    }
+
+	    // every other item takes at least a byte
+	    length = readListLength(1);
+	    List<Tag<?>> tagList = new ArrayList<Tag<?>>();
+	    for (int i = 0; i < length; i++) {
+		Tag<?> tag = readTagPayload(childType, "", depth + 1);
+		if (tag instanceof EndTag)
+		    throw new IOException("TAG_End not permitted in a list.");
+		tagList.add(tag);
+	    }
+	    return ListTag.newInstance(name, tagList, childType);
+	case NBTConstants.TYPE_COMPOUND:
+	    Map<String, Tag<?>> tagMap = new IndexedMap<Tag<?>>();
+	    while (true) {
+		Tag<?> tag = readTag(depth + 1);
+		if (tag instanceof EndTag) {
+		    break;
+		} else {
+		    tagMap.put(tag.getName(), tag);
+		}
+	    }
+
+	    return new CompoundTag(name, tagMap);
+	case NBTConstants.TYPE_INT_ARRAY:
+	    length = readArrayLength(4);
+	    int[] ints = new int[length];
+	    buffer.asIntBuffer().get(ints);
+	    buffer.position(buffer.position() + length * 4);
+	    return new IntArrayTag(name, ints);
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    length = readArrayLength(8);
+	    long[] longs = new long[length];
+	    buffer.asLongBuffer().get(longs);
+	    buffer.position(buffer.position() + length * 8);
+	    return new LongArrayTag(name, longs);
+	default:
+	    TagCodec<?> codec = TagRegistry.getCodec(type);
+	    if (codec == null)
+		throw new IOException("Invalid tag type: " + type + ".");
+	    return codec.read(name, getDataInput());
+	}
+    }
+
+    /**
+     * Reads the name of a tag.
+     * 
+     * @return The name.
+     */
+    String readName() {
+	if (symbols == null)
+	    return readString();
+
+	int length = buffer.getShort() & 0xFFFF;
+	if (buffer.hasArray()) {
+	    int offset = buffer.arrayOffset() + buffer.position();
+	    buffer.position(buffer.position() + length);
+	    return symbols.lookup(buffer.array(), offset, length);
+	}
+	if (nameBuffer == null || nameBuffer.length < length)
+	    nameBuffer = new byte[Math.max(length, 256)];
+	buffer.get(nameBuffer, 0, length);
+	return symbols.lookup(nameBuffer, 0, length);
+    }
+
+    /**
+     * Reads a length-prefixed string.
+     * 
+     * @return The string.
+     */
+    String readString() {
+	int length = buffer.getShort() & 0xFFFF;
+	if (buffer.hasArray()) {
+	    int offset = buffer.arrayOffset() + buffer.position();
+	    buffer.position(buffer.position() + length);
+	    return new String(buffer.array(), offset, length,
+		    NBTConstants.CHARSET);
+	}
+	byte[] bytes = new byte[length];
+	buffer.get(bytes);
+	return new String(bytes, NBTConstants.CHARSET);
+    }
+
+    /**
+     * Gets an input which reads from the buffer, for the codecs of registered
+     * tag types.
+     */
+    private DataInput getDataInput() {
+	if (dataInput == null)
+	    dataInput = new DataInputStream(new BufferInputStream());
+	return dataInput;
+    }
+
+    private class BufferInputStream extends InputStream {
+
+	@Override
+	public int read() {
+	    if (!buffer.hasRemaining())
+		return -1;
+	    return buffer.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) {
+	    if (len == 0)
+		return 0;
+	    if (!buffer.hasRemaining())
+		return -1;
+	    len = Math.min(len, buffer.remaining());
+	    buffer.get(b, off, len);
+	    return len;
+	}
+
+	@Override
+	public long skip(long n) {
+	    int skipped = (int) Math.min(Math.max(n, 0), buffer.remaining());
+	    buffer.position(buffer.position() + skipped);
+	    return skipped;
+	}
+
+	@Override
+	public int available() {
+	    return buffer.remaining();
+	}
+
+    }
+
+}
@@ -0,0 +1,338 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * <p>
+ * This class encodes uncompressed <strong>NBT</strong> directly into a
+ * <code>ByteBuffer</code>.
+ * </p>
+ * 
+ * <p>
+ * Since the exact size of a tag can be computed with
+ * {@link #encodedSize(Tag)} before it is written, {@link #encode(Tag)} writes
+ * a whole tree into a single array of the right length, instead of into a
+ * stream whose buffer grows as it fills.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see NBTBufferDecoder
+ */
+public class NBTBufferEncoder {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates an encoder which writes from the current position of the
+     * specified buffer. The position of the buffer itself is not modified.
+     * 
+     * @param buffer
+     *            The buffer.
+     */
+    public NBTBufferEncoder(ByteBuffer buffer) {
+	this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Encodes a tag into an array of exactly the right length.
+     * 
+     * @param tag
+     *            The tag.
+     * @return The encoded tag.
+     */
+    public static byte[] encode(Tag<?> tag) {
+	byte[] bytes = new byte[encodedSize(tag)];
+	NBTBufferEncoder encoder = new NBTBufferEncoder(ByteBuffer.wrap(bytes));
+	encoder.writeTag(tag);
+	return bytes;
+    }
+
+    /**
+     * Gets the number of bytes {@link #writeTag(Tag)} will write for a tag,
+     * including its type and name.
+     * 
+     * @param tag
+     *            The tag.
+     * @return The encoded size.
+     * @throws IllegalArgumentException
+     *             if the tag, or one of its children, has an invalid type.
+     */
+    public static int encodedSize(Tag<?> tag) {
+	return 1 + stringSize(tag.getName()) + payloadSize(tag);
+    }
+
+    /**
+     * Gets the number of bytes in the payload of a tag.
+     */
+    static int payloadSize(Tag<?> tag) {
+	int type = tag.getTagType();
+	switch (type) {
+	case NBTConstants.TYPE_BYTE:
+	    return 1;
+	case NBTConstants.TYPE_SHORT:
+	    return 2;
+	case NBTConstants.TYPE_INT:
+	case NBTConstants.TYPE_FLOAT:
+	    return 4;
+	case NBTConstants.TYPE_LONG:
+	case NBTConstants.TYPE_DOUBLE:
+	    return 8;
+	case NBTConstants.TYPE_BYTE_ARRAY:
+	    if (tag instanceof ByteArrayTagView)
+		return 4 + ((ByteArrayTagView) tag).length();
+	    return 4 + ((ByteArrayTag) tag).getValue().length;
+	case NBTConstants.TYPE_STRING:
+	    return stringSize(((StringTag) tag).getValue());
+	case NBTConstants.TYPE_LIST:
+	    if (tag instanceof NumericListTag) {
+		NumericListTag<?> list = (NumericListTag<?>) tag;
+		return 5 + list.size()
+			* NumericListTag.getWidth(list.getElementType());
+	    }
+	    int size = 5;
+	    for (Tag<?> child : ((ListTag<?>) tag).getValue())
+		size += payloadSize(child);
+	    return size;
+	case NBTConstants.TYPE_COMPOUND:
+	    if (tag instanceof LazyCompoundTag) {
+		size = ((LazyCompoundTag) tag).getPayloadSize();
+		if (size >= 0)
+		    return size;
+	    }
+	    size = 1;
+	    for (Tag<?> child : ((CompoundTag) tag).getValue().values())
+		size += encodedSize(child);
+	    return size;
+	case NBTConstants.TYPE_INT_ARRAY:
+	    return 4 + ((IntArrayTag) tag).getValue().length * 4;
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    return 4 + ((LongArrayTag) tag).getValue().length * 8;
+	default:
+	    return encodeCustom(tag).length;
+	}
+    }
+
+    /**
+     * Encodes the payload of a tag of a type registered with
+     * {@link TagRegistry}.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static byte[] encodeCustom(Tag<?> tag) {
+	int type = tag.getTagType();
+	TagCodec codec = TagRegistry.getCodec(type);
+	if (codec == null)
+	    throw new IllegalArgumentException("Invalid tag type: " + type
+		    + ".");
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	try {
+	    codec.write(tag, new DataOutputStream(bytes));
+	} catch (IOException e) {
+	    throw new IllegalStateException(e);
+	}
+	return bytes.toByteArray();
+    }
+
+    /**
+     * Gets the encoded size of a string, including its length prefix. This
+     * matches the output of <code>String.getBytes(CHARSET)</code>, which
+     * replaces unpaired surrogates with a single <code>'?'</code>.
+     */
+    private static int stringSize(String s) {
+	int size = 2;
+	int length = s.length();
+	for (int i = 0; i < length; i++) {
+	    char c = s.charAt(i);
+	    if (c < 0x80) {
+		size++;
+	    } else if (c < 0x800) {
+		size += 2;
+	    } else if (Character.isHighSurrogate(c) && i + 1 < length
+		    && Character.isLowSurrogate(s.charAt(i + 1))) {
+		size += 4;
+		i++;
+	    } else if (Character.isSurrogate(c)) {
+		size++;
+	    } else {
+		size += 3;
+	    }
+	}
+	return size;
+    }
+
+    /**
+     * Gets the position at which the next tag will be written.
+     * 
+     * @return The position.
+     */
+    public int position() {
+	return buffer.position();
+    }
+
+    /**
+     * Writes a tag.
+     * 
+     * @param tag
+     *            The tag to write.
+     * @throws IllegalArgumentException
+     *             if the tag, or one of its children, has an invalid type.
+     * @throws java.nio.BufferOverflowException
+     *             if the tag does not fit in the buffer.
+     */
+    public void writeTag(Tag<?> tag) {
+	int type = tag.getTagType();
+	if (type == NBTConstants.TYPE_END)
+	    throw new IllegalArgumentException("Named TAG_End not permitted.");
+
+	buffer.put((byte) type);
+	writeString(tag.getName());
+	writeTagPayload(tag);
+    }
+
+    private void writeTagPayload(Tag<?> tag) {
+	int type = tag.getTagType();
+	switch (type) {
+	case NBTConstants.TYPE_BYTE:
+	    buffer.put(((ByteTag) tag).getValue());
+	    break;
+	case NBTConstants.TYPE_SHORT:
+	    buffer.putShort(((ShortTag) tag).getValue());
+	    break;
+	case NBTConstants.TYPE_INT:
+	    buffer.putInt(((IntTag) tag).getValue());
+	    break;
+	case NBTConstants.TYPE_LONG:
+	    buffer.putLong(((LongTag) tag).getValue());
+	    break;
+	case NBTConstants.TYPE_FLOAT:
+	    buffer.putFloat(((FloatTag) tag).getValue());
+	    break;
+	case NBTConstants.TYPE_DOUBLE:
+	    buffer.putDouble(((DoubleTag) tag).getValue());
+	    break;
+	case NBTConstants.TYPE_BYTE_ARRAY:
+	    if (tag instanceof ByteArrayTagView) {
+		ByteBuffer bytes = ((ByteArrayTagView) tag).getBuffer();
+		buffer.putInt(bytes.remaining());
+		buffer.put(bytes);
+	    } else {
+		byte[] bytes = ((ByteArrayTag) tag).getValue();
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+	    }
+	    break;
+	case NBTConstants.TYPE_STRING:
+	    writeString(((StringTag) tag).getValue());
+	    break;
+	case NBTConstants.TYPE_LIST:
+	    writeListTagPayload((ListTag<?>) tag);
+	    break;
+	case NBTConstants.TYPE_COMPOUND:
+	    if (tag instanceof LazyCompoundTag) {
+		LazyCompoundTag lazy = (LazyCompoundTag) tag;
+		if (lazy.writePayload(this))
+		    break;
+	    }
+	    for (Tag<?> child : ((CompoundTag) tag).getValue().values())
+		writeTag(child);
+	    buffer.put((byte) NBTConstants.TYPE_END);
+	    break;
+	case NBTConstants.TYPE_INT_ARRAY:
+	    int[] ints = ((IntArrayTag) tag).getValue();
+	    buffer.putInt(ints.length);
+	    buffer.asIntBuffer().put(ints);
+	    buffer.position(buffer.position() + ints.length * 4);
+	    break;
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    long[] longs = ((LongArrayTag) tag).getValue();
+	    buffer.putInt(longs.length);
+	    buffer.asLongBuffer().put(longs);
+	    buffer.position(buffer.position() + longs.length * 8);
+	    break;
+	default:
+	    buffer.put(encodeCustom(tag));
+	}
+    }
+
+    private void writeListTagPayload(ListTag<?> tag) {
+	Class<? extends Tag<?>> clazz = tag.getType();
+	buffer.put((byte) NBTUtils.getTypeCode(clazz));
+	if (tag instanceof NumericListTag) {
+	    NumericListTag<?> list = (NumericListTag<?>) tag;
+	    int size = list.size();
+	    buffer.putInt(size);
+	    list.write(buffer, 0, size);
+	    return;
+	}
+
+	List<? extends Tag<?>> tags = tag.getValue();
+	int size = tags.size();
+	buffer.putInt(size);
+	for (int i = 0; i < size; i++)
+	    writeTagPayload(tags.get(i));
+    }
+
+    /**
+     * Writes a string as UTF-8, preceded by its length.
+     */
+    private void writeString(String s) {
+	int start = buffer.position();
+	buffer.putShort((short) 0);
+	int length = s.length();
+	for (int i = 0; i < length; i++) {
+	    char c = s.charAt(i);
+	    if (c < 0x80) {
+		buffer.put((byte) c);
+	    } else if (c < 0x800) {
+		buffer.put((byte) (0xC0 | (c >> 6)));
+		buffer.put((byte) (0x80 | (c & 0x3F)));
+	    } else if (Character.isHighSurrogate(c) && i + 1 < length
+		    && Character.isLowSurrogate(s.charAt(i + 1))) {
+		int cp = Character.toCodePoint(c, s.charAt(++i));
+		buffer.put((byte) (0xF0 | (cp >> 18)));
+		buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+		buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+		buffer.put((byte) (0x80 | (cp & 0x3F)));
+	    } else if (Character.isSurrogate(c)) {
+		buffer.put((byte) '?');
+	    } else {
+		buffer.put((byte) (0xE0 | (c >> 12)));
+		buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+		buffer.put((byte) (0x80 | (c & 0x3F)));
+	    }
+	}
+	buffer.putShort(start, (short) (buffer.position() - start - 2));
+    }
+
+    /**
+     * Copies bytes which are already encoded.
+     */
+    void put(ByteBuffer bytes) {
+	buffer.put(bytes);
+    }
+
+    void put(byte b) {
+	buffer.put(b);
+    }
+
+}
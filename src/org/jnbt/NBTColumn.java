@@ -0,0 +1,254 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * The values of one column of a columnar archive, as read by
+ * {@link NBTColumnReader}. Numbers are held in primitive arrays, so a column
+ * of a million ints does not create a million objects.
+ * 
+ * @author Taggart Spilman
+ */
+public final class NBTColumn {
+
+    private final String path;
+    private final int type;
+    private final int size;
+
+    private final BitSet present = new BitSet();
+    private long[] longs;
+    private double[] doubles;
+    private Object[] objects;
+
+    NBTColumn(String path, int type, int size) {
+	this.path = path;
+	this.type = type;
+	this.size = size;
+	switch (type) {
+	case NBTConstants.TYPE_END:
+	    break;
+	case NBTConstants.TYPE_BYTE:
+	case NBTConstants.TYPE_SHORT:
+	case NBTConstants.TYPE_INT:
+	case NBTConstants.TYPE_LONG:
+	    longs = new long[size];
+	    break;
+	case NBTConstants.TYPE_FLOAT:
+	case NBTConstants.TYPE_DOUBLE:
+	    doubles = new double[size];
+	    break;
+	default:
+	    objects = new Object[size];
+	}
+    }
+
+    /**
+     * Decodes a block into the rows starting at <code>row</code>.
+     * 
+     * @param block
+     *            The uncompressed block.
+     * @param row
+     *            The index of its first row in this column.
+     * @param count
+     *            The number of rows in the block.
+     * @param nullCount
+     *            The number of rows in the block which lack the tag.
+     */
+    void read(byte[] block, int row, int count, int nullCount)
+	    throws IOException {
+	ByteBuffer buffer = ByteBuffer.wrap(block);
+	int bitmap = (nullCount > 0 ? (count + 7) / 8 : 0);
+	buffer.position(bitmap);
+	NBTBufferDecoder decoder = null;
+	try {
+	    for (int i = 0; i < count; i++) {
+		if (nullCount > 0 && (block[i >> 3] & (1 << (i & 7))) == 0)
+		    continue;
+		int index = row + i;
+		present.set(index);
+		switch (type) {
+		case NBTConstants.TYPE_BYTE:
+		    longs[index] = buffer.get();
+		    break;
+		case NBTConstants.TYPE_SHORT:
+		    longs[index] = buffer.getShort();
+		    break;
+		case NBTConstants.TYPE_INT:
+		    longs[index] = buffer.getInt();
+		    break;
+		case NBTConstants.TYPE_LONG:
+		    longs[index] = buffer.getLong();
+		    break;
+		case NBTConstants.TYPE_FLOAT:
+		    doubles[index] = buffer.getFloat();
+		    break;
+		case NBTConstants.TYPE_DOUBLE:
+		    doubles[index] = buffer.getDouble();
+		    break;
+		case NBTConstants.TYPE_STRING:
+		    byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		    buffer.get(bytes);
+		    objects[index] = new String(bytes, NBTConstants.CHARSET);
+		    break;
+		case NBTConstants.TYPE_BYTE_ARRAY:
+		    bytes = new byte[buffer.getInt()];
+		    buffer.get(bytes);
+		    objects[index] = bytes;
+		    break;
+		case NBTConstants.TYPE_INT_ARRAY:
+		    int[] ints = new int[buffer.getInt()];
+		    buffer.asIntBuffer().get(ints);
+		    buffer.position(buffer.position() + ints.length * 4);
+		    objects[index] = ints;
+		    break;
+		case NBTConstants.TYPE_LONG_ARRAY:
+		    long[] longArray = new long[buffer.getInt()];
+		    buffer.asLongBuffer().get(longArray);
+		    buffer.position(buffer.position() + longArray.length * 8);
+		    objects[index] = longArray;
+		    break;
+		case NBTConstants.TYPE_END:
+		    throw new IOException("Value found in an empty column.");
+		default:
+		    if (decoder == null)
+			decoder = new NBTBufferDecoder(buffer);
+		    objects[index] = decoder.readTag();
+		}
+	    }
+	} catch (BufferUnderflowException e) {
+	    throw new IOException("Block of " + path + " is truncated.");
+	} catch (NegativeArraySizeException e) {
+	    throw new IOException("Block of " + path + " is corrupt.");
+	}
+    }
+
+    public String getPath() {
+	return path;
+    }
+
+    /**
+     * Gets the type of the tags in this column.
+     * 
+     * @return The type, or <code>TAG_End</code> if the column is empty.
+     */
+    public int getType() {
+	return type;
+    }
+
+    /**
+     * Gets the number of rows.
+     * 
+     * @return The number of rows.
+     */
+    public int size() {
+	return size;
+    }
+
+    /**
+     * Checks whether a row lacks the tag of this column.
+     * 
+     * @param row
+     *            The index of the row.
+     * @return <code>true</code> if the row has no value
+     */
+    public boolean isNull(int row) {
+	checkIndex(row);
+	return !present.get(row);
+    }
+
+    /**
+     * Gets the value of a numeric column as a <code>long</code>. Floating
+     * point values are truncated.
+     * 
+     * @param row
+     *            The index of the row.
+     * @return The value, or <code>0</code> if the row has none.
+     */
+    public long getLong(int row) {
+	checkIndex(row);
+	if (longs != null)
+	    return longs[row];
+	if (doubles != null)
+	    return (long) doubles[row];
+	throw new IllegalStateException(path + " is not numeric");
+    }
+
+    /**
+     * Gets the value of a numeric column as a <code>double</code>.
+     * 
+     * @param row
+     *            The index of the row.
+     * @return The value, or <code>0</code> if the row has none.
+     */
+    public double getDouble(int row) {
+	checkIndex(row);
+	if (doubles != null)
+	    return doubles[row];
+	if (longs != null)
+	    return longs[row];
+	throw new IllegalStateException(path + " is not numeric");
+    }
+
+    /**
+     * Gets the value of a row as the value of its tag would be: a
+     * <code>Number</code> of the type of the column, a <code>String</code>, a
+     * <code>byte[]</code>, <code>int[]</code> or <code>long[]</code>, or
+     * for compounds, lists and other types, the tag itself.
+     * 
+     * @param row
+     *            The index of the row.
+     * @return The value, or <code>null</code> if the row has none.
+     */
+    public Object getValue(int row) {
+	if (isNull(row))
+	    return null;
+	switch (type) {
+	case NBTConstants.TYPE_BYTE:
+	    return Byte.valueOf((byte) longs[row]);
+	case NBTConstants.TYPE_SHORT:
+	    return Short.valueOf((short) longs[row]);
+	case NBTConstants.TYPE_INT:
+	    return Integer.valueOf((int) longs[row]);
+	case NBTConstants.TYPE_LONG:
+	    return Long.valueOf(longs[row]);
+	case NBTConstants.TYPE_FLOAT:
+	    return Float.valueOf((float) doubles[row]);
+	case NBTConstants.TYPE_DOUBLE:
+	    return Double.valueOf(doubles[row]);
+	default:
+	    return objects[row];
+	}
+    }
+
+    private void checkIndex(int row) {
+	if (row < 0 || row >= size)
+	    throw new IndexOutOfBoundsException("Index: " + row + ", Size: "
+		    + size);
+    }
+
+    @Override
+    public String toString() {
+	return path + " (" + NBTUtils.getTypeName(type) + ", " + size
+		+ " rows)";
+    }
+
+}
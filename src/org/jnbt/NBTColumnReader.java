@@ -0,0 +1,331 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Reads a columnar archive written by {@link NBTColumnWriter}. Opening an
+ * archive reads only its footer; each column is then read on its own, so a
+ * query reads the blocks of the columns it needs and nothing else.
+ * </p>
+ * 
+ * <p>
+ * The statistics of each group can be checked before its blocks are read,
+ * for example to skip the groups in which no chunk was updated after a given
+ * time:
+ * </p>
+ * 
+ * <pre>
+ * String path = &quot;Level.LastUpdate&quot;;
+ * for (int g = 0; g &lt; reader.getGroupCount(); g++) {
+ *     Number max = reader.getMax(path, g);
+ *     if (max != null &amp;&amp; max.longValue() &gt; time) {
+ *         NBTColumn column = reader.readColumn(path, g);
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * 
+ * @author Taggart Spilman
+ * @see NBTColumnWriter
+ */
+public class NBTColumnReader implements Closeable {
+
+    private final RandomAccessFile file;
+
+    private final String[] paths;
+    private final int[] types;
+    private final Map<String, Integer> columns = new HashMap<String, Integer>();
+
+    private final int[] groupRows;
+    private final int[] groupStarts;
+    private final Block[][] blocks;
+    private final int rowCount;
+
+    /**
+     * Opens an archive and reads its footer.
+     * 
+     * @param file
+     *            The archive.
+     * @throws IOException
+     *             if an I/O error occurs, or the file is not an archive.
+     */
+    public NBTColumnReader(File file) throws IOException {
+	this.file = new RandomAccessFile(file, "r");
+	try {
+	    long length = this.file.length();
+	    if (length < 17 || this.file.readInt() != NBTColumnWriter.MAGIC)
+		throw new IOException("Not a columnar archive: " + file + ".");
+	    int version = this.file.readByte();
+	    if (version != NBTColumnWriter.VERSION)
+		throw new IOException("Unsupported version: " + version + ".");
+
+	    this.file.seek(length - 12);
+	    long footer = this.file.readLong();
+	    if (this.file.readInt() != NBTColumnWriter.MAGIC || footer < 5
+		    || footer > length - 12)
+		throw new IOException("Invalid footer: " + file + ".");
+	    byte[] bytes = new byte[(int) (length - 12 - footer)];
+	    this.file.seek(footer);
+	    this.file.readFully(bytes);
+	    DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+		    bytes));
+
+	    int columnCount = in.readShort() & 0xFFFF;
+	    paths = new String[columnCount];
+	    types = new int[columnCount];
+	    for (int i = 0; i < columnCount; i++) {
+		paths[i] = readString(in);
+		types[i] = in.readByte() & 0xFF;
+		columns.put(paths[i], i);
+	    }
+
+	    int groupCount = in.readInt();
+	    if (groupCount < 0)
+		throw new IOException("Invalid footer: " + file + ".");
+	    groupRows = new int[groupCount];
+	    groupStarts = new int[groupCount];
+	    blocks = new Block[groupCount][columnCount];
+	    int rows = 0;
+	    for (int g = 0; g < groupCount; g++) {
+		groupRows[g] = in.readInt();
+		groupStarts[g] = rows;
+		rows += groupRows[g];
+		for (int i = 0; i < columnCount; i++) {
+		    Block block = new Block();
+		    block.offset = in.readLong();
+		    block.length = in.readInt();
+		    block.rawLength = in.readInt();
+		    block.codec = getCodec(readString(in));
+		    block.nullCount = in.readInt();
+		    block.statistics = in.readByte();
+		    if (block.statistics != NBTColumnWriter.STATISTICS_NONE) {
+			block.min = in.readLong();
+			block.max = in.readLong();
+		    }
+		    blocks[g][i] = block;
+		}
+	    }
+	    rowCount = rows;
+	} catch (IOException e) {
+	    this.file.close();
+	    throw e;
+	}
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+	byte[] bytes = new byte[in.readShort() & 0xFFFF];
+	in.readFully(bytes);
+	return new String(bytes, NBTConstants.CHARSET);
+    }
+
+    private static CompressionCodec getCodec(String name) throws IOException {
+	CompressionCodec[] codecs = { CompressionCodec.NONE,
+		CompressionCodec.GZIP, CompressionCodec.ZLIB,
+		CompressionCodec.LZ };
+	for (CompressionCodec codec : codecs) {
+	    if (codec.getName().equals(name))
+		return codec;
+	}
+	throw new IOException("Unknown compression: " + name + ".");
+    }
+
+    /**
+     * Gets the paths of the columns.
+     * 
+     * @return The paths, in the order of the columns.
+     */
+    public List<String> getPaths() {
+	return Collections.unmodifiableList(Arrays.asList(paths));
+    }
+
+    /**
+     * Gets the type of the tags in a column.
+     * 
+     * @param path
+     *            The path of the column.
+     * @return The type, or <code>TAG_End</code> if the column is empty.
+     */
+    public int getType(String path) {
+	return types[getColumn(path)];
+    }
+
+    public int getRowCount() {
+	return rowCount;
+    }
+
+    public int getGroupCount() {
+	return groupRows.length;
+    }
+
+    public int getRowCount(int group) {
+	return groupRows[group];
+    }
+
+    /**
+     * Gets the number of rows in a group which lack the tag of a column.
+     * 
+     * @param path
+     *            The path of the column.
+     * @param group
+     *            The index of the group.
+     * @return The number of rows.
+     */
+    public int getNullCount(String path, int group) {
+	return blocks[group][getColumn(path)].nullCount;
+    }
+
+    /**
+     * Gets the smallest value of a numeric column in a group, without reading
+     * the column.
+     * 
+     * @param path
+     *            The path of the column.
+     * @param group
+     *            The index of the group.
+     * @return A <code>Long</code> or a <code>Double</code>, or
+     *         <code>null</code> if the column is not numeric or has no values
+     *         in the group.
+     */
+    public Number getMin(String path, int group) {
+	Block block = blocks[group][getColumn(path)];
+	return block.toNumber(block.min);
+    }
+
+    /**
+     * Gets the largest value of a numeric column in a group, without reading
+     * the column.
+     * 
+     * @param path
+     *            The path of the column.
+     * @param group
+     *            The index of the group.
+     * @return A <code>Long</code> or a <code>Double</code>, or
+     *         <code>null</code> if the column is not numeric or has no values
+     *         in the group.
+     */
+    public Number getMax(String path, int group) {
+	Block block = blocks[group][getColumn(path)];
+	return block.toNumber(block.max);
+    }
+
+    /**
+     * Reads every group of a column.
+     * 
+     * @param path
+     *            The path of the column.
+     * @return The column.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public NBTColumn readColumn(String path) throws IOException {
+	int index = getColumn(path);
+	NBTColumn column = new NBTColumn(path, types[index], rowCount);
+	for (int g = 0; g < groupRows.length; g++)
+	    readBlock(column, index, g, groupStarts[g]);
+	return column;
+    }
+
+    /**
+     * Reads one group of a column.
+     * 
+     * @param path
+     *            The path of the column.
+     * @param group
+     *            The index of the group.
+     * @return The column, whose rows are numbered from the start of the
+     *         group.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public NBTColumn readColumn(String path, int group) throws IOException {
+	int index = getColumn(path);
+	NBTColumn column = new NBTColumn(path, types[index], groupRows[group]);
+	readBlock(column, index, group, 0);
+	return column;
+    }
+
+    private void readBlock(NBTColumn column, int index, int group, int row)
+	    throws IOException {
+	Block block = blocks[group][index];
+	byte[] data = new byte[block.length];
+	synchronized (file) {
+	    file.seek(block.offset);
+	    file.readFully(data);
+	}
+
+	byte[] raw = new byte[block.rawLength];
+	InputStream in = block.codec.decompress(new ByteArrayInputStream(data));
+	try {
+	    new DataInputStream(in).readFully(raw);
+	} finally {
+	    in.close();
+	}
+	column.read(raw, row, groupRows[group], block.nullCount);
+    }
+
+    private int getColumn(String path) {
+	Integer index = columns.get(path);
+	if (index == null)
+	    throw new IllegalArgumentException("no column " + path);
+	return index;
+    }
+
+    @Override
+    public void close() throws IOException {
+	file.close();
+    }
+
+    /**
+     * Where the block of a column is, and what it holds.
+     */
+    private static class Block {
+
+	private long offset;
+	private int length, rawLength;
+	private CompressionCodec codec;
+	private int nullCount;
+	private int statistics;
+	private long min, max;
+
+	public Number toNumber(long value) {
+	    switch (statistics) {
+	    case NBTColumnWriter.STATISTICS_INTEGRAL:
+		return Long.valueOf(value);
+	    case NBTColumnWriter.STATISTICS_REAL:
+		return Double.valueOf(Double.longBitsToDouble(value));
+	    default:
+		return null;
+	    }
+	}
+
+    }
+
+}
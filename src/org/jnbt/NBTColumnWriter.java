@@ -0,0 +1,496 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>
+ * Writes a columnar archive: a table with one row for each compound added and
+ * one column for each path, for example <code>Level.xPos</code>, holding the
+ * tag found at that path in each row. An archive is read with
+ * {@link NBTColumnReader}, which reads only the columns it is asked for.
+ * </p>
+ * 
+ * <p>
+ * Rows are written in groups. Within a group, each column is stored as a
+ * separate block, compressed with the codec chosen for that column, along
+ * with the number of rows which lack the tag and, for numeric columns, the
+ * smallest and largest value. Every value of a column must have the same
+ * type.
+ * </p>
+ * 
+ * <p>
+ * The archive is laid out as follows, in big-endian order:
+ * </p>
+ * 
+ * <pre>
+ * int    magic, "NBTC"
+ * byte   version
+ * ...    the column blocks of each group in turn
+ * footer:
+ *   short  number of columns
+ *          for each column: its path and its tag type
+ *   int    number of groups
+ *          for each group: its number of rows, then for each column the
+ *          offset and length of its block, its uncompressed length, the name
+ *          of its codec, its number of missing values and its statistics
+ * long   offset of the footer
+ * int    magic
+ * </pre>
+ * 
+ * <p>
+ * An uncompressed block starts with a bitmap of the rows which have the tag,
+ * if any do not, followed by the values of those rows: numbers at their fixed
+ * width, strings and arrays prefixed by their length, and any other tag as a
+ * whole named tag.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see NBTColumnReader
+ */
+public class NBTColumnWriter implements Closeable {
+
+    static final int MAGIC = 0x4E425443;
+    static final int VERSION = 1;
+
+    static final int STATISTICS_NONE = 0;
+    static final int STATISTICS_INTEGRAL = 1;
+    static final int STATISTICS_REAL = 2;
+
+    public static final int DEFAULT_GROUP_SIZE = 1024;
+
+    private final DataOutputStream out;
+    private long position;
+
+    private final Column[] columns;
+    private CompressionCodec codec = CompressionCodec.ZLIB;
+    private int groupSize = DEFAULT_GROUP_SIZE;
+
+    private int rows;
+    private final List<Integer> groupRows = new ArrayList<Integer>();
+    private final List<Block[]> groupBlocks = new ArrayList<Block[]>();
+
+    private boolean closed;
+
+    /**
+     * Creates a writer and writes the header of the archive.
+     * 
+     * @param out
+     *            The stream.
+     * @param paths
+     *            The path of each column, as names separated by dots.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public NBTColumnWriter(OutputStream out, String... paths)
+	    throws IOException {
+	if (paths.length == 0)
+	    throw new IllegalArgumentException("paths must not be empty");
+	if (paths.length > 0xFFFF)
+	    throw new IllegalArgumentException("too many paths");
+	Set<String> distinct = new LinkedHashSet<String>(Arrays.asList(paths));
+	if (distinct.size() != paths.length)
+	    throw new IllegalArgumentException("paths must be distinct");
+
+	this.columns = new Column[paths.length];
+	for (int i = 0; i < paths.length; i++)
+	    columns[i] = new Column(paths[i]);
+
+	this.out = new DataOutputStream(out);
+	this.out.writeInt(MAGIC);
+	this.out.writeByte(VERSION);
+	this.position = 5;
+    }
+
+    /**
+     * Gets the paths of the columns, which may be passed to
+     * {@link NBTInputStream#readTag(Set)} to decode nothing else.
+     * 
+     * @return The paths, in the order of the columns.
+     */
+    public Set<String> getPaths() {
+	Set<String> paths = new LinkedHashSet<String>();
+	for (Column column : columns)
+	    paths.add(column.path);
+	return Collections.unmodifiableSet(paths);
+    }
+
+    /**
+     * Sets the codec for every column.
+     * 
+     * @param codec
+     *            The codec, which is zlib by default.
+     */
+    public void setCodec(CompressionCodec codec) {
+	if (codec == null)
+	    throw new IllegalArgumentException("codec must not be null");
+	this.codec = codec;
+	for (Column column : columns)
+	    column.codec = null;
+    }
+
+    /**
+     * Sets the codec for one column. Small numbers may be better left
+     * uncompressed, while block arrays compress well.
+     * 
+     * @param path
+     *            The path of the column.
+     * @param codec
+     *            The codec, or <code>null</code> to use the codec for every
+     *            column.
+     */
+    public void setCodec(String path, CompressionCodec codec) {
+	getColumn(path).codec = codec;
+    }
+
+    /**
+     * Sets the number of rows in each group. Each column of a group is held in
+     * memory until the group is written.
+     * 
+     * @param groupSize
+     *            The number of rows, which is {@value #DEFAULT_GROUP_SIZE} by
+     *            default, the number of chunks in a region.
+     */
+    public void setGroupSize(int groupSize) {
+	if (groupSize <= 0)
+	    throw new IllegalArgumentException("groupSize must be positive");
+	this.groupSize = groupSize;
+    }
+
+    public int getGroupSize() {
+	return groupSize;
+    }
+
+    private Column getColumn(String path) {
+	for (Column column : columns) {
+	    if (column.path.equals(path))
+		return column;
+	}
+	throw new IllegalArgumentException("no column " + path);
+    }
+
+    /**
+     * Adds a row.
+     * 
+     * @param row
+     *            The compound to take the value of each column from. A column
+     *            whose path is not found is left empty for this row.
+     * @throws IOException
+     *             if an I/O error occurs.
+     * @throws IllegalArgumentException
+     *             if a tag does not have the type of the column, or a string
+     *             is too long, in which case the row is not added.
+     */
+    public void addRow(CompoundTag row) throws IOException {
+	if (closed)
+	    throw new IllegalStateException("closed");
+	// checked before any column is written, so a rejected row leaves none
+	Tag<?>[] tags = new Tag<?>[columns.length];
+	for (int i = 0; i < columns.length; i++) {
+	    tags[i] = find(row, columns[i].names);
+	    columns[i].check(tags[i]);
+	}
+	for (int i = 0; i < columns.length; i++)
+	    columns[i].add(tags[i], rows);
+	rows++;
+	if (rows == groupSize)
+	    writeGroup();
+    }
+
+    private static Tag<?> find(CompoundTag row, String[] names) {
+	Tag<?> tag = row;
+	for (String name : names) {
+	    if (!(tag instanceof CompoundTag))
+		return null;
+	    tag = ((CompoundTag) tag).getChild(name);
+	}
+	return tag;
+    }
+
+    private void writeGroup() throws IOException {
+	Block[] blocks = new Block[columns.length];
+	for (int i = 0; i < columns.length; i++) {
+	    Column column = columns[i];
+	    CompressionCodec codec = (column.codec != null ? column.codec
+		    : this.codec);
+	    byte[] raw = column.finish(rows);
+	    byte[] data = codec.compress(raw, 0, raw.length);
+	    out.write(data);
+
+	    Block block = new Block();
+	    block.offset = position;
+	    block.length = data.length;
+	    block.rawLength = raw.length;
+	    block.codec = codec.getName();
+	    block.nullCount = column.nullCount;
+	    block.statistics = column.statistics;
+	    block.min = column.min;
+	    block.max = column.max;
+	    blocks[i] = block;
+	    position += data.length;
+	    column.reset();
+	}
+	groupRows.add(rows);
+	groupBlocks.add(blocks);
+	rows = 0;
+    }
+
+    /**
+     * Writes the last group and the footer, and closes the stream.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+	if (closed)
+	    return;
+	closed = true;
+	if (rows > 0)
+	    writeGroup();
+
+	long footer = position;
+	out.writeShort(columns.length);
+	for (Column column : columns) {
+	    writeString(column.path);
+	    out.writeByte(column.type);
+	}
+	out.writeInt(groupBlocks.size());
+	for (int g = 0; g < groupBlocks.size(); g++) {
+	    out.writeInt(groupRows.get(g));
+	    for (Block block : groupBlocks.get(g)) {
+		out.writeLong(block.offset);
+		out.writeInt(block.length);
+		out.writeInt(block.rawLength);
+		writeString(block.codec);
+		out.writeInt(block.nullCount);
+		out.writeByte(block.statistics);
+		if (block.statistics != STATISTICS_NONE) {
+		    out.writeLong(block.min);
+		    out.writeLong(block.max);
+		}
+	    }
+	}
+	out.writeLong(footer);
+	out.writeInt(MAGIC);
+	out.close();
+    }
+
+    private void writeString(String s) throws IOException {
+	byte[] bytes = s.getBytes(NBTConstants.CHARSET);
+	out.writeShort(bytes.length);
+	out.write(bytes);
+    }
+
+    /**
+     * The values of one column in the current group.
+     */
+    private static class Column {
+
+	private final String path;
+	private final String[] names;
+	private CompressionCodec codec;
+	private int type = NBTConstants.TYPE_END;
+
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private final DataOutputStream data = new DataOutputStream(bytes);
+	private final BitSet present = new BitSet();
+	private int nullCount;
+
+	/**
+	 * The kind of statistics, and the smallest and largest value, which are
+	 * the bits of a <code>double</code> for a floating point column.
+	 */
+	private int statistics;
+	private long min, max;
+
+	public Column(String path) {
+	    if (path.isEmpty())
+		throw new IllegalArgumentException("path must not be empty");
+	    this.path = path;
+	    this.names = path.split("\\.", -1);
+	}
+
+	/**
+	 * Checks that a tag can be added without writing it.
+	 */
+	public void check(Tag<?> tag) {
+	    if (tag == null)
+		return;
+	    int tagType = tag.getTagType();
+	    if (type != NBTConstants.TYPE_END && tagType != type) {
+		throw new IllegalArgumentException(path + " is a "
+			+ NBTUtils.getTypeName(type) + ", not a "
+			+ NBTUtils.getTypeName(tagType));
+	    }
+	    if (tagType == NBTConstants.TYPE_STRING) {
+		String s = (String) tag.getValue();
+		if (s.length() > 0xFFFF / 3
+			&& s.getBytes(NBTConstants.CHARSET).length > 0xFFFF)
+		    throw new IllegalArgumentException(path
+			    + " is longer than 65535 bytes");
+	    }
+	}
+
+	/**
+	 * Appends a tag which has been checked.
+	 */
+	public void add(Tag<?> tag, int row) throws IOException {
+	    if (tag == null) {
+		nullCount++;
+		return;
+	    }
+
+	    if (type == NBTConstants.TYPE_END)
+		type = tag.getTagType();
+	    present.set(row);
+
+	    switch (type) {
+	    case NBTConstants.TYPE_BYTE:
+	    case NBTConstants.TYPE_SHORT:
+	    case NBTConstants.TYPE_INT:
+	    case NBTConstants.TYPE_LONG:
+		long l = ((Number) tag.getValue()).longValue();
+		switch (type) {
+		case NBTConstants.TYPE_BYTE:
+		    data.writeByte((int) l);
+		    break;
+		case NBTConstants.TYPE_SHORT:
+		    data.writeShort((int) l);
+		    break;
+		case NBTConstants.TYPE_INT:
+		    data.writeInt((int) l);
+		    break;
+		default:
+		    data.writeLong(l);
+		}
+		if (statistics == STATISTICS_NONE) {
+		    statistics = STATISTICS_INTEGRAL;
+		    min = max = l;
+		} else {
+		    min = Math.min(min, l);
+		    max = Math.max(max, l);
+		}
+		break;
+	    case NBTConstants.TYPE_FLOAT:
+	    case NBTConstants.TYPE_DOUBLE:
+		double d = ((Number) tag.getValue()).doubleValue();
+		if (type == NBTConstants.TYPE_FLOAT) {
+		    data.writeFloat((float) d);
+		} else {
+		    data.writeDouble(d);
+		}
+		if (Double.isNaN(d)) {
+		    // NaN is neither smaller nor larger than anything
+		} else if (statistics == STATISTICS_NONE) {
+		    statistics = STATISTICS_REAL;
+		    min = max = Double.doubleToLongBits(d);
+		} else {
+		    if (d < Double.longBitsToDouble(min))
+			min = Double.doubleToLongBits(d);
+		    if (d > Double.longBitsToDouble(max))
+			max = Double.doubleToLongBits(d);
+		}
+		break;
+	    case NBTConstants.TYPE_STRING:
+		byte[] s = ((String) tag.getValue())
+			.getBytes(NBTConstants.CHARSET);
+		data.writeShort(s.length);
+		data.write(s);
+		break;
+	    case NBTConstants.TYPE_BYTE_ARRAY:
+		if (tag instanceof ByteArrayTagView) {
+		    ByteArrayTagView view = (ByteArrayTagView) tag;
+		    data.writeInt(view.length());
+		    view.writeTo(data);
+		} else {
+		    byte[] b = ((ByteArrayTag) tag).getValue();
+		    data.writeInt(b.length);
+		    data.write(b);
+		}
+		break;
+	    case NBTConstants.TYPE_INT_ARRAY:
+		int[] ints = ((IntArrayTag) tag).getValue();
+		data.writeInt(ints.length);
+		for (int i : ints)
+		    data.writeInt(i);
+		break;
+	    case NBTConstants.TYPE_LONG_ARRAY:
+		long[] longs = ((LongArrayTag) tag).getValue();
+		data.writeInt(longs.length);
+		for (long i : longs)
+		    data.writeLong(i);
+		break;
+	    default:
+		data.write(NBTBufferEncoder.encode(tag));
+	    }
+	}
+
+	/**
+	 * Gets the uncompressed block for the current group.
+	 */
+	public byte[] finish(int rows) throws IOException {
+	    if (nullCount == 0)
+		return bytes.toByteArray();
+
+	    byte[] bitmap = new byte[(rows + 7) / 8];
+	    for (int i = present.nextSetBit(0); i >= 0; i = present
+		    .nextSetBit(i + 1))
+		bitmap[i >> 3] |= 1 << (i & 7);
+	    byte[] block = new byte[bitmap.length + bytes.size()];
+	    System.arraycopy(bitmap, 0, block, 0, bitmap.length);
+	    System.arraycopy(bytes.toByteArray(), 0, block, bitmap.length,
+		    bytes.size());
+	    return block;
+	}
+
+	public void reset() {
+	    bytes.reset();
+	    present.clear();
+	    nullCount = 0;
+	    statistics = STATISTICS_NONE;
+	}
+
+    }
+
+    /**
+     * Where the block of a column was written, and what it holds.
+     */
+    private static class Block {
+
+	private long offset;
+	private int length, rawLength;
+	private String codec;
+	private int nullCount;
+	private int statistics;
+	private long min, max;
+
+    }
+
+}
@@ -0,0 +1,332 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>
+ * Reads the numbers and lengths of an NBT stream in one of the
+ * {@link NBTEncoding}s. Codecs registered with {@link TagRegistry} are handed
+ * one of these, so their payloads follow the encoding of the stream.
+ * </p>
+ * 
+ * <p>
+ * Besides the methods of <code>DataInput</code>, which read single values,
+ * numbers can be read a buffer at a time with
+ * {@link #readNumbers(int, byte[], int)}, which is how numeric lists and
+ * arrays are read.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see NBTDataOutput
+ */
+abstract class NBTDataInput implements DataInput, Closeable {
+
+    protected final DataInputStream in;
+
+    protected NBTDataInput(InputStream in) {
+	this.in = new DataInputStream(in);
+    }
+
+    /**
+     * Gets the order of the bytes of fixed-width numbers.
+     * 
+     * @return The byte order.
+     */
+    abstract ByteOrder order();
+
+    /**
+     * Reads the length of a string or of a tag name.
+     * 
+     * @return The length, in bytes.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    int readStringLength() throws IOException {
+	return readUnsignedShort();
+    }
+
+    /**
+     * Reads a run of numbers of one type.
+     * 
+     * @param type
+     *            The numeric tag type.
+     * @param buffer
+     *            A buffer large enough for the numbers at their fixed width.
+     * @param count
+     *            The number of numbers.
+     * @return A view of the numbers in <code>buffer</code>, in the byte order
+     *         of the view.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    ByteBuffer readNumbers(int type, byte[] buffer, int count)
+	    throws IOException {
+	int length = count * NumericListTag.getWidth(type);
+	in.readFully(buffer, 0, length);
+	return ByteBuffer.wrap(buffer, 0, length).order(order());
+    }
+
+    /**
+     * Skips a run of numbers of one type.
+     * 
+     * @param type
+     *            The numeric tag type.
+     * @param count
+     *            The number of numbers.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    void skipNumbers(int type, int count) throws IOException {
+	NBTUtils.skipFully(in, (long) count * NumericListTag.getWidth(type));
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+	in.readFully(b);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+	in.readFully(b, off, len);
+    }
+
+    @Override
+    public int skipBytes(int n) throws IOException {
+	return in.skipBytes(n);
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+	return in.readBoolean();
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+	return in.readByte();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+	return in.readUnsignedByte();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+	return readShort() & 0xFFFF;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+	return (char) readShort();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public String readLine() throws IOException {
+	return in.readLine();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+	return DataInputStream.readUTF(this);
+    }
+
+    @Override
+    public void close() throws IOException {
+	in.close();
+    }
+
+    /**
+     * The format of the Java edition.
+     */
+    static class BigEndian extends NBTDataInput {
+
+	public BigEndian(InputStream in) {
+	    super(in);
+	}
+
+	@Override
+	ByteOrder order() {
+	    return ByteOrder.BIG_ENDIAN;
+	}
+
+	@Override
+	public short readShort() throws IOException {
+	    return in.readShort();
+	}
+
+	@Override
+	public int readInt() throws IOException {
+	    return in.readInt();
+	}
+
+	@Override
+	public long readLong() throws IOException {
+	    return in.readLong();
+	}
+
+	@Override
+	public float readFloat() throws IOException {
+	    return in.readFloat();
+	}
+
+	@Override
+	public double readDouble() throws IOException {
+	    return in.readDouble();
+	}
+
+	@Override
+	public String readUTF() throws IOException {
+	    return in.readUTF();
+	}
+
+    }
+
+    /**
+     * The format of the Java edition with the bytes of each number reversed.
+     */
+    static class LittleEndian extends NBTDataInput {
+
+	public LittleEndian(InputStream in) {
+	    super(in);
+	}
+
+	@Override
+	ByteOrder order() {
+	    return ByteOrder.LITTLE_ENDIAN;
+	}
+
+	@Override
+	public short readShort() throws IOException {
+	    return Short.reverseBytes(in.readShort());
+	}
+
+	@Override
+	public int readInt() throws IOException {
+	    return Integer.reverseBytes(in.readInt());
+	}
+
+	@Override
+	public long readLong() throws IOException {
+	    return Long.reverseBytes(in.readLong());
+	}
+
+	@Override
+	public float readFloat() throws IOException {
+	    return Float.intBitsToFloat(Integer.reverseBytes(in.readInt()));
+	}
+
+	@Override
+	public double readDouble() throws IOException {
+	    return Double.longBitsToDouble(Long.reverseBytes(in.readLong()));
+	}
+
+    }
+
+    /**
+     * The little-endian format with variable-length ints, longs and lengths.
+     */
+    static class VarInt extends LittleEndian {
+
+	public VarInt(InputStream in) {
+	    super(in);
+	}
+
+	@Override
+	public int readInt() throws IOException {
+	    int n = readUnsignedVarInt();
+	    return (n >>> 1) ^ -(n & 1);
+	}
+
+	@Override
+	public long readLong() throws IOException {
+	    long n = 0;
+	    for (int shift = 0; shift < 64; shift += 7) {
+		int b = in.readByte();
+		n |= (long) (b & 0x7F) << shift;
+		if (b >= 0)
+		    return (n >>> 1) ^ -(n & 1);
+	    }
+	    throw new IOException("VarLong is too long.");
+	}
+
+	@Override
+	int readStringLength() throws IOException {
+	    int length = readUnsignedVarInt();
+	    if (length < 0)
+		throw new IOException("Negative length: " + length + ".");
+	    return length;
+	}
+
+	private int readUnsignedVarInt() throws IOException {
+	    int n = 0;
+	    for (int shift = 0; shift < 35; shift += 7) {
+		int b = in.readByte();
+		n |= (b & 0x7F) << shift;
+		if (b >= 0)
+		    return n;
+	    }
+	    throw new IOException("VarInt is too long.");
+	}
+
+	@Override
+	ByteBuffer readNumbers(int type, byte[] buffer, int count)
+		throws IOException {
+	    if (type != NBTConstants.TYPE_INT
+		    && type != NBTConstants.TYPE_LONG)
+		return super.readNumbers(type, buffer, count);
+
+	    // decoded into the fixed-width form the callers convert from
+	    ByteBuffer target = ByteBuffer.wrap(buffer).order(order());
+	    if (type == NBTConstants.TYPE_INT) {
+		for (int i = 0; i < count; i++)
+		    target.putInt(readInt());
+	    } else {
+		for (int i = 0; i < count; i++)
+		    target.putLong(readLong());
+	    }
+	    target.flip();
+	    return target;
+	}
+
+	@Override
+	void skipNumbers(int type, int count) throws IOException {
+	    if (type == NBTConstants.TYPE_INT
+		    || type == NBTConstants.TYPE_LONG) {
+		if (count < 0)
+		    throw new IOException("Negative length: " + count + ".");
+		// every byte but the last of each number has its high bit set
+		while (count > 0) {
+		    if (in.readByte() >= 0)
+			count--;
+		}
+	    } else {
+		super.skipNumbers(type, count);
+	    }
+	}
+
+    }
+
+}
@@ -0,0 +1,299 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>
+ * Writes the numbers and lengths of an NBT stream in one of the
+ * {@link NBTEncoding}s. Codecs registered with {@link TagRegistry} are handed
+ * one of these, so their payloads follow the encoding of the stream.
+ * </p>
+ * 
+ * <p>
+ * Besides the methods of <code>DataOutput</code>, which write single values,
+ * numbers can be written a buffer at a time with
+ * {@link #writeNumbers(int, byte[], int)}, which is how numeric lists and
+ * arrays are written.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see NBTDataInput
+ */
+abstract class NBTDataOutput implements DataOutput, Closeable, Flushable {
+
+    protected final DataOutputStream out;
+
+    protected NBTDataOutput(OutputStream out) {
+	this.out = new DataOutputStream(out);
+    }
+
+    /**
+     * Gets the order in which the buffers passed to
+     * {@link #writeNumbers(int, byte[], int)} must be filled.
+     * 
+     * @return The byte order.
+     */
+    abstract ByteOrder order();
+
+    /**
+     * Writes the length of a string or of a tag name.
+     * 
+     * @param length
+     *            The length, in bytes.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    void writeStringLength(int length) throws IOException {
+	writeShort(length);
+    }
+
+    /**
+     * Writes a run of numbers of one type.
+     * 
+     * @param type
+     *            The numeric tag type.
+     * @param buffer
+     *            The numbers at their fixed width, in the byte order given by
+     *            {@link #order()}.
+     * @param count
+     *            The number of numbers.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    void writeNumbers(int type, byte[] buffer, int count) throws IOException {
+	out.write(buffer, 0, count * NumericListTag.getWidth(type));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+	out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+	out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+	out.write(b, off, len);
+    }
+
+    @Override
+    public void writeBoolean(boolean v) throws IOException {
+	out.writeBoolean(v);
+    }
+
+    @Override
+    public void writeByte(int v) throws IOException {
+	out.writeByte(v);
+    }
+
+    @Override
+    public void writeChar(int v) throws IOException {
+	writeShort(v);
+    }
+
+    @Override
+    public void writeBytes(String s) throws IOException {
+	out.writeBytes(s);
+    }
+
+    @Override
+    public void writeChars(String s) throws IOException {
+	for (int i = 0; i < s.length(); i++)
+	    writeChar(s.charAt(i));
+    }
+
+    @Override
+    public void writeUTF(String s) throws IOException {
+	// the length is the only number in it
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream(s.length() + 2);
+	new DataOutputStream(bytes).writeUTF(s);
+	byte[] utf = bytes.toByteArray();
+	writeShort(utf.length - 2);
+	out.write(utf, 2, utf.length - 2);
+    }
+
+    @Override
+    public void flush() throws IOException {
+	out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+	out.close();
+    }
+
+    /**
+     * The format of the Java edition.
+     */
+    static class BigEndian extends NBTDataOutput {
+
+	public BigEndian(OutputStream out) {
+	    super(out);
+	}
+
+	@Override
+	ByteOrder order() {
+	    return ByteOrder.BIG_ENDIAN;
+	}
+
+	@Override
+	public void writeShort(int v) throws IOException {
+	    out.writeShort(v);
+	}
+
+	@Override
+	public void writeInt(int v) throws IOException {
+	    out.writeInt(v);
+	}
+
+	@Override
+	public void writeLong(long v) throws IOException {
+	    out.writeLong(v);
+	}
+
+	@Override
+	public void writeFloat(float v) throws IOException {
+	    out.writeFloat(v);
+	}
+
+	@Override
+	public void writeDouble(double v) throws IOException {
+	    out.writeDouble(v);
+	}
+
+	@Override
+	public void writeUTF(String s) throws IOException {
+	    out.writeUTF(s);
+	}
+
+    }
+
+    /**
+     * The format of the Java edition with the bytes of each number reversed.
+     */
+    static class LittleEndian extends NBTDataOutput {
+
+	public LittleEndian(OutputStream out) {
+	    super(out);
+	}
+
+	@Override
+	ByteOrder order() {
+	    return ByteOrder.LITTLE_ENDIAN;
+	}
+
+	@Override
+	public void writeShort(int v) throws IOException {
+	    out.writeShort(Short.reverseBytes((short) v));
+	}
+
+	@Override
+	public void writeInt(int v) throws IOException {
+	    out.writeInt(Integer.reverseBytes(v));
+	}
+
+	@Override
+	public void writeLong(long v) throws IOException {
+	    out.writeLong(Long.reverseBytes(v));
+	}
+
+	@Override
+	public void writeFloat(float v) throws IOException {
+	    out.writeInt(Integer.reverseBytes(Float.floatToRawIntBits(v)));
+	}
+
+	@Override
+	public void writeDouble(double v) throws IOException {
+	    out.writeLong(Long.reverseBytes(Double.doubleToRawLongBits(v)));
+	}
+
+    }
+
+    /**
+     * The little-endian format with variable-length ints, longs and lengths.
+     */
+    static class VarInt extends LittleEndian {
+
+	/**
+	 * Room for the longest encoding of a long.
+	 */
+	private final byte[] scratch = new byte[10];
+
+	public VarInt(OutputStream out) {
+	    super(out);
+	}
+
+	@Override
+	public void writeInt(int v) throws IOException {
+	    writeUnsignedVarLong(((v << 1) ^ (v >> 31)) & 0xFFFFFFFFL);
+	}
+
+	@Override
+	public void writeLong(long v) throws IOException {
+	    writeUnsignedVarLong((v << 1) ^ (v >> 63));
+	}
+
+	@Override
+	void writeStringLength(int length) throws IOException {
+	    writeUnsignedVarLong(length & 0xFFFFFFFFL);
+	}
+
+	private void writeUnsignedVarLong(long n) throws IOException {
+	    int length = 0;
+	    while ((n & ~0x7FL) != 0) {
+		scratch[length++] = (byte) ((n & 0x7F) | 0x80);
+		n >>>= 7;
+	    }
+	    scratch[length++] = (byte) n;
+	    out.write(scratch, 0, length);
+	}
+
+	@Override
+	void writeNumbers(int type, byte[] buffer, int count)
+		throws IOException {
+	    if (type != NBTConstants.TYPE_INT
+		    && type != NBTConstants.TYPE_LONG) {
+		super.writeNumbers(type, buffer, count);
+		return;
+	    }
+
+	    ByteBuffer source = ByteBuffer.wrap(buffer).order(order());
+	    if (type == NBTConstants.TYPE_INT) {
+		for (int i = 0; i < count; i++)
+		    writeInt(source.getInt());
+	    } else {
+		for (int i = 0; i < count; i++)
+		    writeLong(source.getLong());
+	    }
+	}
+
+    }
+
+}
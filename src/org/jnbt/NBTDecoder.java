@@ -0,0 +1,332 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * <p>
+ * A decoder which can be reset onto one compressed NBT document after another
+ * without allocating anything new. The <code>Inflater</code>, the input and
+ * output buffers and the {@link NBTInputStream} with its scratch buffer are
+ * all kept between documents, and only grow when a larger document comes
+ * along.
+ * </p>
+ * 
+ * <p>
+ * Each document is inflated completely by {@link #reset(byte[], int, int,
+ * CompressionCodec)}, after which it can be read through
+ * {@link #getInputStream()} or {@link #getReader()}. Tags read from the
+ * decoder do not refer to its buffers, so they remain valid after the next
+ * reset. A decoder is not thread-safe; {@link #get()} returns one for the
+ * current thread.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ */
+public class NBTDecoder implements Closeable {
+
+    private static final int INITIAL_SIZE = 64 * 1024;
+
+    private static final int GZIP_MAGIC = 0x8B1F;
+    private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+
+    private static final ThreadLocal<NBTDecoder> LOCAL = new ThreadLocal<NBTDecoder>() {
+	@Override
+	protected NBTDecoder initialValue() {
+	    return new NBTDecoder();
+	}
+    };
+
+    /**
+     * Inflates zlib streams, or raw deflate data for gzip.
+     */
+    private Inflater zlib, deflate;
+    private final CRC32 crc = new CRC32();
+
+    private byte[] input;
+    private byte[] output;
+    private int count;
+
+    private final Source source = new Source();
+    private final NBTInputStream is;
+
+    public NBTDecoder() {
+	try {
+	    this.is = new NBTInputStream(source, false);
+	} catch (IOException e) {
+	    // the stream is not read until a tag is
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    /**
+     * Gets the decoder of the current thread.
+     * 
+     * @return The decoder.
+     */
+    public static NBTDecoder get() {
+	return LOCAL.get();
+    }
+
+    /**
+     * Gets a buffer of at least the specified length, into which compressed
+     * data may be read before it is passed to
+     * {@link #reset(byte[], int, int, CompressionCodec)}. The buffer belongs
+     * to the decoder and is reused by the next call.
+     * 
+     * @param length
+     *            The length.
+     * @return The buffer.
+     */
+    public byte[] getInputBuffer(int length) {
+	if (input == null || input.length < length)
+	    input = new byte[Math.max(length, INITIAL_SIZE)];
+	return input;
+    }
+
+    /**
+     * Decompresses a document, discarding the previous one.
+     * 
+     * @param data
+     *            The compressed data.
+     * @param offset
+     *            The offset of the first byte.
+     * @param length
+     *            The number of bytes.
+     * @param codec
+     *            The codec, or <code>null</code> to detect it from the first
+     *            bytes of the data.
+     * @throws IOException
+     *             if the data cannot be decompressed.
+     */
+    public void reset(byte[] data, int offset, int length,
+	    CompressionCodec codec) throws IOException {
+	if (codec == null)
+	    codec = CompressionCodec.detect(new ByteArrayInputStream(data,
+		    offset, length));
+
+	count = 0;
+	if (codec instanceof UncompressedCodec) {
+	    source.reset(data, offset, length);
+	    return;
+	}
+
+	if (codec instanceof ZlibCodec) {
+	    if (zlib == null)
+		zlib = new Inflater();
+	    inflate(zlib, data, offset, length);
+	} else if (codec instanceof GzipCodec) {
+	    if (deflate == null)
+		deflate = new Inflater(true);
+	    int end = offset + length;
+	    do {
+		offset = readGzipHeader(data, offset, end);
+		crc.reset();
+		int start = count;
+		offset += inflate(deflate, data, offset, end - offset);
+		crc.update(output, start, count - start);
+		offset = readGzipTrailer(data, offset, end, count - start);
+	    } while (end - offset > 2 && readShort(data, offset) == GZIP_MAGIC);
+	} else {
+	    InputStream in = codec.decompress(new ByteArrayInputStream(data,
+		    offset, length));
+	    try {
+		ensureOutput();
+		int n;
+		while ((n = in.read(output, count, output.length - count)) > 0) {
+		    count += n;
+		    ensureOutput();
+		}
+	    } finally {
+		in.close();
+	    }
+	}
+	source.reset(output, 0, count);
+    }
+
+    private void ensureOutput() {
+	if (output == null)
+	    output = new byte[INITIAL_SIZE];
+	else if (count == output.length)
+	    output = Arrays.copyOf(output, output.length * 2);
+    }
+
+    /**
+     * Inflates data onto the end of the output buffer.
+     * 
+     * @return The number of bytes of input consumed.
+     */
+    private int inflate(Inflater inflater, byte[] data, int offset,
+	    int length) throws IOException {
+	inflater.reset();
+	inflater.setInput(data, offset, length);
+	try {
+	    while (!inflater.finished()) {
+		ensureOutput();
+		int n = inflater.inflate(output, count, output.length - count);
+		if (n == 0) {
+		    if (inflater.needsInput())
+			throw new EOFException(
+				"Unexpected end of compressed data.");
+		    if (inflater.needsDictionary())
+			throw new ZipException("Dictionary required.");
+		}
+		count += n;
+	    }
+	} catch (DataFormatException e) {
+	    String message = e.getMessage();
+	    throw new ZipException(message == null ? "Invalid compressed data."
+		    : message);
+	}
+	return length - inflater.getRemaining();
+    }
+
+    private int readGzipHeader(byte[] data, int offset, int end)
+	    throws IOException {
+	if (end - offset < 10 || readShort(data, offset) != GZIP_MAGIC)
+	    throw new ZipException("Not in GZIP format.");
+	if (data[offset + 2] != 8)
+	    throw new ZipException("Unsupported compression method.");
+	int flags = data[offset + 3];
+	offset += 10;
+	if ((flags & FEXTRA) != 0)
+	    offset += 2 + readShort(data, checkLength(offset, 2, end));
+	if ((flags & FNAME) != 0)
+	    offset = skipString(data, offset, end);
+	if ((flags & FCOMMENT) != 0)
+	    offset = skipString(data, offset, end);
+	if ((flags & FHCRC) != 0)
+	    offset += 2;
+	return checkLength(offset, 0, end);
+    }
+
+    private int readGzipTrailer(byte[] data, int offset, int end, int size)
+	    throws IOException {
+	checkLength(offset, 8, end);
+	long value = readInt(data, offset) & 0xFFFFFFFFL;
+	if (value != crc.getValue())
+	    throw new ZipException("Corrupt GZIP trailer.");
+	if (readInt(data, offset + 4) != size)
+	    throw new ZipException("Corrupt GZIP trailer.");
+	return offset + 8;
+    }
+
+    private static int checkLength(int offset, int length, int end)
+	    throws EOFException {
+	if (offset + length > end)
+	    throw new EOFException("Unexpected end of compressed data.");
+	return offset;
+    }
+
+    private static int skipString(byte[] data, int offset, int end)
+	    throws EOFException {
+	while (data[checkLength(offset, 1, end)] != 0)
+	    offset++;
+	return offset + 1;
+    }
+
+    /**
+     * Reads a little-endian unsigned short, as gzip stores them.
+     */
+    private static int readShort(byte[] data, int offset) {
+	return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+	return readShort(data, offset) | readShort(data, offset + 2) << 16;
+    }
+
+    /**
+     * Gets the stream through which the current document is read. The same
+     * stream is returned after every reset, positioned at the start of the
+     * new document; it should not be closed.
+     * 
+     * @return The stream.
+     */
+    public NBTInputStream getInputStream() {
+	return is;
+    }
+
+    /**
+     * Creates a pull parser over the current document.
+     * 
+     * @return The reader.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public NBTReader getReader() throws IOException {
+	return new NBTReader(source, false);
+    }
+
+    /**
+     * Gets the number of bytes in the current document after decompression.
+     * 
+     * @return The length of the document.
+     */
+    public int length() {
+	return source.length();
+    }
+
+    /**
+     * Releases the inflaters. The decoder may still be used afterwards, but
+     * will create new ones.
+     */
+    @Override
+    public void close() {
+	if (zlib != null) {
+	    zlib.end();
+	    zlib = null;
+	}
+	if (deflate != null) {
+	    deflate.end();
+	    deflate = null;
+	}
+    }
+
+    /**
+     * A stream over a region of one of the decoder's buffers.
+     */
+    private static class Source extends ByteArrayInputStream {
+
+	public Source() {
+	    super(new byte[0]);
+	}
+
+	public void reset(byte[] buf, int offset, int length) {
+	    this.buf = buf;
+	    this.pos = offset;
+	    this.count = offset + length;
+	    this.mark = offset;
+	}
+
+	public int length() {
+	    return count - mark;
+	}
+
+    }
+
+}
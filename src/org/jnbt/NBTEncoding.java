@@ -0,0 +1,121 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * The way numbers and lengths are laid out in an NBT stream, independently of
+ * how the stream is compressed.
+ * </p>
+ * 
+ * <p>
+ * {@link #BIG_ENDIAN} is the format of the Java edition and the default of
+ * every stream. {@link #LITTLE_ENDIAN} is the same format with the bytes of
+ * each number reversed, as in the files of the Bedrock edition.
+ * {@link #VARINT} is the compact format of the Bedrock network protocol: it
+ * is little-endian, except that ints, longs and the lengths of arrays and
+ * lists are zig-zag encoded variable-length integers, and the lengths of
+ * strings are unsigned ones, so small values take a single byte.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see NBTInputStream#NBTInputStream(InputStream, CompressionCodec,
+ *      NBTEncoding)
+ * @see NBTOutputStream#NBTOutputStream(OutputStream, CompressionCodec,
+ *      NBTEncoding)
+ */
+public abstract class NBTEncoding {
+
+    public static final NBTEncoding BIG_ENDIAN = new NBTEncoding("big-endian") {
+	@Override
+	NBTDataInput newInput(InputStream in) {
+	    return new NBTDataInput.BigEndian(in);
+	}
+
+	@Override
+	NBTDataOutput newOutput(OutputStream out) {
+	    return new NBTDataOutput.BigEndian(out);
+	}
+    };
+
+    public static final NBTEncoding LITTLE_ENDIAN = new NBTEncoding(
+	    "little-endian") {
+	@Override
+	NBTDataInput newInput(InputStream in) {
+	    return new NBTDataInput.LittleEndian(in);
+	}
+
+	@Override
+	NBTDataOutput newOutput(OutputStream out) {
+	    return new NBTDataOutput.LittleEndian(out);
+	}
+    };
+
+    public static final NBTEncoding VARINT = new NBTEncoding("varint") {
+	@Override
+	NBTDataInput newInput(InputStream in) {
+	    return new NBTDataInput.VarInt(in);
+	}
+
+	@Override
+	NBTDataOutput newOutput(OutputStream out) {
+	    return new NBTDataOutput.VarInt(out);
+	}
+    };
+
+    private final String name;
+
+    private NBTEncoding(String name) {
+	this.name = name;
+    }
+
+    /**
+     * Gets the name of the encoding, for example <code>varint</code>.
+     * 
+     * @return The name.
+     */
+    public String getName() {
+	return name;
+    }
+
+    /**
+     * Wraps a stream of data in this encoding.
+     * 
+     * @param in
+     *            The data, after decompression.
+     * @return The input.
+     */
+    abstract NBTDataInput newInput(InputStream in);
+
+    /**
+     * Wraps a stream so that data written to it is in this encoding.
+     * 
+     * @param out
+     *            The stream, before compression.
+     * @return The output.
+     */
+    abstract NBTDataOutput newOutput(OutputStream out);
+
+    @Override
+    public String toString() {
+	return getName();
+    }
+
+}
@@ -32,14 +32,17 @@ package org.jnbt;
  * POSSIBILITY OF SUCH DAMAGE.
  */
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
-import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -60,10 +63,43 @@ import java.util.zip.GZIPInputStream;
  */
 public class NBTInputStream implements Closeable {
 
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The nominal number of bytes charged for each tag, besides its payload.
+     */
+    private static final int TAG_OVERHEAD = 32;
+
     /**
      * The data input stream.
      */
-    private DataInputStream is;
+    private NBTDataInput is;
+
+    private final NBTEncoding encoding;
+
+    /**
+     * A scratch buffer for names and byte array pieces.
+     */
+    private byte[] buffer;
+
+    /**
+     * Scratch buffers for int and long array pieces passed to visitors.
+     */
+    private int[] ints;
+    private long[] longs;
+
+    /**
+     * The table used to share tag names, or <code>null</code>.
+     */
+    private NBTSymbolTable symbols;
+
+    /**
+     * The quotas applied to each tag read, and the bytes charged so far
+     * against the current one.
+     */
+    private long byteLimit = Long.MAX_VALUE;
+    private int depthLimit = Integer.MAX_VALUE;
+    private long allocated;
 
     /**
      * Creates a new <code>NBTInputStream</code>, which will source its data
@@ -81,7 +117,78 @@ public class NBTInputStream implements Closeable {
     public NBTInputStream(InputStream is, boolean gzip) throws IOException {
 	if (gzip)
 	    is = new GZIPInputStream(is);
-	this.is = new DataInputStream(is);
+	this.encoding = NBTEncoding.BIG_ENDIAN;
+	this.is = encoding.newInput(is);
+    }
+
+    /**
+     * Creates a new <code>NBTInputStream</code>, which will decompress data
+     * with the specified codec.
+     * 
+     * @param is
+     *            The input stream.
+     * @param codec
+     *            The codec, or <code>null</code> to detect it from the first
+     *            bytes of the stream.
+     * @throws IOException
+     *             if an I/O error occurs.
+     * @see CompressionCodec#detect(InputStream)
+     */
+    public NBTInputStream(InputStream is, CompressionCodec codec)
+	    throws IOException {
+	this(is, codec, NBTEncoding.BIG_ENDIAN);
+    }
+
+    /**
+     * Creates a new <code>NBTInputStream</code>, which will decompress data
+     * with the specified codec and read it in the specified encoding.
+     * 
+     * @param is
+     *            The input stream.
+     * @param codec
+     *            The codec, or <code>null</code> to detect it from the first
+     *            bytes of the stream.
+     * @param encoding
+     *            The encoding of the decompressed data.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public NBTInputStream(InputStream is, CompressionCodec codec,
+	    NBTEncoding encoding) throws IOException {
+	if (encoding == null)
+	    throw new IllegalArgumentException("encoding must not be null");
+	if (codec == null) {
+	    is = CompressionCodec.decompressAny(is);
+	} else {
+	    is = codec.decompress(is);
+	}
+	this.encoding = encoding;
+	this.is = encoding.newInput(is);
+    }
+
+    public NBTEncoding getEncoding() {
+	return encoding;
+    }
+
+    /**
+     * Gets the symbol table used for tag names.
+     * 
+     * @return The symbol table, or <code>null</code> if names are not shared.
+     */
+    public NBTSymbolTable getSymbolTable() {
+	return symbols;
+    }
+
+    /**
+     * Sets a symbol table through which tag names are decoded, so that each
+     * distinct name is represented by a single <code>String</code>.
+     * 
+     * @param symbols
+     *            The symbol table, or <code>null</code> to decode every name
+     *            separately.
+     */
+    public void setSymbolTable(NBTSymbolTable symbols) {
+	this.symbols = symbols;
     }
 
     /**
@@ -92,9 +199,88 @@ public class NBTInputStream implements Closeable {
      *             if an I/O error occurs.
      */
     public Tag<?> readTag() throws IOException {
+	allocated = 0;
 	return readTag(0);
     }
 
+    /**
+     * <p>
+     * Sets the number of bytes which may be allocated for a single tag read
+     * by any of the <code>readTag</code> methods or by {@link #readLazyTag()}.
+     * Arrays, strings and lists are charged for their contents before they
+     * are allocated, so a corrupt length fails without allocating anything,
+     * and every tag is charged a small fixed amount besides.
+     * </p>
+     * 
+     * <p>
+     * Tags read by a codec registered with {@link TagRegistry} are charged
+     * only the fixed amount.
+     * </p>
+     * 
+     * @param byteLimit
+     *            The limit, which is unlimited by default.
+     * @see NBTLimitException
+     */
+    public void setByteLimit(long byteLimit) {
+	if (byteLimit < 0)
+	    throw new IllegalArgumentException("byteLimit must not be negative");
+	this.byteLimit = byteLimit;
+    }
+
+    public long getByteLimit() {
+	return byteLimit;
+    }
+
+    /**
+     * Sets how deeply compounds and lists may be nested within a tag. The
+     * root tag is at depth 0, so a limit of 0 permits a root compound whose
+     * children are not compounds or lists.
+     * 
+     * @param depthLimit
+     *            The limit, which is unlimited by default.
+     * @see NBTLimitException
+     */
+    public void setDepthLimit(int depthLimit) {
+	if (depthLimit < 0)
+	    throw new IllegalArgumentException("depthLimit must not be negative");
+	this.depthLimit = depthLimit;
+    }
+
+    public int getDepthLimit() {
+	return depthLimit;
+    }
+
+    /**
+     * Gets the number of bytes charged against the byte limit by the last tag
+     * read.
+     * 
+     * @return The number of bytes.
+     */
+    public long getBytesAllocated() {
+	return allocated;
+    }
+
+    /**
+     * Charges an allocation against the byte limit.
+     */
+    private void allocate(long bytes) throws NBTLimitException {
+	allocated += bytes;
+	if (allocated > byteLimit)
+	    throw new NBTLimitException("Tag exceeds the limit of " + byteLimit
+		    + " bytes.", byteLimit);
+    }
+
+    private void checkDepth(int depth) throws NBTLimitException {
+	if (depth > depthLimit)
+	    throw new NBTLimitException("Tag exceeds the depth limit of "
+		    + depthLimit + ".", depthLimit);
+    }
+
+    private static void checkLength(int length) throws IOException {
+	if (length < 0)
+	    throw new IOException("Negative length: " + length + ".");
+    }
+
     /**
      * Reads an NBT from the stream.
      * 
@@ -108,12 +294,8 @@ public class NBTInputStream implements Closeable {
 	int type = is.readByte() & 0xFF;
 
 	String name = "";
-	if (type != NBTConstants.TYPE_END) {
-	    int nameLength = is.readShort() & 0xFFFF;
-	    byte[] nameBytes = new byte[nameLength];
-	    is.readFully(nameBytes);
-	    name = new String(nameBytes, NBTConstants.CHARSET);
-	}
+	if (type != NBTConstants.TYPE_END)
+	    name = readName();
 
 	return readTagPayload(type, name, depth);
     }
@@ -133,6 +315,7 @@ public class NBTInputStream implements Closeable {
      */
     private Tag<?> readTagPayload(int type, String name, int depth)
 	    throws IOException {
+	allocate(TAG_OVERHEAD);
 	switch (type) {
 	case NBTConstants.TYPE_END:
 	    if (depth == 0) {
@@ -155,17 +338,24 @@ public class NBTInputStream implements Closeable {
 	    return new DoubleTag(name, is.readDouble());
 	case NBTConstants.TYPE_BYTE_ARRAY:
 	    int length = is.readInt();
+	    checkLength(length);
+	    allocate(length);
 	    byte[] bytes = new byte[length];
 	    is.readFully(bytes);
 	    return new ByteArrayTag(name, bytes);
 	case NBTConstants.TYPE_STRING:
-	    length = is.readShort();
+	    length = is.readStringLength();
+	    allocate(length * 2L);
 	    bytes = new byte[length];
 	    is.readFully(bytes);
 	    return new StringTag(name, new String(bytes, NBTConstants.CHARSET));
 	case NBTConstants.TYPE_LIST:
+	    checkDepth(depth);
 	    int childType = is.readByte();
 	    length = is.readInt();
+	    checkLength(length);
+	    if (NumericListTag.isNumeric(childType))
+		return readNumericListTagPayload(name, childType, length);
 
 	    List<Tag<?>> tagList = new ArrayList<Tag<?>>();
 	    for (int i = 0; i < length; i++) {
@@ -178,7 +368,8 @@ public class NBTInputStream implements Closeable {
 	    Class<? extends Tag> c = NBTUtils.getTypeClass(childType);
 	    return new ListTag(name, tagList, c);
 	case NBTConstants.TYPE_COMPOUND:
-	    Map<String, Tag<?>> tagMap = new LinkedHashMap<String, Tag<?>>();
+	    checkDepth(depth);
+	    Map<String, Tag<?>> tagMap = new IndexedMap<Tag<?>>();
 	    while (true) {
 		Tag tag = readTag(depth + 1);
 		if (tag instanceof EndTag) {
@@ -189,8 +380,516 @@ public class NBTInputStream implements Closeable {
 	    }
 
 	    return new CompoundTag(name, tagMap);
+	case NBTConstants.TYPE_INT_ARRAY:
+	    return new IntArrayTag(name, readIntArray());
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    return new LongArrayTag(name, readLongArray());
 	default:
-	    throw new IOException("Invalid tag type: " + type + ".");
+	    TagCodec<?> codec = TagRegistry.getCodec(type);
+	    if (codec == null)
+		throw new IOException("Invalid tag type: " + type + ".");
+	    return codec.read(name, is);
+	}
+    }
+
+    /**
+     * <p>
+     * Reads an NBT tag from the stream, decoding only the specified paths.
+     * </p>
+     * 
+     * <p>
+     * A path is a list of compound names separated by dots, starting below
+     * the root tag, for example <code>Level.Blocks</code>. Each selected tag
+     * is decoded in full, along with the compounds that lead to it. All other
+     * tags are skipped without being decoded. Paths cannot descend into a
+     * <code>TAG_List</code>.
+     * </p>
+     * 
+     * @param paths
+     *            The paths to decode.
+     * @return The tag that was read.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public Tag<?> readTag(Set<String> paths) throws IOException {
+	PathNode root = new PathNode();
+	for (String path : paths) {
+	    PathNode node = root;
+	    for (String name : path.split("\\."))
+		node = node.getChild(name);
+	    node.selected = true;
+	}
+
+	allocated = 0;
+	int type = is.readByte() & 0xFF;
+	String name = "";
+	if (type != NBTConstants.TYPE_END)
+	    name = readName();
+	if (type == NBTConstants.TYPE_COMPOUND)
+	    return readCompoundTagPayload(root, name, 0);
+	return readTagPayload(type, name, 0);
+    }
+
+    /**
+     * Reads the children of a compound which are selected by a path node,
+     * and skips the rest.
+     * 
+     * @param node
+     *            The path node for this compound.
+     * @param name
+     *            The name.
+     * @param depth
+     *            The depth.
+     * @return The tag.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private CompoundTag readCompoundTagPayload(PathNode node, String name,
+	    int depth) throws IOException {
+	checkDepth(depth);
+	allocate(TAG_OVERHEAD);
+	Map<String, Tag<?>> tagMap = new IndexedMap<Tag<?>>();
+	while (true) {
+	    int type = is.readByte() & 0xFF;
+	    if (type == NBTConstants.TYPE_END)
+		break;
+
+	    String childName = readName();
+	    PathNode child = node.children.get(childName);
+	    if (child == null) {
+		NBTUtils.skipTagPayload(is, type);
+	    } else if (child.selected) {
+		Tag<?> tag = readTagPayload(type, childName, depth + 1);
+		tagMap.put(childName, tag);
+	    } else if (type == NBTConstants.TYPE_COMPOUND) {
+		Tag<?> tag = readCompoundTagPayload(child, childName, depth + 1);
+		tagMap.put(childName, tag);
+	    } else {
+		NBTUtils.skipTagPayload(is, type);
+	    }
+	}
+	return new CompoundTag(name, tagMap);
+    }
+
+    /**
+     * Reads an NBT tag from the stream, reporting its contents to the
+     * specified visitor instead of building <code>Tag</code> objects.
+     * 
+     * @param visitor
+     *            The visitor.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void readTag(NBTVisitor visitor) throws IOException {
+	allocated = 0;
+	readTag(visitor, 0);
+    }
+
+    /**
+     * Reads an NBT tag from the stream and reports it to a visitor.
+     * 
+     * @param visitor
+     *            The visitor.
+     * @param depth
+     *            The depth of this tag.
+     * @return The type of the tag that was read.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private int readTag(NBTVisitor visitor, int depth) throws IOException {
+	int type = is.readByte() & 0xFF;
+
+	String name = "";
+	if (type != NBTConstants.TYPE_END)
+	    name = readName();
+
+	readTagPayload(visitor, type, name, depth);
+	return type;
+    }
+
+    private String readName() throws IOException {
+	if (symbols == null)
+	    return readString();
+
+	int length = is.readStringLength();
+	byte[] buffer = getBuffer(length);
+	is.readFully(buffer, 0, length);
+	return symbols.lookup(buffer, 0, length);
+    }
+
+    private String readString() throws IOException {
+	int nameLength = is.readStringLength();
+	byte[] buffer = getBuffer(nameLength);
+	is.readFully(buffer, 0, nameLength);
+	return new String(buffer, 0, nameLength, NBTConstants.CHARSET);
+    }
+
+    /**
+     * Reads the payload of a tag and reports it to a visitor.
+     * 
+     * @param visitor
+     *            The visitor.
+     * @param type
+     *            The type.
+     * @param name
+     *            The name.
+     * @param depth
+     *            The depth.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private void readTagPayload(NBTVisitor visitor, int type, String name,
+	    int depth) throws IOException {
+	switch (type) {
+	case NBTConstants.TYPE_END:
+	    if (depth == 0)
+		throw new IOException(
+			"TAG_End found without a TAG_Compound/TAG_List tag preceding it.");
+	    break;
+	case NBTConstants.TYPE_BYTE:
+	    visitor.visitByte(name, is.readByte());
+	    break;
+	case NBTConstants.TYPE_SHORT:
+	    visitor.visitShort(name, is.readShort());
+	    break;
+	case NBTConstants.TYPE_INT:
+	    visitor.visitInt(name, is.readInt());
+	    break;
+	case NBTConstants.TYPE_LONG:
+	    visitor.visitLong(name, is.readLong());
+	    break;
+	case NBTConstants.TYPE_FLOAT:
+	    visitor.visitFloat(name, is.readFloat());
+	    break;
+	case NBTConstants.TYPE_DOUBLE:
+	    visitor.visitDouble(name, is.readDouble());
+	    break;
+	case NBTConstants.TYPE_BYTE_ARRAY:
+	    int length = is.readInt();
+	    if (length < 0)
+		throw new IOException("Negative byte array length: " + length
+			+ ".");
+	    visitor.startByteArray(name, length);
+	    byte[] buffer = getBuffer();
+	    while (length > 0) {
+		int n = Math.min(length, buffer.length);
+		is.readFully(buffer, 0, n);
+		visitor.visitBytes(buffer, 0, n);
+		length -= n;
+	    }
+	    visitor.endByteArray();
+	    break;
+	case NBTConstants.TYPE_STRING:
+	    visitor.visitString(name, readString());
+	    break;
+	case NBTConstants.TYPE_LIST:
+	    checkDepth(depth);
+	    int childType = is.readByte();
+	    length = is.readInt();
+	    checkLength(length);
+	    visitor.startList(name, childType, length);
+	    for (int i = 0; i < length; i++) {
+		if (childType == NBTConstants.TYPE_END)
+		    throw new IOException("TAG_End not permitted in a list.");
+		readTagPayload(visitor, childType, "", depth + 1);
+	    }
+	    visitor.endList();
+	    break;
+	case NBTConstants.TYPE_COMPOUND:
+	    checkDepth(depth);
+	    visitor.startCompound(name);
+	    while (readTag(visitor, depth + 1) != NBTConstants.TYPE_END)
+		;
+	    visitor.endCompound();
+	    break;
+	case NBTConstants.TYPE_INT_ARRAY:
+	    length = is.readInt();
+	    if (length < 0)
+		throw new IOException("Negative int array length: " + length
+			+ ".");
+	    visitor.startIntArray(name, length);
+	    buffer = getBuffer();
+	    if (ints == null)
+		ints = new int[BUFFER_SIZE / 4];
+	    while (length > 0) {
+		int n = Math.min(length, ints.length);
+		is.readNumbers(NBTConstants.TYPE_INT, buffer, n).asIntBuffer()
+			.get(ints, 0, n);
+		visitor.visitInts(ints, 0, n);
+		length -= n;
+	    }
+	    visitor.endIntArray();
+	    break;
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    length = is.readInt();
+	    if (length < 0)
+		throw new IOException("Negative long array length: " + length
+			+ ".");
+	    visitor.startLongArray(name, length);
+	    buffer = getBuffer();
+	    if (longs == null)
+		longs = new long[BUFFER_SIZE / 8];
+	    while (length > 0) {
+		int n = Math.min(length, longs.length);
+		is.readNumbers(NBTConstants.TYPE_LONG, buffer, n).asLongBuffer()
+			.get(longs, 0, n);
+		visitor.visitLongs(longs, 0, n);
+		length -= n;
+	    }
+	    visitor.endLongArray();
+	    break;
+	default:
+	    TagCodec<?> codec = TagRegistry.getCodec(type);
+	    if (codec == null)
+		throw new IOException("Invalid tag type: " + type + ".");
+	    visitor.visitTag(codec.read(name, is));
+	}
+    }
+
+    /**
+     * Reads the items of a numeric <code>TAG_List</code> into a primitive
+     * array, converting them a buffer at a time.
+     */
+    private NumericListTag<?> readNumericListTagPayload(String name, int type,
+	    int length) throws IOException {
+	int width = NumericListTag.getWidth(type);
+	allocate((long) length * width);
+	byte[] buffer = getBuffer();
+	int step = buffer.length / width;
+	// the length is not trusted until the items have been read
+	NumericListTag<?> list = NumericListTag.newInstance(name, type,
+		Math.min(length, step));
+	for (int offset = 0; offset < length; offset += step) {
+	    int count = Math.min(step, length - offset);
+	    list.read(is.readNumbers(type, buffer, count), offset, count);
+	}
+	list.mark();
+	return list;
+    }
+
+    /**
+     * Reads the payload of a <code>TAG_Int_Array</code>, converting the ints a
+     * buffer at a time.
+     */
+    private int[] readIntArray() throws IOException {
+	int length = is.readInt();
+	if (length < 0)
+	    throw new IOException("Negative int array length: " + length + ".");
+	allocate(length * 4L);
+	int[] ints = new int[length];
+	byte[] buffer = getBuffer();
+	int step = buffer.length / 4;
+	for (int offset = 0; offset < length; offset += step) {
+	    int count = Math.min(step, length - offset);
+	    is.readNumbers(NBTConstants.TYPE_INT, buffer, count).asIntBuffer()
+		    .get(ints, offset, count);
+	}
+	return ints;
+    }
+
+    /**
+     * Reads the payload of a <code>TAG_Long_Array</code>, converting the longs
+     * a buffer at a time.
+     */
+    private long[] readLongArray() throws IOException {
+	int length = is.readInt();
+	if (length < 0)
+	    throw new IOException("Negative long array length: " + length + ".");
+	allocate(length * 8L);
+	long[] longs = new long[length];
+	byte[] buffer = getBuffer();
+	int step = buffer.length / 8;
+	for (int offset = 0; offset < length; offset += step) {
+	    int count = Math.min(step, length - offset);
+	    is.readNumbers(NBTConstants.TYPE_LONG, buffer, count).asLongBuffer()
+		    .get(longs, offset, count);
+	}
+	return longs;
+    }
+
+    private byte[] getBuffer() {
+	return getBuffer(BUFFER_SIZE);
+    }
+
+    private byte[] getBuffer(int length) {
+	if (buffer == null || buffer.length < length)
+	    buffer = new byte[Math.max(length, BUFFER_SIZE)];
+	return buffer;
+    }
+
+    /**
+     * <p>
+     * Reads an NBT tag from the stream without decoding the contents of
+     * compounds.
+     * </p>
+     * 
+     * <p>
+     * If the tag is a <code>TAG_Compound</code>, its encoded payload is copied
+     * into a {@link LazyCompoundTag}, which decodes each child the first time
+     * it is reached. Any other tag is read as usual. A payload in an encoding
+     * other than {@link NBTEncoding#BIG_ENDIAN} is converted to it as it is
+     * copied.
+     * </p>
+     * 
+     * @return The tag that was read.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public Tag<?> readLazyTag() throws IOException {
+	allocated = 0;
+	int type = is.readByte() & 0xFF;
+	if (type != NBTConstants.TYPE_COMPOUND) {
+	    String name = "";
+	    if (type != NBTConstants.TYPE_END)
+		name = readName();
+	    return readTagPayload(type, name, 0);
+	}
+
+	String name = readName();
+	PayloadBuffer payload = new PayloadBuffer();
+	copyTagPayload(type, new DataOutputStream(payload), 0);
+	return new LazyCompoundTag(name, payload.toByteBuffer(), symbols);
+    }
+
+    /**
+     * Copies the payload of a tag without decoding it.
+     * 
+     * @param type
+     *            The type.
+     * @param out
+     *            The output.
+     * @param depth
+     *            The depth.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private void copyTagPayload(int type, DataOutputStream out, int depth)
+	    throws IOException {
+	allocate(TAG_OVERHEAD);
+	switch (type) {
+	case NBTConstants.TYPE_END:
+	    break;
+	case NBTConstants.TYPE_BYTE:
+	case NBTConstants.TYPE_SHORT:
+	case NBTConstants.TYPE_INT:
+	case NBTConstants.TYPE_LONG:
+	case NBTConstants.TYPE_FLOAT:
+	case NBTConstants.TYPE_DOUBLE:
+	    copyNumbers(type, 1, out);
+	    break;
+	case NBTConstants.TYPE_BYTE_ARRAY:
+	    int length = is.readInt();
+	    if (length < 0)
+		throw new IOException("Negative byte array length: " + length
+			+ ".");
+	    out.writeInt(length);
+	    copyFully(length, out);
+	    break;
+	case NBTConstants.TYPE_STRING:
+	    copyString(out);
+	    break;
+	case NBTConstants.TYPE_INT_ARRAY:
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    length = is.readInt();
+	    if (length < 0)
+		throw new IOException("Negative array length: " + length + ".");
+	    out.writeInt(length);
+	    int itemType = NBTConstants.TYPE_LONG;
+	    if (type == NBTConstants.TYPE_INT_ARRAY)
+		itemType = NBTConstants.TYPE_INT;
+	    copyNumbers(itemType, length, out);
+	    break;
+	case NBTConstants.TYPE_LIST:
+	    checkDepth(depth);
+	    int childType = is.readByte();
+	    length = is.readInt();
+	    checkLength(length);
+	    if (childType == NBTConstants.TYPE_END && length > 0)
+		throw new IOException("TAG_End not permitted in a list.");
+	    out.writeByte(childType);
+	    out.writeInt(length);
+	    if (NumericListTag.isNumeric(childType)) {
+		copyNumbers(childType, length, out);
+		break;
+	    }
+	    for (int i = 0; i < length; i++)
+		copyTagPayload(childType, out, depth + 1);
+	    break;
+	case NBTConstants.TYPE_COMPOUND:
+	    checkDepth(depth);
+	    while (true) {
+		childType = is.readByte() & 0xFF;
+		out.writeByte(childType);
+		if (childType == NBTConstants.TYPE_END)
+		    break;
+		copyString(out);
+		copyTagPayload(childType, out, depth + 1);
+	    }
+	    break;
+	default:
+	    TagCodec<Tag<?>> codec = TagRegistry.getCodec(type);
+	    if (codec == null)
+		throw new IOException("Invalid tag type: " + type + ".");
+	    codec.write(codec.read("", is), out);
+	}
+    }
+
+    /**
+     * Copies a string or tag name. The lengths of the varint encoding are not
+     * limited to the two bytes the copy has room for.
+     */
+    private void copyString(DataOutputStream out) throws IOException {
+	int length = is.readStringLength();
+	if (length > 0xFFFF)
+	    throw new IOException("String is too long to copy: " + length
+		    + " bytes.");
+	out.writeShort(length);
+	copyFully(length, out);
+    }
+
+    /**
+     * Copies a run of numbers of one type, converting them to big-endian if
+     * the stream is in another encoding.
+     */
+    private void copyNumbers(int type, long count, DataOutputStream out)
+	    throws IOException {
+	int width = NumericListTag.getWidth(type);
+	if (encoding == NBTEncoding.BIG_ENDIAN || width == 1) {
+	    copyFully(count * width, out);
+	    return;
+	}
+
+	allocate(count * width);
+	byte[] buffer = getBuffer();
+	int step = buffer.length / width;
+	while (count > 0) {
+	    int n = (int) Math.min(step, count);
+	    ByteBuffer source = is.readNumbers(type, buffer, n);
+	    for (int i = 0; i < n; i++) {
+		switch (width) {
+		case 2:
+		    out.writeShort(source.getShort());
+		    break;
+		case 4:
+		    out.writeInt(source.getInt());
+		    break;
+		default:
+		    out.writeLong(source.getLong());
+		}
+	    }
+	    count -= n;
+	}
+    }
+
+    private void copyFully(long length, DataOutputStream out)
+	    throws IOException {
+	allocate(length);
+	byte[] buffer = getBuffer();
+	while (length > 0) {
+	    int n = (int) Math.min(length, buffer.length);
+	    is.readFully(buffer, 0, n);
+	    out.write(buffer, 0, n);
+	    length -= n;
 	}
     }
 
@@ -199,4 +898,39 @@ public class NBTInputStream implements Closeable {
 	is.close();
     }
 
+    /**
+     * Collects a copied payload without copying it again when it is done.
+     */
+    private static class PayloadBuffer extends ByteArrayOutputStream {
+
+	public PayloadBuffer() {
+	    super(BUFFER_SIZE);
+	}
+
+	public ByteBuffer toByteBuffer() {
+	    return ByteBuffer.wrap(buf, 0, count);
+	}
+
+    }
+
+    /**
+     * A node in the tree of paths passed to {@link NBTInputStream#readTag(Set)}.
+     */
+    private static class PathNode {
+
+	private boolean selected;
+	private final Map<String, PathNode> children =
+		new HashMap<String, PathNode>();
+
+	public PathNode getChild(String name) {
+	    PathNode child = children.get(name);
+	    if (child == null) {
+		child = new PathNode();
+		children.put(name, child);
+	    }
+	    return child;
+	}
+
+    }
+
 }
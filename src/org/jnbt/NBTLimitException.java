@@ -0,0 +1,55 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a tag being read would exceed the byte or depth limit of an
+ * {@link NBTInputStream}. The stream is left part way through the tag and
+ * should not be read from again.
+ * 
+ * @author Taggart Spilman
+ * @see NBTInputStream#setByteLimit(long)
+ * @see NBTInputStream#setDepthLimit(int)
+ */
+@SuppressWarnings("serial")
+public class NBTLimitException extends IOException {
+
+    private final long limit;
+
+    /**
+     * @param message
+     *            The detail message.
+     * @param limit
+     *            The limit which was exceeded.
+     */
+    public NBTLimitException(String message, long limit) {
+	super(message);
+	this.limit = limit;
+    }
+
+    /**
+     * Gets the limit which was exceeded.
+     * 
+     * @return The limit, in bytes or levels of nesting.
+     */
+    public long getLimit() {
+	return limit;
+    }
+
+}
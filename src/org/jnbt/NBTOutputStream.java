@@ -1,11 +1,11 @@
 package org.jnbt;
 
 import java.io.Closeable;
-import java.io.DataOutputStream;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
 
 /*
  * JNBT License
@@ -56,10 +56,19 @@ import java.util.zip.GZIPOutputStream;
  */
 public class NBTOutputStream implements Closeable {
 
+    private static final int BUFFER_SIZE = 8192;
+
     /**
      * The output stream.
      */
-    private DataOutputStream os;
+    private NBTDataOutput os;
+
+    private final NBTEncoding encoding;
+
+    /**
+     * A scratch buffer for encoding numeric lists and arrays.
+     */
+    private byte[] buffer;
 
     /**
      * Creates a new <code>NBTOutputStream</code>, which will write data to the
@@ -75,9 +84,52 @@ public class NBTOutputStream implements Closeable {
     }
 
     public NBTOutputStream(OutputStream os, boolean gzip) throws IOException {
-	if (gzip)
-	    os = new GZIPOutputStream(os);
-	this.os = new DataOutputStream(os);
+	this(os, gzip ? CompressionCodec.GZIP : null);
+    }
+
+    /**
+     * Creates a new <code>NBTOutputStream</code>, which will compress data
+     * with the specified codec.
+     * 
+     * @param os
+     *            The output stream.
+     * @param codec
+     *            The codec, or <code>null</code> to write uncompressed data
+     *            straight to the output stream.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public NBTOutputStream(OutputStream os, CompressionCodec codec)
+	    throws IOException {
+	this(os, codec, NBTEncoding.BIG_ENDIAN);
+    }
+
+    /**
+     * Creates a new <code>NBTOutputStream</code>, which will write data in the
+     * specified encoding and compress it with the specified codec.
+     * 
+     * @param os
+     *            The output stream.
+     * @param codec
+     *            The codec, or <code>null</code> to write uncompressed data
+     *            straight to the output stream.
+     * @param encoding
+     *            The encoding of the data before compression.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public NBTOutputStream(OutputStream os, CompressionCodec codec,
+	    NBTEncoding encoding) throws IOException {
+	if (encoding == null)
+	    throw new IllegalArgumentException("encoding must not be null");
+	if (codec != null)
+	    os = codec.compress(os);
+	this.encoding = encoding;
+	this.os = encoding.newOutput(os);
+    }
+
+    public NBTEncoding getEncoding() {
+	return encoding;
     }
 
     /**
@@ -89,12 +141,12 @@ public class NBTOutputStream implements Closeable {
      *             if an I/O error occurs.
      */
     public void writeTag(Tag tag) throws IOException {
-	int type = NBTUtils.getTypeCode(tag.getClass());
+	int type = tag.getTagType();
 	String name = tag.getName();
 	byte[] nameBytes = name.getBytes(NBTConstants.CHARSET);
 
 	os.writeByte(type);
-	os.writeShort(nameBytes.length);
+	os.writeStringLength(nameBytes.length);
 	os.write(nameBytes);
 
 	if (type == NBTConstants.TYPE_END)
@@ -112,7 +164,7 @@ public class NBTOutputStream implements Closeable {
      *             if an I/O error occurs.
      */
     private void writeTagPayload(Tag tag) throws IOException {
-	int type = NBTUtils.getTypeCode(tag.getClass());
+	int type = tag.getTagType();
 	switch (type) {
 	case NBTConstants.TYPE_END:
 	    writeEndTagPayload((EndTag) tag);
@@ -147,8 +199,17 @@ public class NBTOutputStream implements Closeable {
 	case NBTConstants.TYPE_COMPOUND:
 	    writeCompoundTagPayload((CompoundTag) tag);
 	    break;
+	case NBTConstants.TYPE_INT_ARRAY:
+	    writeIntArrayTagPayload((IntArrayTag) tag);
+	    break;
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    writeLongArrayTagPayload((LongArrayTag) tag);
+	    break;
 	default:
-	    throw new IOException("Invalid tag type: " + type + ".");
+	    TagCodec<Tag<?>> codec = TagRegistry.getCodec(type);
+	    if (codec == null)
+		throw new IOException("Invalid tag type: " + type + ".");
+	    codec.write(tag, os);
 	}
     }
 
@@ -173,11 +234,62 @@ public class NBTOutputStream implements Closeable {
      *             if an I/O error occurs.
      */
     private void writeByteArrayTagPayload(ByteArrayTag tag) throws IOException {
+	if (tag instanceof ByteArrayTagView) {
+	    ByteArrayTagView view = (ByteArrayTagView) tag;
+	    os.writeInt(view.length());
+	    view.writeTo(os);
+	    return;
+	}
+
 	byte[] bytes = tag.getValue();
 	os.writeInt(bytes.length);
 	os.write(bytes);
     }
 
+    /**
+     * Writes a <code>TAG_Int_Array</code> tag, converting the ints a buffer at
+     * a time.
+     * 
+     * @param tag
+     *            The tag.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private void writeIntArrayTagPayload(IntArrayTag tag) throws IOException {
+	int[] ints = tag.getValue();
+	os.writeInt(ints.length);
+	byte[] buffer = getBuffer();
+	int step = buffer.length / 4;
+	for (int offset = 0; offset < ints.length; offset += step) {
+	    int count = Math.min(step, ints.length - offset);
+	    ByteBuffer.wrap(buffer).order(os.order()).asIntBuffer()
+		    .put(ints, offset, count);
+	    os.writeNumbers(NBTConstants.TYPE_INT, buffer, count);
+	}
+    }
+
+    /**
+     * Writes a <code>TAG_Long_Array</code> tag, converting the longs a buffer
+     * at a time.
+     * 
+     * @param tag
+     *            The tag.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private void writeLongArrayTagPayload(LongArrayTag tag) throws IOException {
+	long[] longs = tag.getValue();
+	os.writeInt(longs.length);
+	byte[] buffer = getBuffer();
+	int step = buffer.length / 8;
+	for (int offset = 0; offset < longs.length; offset += step) {
+	    int count = Math.min(step, longs.length - offset);
+	    ByteBuffer.wrap(buffer).order(os.order()).asLongBuffer()
+		    .put(longs, offset, count);
+	    os.writeNumbers(NBTConstants.TYPE_LONG, buffer, count);
+	}
+    }
+
     /**
      * Writes a <code>TAG_Compound</code> tag.
      * 
@@ -187,6 +299,14 @@ public class NBTOutputStream implements Closeable {
      *             if an I/O error occurs.
      */
     private void writeCompoundTagPayload(CompoundTag tag) throws IOException {
+	// the undecoded children of a lazy compound are big-endian
+	if (tag instanceof LazyCompoundTag
+		&& encoding == NBTEncoding.BIG_ENDIAN) {
+	    LazyCompoundTag lazy = (LazyCompoundTag) tag;
+	    if (lazy.writePayload(this, os))
+		return;
+	}
+
 	for (Tag childTag : tag.getValue().values()) {
 	    writeTag(childTag);
 	}
@@ -208,11 +328,44 @@ public class NBTOutputStream implements Closeable {
 
 	os.writeByte(NBTUtils.getTypeCode(clazz));
 	os.writeInt(size);
+	if (tag instanceof NumericListTag) {
+	    writeNumericListTagPayload((NumericListTag<?>) tag);
+	    return;
+	}
 	for (int i = 0; i < size; i++) {
 	    writeTagPayload(tags.get(i));
 	}
     }
 
+    /**
+     * Writes the items of a numeric <code>TAG_List</code> tag straight from
+     * its array, a buffer at a time.
+     * 
+     * @param tag
+     *            The tag.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private void writeNumericListTagPayload(NumericListTag<?> tag)
+	    throws IOException {
+	byte[] buffer = getBuffer();
+	int size = tag.size();
+	int type = tag.getElementType();
+	int width = NumericListTag.getWidth(type);
+	int step = buffer.length / width;
+	for (int offset = 0; offset < size; offset += step) {
+	    int count = Math.min(step, size - offset);
+	    tag.write(ByteBuffer.wrap(buffer).order(os.order()), offset, count);
+	    os.writeNumbers(type, buffer, count);
+	}
+    }
+
+    private byte[] getBuffer() {
+	if (buffer == null)
+	    buffer = new byte[BUFFER_SIZE];
+	return buffer;
+    }
+
     /**
      * Writes a <code>TAG_String</code> tag.
      * 
@@ -223,7 +376,7 @@ public class NBTOutputStream implements Closeable {
      */
     private void writeStringTagPayload(StringTag tag) throws IOException {
 	byte[] bytes = tag.getValue().getBytes(NBTConstants.CHARSET);
-	os.writeShort(bytes.length);
+	os.writeStringLength(bytes.length);
 	os.write(bytes);
     }
 
@@ -299,6 +452,42 @@ public class NBTOutputStream implements Closeable {
 	/* empty */
     }
 
+    /**
+     * Writes the remaining bytes of a buffer, without copying them into an
+     * intermediate array when the buffer is backed by one.
+     * 
+     * @param out
+     *            The output.
+     * @param buffer
+     *            The buffer.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    static void write(DataOutput out, ByteBuffer buffer) throws IOException {
+	if (buffer.hasArray()) {
+	    out.write(buffer.array(), buffer.arrayOffset() + buffer.position(),
+		    buffer.remaining());
+	} else {
+	    ByteBuffer source = buffer.duplicate();
+	    byte[] chunk = new byte[Math.min(source.remaining(), 8192)];
+	    while (source.hasRemaining()) {
+		int n = Math.min(source.remaining(), chunk.length);
+		source.get(chunk, 0, n);
+		out.write(chunk, 0, n);
+	    }
+	}
+    }
+
+    /**
+     * Gets the output that tags are written to, for writers that encode tags
+     * without creating them, such as {@link NBTBinder}.
+     * 
+     * @return The output.
+     */
+    NBTDataOutput getDataOutput() {
+	return os;
+    }
+
     @Override
     public void close() throws IOException {
 	os.close();
@@ -0,0 +1,715 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * The differences between two compounds, as a list of operations which turn
+ * the first into the second. A child may be added, removed or replaced, the
+ * children of a compound may be put in a new order, and a
+ * <code>TAG_Byte_Array</code> may have ranges of bytes replaced, so that a
+ * small edit to a large array stays small.
+ * </p>
+ * 
+ * <p>
+ * Lists are compared item by item when their type and length are unchanged,
+ * and replaced otherwise. Subtrees with equal fingerprints are skipped
+ * without being walked. The names of the two compounds themselves are not
+ * compared.
+ * </p>
+ * 
+ * <p>
+ * A patch holds the tags it adds in their encoded form, so it does not share
+ * tags with either compound and may be applied any number of times. It checks
+ * that each operation fits the tree it is applied to, but an operation that
+ * does not fit leaves the operations before it applied.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see TagFingerprint
+ */
+public final class NBTPatch {
+
+    private static final int ADD = 1;
+    private static final int REMOVE = 2;
+    private static final int REPLACE = 3;
+    private static final int BYTES = 4;
+    private static final int ORDER = 5;
+
+    /**
+     * Ranges of changed bytes closer than this are merged, since each range
+     * costs eight bytes of offset and length.
+     */
+    private static final int GAP = 8;
+
+    private final List<Operation> operations;
+
+    private NBTPatch(List<Operation> operations) {
+	this.operations = operations;
+    }
+
+    /**
+     * Computes the patch which turns one compound into another.
+     * 
+     * @param from
+     *            The original compound.
+     * @param to
+     *            The changed compound.
+     * @return The patch.
+     */
+    public static NBTPatch diff(CompoundTag from, CompoundTag to) {
+	List<Operation> operations = new ArrayList<Operation>();
+	diffCompound(operations, new ArrayList<Object>(), from, to);
+	return new NBTPatch(operations);
+    }
+
+    /**
+     * Checks whether this patch changes nothing.
+     * 
+     * @return <code>true</code> if there are no operations
+     */
+    public boolean isEmpty() {
+	return operations.isEmpty();
+    }
+
+    /**
+     * Gets the number of operations in this patch.
+     * 
+     * @return The number of operations.
+     */
+    public int size() {
+	return operations.size();
+    }
+
+    /**
+     * Applies this patch to a compound.
+     * 
+     * @param tag
+     *            The compound, which must equal the original compound this
+     *            patch was computed from.
+     * @throws IllegalArgumentException
+     *             if an operation does not fit the compound.
+     */
+    public void apply(CompoundTag tag) {
+	for (Operation operation : operations)
+	    operation.apply(tag);
+    }
+
+    /**
+     * Reads a compound, applies this patch to it and writes the result. The
+     * compound is read lazily, so only the compounds the patch reaches into
+     * are decoded; everything else is copied as it was encoded.
+     * 
+     * @param in
+     *            The stream to read the original compound from.
+     * @param out
+     *            The stream to write the patched compound to.
+     * @throws IOException
+     *             if an I/O error occurs, or the tag that was read is not a
+     *             compound this patch fits.
+     */
+    public void apply(NBTInputStream in, NBTOutputStream out)
+	    throws IOException {
+	Tag<?> tag = in.readLazyTag();
+	if (!(tag instanceof CompoundTag))
+	    throw new IOException("Expected a TAG_Compound but found "
+		    + NBTUtils.getTypeName(tag.getTagType()) + ".");
+	try {
+	    apply((CompoundTag) tag);
+	} catch (IllegalArgumentException e) {
+	    throw new IOException("Patch does not fit: " + e.getMessage()
+		    + ".", e);
+	}
+	out.writeTag(tag);
+    }
+
+    /**
+     * Writes this patch.
+     * 
+     * @param out
+     *            The output.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void write(DataOutput out) throws IOException {
+	out.writeInt(operations.size());
+	for (Operation operation : operations)
+	    operation.write(out);
+    }
+
+    /**
+     * Reads a patch written by {@link #write(DataOutput)}.
+     * 
+     * @param in
+     *            The input.
+     * @return The patch.
+     * @throws IOException
+     *             if an I/O error occurs or the patch is malformed.
+     */
+    public static NBTPatch read(DataInput in) throws IOException {
+	int count = in.readInt();
+	if (count < 0)
+	    throw new IOException("Negative operation count: " + count + ".");
+	List<Operation> operations = new ArrayList<Operation>(Math.min(count,
+		1024));
+	for (int i = 0; i < count; i++)
+	    operations.add(Operation.read(in));
+	return new NBTPatch(operations);
+    }
+
+    private static void diffCompound(List<Operation> operations,
+	    List<Object> path, CompoundTag from, CompoundTag to) {
+	if (from.getPayloadFingerprint() == to.getPayloadFingerprint())
+	    return;
+
+	Map<String, Tag<?>> fromMap = from.getValue();
+	Map<String, Tag<?>> toMap = to.getValue();
+	for (String name : fromMap.keySet()) {
+	    if (!toMap.containsKey(name))
+		operations.add(new Operation(REMOVE, child(path, name)));
+	}
+	for (Map.Entry<String, Tag<?>> entry : toMap.entrySet()) {
+	    String name = entry.getKey();
+	    Tag<?> fromChild = fromMap.get(name);
+	    path.add(name);
+	    if (fromChild == null) {
+		operations.add(new Operation(ADD, path, entry.getValue()));
+	    } else {
+		diffTag(operations, path, fromChild, entry.getValue());
+	    }
+	    path.remove(path.size() - 1);
+	}
+
+	// additions are appended, so the order only needs fixing if a child
+	// was added before another or the children were rearranged
+	Iterator<String> expected = toMap.keySet().iterator();
+	boolean ordered = true;
+	for (String name : fromMap.keySet()) {
+	    if (toMap.containsKey(name) && !name.equals(expected.next())) {
+		ordered = false;
+		break;
+	    }
+	}
+	if (ordered) {
+	    for (String name : toMap.keySet()) {
+		if (!fromMap.containsKey(name) && !name.equals(expected.next())) {
+		    ordered = false;
+		    break;
+		}
+	    }
+	}
+	if (!ordered) {
+	    Operation operation = new Operation(ORDER, path);
+	    operation.names = toMap.keySet().toArray(new String[0]);
+	    operations.add(operation);
+	}
+    }
+
+    private static void diffTag(List<Operation> operations, List<Object> path,
+	    Tag<?> from, Tag<?> to) {
+	int type = to.getTagType();
+	if (from.getTagType() != type) {
+	    operations.add(new Operation(REPLACE, path, to));
+	    return;
+	}
+
+	switch (type) {
+	case NBTConstants.TYPE_END:
+	    break;
+	case NBTConstants.TYPE_BYTE:
+	case NBTConstants.TYPE_SHORT:
+	case NBTConstants.TYPE_INT:
+	case NBTConstants.TYPE_LONG:
+	case NBTConstants.TYPE_FLOAT:
+	case NBTConstants.TYPE_DOUBLE:
+	case NBTConstants.TYPE_STRING:
+	    if (!from.getValue().equals(to.getValue()))
+		operations.add(new Operation(REPLACE, path, to));
+	    break;
+	case NBTConstants.TYPE_COMPOUND:
+	    diffCompound(operations, path, (CompoundTag) from,
+		    (CompoundTag) to);
+	    break;
+	case NBTConstants.TYPE_LIST:
+	    diffList(operations, path, (ListTag<?>) from, (ListTag<?>) to);
+	    break;
+	case NBTConstants.TYPE_BYTE_ARRAY:
+	    if (from.getPayloadFingerprint() != to.getPayloadFingerprint())
+		diffBytes(operations, path, (ByteArrayTag) from,
+			(ByteArrayTag) to);
+	    break;
+	default:
+	    if (from.getPayloadFingerprint() != to.getPayloadFingerprint())
+		operations.add(new Operation(REPLACE, path, to));
+	}
+    }
+
+    private static void diffList(List<Operation> operations,
+	    List<Object> path, ListTag<?> from, ListTag<?> to) {
+	if (from.getPayloadFingerprint() == to.getPayloadFingerprint())
+	    return;
+
+	List<? extends Tag<?>> fromItems = from.getValue();
+	List<? extends Tag<?>> toItems = to.getValue();
+	int size = toItems.size();
+	if (from.getType() != to.getType() || fromItems.size() != size) {
+	    operations.add(new Operation(REPLACE, path, to));
+	    return;
+	}
+
+	int start = operations.size(), changed = 0;
+	for (int i = 0; i < size; i++) {
+	    int count = operations.size();
+	    path.add(i);
+	    diffTag(operations, path, fromItems.get(i), toItems.get(i));
+	    path.remove(path.size() - 1);
+	    if (operations.size() > count)
+		changed++;
+	}
+	// past this, replacing a list of values whole is smaller
+	int type = NBTUtils.getTypeCode(to.getType());
+	if (changed > size / 2 && type != NBTConstants.TYPE_COMPOUND
+		&& type != NBTConstants.TYPE_LIST) {
+	    operations.subList(start, operations.size()).clear();
+	    operations.add(new Operation(REPLACE, path, to));
+	}
+    }
+
+    private static void diffBytes(List<Operation> operations,
+	    List<Object> path, ByteArrayTag from, ByteArrayTag to) {
+	byte[] a = from.getValue(), b = to.getValue();
+	List<int[]> ranges = new ArrayList<int[]>();
+	int common = Math.min(a.length, b.length);
+	int i = 0;
+	while (i < common) {
+	    if (a[i] == b[i]) {
+		i++;
+		continue;
+	    }
+	    int start = i, end = ++i;
+	    for (; i < common && i - end < GAP; i++) {
+		if (a[i] != b[i])
+		    end = i + 1;
+	    }
+	    ranges.add(new int[] { start, end });
+	}
+	if (b.length > a.length) {
+	    int[] last = (ranges.isEmpty() ? null : ranges.get(ranges.size() - 1));
+	    if (last != null && a.length - last[1] < GAP) {
+		last[1] = b.length;
+	    } else {
+		ranges.add(new int[] { a.length, b.length });
+	    }
+	}
+
+	long cost = 0;
+	for (int[] range : ranges)
+	    cost += 8 + range[1] - range[0];
+	if (cost >= b.length) {
+	    operations.add(new Operation(REPLACE, path, to));
+	    return;
+	}
+
+	Operation operation = new Operation(BYTES, path);
+	operation.oldLength = a.length;
+	operation.newLength = b.length;
+	operation.offsets = new int[ranges.size()];
+	operation.ranges = new byte[ranges.size()][];
+	for (int r = 0; r < ranges.size(); r++) {
+	    int[] range = ranges.get(r);
+	    operation.offsets[r] = range[0];
+	    operation.ranges[r] = Arrays.copyOfRange(b, range[0], range[1]);
+	}
+	operations.add(operation);
+    }
+
+    private static List<Object> child(List<Object> path, Object segment) {
+	List<Object> child = new ArrayList<Object>(path.size() + 1);
+	child.addAll(path);
+	child.add(segment);
+	return child;
+    }
+
+    /**
+     * Lists the operations, one per line, with the paths they apply to
+     * written as {@link NBTPath} expressions and the tags they add as SNBT.
+     */
+    @Override
+    public String toString() {
+	StringBuilder sb = new StringBuilder();
+	for (Operation operation : operations) {
+	    if (sb.length() > 0)
+		sb.append("\r\n");
+	    operation.appendTo(sb);
+	}
+	return sb.toString();
+    }
+
+    private static final class Operation {
+
+	private final int kind;
+	private final Object[] path;
+
+	/**
+	 * The encoded tag to add or replace with.
+	 */
+	private byte[] tag;
+
+	private int oldLength, newLength;
+	private int[] offsets;
+	private byte[][] ranges;
+
+	private String[] names;
+
+	public Operation(int kind, List<Object> path) {
+	    this.kind = kind;
+	    this.path = path.toArray();
+	}
+
+	public Operation(int kind, List<Object> path, Tag<?> tag) {
+	    this(kind, path);
+	    this.tag = encode(tag);
+	}
+
+	private static byte[] encode(Tag<?> tag) {
+	    try {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		NBTOutputStream out = new NBTOutputStream(bytes, false);
+		out.writeTag(tag);
+		out.close();
+		return bytes.toByteArray();
+	    } catch (IOException e) {
+		throw new IllegalArgumentException(e);
+	    }
+	}
+
+	private Tag<?> decode() {
+	    try {
+		return new NBTInputStream(new ByteArrayInputStream(tag), false)
+			.readTag();
+	    } catch (IOException e) {
+		throw new IllegalArgumentException(e);
+	    }
+	}
+
+	public void apply(CompoundTag root) {
+	    switch (kind) {
+	    case ORDER:
+		reorder(compound(resolve(root, path.length)));
+		return;
+	    case BYTES:
+		patchBytes(resolve(root, path.length));
+		return;
+	    }
+
+	    Tag<?> parent = resolve(root, path.length - 1);
+	    Object segment = path[path.length - 1];
+	    if (segment instanceof String) {
+		CompoundTag compound = compound(parent);
+		String name = (String) segment;
+		boolean exists = compound.getValue().containsKey(name);
+		if (kind == ADD ? exists : !exists)
+		    throw new IllegalArgumentException((exists ? "tag exists"
+			    : "no tag") + " at " + getPath());
+		if (kind == REMOVE) {
+		    compound.remove(name);
+		} else {
+		    compound.add(decode());
+		}
+	    } else {
+		int index = (Integer) segment;
+		if (!(parent instanceof ListTag)
+			|| index >= ((ListTag<?>) parent).getValue().size())
+		    throw new IllegalArgumentException("no tag at " + getPath());
+		replaceItem((ListTag<?>) parent, index);
+	    }
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private void replaceItem(ListTag list, int index) {
+	    Tag<?> item = decode();
+	    if (NBTUtils.getTypeCode(list.getType()) != item.getTagType())
+		throw new IllegalArgumentException("not a list of "
+			+ NBTUtils.getTypeName(item.getTagType()) + " at "
+			+ getPath());
+	    if (list instanceof NumericListTag) {
+		// store the value rather than a tag wrapping it
+		NumericListTag<?> numbers = (NumericListTag<?>) list;
+		Number value = (Number) item.getValue();
+		switch (item.getTagType()) {
+		case NBTConstants.TYPE_FLOAT:
+		case NBTConstants.TYPE_DOUBLE:
+		    numbers.setDouble(index, value.doubleValue());
+		    break;
+		default:
+		    numbers.setLong(index, value.longValue());
+		}
+		return;
+	    }
+	    list.remove(index);
+	    list.add(index, item);
+	}
+
+	private void reorder(CompoundTag compound) {
+	    Map<String, Tag<?>> map = compound.getValue();
+	    IndexedMap<Tag<?>> ordered = new IndexedMap<Tag<?>>(map.size());
+	    for (String name : names) {
+		Tag<?> child = map.get(name);
+		if (child == null)
+		    throw new IllegalArgumentException("no tag at "
+			    + NBTPath.appendName(getPath(), name));
+		ordered.put(name, child);
+	    }
+	    if (ordered.size() != map.size())
+		throw new IllegalArgumentException("unexpected tags at "
+			+ getPath());
+	    compound.setValue(ordered);
+	}
+
+	private void patchBytes(Tag<?> tag) {
+	    if (!(tag instanceof ByteArrayTag))
+		throw new IllegalArgumentException("no TAG_Byte_Array at "
+			+ getPath());
+	    ByteArrayTag array = (ByteArrayTag) tag;
+	    byte[] bytes = array.getValue();
+	    if (bytes.length != oldLength)
+		throw new IllegalArgumentException("expected " + oldLength
+			+ " bytes but found " + bytes.length + " at "
+			+ getPath());
+	    byte[] patched = bytes;
+	    if (newLength != oldLength)
+		patched = Arrays.copyOf(bytes, newLength);
+	    for (int r = 0; r < offsets.length; r++)
+		System.arraycopy(ranges[r], 0, patched, offsets[r],
+			ranges[r].length);
+	    if (patched == bytes) {
+		array.setChanged();
+	    } else {
+		array.setValue(patched);
+	    }
+	}
+
+	private Tag<?> resolve(CompoundTag root, int length) {
+	    Tag<?> tag = root;
+	    for (int i = 0; i < length && tag != null; i++) {
+		Object segment = path[i];
+		if (segment instanceof String) {
+		    tag = (tag instanceof CompoundTag ? ((CompoundTag) tag)
+			    .getChild((String) segment) : null);
+		} else if (tag instanceof ListTag) {
+		    List<? extends Tag<?>> items = ((ListTag<?>) tag)
+			    .getValue();
+		    int index = (Integer) segment;
+		    tag = (index < items.size() ? items.get(index) : null);
+		} else {
+		    tag = null;
+		}
+	    }
+	    if (tag == null)
+		throw new IllegalArgumentException("no tag at "
+			+ getPath(length));
+	    return tag;
+	}
+
+	private CompoundTag compound(Tag<?> tag) {
+	    if (!(tag instanceof CompoundTag))
+		throw new IllegalArgumentException("no TAG_Compound at "
+			+ getPath());
+	    return (CompoundTag) tag;
+	}
+
+	public String getPath() {
+	    return getPath(path.length);
+	}
+
+	private String getPath(int length) {
+	    String s = "";
+	    for (int i = 0; i < length; i++) {
+		Object segment = path[i];
+		if (segment instanceof String) {
+		    s = NBTPath.appendName(s, (String) segment);
+		} else {
+		    s = NBTPath.appendIndex(s, (Integer) segment);
+		}
+	    }
+	    return s;
+	}
+
+	public void appendTo(StringBuilder sb) {
+	    switch (kind) {
+	    case ADD:
+		sb.append("+ ").append(getPath()).append(" = ");
+		appendTag(sb);
+		break;
+	    case REMOVE:
+		sb.append("- ").append(getPath());
+		break;
+	    case REPLACE:
+		sb.append("* ").append(getPath()).append(" = ");
+		appendTag(sb);
+		break;
+	    case BYTES:
+		int changed = 0;
+		for (byte[] range : ranges)
+		    changed += range.length;
+		sb.append("* ").append(getPath()).append(": ").append(changed)
+			.append(" bytes in ").append(ranges.length)
+			.append(ranges.length == 1 ? " range" : " ranges");
+		if (newLength != oldLength)
+		    sb.append(", length ").append(oldLength).append(" -> ")
+			    .append(newLength);
+		break;
+	    case ORDER:
+		String path = getPath();
+		sb.append("* ").append(path).append(path.isEmpty() ? "" : ": ")
+			.append("order ").append(Arrays.toString(names));
+		break;
+	    }
+	}
+
+	private void appendTag(StringBuilder sb) {
+	    StringWriter sw = new StringWriter();
+	    SNBTWriter writer = new SNBTWriter(sw);
+	    writer.setArrayLimit(16);
+	    try {
+		writer.write(decode());
+		writer.flush();
+	    } catch (IOException e) {
+		// a StringWriter does not throw
+		throw new IllegalStateException(e);
+	    }
+	    sb.append(sw.toString());
+	}
+
+	public void write(DataOutput out) throws IOException {
+	    out.writeByte(kind);
+	    out.writeShort(path.length);
+	    for (Object segment : path) {
+		if (segment instanceof String) {
+		    out.writeByte(NBTConstants.TYPE_STRING);
+		    out.writeUTF((String) segment);
+		} else {
+		    out.writeByte(NBTConstants.TYPE_INT);
+		    out.writeInt((Integer) segment);
+		}
+	    }
+
+	    switch (kind) {
+	    case ADD:
+	    case REPLACE:
+		out.writeInt(tag.length);
+		out.write(tag);
+		break;
+	    case BYTES:
+		out.writeInt(oldLength);
+		out.writeInt(newLength);
+		out.writeInt(offsets.length);
+		for (int r = 0; r < offsets.length; r++) {
+		    out.writeInt(offsets[r]);
+		    out.writeInt(ranges[r].length);
+		    out.write(ranges[r]);
+		}
+		break;
+	    case ORDER:
+		out.writeInt(names.length);
+		for (String name : names)
+		    out.writeUTF(name);
+		break;
+	    }
+	}
+
+	public static Operation read(DataInput in) throws IOException {
+	    int kind = in.readByte();
+	    if (kind < ADD || kind > ORDER)
+		throw new IOException("Invalid patch operation: " + kind + ".");
+
+	    int length = in.readShort() & 0xFFFF;
+	    Object[] path = new Object[length];
+	    for (int i = 0; i < length; i++) {
+		int type = in.readByte();
+		if (type == NBTConstants.TYPE_STRING) {
+		    path[i] = in.readUTF();
+		} else if (type == NBTConstants.TYPE_INT) {
+		    path[i] = in.readInt();
+		} else {
+		    throw new IOException("Invalid path segment: " + type + ".");
+		}
+	    }
+	    Operation operation = new Operation(kind, Arrays.asList(path));
+	    if (kind != ORDER && kind != BYTES && length == 0)
+		throw new IOException("Empty path.");
+
+	    switch (kind) {
+	    case ADD:
+	    case REPLACE:
+		operation.tag = readBytes(in);
+		break;
+	    case BYTES:
+		operation.oldLength = in.readInt();
+		operation.newLength = in.readInt();
+		int count = in.readInt();
+		if (operation.newLength < 0 || count < 0)
+		    throw new IOException("Negative byte range.");
+		operation.offsets = new int[count];
+		operation.ranges = new byte[count][];
+		for (int r = 0; r < count; r++) {
+		    int offset = in.readInt();
+		    byte[] range = readBytes(in);
+		    if (offset < 0 || offset + range.length > operation.newLength)
+			throw new IOException("Byte range out of bounds: "
+				+ offset + ".");
+		    operation.offsets[r] = offset;
+		    operation.ranges[r] = range;
+		}
+		break;
+	    case ORDER:
+		count = in.readInt();
+		if (count < 0)
+		    throw new IOException("Negative name count: " + count + ".");
+		List<String> names = new ArrayList<String>(Math.min(count, 1024));
+		for (int i = 0; i < count; i++)
+		    names.add(in.readUTF());
+		operation.names = names.toArray(new String[0]);
+		break;
+	    }
+	    return operation;
+	}
+
+	private static byte[] readBytes(DataInput in) throws IOException {
+	    int length = in.readInt();
+	    if (length < 0)
+		throw new IOException("Negative length: " + length + ".");
+	    byte[] bytes = new byte[length];
+	    in.readFully(bytes);
+	    return bytes;
+	}
+
+    }
+
+}
@@ -0,0 +1,663 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A compiled query which selects tags by their path, for example:
+ * </p>
+ * 
+ * <pre>
+ * Level.TileEntities[*]{id==&quot;Chest&quot;}.Items[*].id
+ * </pre>
+ * 
+ * <p>
+ * A path is a sequence of steps, each applied to the tags selected by the
+ * steps before it:
+ * </p>
+ * 
+ * <ul>
+ * <li><code>name</code> or <code>.name</code> selects the child of a compound
+ * with that name. Names containing punctuation or spaces are written in double
+ * quotes.</li>
+ * <li><code>*</code>, <code>.*</code> or <code>[*]</code> selects every child
+ * of a compound or every item of a list.</li>
+ * <li><code>[n]</code> selects item <code>n</code> of a list.</li>
+ * <li><code>..name</code> or <code>..*</code> selects matching tags at any
+ * depth below the current one.</li>
+ * <li><code>{condition, ...}</code> keeps the current tag only if every
+ * condition holds. A condition is a relative path, optionally followed by one
+ * of <code>== != &lt; &lt;= &gt; &gt;=</code> and a quoted string or a number;
+ * it holds if any tag the path selects has a value which compares true, or
+ * for a bare path, if it selects anything at all.</li>
+ * </ul>
+ * 
+ * <p>
+ * A path can be evaluated against a tree of tags with {@link #select(Tag)},
+ * or against a stream with {@link #select(NBTReader)}. The stream is walked
+ * without decoding anything but the names along the way: subtrees that cannot
+ * match are skipped, and a tag is only decoded when it is selected or when a
+ * condition has to be tested against it.
+ * </p>
+ * 
+ * <p>
+ * A compiled path is immutable and may be shared between threads.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ */
+public final class NBTPath {
+
+    private static final int CHILD = 0, ANY = 1, INDEX = 2, DESCEND = 3,
+	    FILTER = 4;
+
+    private static final int EXISTS = 0, EQ = 1, NE = 2, LT = 3, LE = 4,
+	    GT = 5, GE = 6;
+
+    private final String expression;
+    private final Step[] steps;
+
+    private NBTPath(String expression, Step[] steps) {
+	this.expression = expression;
+	this.steps = steps;
+    }
+
+    /**
+     * Compiles a path.
+     * 
+     * @param expression
+     *            The path.
+     * @return The compiled path.
+     * @throws IllegalArgumentException
+     *             if the path is malformed.
+     */
+    public static NBTPath compile(String expression) {
+	if (expression == null)
+	    throw new IllegalArgumentException("expression must not be null");
+	Parser parser = new Parser(expression);
+	NBTPath path = parser.parsePath();
+	parser.skipWhitespace();
+	if (parser.position < expression.length())
+	    throw parser.error("unexpected '"
+		    + expression.charAt(parser.position) + "'");
+	return path;
+    }
+
+    /**
+     * Selects every tag within a tree that this path matches.
+     * 
+     * @param root
+     *            The tag the path is relative to.
+     * @return The matches, in the order they were found.
+     */
+    public List<Match> select(Tag<?> root) {
+	Map<String, Match> matches = new LinkedHashMap<String, Match>();
+	select(0, root, "", matches);
+	return new ArrayList<Match>(matches.values());
+    }
+
+    /**
+     * Reads the next tag from a stream and selects every tag within it that
+     * this path matches.
+     * 
+     * @param reader
+     *            The reader. Its next tag is the one the path is relative to.
+     * @return The matches, in the order they were found.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public List<Match> select(NBTReader reader) throws IOException {
+	if (reader.next() == NBTConstants.TYPE_END)
+	    return Collections.emptyList();
+	Map<String, Match> matches = new LinkedHashMap<String, Match>();
+	boolean[] active = new boolean[steps.length + 1];
+	active[0] = true;
+	close(active);
+	select(reader, active, "", matches);
+	return new ArrayList<Match>(matches.values());
+    }
+
+    private void select(int step, Tag<?> tag, String path,
+	    Map<String, Match> matches) {
+	if (step == steps.length) {
+	    if (!matches.containsKey(path))
+		matches.put(path, new Match(path, tag));
+	    return;
+	}
+
+	Step s = steps[step];
+	switch (s.kind) {
+	case CHILD:
+	    if (tag instanceof CompoundTag) {
+		Tag<?> child = ((CompoundTag) tag).getChild(s.name);
+		if (child != null)
+		    select(step + 1, child, appendName(path, s.name), matches);
+	    }
+	    break;
+	case ANY:
+	    selectChildren(step + 1, tag, path, matches);
+	    break;
+	case INDEX:
+	    if (tag instanceof ListTag) {
+		ListTag<?> list = (ListTag<?>) tag;
+		if (s.index < list.getChildCount()) {
+		    Tag<?> item = (Tag<?>) list.getChild(s.index);
+		    select(step + 1, item, appendIndex(path, s.index), matches);
+		}
+	    }
+	    break;
+	case DESCEND:
+	    select(step + 1, tag, path, matches);
+	    selectChildren(step, tag, path, matches);
+	    break;
+	case FILTER:
+	    if (s.test(tag))
+		select(step + 1, tag, path, matches);
+	    break;
+	}
+    }
+
+    private void selectChildren(int step, Tag<?> tag, String path,
+	    Map<String, Match> matches) {
+	if (tag instanceof CompoundTag) {
+	    CompoundTag compound = (CompoundTag) tag;
+	    int count = compound.getChildCount();
+	    for (int i = 0; i < count; i++) {
+		Tag<?> child = (Tag<?>) compound.getChild(i);
+		select(step, child, appendName(path, child.getName()), matches);
+	    }
+	} else if (tag instanceof ListTag) {
+	    ListTag<?> list = (ListTag<?>) tag;
+	    int count = list.getChildCount();
+	    for (int i = 0; i < count; i++) {
+		Tag<?> item = (Tag<?>) list.getChild(i);
+		select(step, item, appendIndex(path, i), matches);
+	    }
+	}
+    }
+
+    /**
+     * Selects matches within the tag the reader is positioned on.
+     * 
+     * @param active
+     *            The steps which apply to the current tag; the last element
+     *            is set if the tag itself is a match.
+     */
+    private void select(NBTReader reader, boolean[] active, String path,
+	    Map<String, Match> matches) throws IOException {
+	boolean decode = active[steps.length];
+	boolean compound = false, list = false;
+	for (int i = 0; i < steps.length; i++) {
+	    if (!active[i])
+		continue;
+	    switch (steps[i].kind) {
+	    case FILTER:
+		decode = true;
+		break;
+	    case CHILD:
+		compound = true;
+		break;
+	    case INDEX:
+		list = true;
+		break;
+	    default:
+		compound = list = true;
+	    }
+	}
+
+	if (decode) {
+	    Tag<?> tag = reader.readTag();
+	    for (int i = 0; i <= steps.length; i++) {
+		if (active[i])
+		    select(i, tag, path, matches);
+	    }
+	    return;
+	}
+
+	int type = reader.tagType();
+	if (!(compound && type == NBTConstants.TYPE_COMPOUND)
+		&& !(list && type == NBTConstants.TYPE_LIST)) {
+	    reader.skipValue();
+	    return;
+	}
+
+	boolean isList = (type == NBTConstants.TYPE_LIST);
+	for (int index = 0; reader.next() != NBTConstants.TYPE_END; index++) {
+	    String name = reader.name();
+	    boolean[] next = advance(active, isList, name, index);
+	    if (next == null) {
+		reader.skipValue();
+	    } else {
+		String childPath = isList ? appendIndex(path, index)
+			: appendName(path, name);
+		select(reader, next, childPath, matches);
+	    }
+	}
+    }
+
+    /**
+     * Computes the steps which apply to a child from those which apply to its
+     * parent.
+     * 
+     * @return The steps, or <code>null</code> if there are none.
+     */
+    private boolean[] advance(boolean[] active, boolean isList, String name,
+	    int index) {
+	boolean[] next = null;
+	for (int i = 0; i < steps.length; i++) {
+	    if (!active[i])
+		continue;
+	    Step s = steps[i];
+	    int target;
+	    switch (s.kind) {
+	    case CHILD:
+		target = (!isList && s.name.equals(name) ? i + 1 : -1);
+		break;
+	    case ANY:
+		target = i + 1;
+		break;
+	    case INDEX:
+		target = (isList && s.index == index ? i + 1 : -1);
+		break;
+	    case DESCEND:
+		target = i;
+		break;
+	    default:
+		target = -1;
+	    }
+	    if (target != -1) {
+		if (next == null)
+		    next = new boolean[active.length];
+		next[target] = true;
+	    }
+	}
+	if (next != null)
+	    close(next);
+	return next;
+    }
+
+    /**
+     * Adds the step after each active <code>..</code>, since it applies to
+     * the tag the descent starts from as well as to those below it.
+     */
+    private void close(boolean[] active) {
+	for (int i = 0; i < steps.length; i++) {
+	    if (active[i] && steps[i].kind == DESCEND)
+		active[i + 1] = true;
+	}
+    }
+
+    static String appendName(String path, String name) {
+	String segment = Parser.isPlain(name) ? name : quote(name);
+	return (path.isEmpty() ? segment : path + "." + segment);
+    }
+
+    static String appendIndex(String path, int index) {
+	return path + "[" + index + "]";
+    }
+
+    private static String quote(String name) {
+	StringBuilder sb = new StringBuilder(name.length() + 2).append('"');
+	for (int i = 0; i < name.length(); i++) {
+	    char c = name.charAt(i);
+	    if (c == '"' || c == '\\')
+		sb.append('\\');
+	    sb.append(c);
+	}
+	return sb.append('"').toString();
+    }
+
+    @Override
+    public String toString() {
+	return expression;
+    }
+
+    /**
+     * A tag selected by a path, together with its location.
+     */
+    public static final class Match {
+
+	private final String path;
+	private final Tag<?> tag;
+
+	Match(String path, Tag<?> tag) {
+	    this.path = path;
+	    this.tag = tag;
+	}
+
+	/**
+	 * Gets the location of the tag, relative to the tag the path was
+	 * evaluated against, for example <code>Level.Entities[2].id</code>.
+	 *
+	 * @return The location.
+	 */
+	public String getPath() {
+	    return path;
+	}
+
+	public Tag<?> getTag() {
+	    return tag;
+	}
+
+	@Override
+	public String toString() {
+	    return path + " = " + tag;
+	}
+
+    }
+
+    private static final class Step {
+
+	private final int kind;
+	private final String name;
+	private final int index;
+	private final Condition[] conditions;
+
+	private Step(int kind, String name, int index, Condition[] conditions) {
+	    this.kind = kind;
+	    this.name = name;
+	    this.index = index;
+	    this.conditions = conditions;
+	}
+
+	private boolean test(Tag<?> tag) {
+	    for (Condition condition : conditions) {
+		if (!condition.test(tag))
+		    return false;
+	    }
+	    return true;
+	}
+
+    }
+
+    private static final class Condition {
+
+	private final NBTPath path;
+	private final int operator;
+	private final Object operand;
+
+	private Condition(NBTPath path, int operator, Object operand) {
+	    this.path = path;
+	    this.operator = operator;
+	    this.operand = operand;
+	}
+
+	private boolean test(Tag<?> tag) {
+	    for (Match match : path.select(tag)) {
+		if (operator == EXISTS
+			|| compare(match.getTag().getValue(), operator, operand))
+		    return true;
+	    }
+	    return false;
+	}
+
+	private static boolean compare(Object value, int operator,
+		Object operand) {
+	    int cmp;
+	    if (value instanceof Number && operand instanceof Number) {
+		Number a = (Number) value, b = (Number) operand;
+		if (isIntegral(a) && b instanceof Long) {
+		    long x = a.longValue(), y = b.longValue();
+		    cmp = (x < y ? -1 : (x == y ? 0 : 1));
+		} else {
+		    cmp = Double.compare(a.doubleValue(), b.doubleValue());
+		}
+	    } else if (value instanceof String && operand instanceof String) {
+		cmp = ((String) value).compareTo((String) operand);
+	    } else {
+		return (operator == NE);
+	    }
+
+	    switch (operator) {
+	    case EQ:
+		return cmp == 0;
+	    case NE:
+		return cmp != 0;
+	    case LT:
+		return cmp < 0;
+	    case LE:
+		return cmp <= 0;
+	    case GT:
+		return cmp > 0;
+	    default:
+		return cmp >= 0;
+	    }
+	}
+
+	private static boolean isIntegral(Number n) {
+	    return (n instanceof Byte || n instanceof Short
+		    || n instanceof Integer || n instanceof Long);
+	}
+
+    }
+
+    private static final class Parser {
+
+	private static final String DELIMITERS = ".[]{}=!<>,\"";
+
+	private final String expression;
+	private int position;
+
+	private Parser(String expression) {
+	    this.expression = expression;
+	}
+
+	private static boolean isPlain(String name) {
+	    if (name.isEmpty() || name.equals("*"))
+		return false;
+	    for (int i = 0; i < name.length(); i++) {
+		if (isDelimiter(name.charAt(i)))
+		    return false;
+	    }
+	    return true;
+	}
+
+	private static boolean isDelimiter(char c) {
+	    return Character.isWhitespace(c) || DELIMITERS.indexOf(c) != -1;
+	}
+
+	private IllegalArgumentException error(String message) {
+	    return new IllegalArgumentException(message + " at " + position
+		    + " in path: " + expression);
+	}
+
+	private boolean atEnd() {
+	    return position == expression.length();
+	}
+
+	private char peek() {
+	    return (atEnd() ? '\0' : expression.charAt(position));
+	}
+
+	private boolean accept(char c) {
+	    if (peek() != c)
+		return false;
+	    position++;
+	    return true;
+	}
+
+	private void expect(char c) {
+	    if (!accept(c))
+		throw error(atEnd() ? "expected '" + c + "'" : "expected '" + c
+			+ "' but found '" + peek() + "'");
+	}
+
+	private void skipWhitespace() {
+	    while (!atEnd() && Character.isWhitespace(peek()))
+		position++;
+	}
+
+	/**
+	 * Parses steps up to the end of the expression or the first character
+	 * which cannot continue a path.
+	 */
+	private NBTPath parsePath() {
+	    int start = position;
+	    List<Step> steps = new ArrayList<Step>();
+	    skipWhitespace();
+	    if (!atEnd() && isSegmentStart(peek()))
+		steps.add(parseSegment());
+	    while (true) {
+		char c = peek();
+		if (c == '.') {
+		    position++;
+		    if (accept('.'))
+			steps.add(new Step(DESCEND, null, -1, null));
+		    steps.add(parseSegment());
+		} else if (c == '[') {
+		    position++;
+		    if (accept('*')) {
+			steps.add(new Step(ANY, null, -1, null));
+		    } else {
+			steps.add(new Step(INDEX, null, parseIndex(), null));
+		    }
+		    expect(']');
+		} else if (c == '{') {
+		    position++;
+		    steps.add(new Step(FILTER, null, -1, parseConditions()));
+		} else {
+		    break;
+		}
+	    }
+	    String expression = this.expression.substring(start, position)
+		    .trim();
+	    return new NBTPath(expression, steps.toArray(new Step[steps
+		    .size()]));
+	}
+
+	private boolean isSegmentStart(char c) {
+	    return c == '*' || c == '"' || !isDelimiter(c);
+	}
+
+	private Step parseSegment() {
+	    if (accept('*'))
+		return new Step(ANY, null, -1, null);
+	    return new Step(CHILD, parseName(), -1, null);
+	}
+
+	private String parseName() {
+	    if (peek() == '"')
+		return parseString();
+	    int start = position;
+	    while (!atEnd() && !isDelimiter(peek()) && peek() != '*')
+		position++;
+	    if (position == start)
+		throw error(atEnd() ? "expected a name" : "unexpected '"
+			+ peek() + "'");
+	    return expression.substring(start, position);
+	}
+
+	private String parseString() {
+	    expect('"');
+	    StringBuilder sb = new StringBuilder();
+	    while (true) {
+		if (atEnd())
+		    throw error("unterminated string");
+		char c = expression.charAt(position++);
+		if (c == '"')
+		    break;
+		if (c == '\\') {
+		    if (atEnd())
+			throw error("unterminated string");
+		    c = expression.charAt(position++);
+		}
+		sb.append(c);
+	    }
+	    return sb.toString();
+	}
+
+	private int parseIndex() {
+	    skipWhitespace();
+	    int start = position;
+	    while (!atEnd() && Character.isDigit(peek()))
+		position++;
+	    if (position == start)
+		throw error("expected an index");
+	    try {
+		int index = Integer.parseInt(expression.substring(start,
+			position));
+		skipWhitespace();
+		return index;
+	    } catch (NumberFormatException e) {
+		throw error("index out of range");
+	    }
+	}
+
+	private Condition[] parseConditions() {
+	    List<Condition> conditions = new ArrayList<Condition>();
+	    do {
+		NBTPath path = parsePath();
+		skipWhitespace();
+		int operator = parseOperator();
+		Object operand = null;
+		if (operator != EXISTS) {
+		    skipWhitespace();
+		    operand = parseLiteral();
+		    skipWhitespace();
+		}
+		conditions.add(new Condition(path, operator, operand));
+	    } while (accept(','));
+	    expect('}');
+	    return conditions.toArray(new Condition[conditions.size()]);
+	}
+
+	private int parseOperator() {
+	    String[] symbols = { "==", "!=", "<=", ">=", "<", ">" };
+	    int[] operators = { EQ, NE, LE, GE, LT, GT };
+	    for (int i = 0; i < symbols.length; i++) {
+		if (expression.startsWith(symbols[i], position)) {
+		    position += symbols[i].length();
+		    return operators[i];
+		}
+	    }
+	    return EXISTS;
+	}
+
+	/**
+	 * Parses a quoted string, or a number with an optional type suffix as
+	 * in <code>3b</code> or <code>0.5f</code>, which is ignored.
+	 */
+	private Object parseLiteral() {
+	    if (peek() == '"')
+		return parseString();
+	    int start = position;
+	    while (!atEnd() && "+-.0123456789eE".indexOf(peek()) != -1)
+		position++;
+	    String number = expression.substring(start, position);
+	    if (!atEnd() && "bBsSlLfFdD".indexOf(peek()) != -1)
+		position++;
+	    try {
+		if (number.indexOf('.') == -1 && number.indexOf('e') == -1
+			&& number.indexOf('E') == -1)
+		    return Long.valueOf(number);
+		return Double.valueOf(number);
+	    } catch (NumberFormatException e) {
+		position = start;
+		throw error("expected a string or a number");
+	    }
+	}
+
+    }
+
+}
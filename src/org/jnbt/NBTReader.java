@@ -0,0 +1,536 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>
+ * A pull parser which reads an NBT stream one tag at a time. Each call to
+ * {@link #next()} positions the reader on the next tag and returns its type.
+ * Numeric values are read as soon as the reader is positioned on them; strings,
+ * byte arrays, lists and compounds are left in the stream until they are read,
+ * entered or skipped.
+ * </p>
+ * 
+ * <p>
+ * Calling {@link #next()} on a <code>TAG_Compound</code> or
+ * <code>TAG_List</code> enters it, while {@link #skipValue()} steps over it
+ * without decoding its children. The end of a compound or of a list is
+ * reported as <code>TAG_End</code>, even though lists have no end marker in
+ * the stream.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see NBTInputStream
+ */
+public class NBTReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final NBTDataInput is;
+
+    /**
+     * The containers that have been entered, innermost last.
+     */
+    private int[] stackType = new int[16];
+    private int[] stackElementType = new int[16];
+    private int[] stackRemaining = new int[16];
+    private int depth;
+
+    private int type = NBTConstants.TYPE_END;
+    private String name = "";
+    private long primitive;
+    private int listType, listLength;
+
+    /**
+     * <code>true</code> while the payload of a string, byte array, list or
+     * compound has not been read, entered or skipped.
+     */
+    private boolean pending;
+
+    private byte[] buffer;
+
+    private NBTSymbolTable symbols;
+
+    public NBTReader(InputStream is) throws IOException {
+	this(is, true);
+    }
+
+    public NBTReader(InputStream is, boolean gzip) throws IOException {
+	if (gzip)
+	    is = new GZIPInputStream(is);
+	this.is = NBTEncoding.BIG_ENDIAN.newInput(is);
+    }
+
+    /**
+     * @param is
+     *            The input stream.
+     * @param codec
+     *            The codec, or <code>null</code> to detect it from the first
+     *            bytes of the stream.
+     * @throws IOException
+     *             if an I/O error occurs.
+     * @see NBTInputStream#NBTInputStream(InputStream, CompressionCodec)
+     */
+    public NBTReader(InputStream is, CompressionCodec codec) throws IOException {
+	this(is, codec, NBTEncoding.BIG_ENDIAN);
+    }
+
+    /**
+     * @param is
+     *            The input stream.
+     * @param codec
+     *            The codec, or <code>null</code> to detect it from the first
+     *            bytes of the stream.
+     * @param encoding
+     *            The encoding of the decompressed data.
+     * @throws IOException
+     *             if an I/O error occurs.
+     * @see NBTInputStream#NBTInputStream(InputStream, CompressionCodec,
+     *      NBTEncoding)
+     */
+    public NBTReader(InputStream is, CompressionCodec codec,
+	    NBTEncoding encoding) throws IOException {
+	if (encoding == null)
+	    throw new IllegalArgumentException("encoding must not be null");
+	if (codec == null) {
+	    is = CompressionCodec.decompressAny(is);
+	} else {
+	    is = codec.decompress(is);
+	}
+	this.is = encoding.newInput(is);
+    }
+
+    /**
+     * Sets a symbol table through which tag names are decoded.
+     * 
+     * @param symbols
+     *            The symbol table, or <code>null</code> to decode every name
+     *            separately.
+     * @see NBTInputStream#setSymbolTable(NBTSymbolTable)
+     */
+    public void setSymbolTable(NBTSymbolTable symbols) {
+	this.symbols = symbols;
+    }
+
+    /**
+     * Advances to the next tag.
+     * 
+     * @return The type of the tag, or <code>TAG_End</code> if the enclosing
+     *         compound or list has ended.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public int next() throws IOException {
+	if (pending) {
+	    if (type == NBTConstants.TYPE_COMPOUND) {
+		push(NBTConstants.TYPE_COMPOUND, 0, 0);
+	    } else if (type == NBTConstants.TYPE_LIST) {
+		push(NBTConstants.TYPE_LIST, listType, listLength);
+	    } else {
+		skipValue();
+	    }
+	    pending = false;
+	}
+
+	if (depth == 0) {
+	    type = is.readByte() & 0xFF;
+	    if (type == NBTConstants.TYPE_END)
+		throw new IOException(
+			"TAG_End found without a TAG_Compound/TAG_List tag preceding it.");
+	    name = readName();
+	} else if (stackType[depth - 1] == NBTConstants.TYPE_COMPOUND) {
+	    type = is.readByte() & 0xFF;
+	    if (type == NBTConstants.TYPE_END) {
+		depth--;
+		name = "";
+		return type;
+	    }
+	    name = readName();
+	} else {
+	    if (stackRemaining[depth - 1] == 0) {
+		depth--;
+		type = NBTConstants.TYPE_END;
+		name = "";
+		return type;
+	    }
+	    stackRemaining[depth - 1]--;
+	    type = stackElementType[depth - 1];
+	    name = "";
+	}
+
+	readHead();
+	return type;
+    }
+
+    /**
+     * Reads the fixed-size part of the current tag.
+     */
+    private void readHead() throws IOException {
+	switch (type) {
+	case NBTConstants.TYPE_BYTE:
+	    primitive = is.readByte();
+	    break;
+	case NBTConstants.TYPE_SHORT:
+	    primitive = is.readShort();
+	    break;
+	case NBTConstants.TYPE_INT:
+	    primitive = is.readInt();
+	    break;
+	case NBTConstants.TYPE_FLOAT:
+	    primitive = Float.floatToRawIntBits(is.readFloat());
+	    break;
+	case NBTConstants.TYPE_LONG:
+	    primitive = is.readLong();
+	    break;
+	case NBTConstants.TYPE_DOUBLE:
+	    primitive = Double.doubleToRawLongBits(is.readDouble());
+	    break;
+	case NBTConstants.TYPE_LIST:
+	    listType = is.readByte();
+	    listLength = is.readInt();
+	    if (listLength < 0)
+		throw new IOException("Negative list length: " + listLength
+			+ ".");
+	    if (listLength > 0 && listType == NBTConstants.TYPE_END)
+		throw new IOException("TAG_End not permitted in a list.");
+	    if (!TagRegistry.isRegistered(listType))
+		throw new IOException("Invalid tag type: " + listType + ".");
+	    pending = true;
+	    break;
+	case NBTConstants.TYPE_BYTE_ARRAY:
+	case NBTConstants.TYPE_STRING:
+	case NBTConstants.TYPE_COMPOUND:
+	case NBTConstants.TYPE_INT_ARRAY:
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    pending = true;
+	    break;
+	default:
+	    if (TagRegistry.getCodec(type) == null)
+		throw new IOException("Invalid tag type: " + type + ".");
+	    pending = true;
+	}
+    }
+
+    private void push(int containerType, int elementType, int remaining) {
+	if (depth == stackType.length) {
+	    int length = depth * 2;
+	    stackType = Arrays.copyOf(stackType, length);
+	    stackElementType = Arrays.copyOf(stackElementType, length);
+	    stackRemaining = Arrays.copyOf(stackRemaining, length);
+	}
+	stackType[depth] = containerType;
+	stackElementType[depth] = elementType;
+	stackRemaining[depth] = remaining;
+	depth++;
+    }
+
+    /**
+     * Gets the number of compounds and lists that enclose the current tag.
+     * 
+     * @return The depth of the current tag.
+     */
+    public int depth() {
+	return depth;
+    }
+
+    /**
+     * Gets the type of the current tag.
+     * 
+     * @return The type of the current tag.
+     */
+    public int tagType() {
+	return type;
+    }
+
+    /**
+     * Gets the name of the current tag. Items of a list have an empty name.
+     * 
+     * @return The name of the current tag.
+     */
+    public String name() {
+	return name;
+    }
+
+    public byte byteValue() {
+	checkType(NBTConstants.TYPE_BYTE);
+	return (byte) primitive;
+    }
+
+    public short shortValue() {
+	checkType(NBTConstants.TYPE_SHORT);
+	return (short) primitive;
+    }
+
+    public int intValue() {
+	checkType(NBTConstants.TYPE_INT);
+	return (int) primitive;
+    }
+
+    public long longValue() {
+	checkType(NBTConstants.TYPE_LONG);
+	return primitive;
+    }
+
+    public float floatValue() {
+	checkType(NBTConstants.TYPE_FLOAT);
+	return Float.intBitsToFloat((int) primitive);
+    }
+
+    public double doubleValue() {
+	checkType(NBTConstants.TYPE_DOUBLE);
+	return Double.longBitsToDouble(primitive);
+    }
+
+    public String stringValue() throws IOException {
+	checkType(NBTConstants.TYPE_STRING);
+	checkPending();
+	pending = false;
+	return readString();
+    }
+
+    public byte[] byteArrayValue() throws IOException {
+	checkType(NBTConstants.TYPE_BYTE_ARRAY);
+	checkPending();
+	pending = false;
+	int length = is.readInt();
+	if (length < 0)
+	    throw new IOException("Negative byte array length: " + length + ".");
+	byte[] bytes = new byte[length];
+	is.readFully(bytes);
+	return bytes;
+    }
+
+    public int[] intArrayValue() throws IOException {
+	checkType(NBTConstants.TYPE_INT_ARRAY);
+	checkPending();
+	pending = false;
+	int length = is.readInt();
+	if (length < 0)
+	    throw new IOException("Negative int array length: " + length + ".");
+	int[] ints = new int[length];
+	byte[] buffer = getBuffer(BUFFER_SIZE);
+	int step = buffer.length / 4;
+	for (int offset = 0; offset < length; offset += step) {
+	    int count = Math.min(step, length - offset);
+	    is.readNumbers(NBTConstants.TYPE_INT, buffer, count).asIntBuffer()
+		    .get(ints, offset, count);
+	}
+	return ints;
+    }
+
+    public long[] longArrayValue() throws IOException {
+	checkType(NBTConstants.TYPE_LONG_ARRAY);
+	checkPending();
+	pending = false;
+	int length = is.readInt();
+	if (length < 0)
+	    throw new IOException("Negative long array length: " + length + ".");
+	long[] longs = new long[length];
+	byte[] buffer = getBuffer(BUFFER_SIZE);
+	int step = buffer.length / 8;
+	for (int offset = 0; offset < length; offset += step) {
+	    int count = Math.min(step, length - offset);
+	    is.readNumbers(NBTConstants.TYPE_LONG, buffer, count).asLongBuffer()
+		    .get(longs, offset, count);
+	}
+	return longs;
+    }
+
+    /**
+     * Gets the type of item in the current <code>TAG_List</code>.
+     * 
+     * @return The type of item in the list.
+     */
+    public int listType() {
+	checkType(NBTConstants.TYPE_LIST);
+	return listType;
+    }
+
+    /**
+     * Gets the number of items in the current <code>TAG_List</code>.
+     * 
+     * @return The number of items in the list.
+     */
+    public int listLength() {
+	checkType(NBTConstants.TYPE_LIST);
+	return listLength;
+    }
+
+    /**
+     * Skips the payload of the current tag. A compound or list is skipped
+     * entirely, without decoding any of its children.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void skipValue() throws IOException {
+	if (!pending)
+	    return;
+	pending = false;
+	switch (type) {
+	case NBTConstants.TYPE_LIST:
+	    if (NumericListTag.isNumeric(listType)) {
+		is.skipNumbers(listType, listLength);
+		break;
+	    }
+	    for (int i = 0; i < listLength; i++)
+		NBTUtils.skipTagPayload(is, listType);
+	    break;
+	default:
+	    NBTUtils.skipTagPayload(is, type);
+	}
+    }
+
+    /**
+     * Reads the current tag, including everything within it, as a
+     * <code>Tag</code>. Afterwards the reader is positioned as if the value of
+     * the current tag had been skipped.
+     * 
+     * @return The tag.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public Tag<?> readTag() throws IOException {
+	String name = this.name;
+	switch (type) {
+	case NBTConstants.TYPE_END:
+	    throw new IllegalStateException("not positioned on a tag");
+	case NBTConstants.TYPE_BYTE:
+	    return new ByteTag(name, byteValue());
+	case NBTConstants.TYPE_SHORT:
+	    return new ShortTag(name, shortValue());
+	case NBTConstants.TYPE_INT:
+	    return new IntTag(name, intValue());
+	case NBTConstants.TYPE_LONG:
+	    return new LongTag(name, longValue());
+	case NBTConstants.TYPE_FLOAT:
+	    return new FloatTag(name, floatValue());
+	case NBTConstants.TYPE_DOUBLE:
+	    return new DoubleTag(name, doubleValue());
+	case NBTConstants.TYPE_STRING:
+	    return new StringTag(name, stringValue());
+	case NBTConstants.TYPE_BYTE_ARRAY:
+	    return new ByteArrayTag(name, byteArrayValue());
+	case NBTConstants.TYPE_INT_ARRAY:
+	    return new IntArrayTag(name, intArrayValue());
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    return new LongArrayTag(name, longArrayValue());
+	case NBTConstants.TYPE_LIST:
+	    checkPending();
+	    int itemType = listType, length = listLength;
+	    if (NumericListTag.isNumeric(itemType)) {
+		pending = false;
+		int width = NumericListTag.getWidth(itemType);
+		byte[] buffer = getBuffer(BUFFER_SIZE);
+		int step = buffer.length / width;
+		// the length is not trusted until the items have been read
+		NumericListTag<?> list = NumericListTag.newInstance(name,
+			itemType, Math.min(length, step));
+		for (int offset = 0; offset < length; offset += step) {
+		    int count = Math.min(step, length - offset);
+		    list.read(is.readNumbers(itemType, buffer, count), offset,
+			    count);
+		}
+		list.mark();
+		return list;
+	    }
+
+	    List<Tag<?>> items = new ArrayList<Tag<?>>(Math.min(length, 1024));
+	    while (next() != NBTConstants.TYPE_END)
+		items.add(readTag());
+	    return ListTag.newInstance(name, items, itemType);
+	case NBTConstants.TYPE_COMPOUND:
+	    checkPending();
+	    IndexedMap<Tag<?>> map = new IndexedMap<Tag<?>>();
+	    while (next() != NBTConstants.TYPE_END) {
+		Tag<?> child = readTag();
+		map.put(child.getName(), child);
+	    }
+	    return new CompoundTag(name, map);
+	default:
+	    checkPending();
+	    pending = false;
+	    return TagRegistry.getCodec(type).read(name, is);
+	}
+    }
+
+    /**
+     * Skips the remaining tags of the compound or list which encloses the
+     * current tag, leaving the reader positioned on its <code>TAG_End</code>.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void skipToEnd() throws IOException {
+	if (depth == 0)
+	    throw new IllegalStateException("not inside a compound or list");
+	int target = depth - 1;
+	skipValue();
+	while (depth > target)
+	    if (next() != NBTConstants.TYPE_END)
+		skipValue();
+    }
+
+    private String readName() throws IOException {
+	if (symbols == null)
+	    return readString();
+
+	int length = is.readStringLength();
+	byte[] buffer = getBuffer(length);
+	is.readFully(buffer, 0, length);
+	return symbols.lookup(buffer, 0, length);
+    }
+
+    private String readString() throws IOException {
+	int length = is.readStringLength();
+	byte[] buffer = getBuffer(length);
+	is.readFully(buffer, 0, length);
+	return new String(buffer, 0, length, NBTConstants.CHARSET);
+    }
+
+    private byte[] getBuffer(int length) {
+	if (buffer == null || buffer.length < length)
+	    buffer = new byte[Math.max(length, BUFFER_SIZE)];
+	return buffer;
+    }
+
+    private void checkType(int expected) {
+	if (type != expected)
+	    throw new IllegalStateException("expected "
+		    + NBTUtils.getTypeName(expected) + " but was "
+		    + NBTUtils.getTypeName(type));
+    }
+
+    private void checkPending() {
+	if (!pending)
+	    throw new IllegalStateException("value has already been read");
+    }
+
+    @Override
+    public void close() throws IOException {
+	is.close();
+    }
+
+}
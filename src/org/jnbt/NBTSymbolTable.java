@@ -0,0 +1,158 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+/**
+ * <p>
+ * Maps the encoded bytes of tag names to canonical <code>String</code>
+ * instances, so that a name which appears many times is decoded once and
+ * looking it up again allocates nothing.
+ * </p>
+ * 
+ * <p>
+ * A table may be shared by any number of streams and threads. Lookups do not
+ * lock; only adding a new name does. Once the table holds
+ * <code>maxSize</code> names, further names are decoded but not remembered,
+ * which keeps unusual data from growing the table without bound.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see NBTInputStream#setSymbolTable(NBTSymbolTable)
+ */
+public class NBTSymbolTable {
+
+    public static final int DEFAULT_MAX_SIZE = 4096;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final int maxSize;
+
+    private volatile Entry[] table = new Entry[INITIAL_CAPACITY];
+    private volatile int size;
+
+    public NBTSymbolTable() {
+	this(DEFAULT_MAX_SIZE);
+    }
+
+    public NBTSymbolTable(int maxSize) {
+	if (maxSize < 0)
+	    throw new IllegalArgumentException("maxSize must not be negative");
+	this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the name encoded by the specified bytes.
+     * 
+     * @param bytes
+     *            The buffer holding the encoded name.
+     * @param offset
+     *            The offset of the first byte.
+     * @param length
+     *            The number of bytes.
+     * @return The canonical instance of the name.
+     */
+    public String lookup(byte[] bytes, int offset, int length) {
+	int hash = hash(bytes, offset, length);
+	Entry[] table = this.table;
+	for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+	    if (e.matches(hash, bytes, offset, length))
+		return e.value;
+	}
+	return add(hash, bytes, offset, length);
+    }
+
+    private synchronized String add(int hash, byte[] bytes, int offset,
+	    int length) {
+	Entry[] table = this.table;
+	int index = hash & (table.length - 1);
+	for (Entry e = table[index]; e != null; e = e.next) {
+	    if (e.matches(hash, bytes, offset, length))
+		return e.value;
+	}
+
+	String value = new String(bytes, offset, length, NBTConstants.CHARSET);
+	if (size >= maxSize)
+	    return value;
+
+	byte[] key = new byte[length];
+	System.arraycopy(bytes, offset, key, 0, length);
+	if (size >= table.length * 3 / 4) {
+	    table = resize(table);
+	    index = hash & (table.length - 1);
+	}
+	table[index] = new Entry(key, hash, value.intern(), table[index]);
+	size++;
+	// publish the new entry to lookups that do not lock
+	this.table = table;
+	return table[index].value;
+    }
+
+    private static Entry[] resize(Entry[] table) {
+	Entry[] resized = new Entry[table.length * 2];
+	for (Entry head : table) {
+	    for (Entry e = head; e != null; e = e.next) {
+		int index = e.hash & (resized.length - 1);
+		resized[index] = new Entry(e.bytes, e.hash, e.value,
+			resized[index]);
+	    }
+	}
+	return resized;
+    }
+
+    /**
+     * Gets the number of names in this table.
+     * 
+     * @return The number of names.
+     */
+    public int size() {
+	return size;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+	int hash = length;
+	for (int i = offset, end = offset + length; i < end; i++)
+	    hash = 31 * hash + bytes[i];
+	return hash ^ (hash >>> 16);
+    }
+
+    private static class Entry {
+
+	private final byte[] bytes;
+	private final int hash;
+	private final String value;
+	private final Entry next;
+
+	public Entry(byte[] bytes, int hash, String value, Entry next) {
+	    this.bytes = bytes;
+	    this.hash = hash;
+	    this.value = value;
+	    this.next = next;
+	}
+
+	public boolean matches(int hash, byte[] bytes, int offset, int length) {
+	    if (this.hash != hash || this.bytes.length != length)
+		return false;
+	    for (int i = 0; i < length; i++) {
+		if (this.bytes[i] != bytes[offset + i])
+		    return false;
+	    }
+	    return true;
+	}
+
+    }
+
+}
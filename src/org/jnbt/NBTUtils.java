@@ -1,5 +1,8 @@
 package org.jnbt;
 
+import java.io.DataInput;
+import java.io.IOException;
+
 /*
  * JNBT License
  * 
@@ -48,32 +51,20 @@ public class NBTUtils {
      * @return The type name.
      */
     public static String getTypeName(Class<? extends Tag> clazz) {
-	if (clazz.equals(ByteArrayTag.class)) {
-	    return "TAG_Byte_Array";
-	} else if (clazz.equals(ByteTag.class)) {
-	    return "TAG_Byte";
-	} else if (clazz.equals(CompoundTag.class)) {
-	    return "TAG_Compound";
-	} else if (clazz.equals(DoubleTag.class)) {
-	    return "TAG_Double";
-	} else if (clazz.equals(EndTag.class)) {
-	    return "TAG_End";
-	} else if (clazz.equals(FloatTag.class)) {
-	    return "TAG_Float";
-	} else if (clazz.equals(IntTag.class)) {
-	    return "TAG_Int";
-	} else if (clazz.equals(ListTag.class)) {
-	    return "TAG_List";
-	} else if (clazz.equals(LongTag.class)) {
-	    return "TAG_Long";
-	} else if (clazz.equals(ShortTag.class)) {
-	    return "TAG_Short";
-	} else if (clazz.equals(StringTag.class)) {
-	    return "TAG_String";
-	} else {
-	    throw new IllegalArgumentException("Invalid tag classs ("
-		    + clazz.getName() + ").");
-	}
+	return TagRegistry.getName(TagRegistry.getType(clazz));
+    }
+
+    /**
+     * Gets the type name of a type code.
+     * 
+     * @param type
+     *            The type code.
+     * @return The type name.
+     * @throws IllegalArgumentException
+     *             if the tag type is invalid.
+     */
+    public static String getTypeName(int type) {
+	return TagRegistry.getName(type);
     }
 
     /**
@@ -86,32 +77,7 @@ public class NBTUtils {
      *             if the tag class is invalid.
      */
     public static int getTypeCode(Class<? extends Tag> clazz) {
-	if (clazz.equals(ByteArrayTag.class)) {
-	    return NBTConstants.TYPE_BYTE_ARRAY;
-	} else if (clazz.equals(ByteTag.class)) {
-	    return NBTConstants.TYPE_BYTE;
-	} else if (clazz.equals(CompoundTag.class)) {
-	    return NBTConstants.TYPE_COMPOUND;
-	} else if (clazz.equals(DoubleTag.class)) {
-	    return NBTConstants.TYPE_DOUBLE;
-	} else if (clazz.equals(EndTag.class)) {
-	    return NBTConstants.TYPE_END;
-	} else if (clazz.equals(FloatTag.class)) {
-	    return NBTConstants.TYPE_FLOAT;
-	} else if (clazz.equals(IntTag.class)) {
-	    return NBTConstants.TYPE_INT;
-	} else if (clazz.equals(ListTag.class)) {
-	    return NBTConstants.TYPE_LIST;
-	} else if (clazz.equals(LongTag.class)) {
-	    return NBTConstants.TYPE_LONG;
-	} else if (clazz.equals(ShortTag.class)) {
-	    return NBTConstants.TYPE_SHORT;
-	} else if (clazz.equals(StringTag.class)) {
-	    return NBTConstants.TYPE_STRING;
-	} else {
-	    throw new IllegalArgumentException("Invalid tag classs ("
-		    + clazz.getName() + ").");
-	}
+	return TagRegistry.getType(clazz);
     }
 
     /**
@@ -124,32 +90,114 @@ public class NBTUtils {
      *             if the tag type is invalid.
      */
     public static Class<? extends Tag> getTypeClass(int type) {
+	return TagRegistry.getClass(type);
+    }
+
+    /**
+     * Skips the payload of a tag without decoding it. Strings and byte arrays
+     * are skipped by their length prefix; lists and compounds are skipped one
+     * child at a time.
+     * 
+     * @param in
+     *            The input, which is read in the encoding of its stream if it
+     *            belongs to one, and as big-endian otherwise.
+     * @param type
+     *            The type.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public static void skipTagPayload(DataInput in, int type)
+	    throws IOException {
 	switch (type) {
 	case NBTConstants.TYPE_END:
-	    return EndTag.class;
+	    break;
 	case NBTConstants.TYPE_BYTE:
-	    return ByteTag.class;
 	case NBTConstants.TYPE_SHORT:
-	    return ShortTag.class;
 	case NBTConstants.TYPE_INT:
-	    return IntTag.class;
 	case NBTConstants.TYPE_LONG:
-	    return LongTag.class;
 	case NBTConstants.TYPE_FLOAT:
-	    return FloatTag.class;
 	case NBTConstants.TYPE_DOUBLE:
-	    return DoubleTag.class;
+	    skipNumbers(in, type, 1);
+	    break;
 	case NBTConstants.TYPE_BYTE_ARRAY:
-	    return ByteArrayTag.class;
+	    skipFully(in, in.readInt());
+	    break;
+	case NBTConstants.TYPE_INT_ARRAY:
+	    skipNumbers(in, NBTConstants.TYPE_INT, in.readInt());
+	    break;
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    skipNumbers(in, NBTConstants.TYPE_LONG, in.readInt());
+	    break;
 	case NBTConstants.TYPE_STRING:
-	    return StringTag.class;
+	    skipFully(in, readStringLength(in));
+	    break;
 	case NBTConstants.TYPE_LIST:
-	    return ListTag.class;
+	    int elementType = in.readByte();
+	    int length = in.readInt();
+	    if (length < 0)
+		throw new IOException("Negative list length: " + length + ".");
+	    if (elementType == NBTConstants.TYPE_END && length > 0)
+		throw new IOException("TAG_End not permitted in a list.");
+	    if (NumericListTag.isNumeric(elementType)) {
+		skipNumbers(in, elementType, length);
+		break;
+	    }
+	    for (int i = 0; i < length; i++)
+		skipTagPayload(in, elementType);
+	    break;
 	case NBTConstants.TYPE_COMPOUND:
-	    return CompoundTag.class;
+	    while (true) {
+		int childType = in.readByte() & 0xFF;
+		if (childType == NBTConstants.TYPE_END)
+		    break;
+		skipFully(in, readStringLength(in));
+		skipTagPayload(in, childType);
+	    }
+	    break;
 	default:
-	    throw new IllegalArgumentException("Invalid tag type : " + type
-		    + ".");
+	    TagCodec<?> codec = TagRegistry.getCodec(type);
+	    if (codec == null)
+		throw new IOException("Invalid tag type: " + type + ".");
+	    codec.skip(in);
+	}
+    }
+
+    private static int readStringLength(DataInput in) throws IOException {
+	if (in instanceof NBTDataInput)
+	    return ((NBTDataInput) in).readStringLength();
+	return in.readShort() & 0xFFFF;
+    }
+
+    private static void skipNumbers(DataInput in, int type, int count)
+	    throws IOException {
+	if (in instanceof NBTDataInput) {
+	    ((NBTDataInput) in).skipNumbers(type, count);
+	} else {
+	    skipFully(in, (long) count * NumericListTag.getWidth(type));
+	}
+    }
+
+    /**
+     * Skips exactly <code>n</code> bytes.
+     * 
+     * @param in
+     *            The input.
+     * @param n
+     *            The number of bytes to skip.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public static void skipFully(DataInput in, long n) throws IOException {
+	if (n < 0)
+	    throw new IOException("Negative length: " + n + ".");
+	while (n > 0) {
+	    int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+	    if (skipped <= 0) {
+		// skipBytes may give up early, e.g. on an InflaterInputStream
+		in.readByte();
+		skipped = 1;
+	    }
+	    n -= skipped;
 	}
     }
 
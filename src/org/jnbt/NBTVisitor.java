@@ -0,0 +1,140 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+/**
+ * <p>
+ * Receives the contents of an NBT stream as a sequence of events rather than
+ * as a graph of <code>Tag</code> objects.
+ * </p>
+ * 
+ * <p>
+ * Names are passed with every value; children of a <code>TAG_List</code> are
+ * unnamed and receive an empty string. Array payloads are delivered in
+ * pieces through {@link #visitBytes(byte[], int, int)},
+ * {@link #visitInts(int[], int, int)} and
+ * {@link #visitLongs(long[], int, int)}, and the buffers passed to them are
+ * reused by the reader, so they must not be retained after the call returns.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see NBTInputStream#readTag(NBTVisitor)
+ */
+public interface NBTVisitor {
+
+    void startCompound(String name);
+
+    void endCompound();
+
+    /**
+     * @param name
+     *            The name.
+     * @param type
+     *            The type of item in the list.
+     * @param length
+     *            The number of items in the list.
+     */
+    void startList(String name, int type, int length);
+
+    void endList();
+
+    void visitByte(String name, byte value);
+
+    void visitShort(String name, short value);
+
+    void visitInt(String name, int value);
+
+    void visitLong(String name, long value);
+
+    void visitFloat(String name, float value);
+
+    void visitDouble(String name, double value);
+
+    void visitString(String name, String value);
+
+    /**
+     * @param name
+     *            The name.
+     * @param length
+     *            The total number of bytes that will follow.
+     */
+    void startByteArray(String name, int length);
+
+    /**
+     * @param buffer
+     *            A shared buffer that is only valid for the duration of this
+     *            call.
+     * @param offset
+     *            The offset of the first byte.
+     * @param length
+     *            The number of bytes.
+     */
+    void visitBytes(byte[] buffer, int offset, int length);
+
+    void endByteArray();
+
+    /**
+     * @param name
+     *            The name.
+     * @param length
+     *            The total number of ints that will follow.
+     */
+    void startIntArray(String name, int length);
+
+    /**
+     * @param buffer
+     *            A shared buffer that is only valid for the duration of this
+     *            call.
+     * @param offset
+     *            The offset of the first int.
+     * @param length
+     *            The number of ints.
+     */
+    void visitInts(int[] buffer, int offset, int length);
+
+    void endIntArray();
+
+    /**
+     * @param name
+     *            The name.
+     * @param length
+     *            The total number of longs that will follow.
+     */
+    void startLongArray(String name, int length);
+
+    /**
+     * @param buffer
+     *            A shared buffer that is only valid for the duration of this
+     *            call.
+     * @param offset
+     *            The offset of the first long.
+     * @param length
+     *            The number of longs.
+     */
+    void visitLongs(long[] buffer, int offset, int length);
+
+    void endLongArray();
+
+    /**
+     * Receives a tag of a type registered with {@link TagRegistry}.
+     * 
+     * @param tag
+     *            The tag, decoded by its codec.
+     */
+    void visitTag(Tag<?> tag);
+
+}
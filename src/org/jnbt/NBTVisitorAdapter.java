@@ -0,0 +1,132 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+/**
+ * An empty implementation of {@link NBTVisitor}, for visitors which are only
+ * interested in a few events.
+ * 
+ * @author Taggart Spilman
+ */
+public abstract class NBTVisitorAdapter implements NBTVisitor {
+
+    @Override
+    public void startCompound(String name) {
+
+    }
+
+    @Override
+    public void endCompound() {
+
+    }
+
+    @Override
+    public void startList(String name, int type, int length) {
+
+    }
+
+    @Override
+    public void endList() {
+
+    }
+
+    @Override
+    public void visitByte(String name, byte value) {
+
+    }
+
+    @Override
+    public void visitShort(String name, short value) {
+
+    }
+
+    @Override
+    public void visitInt(String name, int value) {
+
+    }
+
+    @Override
+    public void visitLong(String name, long value) {
+
+    }
+
+    @Override
+    public void visitFloat(String name, float value) {
+
+    }
+
+    @Override
+    public void visitDouble(String name, double value) {
+
+    }
+
+    @Override
+    public void visitString(String name, String value) {
+
+    }
+
+    @Override
+    public void startByteArray(String name, int length) {
+
+    }
+
+    @Override
+    public void visitBytes(byte[] buffer, int offset, int length) {
+
+    }
+
+    @Override
+    public void endByteArray() {
+
+    }
+
+    @Override
+    public void startIntArray(String name, int length) {
+
+    }
+
+    @Override
+    public void visitInts(int[] buffer, int offset, int length) {
+
+    }
+
+    @Override
+    public void endIntArray() {
+
+    }
+
+    @Override
+    public void startLongArray(String name, int length) {
+
+    }
+
+    @Override
+    public void visitLongs(long[] buffer, int offset, int length) {
+
+    }
+
+    @Override
+    public void endLongArray() {
+
+    }
+
+    @Override
+    public void visitTag(Tag<?> tag) {
+
+    }
+
+}
@@ -0,0 +1,722 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A <code>TAG_List</code> of bytes, shorts, ints, longs, floats or doubles,
+ * which stores its items in a primitive array instead of as separate
+ * <code>Tag</code> objects.
+ * </p>
+ * 
+ * <p>
+ * The list still presents itself as a list of tags: {@link #getValue()} and
+ * {@link #getChild(int)} return tags that are bound to a slot in the array,
+ * so that setting their value updates the list. These tags are only created
+ * for items that are actually asked for. A tag added to the list is bound to
+ * its slot in the same way, unless it is of a different numeric type than
+ * the list, in which case its value is converted and later changes to it are
+ * not seen by the list.
+ * </p>
+ * 
+ * <p>
+ * A numeric list is equal to any <code>ListTag</code> with the same name and
+ * items, such as the one it was written from.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ */
+public class NumericListTag<E extends Tag<?>> extends ListTag<E> {
+
+    private static final int DEFAULT_CAPACITY = 4;
+
+    private int elementType;
+
+    /**
+     * A <code>byte[]</code>, <code>short[]</code>, <code>int[]</code>,
+     * <code>long[]</code>, <code>float[]</code> or <code>double[]</code>.
+     */
+    private Object array;
+    private int size;
+
+    /**
+     * The tags that have been handed out, by index, and the index of each.
+     */
+    private Tag<?>[] elements;
+    private Map<Tag<?>, Integer> indices;
+
+    /**
+     * <code>true</code> while a tag which has been handed out is brought up
+     * to date, so that its new value is not stored back.
+     */
+    private boolean loading;
+
+    private List<E> view;
+
+    /**
+     * Creates an empty list.
+     * 
+     * @param name
+     *            The name.
+     * @param type
+     *            The type of item in the list, which must be numeric.
+     */
+    public NumericListTag(String name, Class<E> type) {
+	this(name, type, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty list.
+     * 
+     * @param name
+     *            The name.
+     * @param type
+     *            The type of item in the list, which must be numeric.
+     * @param capacity
+     *            The initial capacity.
+     */
+    public NumericListTag(String name, Class<E> type, int capacity) {
+	super(name, null, type);
+	this.elementType = NBTUtils.getTypeCode(type);
+	if (!isNumeric(elementType))
+	    throw new IllegalArgumentException("Not a numeric tag type ("
+		    + type.getName() + ").");
+	this.array = newArray(elementType, capacity);
+	this.elements = new Tag<?>[capacity];
+	mark();
+    }
+
+    /**
+     * Creates an empty list of the specified type code.
+     * 
+     * @param name
+     *            The name.
+     * @param type
+     *            The type code, which must be numeric.
+     * @param capacity
+     *            The initial capacity.
+     * @return The list.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    static NumericListTag<?> newInstance(String name, int type, int capacity) {
+	// the registry maps type codes to raw classes
+	Class c = NBTUtils.getTypeClass(type);
+	return new NumericListTag(name, c, capacity);
+    }
+
+    /**
+     * Checks whether lists of the specified type can be stored by this class.
+     * 
+     * @param type
+     *            The type code.
+     * @return <code>true</code> for the numeric tag types
+     */
+    public static boolean isNumeric(int type) {
+	switch (type) {
+	case NBTConstants.TYPE_BYTE:
+	case NBTConstants.TYPE_SHORT:
+	case NBTConstants.TYPE_INT:
+	case NBTConstants.TYPE_LONG:
+	case NBTConstants.TYPE_FLOAT:
+	case NBTConstants.TYPE_DOUBLE:
+	    return true;
+	default:
+	    return false;
+	}
+    }
+
+    /**
+     * Gets the encoded size of one item.
+     * 
+     * @param type
+     *            The type code.
+     * @return The number of bytes in the payload of one item.
+     */
+    static int getWidth(int type) {
+	switch (type) {
+	case NBTConstants.TYPE_BYTE:
+	    return 1;
+	case NBTConstants.TYPE_SHORT:
+	    return 2;
+	case NBTConstants.TYPE_INT:
+	case NBTConstants.TYPE_FLOAT:
+	    return 4;
+	case NBTConstants.TYPE_LONG:
+	case NBTConstants.TYPE_DOUBLE:
+	    return 8;
+	default:
+	    throw new IllegalArgumentException("Not a numeric tag type ("
+		    + type + ").");
+	}
+    }
+
+    private static Object newArray(int type, int length) {
+	switch (type) {
+	case NBTConstants.TYPE_BYTE:
+	    return new byte[length];
+	case NBTConstants.TYPE_SHORT:
+	    return new short[length];
+	case NBTConstants.TYPE_INT:
+	    return new int[length];
+	case NBTConstants.TYPE_LONG:
+	    return new long[length];
+	case NBTConstants.TYPE_FLOAT:
+	    return new float[length];
+	default:
+	    return new double[length];
+	}
+    }
+
+    public int getElementType() {
+	return elementType;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    /**
+     * Gets an item as a <code>long</code>. Floating point items are
+     * truncated.
+     * 
+     * @param index
+     *            The index.
+     * @return The item.
+     */
+    public long getLong(int index) {
+	checkIndex(index);
+	switch (elementType) {
+	case NBTConstants.TYPE_BYTE:
+	    return ((byte[]) array)[index];
+	case NBTConstants.TYPE_SHORT:
+	    return ((short[]) array)[index];
+	case NBTConstants.TYPE_INT:
+	    return ((int[]) array)[index];
+	case NBTConstants.TYPE_LONG:
+	    return ((long[]) array)[index];
+	case NBTConstants.TYPE_FLOAT:
+	    return (long) ((float[]) array)[index];
+	default:
+	    return (long) ((double[]) array)[index];
+	}
+    }
+
+    /**
+     * Gets an item as a <code>double</code>.
+     * 
+     * @param index
+     *            The index.
+     * @return The item.
+     */
+    public double getDouble(int index) {
+	checkIndex(index);
+	switch (elementType) {
+	case NBTConstants.TYPE_FLOAT:
+	    return ((float[]) array)[index];
+	case NBTConstants.TYPE_DOUBLE:
+	    return ((double[]) array)[index];
+	default:
+	    return getLong(index);
+	}
+    }
+
+    /**
+     * Sets an item, narrowing the value to the type of this list.
+     * 
+     * @param index
+     *            The index.
+     * @param value
+     *            The new value.
+     */
+    public void setLong(int index, long value) {
+	checkIndex(index);
+	store(index, value, value);
+	sync(index);
+    }
+
+    /**
+     * Sets an item, narrowing the value to the type of this list.
+     * 
+     * @param index
+     *            The index.
+     * @param value
+     *            The new value.
+     */
+    public void setDouble(int index, double value) {
+	checkIndex(index);
+	store(index, (long) value, value);
+	sync(index);
+    }
+
+    private void store(int index, long l, double d) {
+	switch (elementType) {
+	case NBTConstants.TYPE_BYTE:
+	    ((byte[]) array)[index] = (byte) l;
+	    break;
+	case NBTConstants.TYPE_SHORT:
+	    ((short[]) array)[index] = (short) l;
+	    break;
+	case NBTConstants.TYPE_INT:
+	    ((int[]) array)[index] = (int) l;
+	    break;
+	case NBTConstants.TYPE_LONG:
+	    ((long[]) array)[index] = l;
+	    break;
+	case NBTConstants.TYPE_FLOAT:
+	    ((float[]) array)[index] = (float) d;
+	    break;
+	default:
+	    ((double[]) array)[index] = d;
+	}
+	setChanged();
+	invalidateIndexes(this);
+    }
+
+    private void store(int index, Tag<?> tag) {
+	Object value = tag.getValue();
+	if (!(value instanceof Number))
+	    throw new IllegalArgumentException("Not a numeric tag ("
+		    + tag.getClass().getName() + ").");
+	Number number = (Number) value;
+	store(index, number.longValue(), number.doubleValue());
+    }
+
+    private void checkIndex(int index) {
+	if (index < 0 || index >= size)
+	    throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+		    + size);
+    }
+
+    private void ensureCapacity(int capacity) {
+	int length = elements.length;
+	if (capacity > length) {
+	    length = Math.max(capacity, length * 3 / 2 + 1);
+	    Object resized = newArray(elementType, length);
+	    System.arraycopy(array, 0, resized, 0, size);
+	    array = resized;
+	    elements = Arrays.copyOf(elements, length);
+	}
+    }
+
+    private void insert(int index, Tag<?> tag) {
+	if (index < 0 || index > size)
+	    throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+		    + size);
+	ensureCapacity(size + 1);
+	System.arraycopy(array, index, array, index + 1, size - index);
+	System.arraycopy(elements, index, elements, index + 1, size - index);
+	elements[index] = null;
+	size++;
+	store(index, tag);
+	reindex(index + 1);
+	bind(index, tag);
+    }
+
+    /**
+     * Binds a tag to a slot, if it is of the type of this list.
+     */
+    private void bind(int index, Tag<?> tag) {
+	if (tag.getClass() != getType())
+	    return;
+	if (indices == null)
+	    indices = new IdentityHashMap<Tag<?>, Integer>();
+	Integer old = indices.put(tag, index);
+	if (old != null && old != index)
+	    elements[old] = null;
+	elements[index] = tag;
+	adopt(tag);
+    }
+
+    private void delete(int index) {
+	checkIndex(index);
+	if (elements[index] != null)
+	    release(elements[index]);
+	System.arraycopy(array, index + 1, array, index, size - index - 1);
+	System.arraycopy(elements, index + 1, elements, index, size - index
+		- 1);
+	size--;
+	elements[size] = null;
+	reindex(index);
+	setChanged();
+	invalidateIndexes(this);
+    }
+
+    /**
+     * Detaches a tag which has been handed out from its slot.
+     */
+    private void release(Tag<?> element) {
+	indices.remove(element);
+	orphan(element);
+    }
+
+    private void reindex(int from) {
+	for (int i = from; i < size; i++) {
+	    if (elements[i] != null)
+		indices.put(elements[i], i);
+	}
+    }
+
+    /**
+     * Brings a tag which has been handed out up to date with its slot.
+     */
+    @SuppressWarnings("unchecked")
+    private void sync(int index) {
+	Tag<Number> element = (Tag<Number>) elements[index];
+	if (element != null) {
+	    loading = true;
+	    try {
+		element.setValue(box(index));
+	    } finally {
+		loading = false;
+	    }
+	}
+    }
+
+    /**
+     * Stores the new value of a tag which has been handed out in its slot.
+     */
+    @Override
+    void childValueSet(Tag<?> child) {
+	Integer index = (indices == null ? null : indices.get(child));
+	if (index != null && !loading)
+	    store(index, child);
+    }
+
+    /**
+     * Gets an item as a number of the type of this list.
+     */
+    private Number box(int index) {
+	switch (elementType) {
+	case NBTConstants.TYPE_BYTE:
+	    return Byte.valueOf((byte) getLong(index));
+	case NBTConstants.TYPE_SHORT:
+	    return Short.valueOf((short) getLong(index));
+	case NBTConstants.TYPE_INT:
+	    return Integer.valueOf((int) getLong(index));
+	case NBTConstants.TYPE_LONG:
+	    return Long.valueOf(getLong(index));
+	case NBTConstants.TYPE_FLOAT:
+	    return Float.valueOf((float) getDouble(index));
+	default:
+	    return Double.valueOf(getDouble(index));
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    private E element(int index) {
+	checkIndex(index);
+	Tag<?> element = elements[index];
+	if (element == null) {
+	    Number value = box(index);
+	    switch (elementType) {
+	    case NBTConstants.TYPE_BYTE:
+		element = new ByteTag("", value.byteValue());
+		break;
+	    case NBTConstants.TYPE_SHORT:
+		element = new ShortTag("", value.shortValue());
+		break;
+	    case NBTConstants.TYPE_INT:
+		element = new IntTag("", value.intValue());
+		break;
+	    case NBTConstants.TYPE_LONG:
+		element = new LongTag("", value.longValue());
+		break;
+	    case NBTConstants.TYPE_FLOAT:
+		element = new FloatTag("", value.floatValue());
+		break;
+	    default:
+		element = new DoubleTag("", value.doubleValue());
+	    }
+	    bind(index, element);
+	}
+	return (E) element;
+    }
+
+    @Override
+    public List<E> getValue() {
+	if (view == null) {
+	    view = new AbstractList<E>() {
+
+		@Override
+		public E get(int index) {
+		    return element(index);
+		}
+
+		@Override
+		public int size() {
+		    return size;
+		}
+
+		@Override
+		public E set(int index, E tag) {
+		    E old = element(index);
+		    if (tag != old && tag.getClass() == getType()) {
+			release(old);
+			store(index, tag);
+			bind(index, tag);
+		    } else {
+			store(index, tag);
+			sync(index);
+		    }
+		    return old;
+		}
+
+		@Override
+		public void add(int index, E tag) {
+		    insert(index, tag);
+		    modCount++;
+		}
+
+		@Override
+		public E remove(int index) {
+		    E old = element(index);
+		    delete(index);
+		    modCount++;
+		    return old;
+		}
+
+	    };
+	}
+	return view;
+    }
+
+    @Override
+    public void setValue(List<E> value) {
+	if (array == null) {
+	    // called by the constructor of Tag
+	    super.setValue(value);
+	    return;
+	}
+
+	// the items may be this list's own
+	List<E> items = (value == null ? null : new ArrayList<E>(value));
+	for (int i = 0; i < size; i++) {
+	    if (elements[i] != null)
+		release(elements[i]);
+	    elements[i] = null;
+	}
+	size = 0;
+	setChanged();
+	invalidateIndexes(this);
+	if (items != null) {
+	    ensureCapacity(items.size());
+	    for (E tag : items)
+		insert(size, tag);
+	}
+    }
+
+    @Override
+    public Object getChild(int index) {
+	return element(index);
+    }
+
+    @Override
+    public int getChildCount() {
+	return size;
+    }
+
+    @Override
+    public int getIndexOfChild(Object child) {
+	Integer index = (indices == null ? null : indices.get(child));
+	return (index == null ? -1 : index);
+    }
+
+    @Override
+    boolean indexesChildren() {
+	return false;
+    }
+
+    /**
+     * Decodes items from bytes in the order of the buffer, replacing the
+     * contents of this list.
+     * 
+     * @param source
+     *            The bytes, starting at the current position.
+     * @param offset
+     *            The index of the first item to decode.
+     * @param count
+     *            The number of items to decode.
+     */
+    void read(ByteBuffer source, int offset, int count) {
+	ensureCapacity(offset + count);
+	switch (elementType) {
+	case NBTConstants.TYPE_BYTE:
+	    source.get((byte[]) array, offset, count);
+	    break;
+	case NBTConstants.TYPE_SHORT:
+	    source.asShortBuffer().get((short[]) array, offset, count);
+	    break;
+	case NBTConstants.TYPE_INT:
+	    source.asIntBuffer().get((int[]) array, offset, count);
+	    break;
+	case NBTConstants.TYPE_LONG:
+	    source.asLongBuffer().get((long[]) array, offset, count);
+	    break;
+	case NBTConstants.TYPE_FLOAT:
+	    source.asFloatBuffer().get((float[]) array, offset, count);
+	    break;
+	default:
+	    source.asDoubleBuffer().get((double[]) array, offset, count);
+	}
+	if (elementType != NBTConstants.TYPE_BYTE)
+	    source.position(source.position() + count * getWidth(elementType));
+	size = Math.max(size, offset + count);
+	setChanged();
+	invalidateIndexes(this);
+    }
+
+    /**
+     * Encodes items as bytes in the order of the buffer.
+     * 
+     * @param target
+     *            The buffer to write to, starting at the current position.
+     * @param offset
+     *            The index of the first item to encode.
+     * @param count
+     *            The number of items to encode.
+     */
+    void write(ByteBuffer target, int offset, int count) {
+	switch (elementType) {
+	case NBTConstants.TYPE_BYTE:
+	    target.put((byte[]) array, offset, count);
+	    break;
+	case NBTConstants.TYPE_SHORT:
+	    target.asShortBuffer().put((short[]) array, offset, count);
+	    break;
+	case NBTConstants.TYPE_INT:
+	    target.asIntBuffer().put((int[]) array, offset, count);
+	    break;
+	case NBTConstants.TYPE_LONG:
+	    target.asLongBuffer().put((long[]) array, offset, count);
+	    break;
+	case NBTConstants.TYPE_FLOAT:
+	    target.asFloatBuffer().put((float[]) array, offset, count);
+	    break;
+	default:
+	    target.asDoubleBuffer().put((double[]) array, offset, count);
+	}
+	if (elementType != NBTConstants.TYPE_BYTE)
+	    target.position(target.position() + count * getWidth(elementType));
+    }
+
+    /**
+     * Marks this list and the tags that have been handed out for its items,
+     * without creating tags for the rest.
+     */
+    @Override
+    public void mark() {
+	if (!hasChanged())
+	    return;
+	clearChanged();
+	if (elements == null)
+	    return;
+	for (int i = 0; i < size; i++) {
+	    Tag<?> element = elements[i];
+	    if (element != null && element.hasChanged())
+		element.mark();
+	}
+    }
+
+    private String getItemName(int index) {
+	Tag<?> element = elements[index];
+	return (element == null ? "" : element.getName());
+    }
+
+    /**
+     * Computes the hash code a <code>ListTag</code> with the same items would
+     * have, without creating tags for them.
+     */
+    @Override
+    public int hashCode() {
+	if (array == null)
+	    return super.hashCode();
+	final int prime = 31;
+	int hash = 1;
+	for (int i = 0; i < size; i++) {
+	    // the hash code of the tag for the item, as computed by Tag
+	    int item = prime + getItemName(i).hashCode();
+	    hash = prime * hash + prime * item + box(i).hashCode();
+	}
+	int result = 1;
+	String name = getName();
+	result = prime * result + ((name == null) ? 0 : name.hashCode());
+	result = prime * result + hash;
+	return result;
+    }
+
+    /**
+     * Compares two numeric lists by their arrays, and any other list by its
+     * items.
+     */
+    @Override
+    public boolean equals(Object obj) {
+	if (this == obj)
+	    return true;
+	if (!(obj instanceof NumericListTag))
+	    return super.equals(obj);
+	NumericListTag<?> other = (NumericListTag<?>) obj;
+	if (!getName().equals(other.getName()))
+	    return false;
+	if (size != other.size)
+	    return false;
+	if (size == 0)
+	    return true;
+	if (elementType != other.elementType)
+	    return false;
+	for (int i = 0; i < size; i++) {
+	    if (!getItemName(i).equals(other.getItemName(i)))
+		return false;
+	    switch (elementType) {
+	    case NBTConstants.TYPE_BYTE:
+		if (((byte[]) array)[i] != ((byte[]) other.array)[i])
+		    return false;
+		break;
+	    case NBTConstants.TYPE_SHORT:
+		if (((short[]) array)[i] != ((short[]) other.array)[i])
+		    return false;
+		break;
+	    case NBTConstants.TYPE_INT:
+		if (((int[]) array)[i] != ((int[]) other.array)[i])
+		    return false;
+		break;
+	    case NBTConstants.TYPE_LONG:
+		if (((long[]) array)[i] != ((long[]) other.array)[i])
+		    return false;
+		break;
+	    case NBTConstants.TYPE_FLOAT:
+		if (Float.floatToIntBits(((float[]) array)[i]) != Float
+			.floatToIntBits(((float[]) other.array)[i]))
+		    return false;
+		break;
+	    default:
+		if (Double.doubleToLongBits(((double[]) array)[i]) != Double
+			.doubleToLongBits(((double[]) other.array)[i]))
+		    return false;
+	    }
+	}
+	return true;
+    }
+
+}
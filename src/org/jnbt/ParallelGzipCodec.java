@@ -0,0 +1,273 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <p>
+ * Writes gzip with several threads, in the manner of <code>pigz</code>.
+ * </p>
+ * 
+ * <p>
+ * The data is split into blocks which are deflated concurrently on a
+ * <code>ForkJoinPool</code>. Each block is primed with the last 32K of the
+ * block before it and ends on a byte boundary, so the blocks join into a
+ * single ordinary gzip member that any gzip reader can decompress, at
+ * nearly the ratio of a sequential writer. Reading is the same as for
+ * {@link GzipCodec}.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ */
+public class ParallelGzipCodec extends GzipCodec {
+
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static ForkJoinPool defaultPool;
+
+    private final ForkJoinPool pool;
+
+    public ParallelGzipCodec() {
+	this(Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE, null);
+    }
+
+    /**
+     * @param level
+     *            The deflate level, from 0 to 9, or
+     *            <code>Deflater.DEFAULT_COMPRESSION</code>.
+     * @param bufferSize
+     *            The size of a block.
+     * @param pool
+     *            The pool to compress blocks on, or <code>null</code> for a
+     *            pool shared by every codec that is not given one.
+     */
+    public ParallelGzipCodec(int level, int bufferSize, ForkJoinPool pool) {
+	super(level, bufferSize);
+	this.pool = pool;
+    }
+
+    private static synchronized ForkJoinPool getDefaultPool() {
+	if (defaultPool == null)
+	    defaultPool = new ForkJoinPool();
+	return defaultPool;
+    }
+
+    public ForkJoinPool getPool() {
+	return (pool == null ? getDefaultPool() : pool);
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+	return new ParallelGzipOutputStream(out);
+    }
+
+    /**
+     * Deflates one block.
+     */
+    private class BlockTask implements Callable<byte[]> {
+
+	private final byte[] block, dictionary;
+	private final int length, dictionaryLength;
+	private final boolean last;
+
+	public BlockTask(byte[] block, int length, byte[] dictionary,
+		int dictionaryLength, boolean last) {
+	    this.block = block;
+	    this.length = length;
+	    this.dictionary = dictionary;
+	    this.dictionaryLength = dictionaryLength;
+	    this.last = last;
+	}
+
+	@Override
+	public byte[] call() {
+	    Deflater deflater = new Deflater(getLevel(), true);
+	    try {
+		if (dictionaryLength > 0)
+		    deflater.setDictionary(dictionary, 0, dictionaryLength);
+		deflater.setInput(block, 0, length);
+		if (last)
+		    deflater.finish();
+
+		byte[] buffer = new byte[length + (length >> 12)
+			+ (length >> 14) + 64];
+		int n = 0;
+		while (true) {
+		    if (n == buffer.length)
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		    int flush = (last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+		    int count = deflater.deflate(buffer, n, buffer.length - n,
+			    flush);
+		    n += count;
+		    if (last ? deflater.finished() : n < buffer.length)
+			break;
+		}
+		return Arrays.copyOf(buffer, n);
+	    } finally {
+		deflater.end();
+	    }
+	}
+
+    }
+
+    private class ParallelGzipOutputStream extends OutputStream {
+
+	private final OutputStream out;
+	private final ForkJoinPool pool;
+	private final int maxPending;
+	private final Queue<ForkJoinTask<byte[]>> pending = new ArrayDeque<ForkJoinTask<byte[]>>();
+	private final CRC32 crc = new CRC32();
+	private long size;
+	private byte[] block;
+	private int count;
+
+	/**
+	 * The tail of the last block submitted, which primes the next one.
+	 */
+	private byte[] previous;
+	private int previousLength;
+	private boolean closed;
+
+	public ParallelGzipOutputStream(OutputStream out) throws IOException {
+	    this.out = out;
+	    this.pool = getPool();
+	    this.maxPending = pool.getParallelism() * 2;
+	    this.block = new byte[getBufferSize()];
+	    writeHeader();
+	}
+
+	private void writeHeader() throws IOException {
+	    // magic, deflate, no flags, no time, no extra flags, unknown OS
+	    byte[] header = { 0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0,
+		    (byte) 0xFF };
+	    out.write(header);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+	    write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+	    if (closed)
+		throw new IOException("Stream closed.");
+	    crc.update(b, off, len);
+	    size += len;
+	    while (len > 0) {
+		if (count == block.length)
+		    submit(false);
+		int n = Math.min(len, block.length - count);
+		System.arraycopy(b, off, block, count, n);
+		count += n;
+		off += n;
+		len -= n;
+	    }
+	}
+
+	/**
+	 * Hands the current block to the pool and starts a new one, whose
+	 * dictionary is the tail of this one.
+	 */
+	private void submit(boolean last) throws IOException {
+	    byte[] dictionary = block;
+	    int dictionaryLength = Math.min(count, DICTIONARY_SIZE);
+	    int dictionaryOffset = count - dictionaryLength;
+	    if (dictionaryOffset > 0) {
+		dictionary = new byte[dictionaryLength];
+		System.arraycopy(block, dictionaryOffset, dictionary, 0,
+			dictionaryLength);
+	    }
+
+	    BlockTask task = new BlockTask(block, count, previous,
+		    previousLength, last);
+	    pending.add(pool.submit(task));
+	    previous = dictionary;
+	    previousLength = dictionaryLength;
+
+	    block = new byte[block.length];
+	    count = 0;
+	    while (pending.size() > maxPending)
+		drain();
+	}
+
+	/**
+	 * Writes the oldest compressed block, waiting for it if necessary.
+	 */
+	private void drain() throws IOException {
+	    ForkJoinTask<byte[]> task = pending.remove();
+	    try {
+		out.write(task.get());
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new IOException("Interrupted while compressing.", e);
+	    } catch (ExecutionException e) {
+		throw new IOException("Failed to compress a block.",
+			e.getCause());
+	    }
+	}
+
+	@Override
+	public void flush() throws IOException {
+	    while (!pending.isEmpty())
+		drain();
+	    out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+	    if (closed)
+		return;
+	    closed = true;
+	    try {
+		submit(true);
+		while (!pending.isEmpty())
+		    drain();
+		writeTrailer();
+	    } finally {
+		out.close();
+	    }
+	}
+
+	private void writeTrailer() throws IOException {
+	    writeIntLE((int) crc.getValue());
+	    writeIntLE((int) size);
+	}
+
+	private void writeIntLE(int v) throws IOException {
+	    out.write(v);
+	    out.write(v >>> 8);
+	    out.write(v >>> 16);
+	    out.write(v >>> 24);
+	}
+
+    }
+
+}
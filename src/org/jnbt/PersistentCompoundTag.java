@@ -0,0 +1,230 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * An immutable compound, backed by a persistent hash trie. Adding, replacing
+ * or removing a child copies only the few nodes on the path to it, and the
+ * children keep the order in which they were first added.
+ * </p>
+ * 
+ * <p>
+ * Nested tags may be reached with dotted paths, as in
+ * {@link NBTInputStream#readTag(java.util.Set)}: editing
+ * <code>Level.xPos</code> copies this compound and <code>Level</code> and
+ * shares everything else.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ */
+public final class PersistentCompoundTag extends PersistentTag {
+
+    private final PersistentMap<PersistentTag> children;
+
+    public PersistentCompoundTag(String name) {
+	this(name, PersistentMap.<PersistentTag> empty());
+    }
+
+    private PersistentCompoundTag(String name,
+	    PersistentMap<PersistentTag> children) {
+	super(name);
+	this.children = children;
+    }
+
+    static PersistentCompoundTag convert(CompoundTag tag) {
+	PersistentMap<PersistentTag> children = PersistentMap.empty();
+	for (Tag<?> child : tag.getValue().values())
+	    children = children.put(child.getName(), PersistentTag.of(child));
+	return new PersistentCompoundTag(tag.getName(), children);
+    }
+
+    @Override
+    public int getTagType() {
+	return NBTConstants.TYPE_COMPOUND;
+    }
+
+    public int size() {
+	return children.size();
+    }
+
+    /**
+     * Gets a child.
+     * 
+     * @param name
+     *            The name of the child.
+     * @return The child, or <code>null</code> if there is none.
+     */
+    public PersistentTag get(String name) {
+	return children.get(name);
+    }
+
+    /**
+     * Gets the children of this compound.
+     * 
+     * @return An unmodifiable list of the children in the order they were
+     *         added.
+     */
+    public List<PersistentTag> getChildren() {
+	return children.values();
+    }
+
+    /**
+     * Adds a child, or replaces the child with the same name.
+     * 
+     * @param tag
+     *            The child.
+     * @return The new compound.
+     */
+    public PersistentCompoundTag with(PersistentTag tag) {
+	PersistentMap<PersistentTag> children = this.children.put(tag
+		.getName(), tag);
+	return derive(children);
+    }
+
+    /**
+     * Removes a child.
+     * 
+     * @param name
+     *            The name of the child.
+     * @return The new compound, or this compound if there is no such child.
+     */
+    public PersistentCompoundTag without(String name) {
+	return derive(children.remove(name));
+    }
+
+    private PersistentCompoundTag derive(PersistentMap<PersistentTag> children) {
+	if (children == this.children)
+	    return this;
+	return new PersistentCompoundTag(getName(), children);
+    }
+
+    /**
+     * Gets a descendant.
+     * 
+     * @param path
+     *            The names of the compounds leading to the tag and of the tag
+     *            itself, separated by dots.
+     * @return The tag, or <code>null</code> if there is none.
+     */
+    public PersistentTag getPath(String path) {
+	PersistentTag tag = this;
+	for (String name : path.split("\\.")) {
+	    if (!(tag instanceof PersistentCompoundTag))
+		return null;
+	    tag = ((PersistentCompoundTag) tag).get(name);
+	}
+	return tag;
+    }
+
+    /**
+     * Adds or replaces a descendant. The compounds leading to it must exist.
+     * 
+     * @param path
+     *            The names of the compounds leading to the tag and of the tag
+     *            itself, separated by dots.
+     * @param tag
+     *            The tag, which is renamed to the last name in the path.
+     * @return The new compound.
+     * @throws IllegalArgumentException
+     *             if the path does not lead through compounds.
+     */
+    public PersistentCompoundTag withPath(String path, PersistentTag tag) {
+	String[] names = path.split("\\.");
+	return withPath(names, 0, tag.withName(names[names.length - 1]));
+    }
+
+    /**
+     * Removes a descendant. The compounds leading to it must exist.
+     * 
+     * @param path
+     *            The names of the compounds leading to the tag and of the tag
+     *            itself, separated by dots.
+     * @return The new compound.
+     * @throws IllegalArgumentException
+     *             if the path does not lead through compounds.
+     */
+    public PersistentCompoundTag withoutPath(String path) {
+	return withPath(path.split("\\."), 0, null);
+    }
+
+    private PersistentCompoundTag withPath(String[] names, int index,
+	    PersistentTag tag) {
+	String name = names[index];
+	if (index == names.length - 1)
+	    return (tag == null ? without(name) : with(tag));
+
+	PersistentTag child = get(name);
+	if (!(child instanceof PersistentCompoundTag))
+	    throw new IllegalArgumentException("Not a compound: " + name);
+	return with(((PersistentCompoundTag) child).withPath(names, index + 1,
+		tag));
+    }
+
+    @Override
+    public PersistentCompoundTag withName(String name) {
+	if (getName().equals(name))
+	    return this;
+	return new PersistentCompoundTag(name, children);
+    }
+
+    @Override
+    public CompoundTag toTag() {
+	Map<String, Tag<?>> map = new LinkedHashMap<String, Tag<?>>();
+	for (PersistentTag child : children.values())
+	    map.put(child.getName(), child.toTag());
+	return new CompoundTag(getName(), map);
+    }
+
+    @Override
+    public int hashCode() {
+	int result = getName().hashCode();
+	for (PersistentTag child : children.values())
+	    result += child.hashCode();
+	return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+	if (this == obj)
+	    return true;
+	if (!(obj instanceof PersistentCompoundTag))
+	    return false;
+	PersistentCompoundTag other = (PersistentCompoundTag) obj;
+	if (!getName().equals(other.getName()) || size() != other.size())
+	    return false;
+	for (PersistentTag child : children.values())
+	    if (!child.equals(other.get(child.getName())))
+		return false;
+	return true;
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder sb = new StringBuilder(CompoundTag.TAG_NAME);
+	String name = getName();
+	if (!name.isEmpty())
+	    sb.append("(\"").append(name).append("\")");
+	sb.append(": ").append(children.size()).append(" entries");
+	return sb.toString();
+    }
+
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * An immutable list of unnamed tags of one type, backed by a persistent
+ * vector. Replacing an item, appending one or removing the last copies only
+ * the path to it; inserting or removing elsewhere rebuilds the list.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ */
+public final class PersistentListTag extends PersistentTag {
+
+    private final int elementType;
+    private final PersistentVector<PersistentTag> items;
+
+    /**
+     * Creates an empty list.
+     * 
+     * @param name
+     *            The name.
+     * @param elementType
+     *            The type code of the items.
+     */
+    public PersistentListTag(String name, int elementType) {
+	this(name, elementType, PersistentVector.<PersistentTag> empty());
+    }
+
+    private PersistentListTag(String name, int elementType,
+	    PersistentVector<PersistentTag> items) {
+	super(name);
+	this.elementType = elementType;
+	this.items = items;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    static PersistentListTag convert(ListTag<?> tag) {
+	int elementType;
+	PersistentVector<PersistentTag> items = PersistentVector.empty();
+	if (tag instanceof NumericListTag) {
+	    // read the primitives directly rather than through item tags
+	    NumericListTag list = (NumericListTag) tag;
+	    elementType = list.getElementType();
+	    for (int i = 0; i < list.size(); i++)
+		items = items.plus(PersistentValueTag.item(elementType, box(
+			elementType, list.getLong(i), list.getDouble(i))));
+	} else {
+	    elementType = TagRegistry.getType((Class) tag.getType());
+	    for (Tag<?> item : tag.getValue())
+		items = items.plus(PersistentTag.of(item).withName(""));
+	}
+	return new PersistentListTag(tag.getName(), elementType, items);
+    }
+
+    private static Object box(int type, long l, double d) {
+	switch (type) {
+	case NBTConstants.TYPE_BYTE:
+	    return Byte.valueOf((byte) l);
+	case NBTConstants.TYPE_SHORT:
+	    return Short.valueOf((short) l);
+	case NBTConstants.TYPE_INT:
+	    return Integer.valueOf((int) l);
+	case NBTConstants.TYPE_LONG:
+	    return Long.valueOf(l);
+	case NBTConstants.TYPE_FLOAT:
+	    return Float.valueOf((float) d);
+	default:
+	    return Double.valueOf(d);
+	}
+    }
+
+    @Override
+    public int getTagType() {
+	return NBTConstants.TYPE_LIST;
+    }
+
+    public int getElementType() {
+	return elementType;
+    }
+
+    public int size() {
+	return items.size();
+    }
+
+    public PersistentTag get(int index) {
+	return items.get(index);
+    }
+
+    /**
+     * Gets the items of this list.
+     * 
+     * @return A new list of the items.
+     */
+    public List<PersistentTag> getItems() {
+	int size = items.size();
+	List<PersistentTag> list = new ArrayList<PersistentTag>(size);
+	for (int i = 0; i < size; i++)
+	    list.add(items.get(i));
+	return list;
+    }
+
+    private PersistentTag checkItem(PersistentTag tag) {
+	if (tag.getTagType() != elementType)
+	    throw new IllegalArgumentException("Expected "
+		    + NBTUtils.getTypeName(elementType) + " but was "
+		    + NBTUtils.getTypeName(tag.getTagType()) + ".");
+	return tag.withName("");
+    }
+
+    /**
+     * Replaces an item.
+     * 
+     * @param index
+     *            The index.
+     * @param tag
+     *            The new item, whose name is discarded.
+     * @return The new list.
+     */
+    public PersistentListTag with(int index, PersistentTag tag) {
+	return derive(items.set(index, checkItem(tag)));
+    }
+
+    /**
+     * Appends an item.
+     * 
+     * @param tag
+     *            The item, whose name is discarded.
+     * @return The new list.
+     */
+    public PersistentListTag plus(PersistentTag tag) {
+	return derive(items.plus(checkItem(tag)));
+    }
+
+    /**
+     * Inserts an item.
+     * 
+     * @param index
+     *            The index.
+     * @param tag
+     *            The item, whose name is discarded.
+     * @return The new list.
+     */
+    public PersistentListTag plus(int index, PersistentTag tag) {
+	return derive(items.insert(index, checkItem(tag)));
+    }
+
+    /**
+     * Removes an item.
+     * 
+     * @param index
+     *            The index.
+     * @return The new list.
+     */
+    public PersistentListTag without(int index) {
+	return derive(items.remove(index));
+    }
+
+    private PersistentListTag derive(PersistentVector<PersistentTag> items) {
+	return new PersistentListTag(getName(), elementType, items);
+    }
+
+    @Override
+    public PersistentListTag withName(String name) {
+	if (getName().equals(name))
+	    return this;
+	return new PersistentListTag(name, elementType, items);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public Tag<?> toTag() {
+	int size = items.size();
+	Class c = NBTUtils.getTypeClass(elementType);
+	if (NumericListTag.isNumeric(elementType)) {
+	    NumericListTag list = new NumericListTag(getName(), c, size);
+	    for (int i = 0; i < size; i++)
+		list.add(items.get(i).toTag());
+	    list.mark();
+	    return list;
+	}
+
+	List<Tag<?>> list = new ArrayList<Tag<?>>(size);
+	for (int i = 0; i < size; i++)
+	    list.add(items.get(i).toTag());
+	return new ListTag(getName(), list, c);
+    }
+
+    @Override
+    public int hashCode() {
+	final int prime = 31;
+	int result = 1;
+	result = prime * result + getName().hashCode();
+	result = prime * result + elementType;
+	for (int i = 0; i < items.size(); i++)
+	    result = prime * result + items.get(i).hashCode();
+	return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+	if (this == obj)
+	    return true;
+	if (!(obj instanceof PersistentListTag))
+	    return false;
+	PersistentListTag other = (PersistentListTag) obj;
+	if (elementType != other.elementType
+		|| !getName().equals(other.getName())
+		|| items.size() != other.items.size())
+	    return false;
+	for (int i = 0; i < items.size(); i++)
+	    if (!items.get(i).equals(other.items.get(i)))
+		return false;
+	return true;
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder sb = new StringBuilder(ListTag.TAG_NAME);
+	String name = getName();
+	if (!name.isEmpty())
+	    sb.append("(\"").append(name).append("\")");
+	sb.append(": ").append(items.size()).append(" entries of type ")
+		.append(NBTUtils.getTypeName(elementType));
+	return sb.toString();
+    }
+
+}
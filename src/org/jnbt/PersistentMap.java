@@ -0,0 +1,354 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>
+ * An immutable map from names to values which shares structure with the maps
+ * it was derived from. It is a hash array mapped trie: each level consumes
+ * five bits of the key's hash, so {@link #put(String, Object)} and
+ * {@link #remove(String)} copy only the few nodes on the path to the key.
+ * </p>
+ * 
+ * <p>
+ * Entries remember the order in which their keys were first added, which is
+ * the order {@link #values()} returns them in.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ */
+final class PersistentMap<V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    @SuppressWarnings("rawtypes")
+    private static final PersistentMap EMPTY = new PersistentMap(null, 0, 0);
+
+    private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+	@Override
+	public int compare(Entry a, Entry b) {
+	    return (a.order < b.order ? -1 : (a.order == b.order ? 0 : 1));
+	}
+    };
+
+    private final Node root;
+    private final int size;
+    private final long nextOrder;
+
+    /**
+     * The values in order, computed the first time they are asked for.
+     */
+    private volatile List<V> values;
+
+    private PersistentMap(Node root, int size, long nextOrder) {
+	this.root = root;
+	this.size = size;
+	this.nextOrder = nextOrder;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentMap<V> empty() {
+	return EMPTY;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(String key) {
+	if (root == null)
+	    return null;
+	Entry entry = root.find(key.hashCode(), key, 0);
+	return (entry == null ? null : (V) entry.value);
+    }
+
+    /**
+     * Associates a value with a key. A key which is already present keeps its
+     * place in the order.
+     */
+    public PersistentMap<V> put(String key, V value) {
+	int hash = key.hashCode();
+	Entry old = (root == null ? null : root.find(hash, key, 0));
+	if (old != null && old.value == value)
+	    return this;
+
+	long order = (old == null ? nextOrder : old.order);
+	Entry entry = new Entry(key, hash, order, value);
+	Node newRoot = (root == null ? new BitmapNode(0, new Object[0])
+		: root).put(entry, 0);
+	if (old != null)
+	    return new PersistentMap<V>(newRoot, size, nextOrder);
+	return new PersistentMap<V>(newRoot, size + 1, nextOrder + 1);
+    }
+
+    public PersistentMap<V> remove(String key) {
+	if (root == null)
+	    return this;
+	Node newRoot = root.remove(key.hashCode(), key, 0);
+	if (newRoot == root)
+	    return this;
+	if (newRoot == null)
+	    return empty();
+	return new PersistentMap<V>(newRoot, size - 1, nextOrder);
+    }
+
+    /**
+     * Gets the values in the order their keys were added.
+     * 
+     * @return An unmodifiable list of the values.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+	List<V> values = this.values;
+	if (values == null) {
+	    List<Entry> entries = new ArrayList<Entry>(size);
+	    if (root != null)
+		root.collect(entries);
+	    Collections.sort(entries, ORDER);
+	    Object[] array = new Object[size];
+	    for (int i = 0; i < size; i++)
+		array[i] = entries.get(i).value;
+	    values = Collections.unmodifiableList((List<V>) Arrays
+		    .asList(array));
+	    this.values = values;
+	}
+	return values;
+    }
+
+    private static final class Entry {
+
+	private final String key;
+	private final int hash;
+	private final long order;
+	private final Object value;
+
+	public Entry(String key, int hash, long order, Object value) {
+	    this.key = key;
+	    this.hash = hash;
+	    this.order = order;
+	    this.value = value;
+	}
+
+    }
+
+    private static abstract class Node {
+
+	public abstract Entry find(int hash, String key, int shift);
+
+	public abstract Node put(Entry entry, int shift);
+
+	/**
+	 * @return this node if the key is absent, or <code>null</code> if the
+	 *         node is left empty
+	 */
+	public abstract Node remove(int hash, String key, int shift);
+
+	public abstract void collect(List<Entry> entries);
+
+    }
+
+    /**
+     * A node with up to 32 slots, each of which holds an entry or a child
+     * node. Only occupied slots are stored.
+     */
+    private static final class BitmapNode extends Node {
+
+	private final int bitmap;
+	private final Object[] slots;
+
+	public BitmapNode(int bitmap, Object[] slots) {
+	    this.bitmap = bitmap;
+	    this.slots = slots;
+	}
+
+	private static int bit(int hash, int shift) {
+	    return 1 << ((hash >>> shift) & MASK);
+	}
+
+	private int index(int bit) {
+	    return Integer.bitCount(bitmap & (bit - 1));
+	}
+
+	@Override
+	public Entry find(int hash, String key, int shift) {
+	    int bit = bit(hash, shift);
+	    if ((bitmap & bit) == 0)
+		return null;
+	    Object slot = slots[index(bit)];
+	    if (slot instanceof Node)
+		return ((Node) slot).find(hash, key, shift + BITS);
+	    Entry entry = (Entry) slot;
+	    return (entry.key.equals(key) ? entry : null);
+	}
+
+	@Override
+	public Node put(Entry entry, int shift) {
+	    int bit = bit(entry.hash, shift);
+	    int i = index(bit);
+	    if ((bitmap & bit) == 0) {
+		Object[] copy = new Object[slots.length + 1];
+		System.arraycopy(slots, 0, copy, 0, i);
+		copy[i] = entry;
+		System.arraycopy(slots, i, copy, i + 1, slots.length - i);
+		return new BitmapNode(bitmap | bit, copy);
+	    }
+
+	    Object slot = slots[i];
+	    Object replacement;
+	    if (slot instanceof Node) {
+		replacement = ((Node) slot).put(entry, shift + BITS);
+	    } else {
+		Entry other = (Entry) slot;
+		if (other.key.equals(entry.key))
+		    replacement = entry;
+		else
+		    replacement = merge(other, entry, shift + BITS);
+	    }
+	    Object[] copy = slots.clone();
+	    copy[i] = replacement;
+	    return new BitmapNode(bitmap, copy);
+	}
+
+	private static Node merge(Entry a, Entry b, int shift) {
+	    if (a.hash == b.hash)
+		return new CollisionNode(a.hash, new Entry[] { a, b });
+	    int bitA = bit(a.hash, shift), bitB = bit(b.hash, shift);
+	    if (bitA == bitB)
+		return new BitmapNode(bitA, new Object[] { merge(a, b, shift
+			+ BITS) });
+	    boolean ordered = ((a.hash >>> shift) & MASK) < ((b.hash >>> shift)
+		    & MASK);
+	    Object[] slots = (ordered ? new Object[] { a, b } : new Object[] {
+		    b, a });
+	    return new BitmapNode(bitA | bitB, slots);
+	}
+
+	@Override
+	public Node remove(int hash, String key, int shift) {
+	    int bit = bit(hash, shift);
+	    if ((bitmap & bit) == 0)
+		return this;
+	    int i = index(bit);
+	    Object slot = slots[i];
+	    if (slot instanceof Node) {
+		Node child = ((Node) slot).remove(hash, key, shift + BITS);
+		if (child == slot)
+		    return this;
+		if (child != null) {
+		    Object[] copy = slots.clone();
+		    copy[i] = child;
+		    return new BitmapNode(bitmap, copy);
+		}
+	    } else if (!((Entry) slot).key.equals(key)) {
+		return this;
+	    }
+
+	    if (slots.length == 1)
+		return null;
+	    Object[] copy = new Object[slots.length - 1];
+	    System.arraycopy(slots, 0, copy, 0, i);
+	    System.arraycopy(slots, i + 1, copy, i, copy.length - i);
+	    return new BitmapNode(bitmap & ~bit, copy);
+	}
+
+	@Override
+	public void collect(List<Entry> entries) {
+	    for (Object slot : slots) {
+		if (slot instanceof Node)
+		    ((Node) slot).collect(entries);
+		else
+		    entries.add((Entry) slot);
+	    }
+	}
+
+    }
+
+    /**
+     * A node for keys whose hashes are identical.
+     */
+    private static final class CollisionNode extends Node {
+
+	private final int hash;
+	private final Entry[] entries;
+
+	public CollisionNode(int hash, Entry[] entries) {
+	    this.hash = hash;
+	    this.entries = entries;
+	}
+
+	private int indexOf(String key) {
+	    for (int i = 0; i < entries.length; i++)
+		if (entries[i].key.equals(key))
+		    return i;
+	    return -1;
+	}
+
+	@Override
+	public Entry find(int hash, String key, int shift) {
+	    int i = indexOf(key);
+	    return (i < 0 ? null : entries[i]);
+	}
+
+	@Override
+	public Node put(Entry entry, int shift) {
+	    if (entry.hash != hash) {
+		// a different hash shares this node's path so far
+		BitmapNode node = new BitmapNode(BitmapNode.bit(hash, shift),
+			new Object[] { this });
+		return node.put(entry, shift);
+	    }
+	    int i = indexOf(entry.key);
+	    Entry[] copy;
+	    if (i < 0) {
+		copy = Arrays.copyOf(entries, entries.length + 1);
+		copy[entries.length] = entry;
+	    } else {
+		copy = entries.clone();
+		copy[i] = entry;
+	    }
+	    return new CollisionNode(hash, copy);
+	}
+
+	@Override
+	public Node remove(int hash, String key, int shift) {
+	    int i = indexOf(key);
+	    if (i < 0)
+		return this;
+	    if (entries.length == 1)
+		return null;
+	    Entry[] copy = new Entry[entries.length - 1];
+	    System.arraycopy(entries, 0, copy, 0, i);
+	    System.arraycopy(entries, i + 1, copy, i, copy.length - i);
+	    return new CollisionNode(hash, copy);
+	}
+
+	@Override
+	public void collect(List<Entry> entries) {
+	    entries.addAll(Arrays.asList(this.entries));
+	}
+
+    }
+
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+/**
+ * <p>
+ * An immutable tag. Unlike {@link Tag}, a persistent tag is never changed in
+ * place: <code>with</code> and <code>without</code> return a new tag which
+ * shares every unchanged subtree with the original, so an edit allocates only
+ * along the path to the tag that was edited.
+ * </p>
+ * 
+ * <p>
+ * A persistent tree is therefore its own snapshot. It may be handed to a
+ * background save, kept as an undo step or read by any number of threads
+ * while edits continue on newer versions.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see PersistentCompoundTag
+ * @see PersistentListTag
+ * @see PersistentValueTag
+ */
+public abstract class PersistentTag {
+
+    private final String name;
+
+    protected PersistentTag(String name) {
+	this.name = (name == null ? "" : name);
+    }
+
+    /**
+     * Converts a tree of tags, copying every value and array in it.
+     * 
+     * @param tag
+     *            The tag.
+     * @return The persistent tag.
+     */
+    public static PersistentTag of(Tag<?> tag) {
+	switch (tag.getTagType()) {
+	case NBTConstants.TYPE_LIST:
+	    return PersistentListTag.convert((ListTag<?>) tag);
+	case NBTConstants.TYPE_COMPOUND:
+	    return PersistentCompoundTag.convert((CompoundTag) tag);
+	default:
+	    return PersistentValueTag.convert(tag);
+	}
+    }
+
+    public final String getName() {
+	return name;
+    }
+
+    public abstract int getTagType();
+
+    /**
+     * Gets a copy of this tag with a different name.
+     * 
+     * @param name
+     *            The name.
+     * @return The renamed tag.
+     */
+    public abstract PersistentTag withName(String name);
+
+    /**
+     * Converts this tag to a mutable tree.
+     * 
+     * @return A new tag.
+     */
+    public abstract Tag<?> toTag();
+
+}
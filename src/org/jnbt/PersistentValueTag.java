@@ -0,0 +1,243 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * An immutable tag holding a single value: a number, a string or an array.
+ * Arrays are copied when the tag is created and whenever its value is read.
+ * </p>
+ * 
+ * <p>
+ * Tags of a type registered with {@link TagRegistry} are held in the form
+ * written by their codec, and decoded again by {@link #toTag()}.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ */
+public final class PersistentValueTag extends PersistentTag {
+
+    private final int type;
+    private final Object value;
+
+    /**
+     * Creates the tag.
+     * 
+     * @param name
+     *            The name.
+     * @param type
+     *            The type code.
+     * @param value
+     *            The value: a <code>Byte</code>, <code>Short</code>,
+     *            <code>Integer</code>, <code>Long</code>, <code>Float</code>,
+     *            <code>Double</code>, <code>String</code>,
+     *            <code>byte[]</code>, <code>int[]</code> or
+     *            <code>long[]</code> to match the type, or the payload
+     *            written by the codec of a registered type.
+     */
+    public PersistentValueTag(String name, int type, Object value) {
+	super(name);
+	Class<?> expected = getValueClass(type);
+	if (!expected.isInstance(value))
+	    throw new IllegalArgumentException("Expected "
+		    + expected.getSimpleName() + " for "
+		    + NBTUtils.getTypeName(type) + ".");
+	this.type = type;
+	this.value = copy(value);
+    }
+
+    private PersistentValueTag(String name, int type, Object value,
+	    boolean shared) {
+	super(name);
+	this.type = type;
+	this.value = value;
+    }
+
+    private static Class<?> getValueClass(int type) {
+	switch (type) {
+	case NBTConstants.TYPE_BYTE:
+	    return Byte.class;
+	case NBTConstants.TYPE_SHORT:
+	    return Short.class;
+	case NBTConstants.TYPE_INT:
+	    return Integer.class;
+	case NBTConstants.TYPE_LONG:
+	    return Long.class;
+	case NBTConstants.TYPE_FLOAT:
+	    return Float.class;
+	case NBTConstants.TYPE_DOUBLE:
+	    return Double.class;
+	case NBTConstants.TYPE_STRING:
+	    return String.class;
+	case NBTConstants.TYPE_BYTE_ARRAY:
+	    return byte[].class;
+	case NBTConstants.TYPE_INT_ARRAY:
+	    return int[].class;
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    return long[].class;
+	default:
+	    if (TagRegistry.getCodec(type) == null)
+		throw new IllegalArgumentException("Not a value tag type ("
+			+ type + ").");
+	    return byte[].class;
+	}
+    }
+
+    private static Object copy(Object value) {
+	if (value instanceof byte[])
+	    return ((byte[]) value).clone();
+	if (value instanceof int[])
+	    return ((int[]) value).clone();
+	if (value instanceof long[])
+	    return ((long[]) value).clone();
+	return value;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    static PersistentValueTag convert(Tag<?> tag) {
+	int type = tag.getTagType();
+	if (!isCustom(type))
+	    return new PersistentValueTag(tag.getName(), type, tag.getValue());
+
+	TagCodec codec = TagRegistry.getCodec(type);
+	if (codec == null)
+	    throw new IllegalArgumentException("Invalid tag type: " + type
+		    + ".");
+
+	try {
+	    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+	    codec.write(tag, new DataOutputStream(payload));
+	    return new PersistentValueTag(tag.getName(), type, payload
+		    .toByteArray(), true);
+	} catch (IOException e) {
+	    throw new IllegalArgumentException(e);
+	}
+    }
+
+    /**
+     * Creates an unnamed tag, as found in a list.
+     */
+    static PersistentValueTag item(int type, Object value) {
+	return new PersistentValueTag("", type, value, true);
+    }
+
+    @Override
+    public int getTagType() {
+	return type;
+    }
+
+    /**
+     * Gets the value of this tag.
+     * 
+     * @return The value, or a copy of it if it is an array.
+     */
+    public Object getValue() {
+	if (isCustom(type))
+	    return toTag().getValue();
+	return copy(value);
+    }
+
+    private static boolean isCustom(int type) {
+	return (type > NBTConstants.TYPE_LONG_ARRAY);
+    }
+
+    @Override
+    public PersistentValueTag withName(String name) {
+	if (getName().equals(name))
+	    return this;
+	return new PersistentValueTag(name, type, value, true);
+    }
+
+    @Override
+    public Tag<?> toTag() {
+	String name = getName();
+	switch (type) {
+	case NBTConstants.TYPE_BYTE:
+	    return new ByteTag(name, (Byte) value);
+	case NBTConstants.TYPE_SHORT:
+	    return new ShortTag(name, (Short) value);
+	case NBTConstants.TYPE_INT:
+	    return new IntTag(name, (Integer) value);
+	case NBTConstants.TYPE_LONG:
+	    return new LongTag(name, (Long) value);
+	case NBTConstants.TYPE_FLOAT:
+	    return new FloatTag(name, (Float) value);
+	case NBTConstants.TYPE_DOUBLE:
+	    return new DoubleTag(name, (Double) value);
+	case NBTConstants.TYPE_STRING:
+	    return new StringTag(name, (String) value);
+	case NBTConstants.TYPE_BYTE_ARRAY:
+	    return new ByteArrayTag(name, ((byte[]) value).clone());
+	case NBTConstants.TYPE_INT_ARRAY:
+	    return new IntArrayTag(name, ((int[]) value).clone());
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    return new LongArrayTag(name, ((long[]) value).clone());
+	default:
+	    TagCodec<?> codec = TagRegistry.getCodec(type);
+	    try {
+		return codec.read(name, new DataInputStream(
+			new ByteArrayInputStream((byte[]) value)));
+	    } catch (IOException e) {
+		throw new IllegalStateException(e);
+	    }
+	}
+    }
+
+    @Override
+    public int hashCode() {
+	final int prime = 31;
+	int result = 1;
+	result = prime * result + getName().hashCode();
+	result = prime * result + type;
+	result = prime * result + Arrays.deepHashCode(new Object[] { value });
+	return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+	if (this == obj)
+	    return true;
+	if (!(obj instanceof PersistentValueTag))
+	    return false;
+	PersistentValueTag other = (PersistentValueTag) obj;
+	return (type == other.type && getName().equals(other.getName()) && Arrays
+		.deepEquals(new Object[] { value }, new Object[] { other.value }));
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder sb = new StringBuilder(NBTUtils.getTypeName(type));
+	String name = getName();
+	if (!name.isEmpty())
+	    sb.append("(\"").append(name).append("\")");
+	sb.append(": ");
+	if (value.getClass().isArray())
+	    sb.append(Array.getLength(value)).append(" entries");
+	else
+	    sb.append(value);
+	return sb.toString();
+    }
+
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * An immutable vector which shares structure with the vectors it was derived
+ * from. Elements are stored in a 32-way trie with the last partial leaf held
+ * apart as a tail, so {@link #get(int)}, {@link #set(int, Object)},
+ * {@link #plus(Object)} and {@link #pop()} copy at most one short path of
+ * nodes.
+ * </p>
+ * 
+ * <p>
+ * Inserting or removing anywhere but at the end rebuilds the vector.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ */
+final class PersistentVector<E> {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final Object[] EMPTY_NODE = new Object[WIDTH];
+
+    @SuppressWarnings("rawtypes")
+    private static final PersistentVector EMPTY = new PersistentVector(0,
+	    BITS, EMPTY_NODE, new Object[0]);
+
+    private final int size;
+    private final int shift;
+    private final Object[] root;
+    private final Object[] tail;
+
+    private PersistentVector(int size, int shift, Object[] root, Object[] tail) {
+	this.size = size;
+	this.shift = shift;
+	this.root = root;
+	this.tail = tail;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentVector<E> empty() {
+	return EMPTY;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    private int tailOffset() {
+	return (size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS);
+    }
+
+    private Object[] leafFor(int index) {
+	if (index >= tailOffset())
+	    return tail;
+	Object[] node = root;
+	for (int level = shift; level > 0; level -= BITS)
+	    node = (Object[]) node[(index >>> level) & MASK];
+	return node;
+    }
+
+    private void checkIndex(int index) {
+	if (index < 0 || index >= size)
+	    throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+		    + size);
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+	checkIndex(index);
+	return (E) leafFor(index)[index & MASK];
+    }
+
+    public PersistentVector<E> set(int index, E value) {
+	checkIndex(index);
+	if (index >= tailOffset()) {
+	    Object[] newTail = tail.clone();
+	    newTail[index & MASK] = value;
+	    return new PersistentVector<E>(size, shift, root, newTail);
+	}
+	return new PersistentVector<E>(size, shift, set(shift, root, index,
+		value), tail);
+    }
+
+    private static Object[] set(int level, Object[] node, int index,
+	    Object value) {
+	Object[] copy = node.clone();
+	if (level == 0) {
+	    copy[index & MASK] = value;
+	} else {
+	    int i = (index >>> level) & MASK;
+	    copy[i] = set(level - BITS, (Object[]) node[i], index, value);
+	}
+	return copy;
+    }
+
+    /**
+     * Appends an element.
+     */
+    public PersistentVector<E> plus(E value) {
+	if (size - tailOffset() < WIDTH) {
+	    Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+	    newTail[tail.length] = value;
+	    return new PersistentVector<E>(size + 1, shift, root, newTail);
+	}
+
+	// the tail is full, so it becomes a leaf of the trie
+	Object[] newRoot;
+	int newShift = shift;
+	if ((size >>> BITS) > (1 << shift)) {
+	    newRoot = new Object[WIDTH];
+	    newRoot[0] = root;
+	    newRoot[1] = newPath(shift, tail);
+	    newShift += BITS;
+	} else {
+	    newRoot = pushTail(shift, root, tail);
+	}
+	return new PersistentVector<E>(size + 1, newShift, newRoot,
+		new Object[] { value });
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] leaf) {
+	int i = ((size - 1) >>> level) & MASK;
+	Object[] copy = parent.clone();
+	if (level == BITS) {
+	    copy[i] = leaf;
+	} else {
+	    Object[] child = (Object[]) parent[i];
+	    copy[i] = (child == null ? newPath(level - BITS, leaf) : pushTail(
+		    level - BITS, child, leaf));
+	}
+	return copy;
+    }
+
+    private static Object[] newPath(int level, Object[] leaf) {
+	if (level == 0)
+	    return leaf;
+	Object[] node = new Object[WIDTH];
+	node[0] = newPath(level - BITS, leaf);
+	return node;
+    }
+
+    /**
+     * Removes the last element.
+     */
+    public PersistentVector<E> pop() {
+	if (size == 0)
+	    throw new IllegalStateException("vector is empty");
+	if (size == 1)
+	    return empty();
+	if (size - tailOffset() > 1) {
+	    Object[] newTail = Arrays.copyOf(tail, tail.length - 1);
+	    return new PersistentVector<E>(size - 1, shift, root, newTail);
+	}
+
+	// the tail is emptied, so the last leaf of the trie takes its place
+	Object[] newTail = leafFor(size - 2);
+	Object[] newRoot = popTail(shift, root);
+	int newShift = shift;
+	if (newRoot == null)
+	    newRoot = EMPTY_NODE;
+	if (shift > BITS && newRoot[1] == null) {
+	    newRoot = (Object[]) newRoot[0];
+	    newShift -= BITS;
+	}
+	return new PersistentVector<E>(size - 1, newShift, newRoot, newTail);
+    }
+
+    private Object[] popTail(int level, Object[] node) {
+	int i = ((size - 2) >>> level) & MASK;
+	if (level > BITS) {
+	    Object[] child = popTail(level - BITS, (Object[]) node[i]);
+	    if (child == null && i == 0)
+		return null;
+	    Object[] copy = node.clone();
+	    copy[i] = child;
+	    return copy;
+	} else if (i == 0) {
+	    return null;
+	} else {
+	    Object[] copy = node.clone();
+	    copy[i] = null;
+	    return copy;
+	}
+    }
+
+    /**
+     * Inserts an element, rebuilding the vector unless it is appended.
+     */
+    public PersistentVector<E> insert(int index, E value) {
+	if (index < 0 || index > size)
+	    throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+		    + size);
+	if (index == size)
+	    return plus(value);
+
+	PersistentVector<E> result = empty();
+	for (int i = 0; i < size; i++) {
+	    if (i == index)
+		result = result.plus(value);
+	    result = result.plus(get(i));
+	}
+	return result;
+    }
+
+    /**
+     * Removes an element, rebuilding the vector unless it is the last.
+     */
+    public PersistentVector<E> remove(int index) {
+	checkIndex(index);
+	if (index == size - 1)
+	    return pop();
+
+	PersistentVector<E> result = empty();
+	for (int i = 0; i < size; i++)
+	    if (i != index)
+		result = result.plus(get(i));
+	return result;
+    }
+
+}
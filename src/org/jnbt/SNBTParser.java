@@ -0,0 +1,437 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * Parses stringified NBT, as written by {@link SNBTWriter} or found in
+ * Minecraft commands, back into tags.
+ * </p>
+ * 
+ * <p>
+ * Numbers take their type from a suffix: <code>b</code>, <code>s</code>,
+ * <code>L</code>, <code>f</code> or <code>d</code>, in either case. Without
+ * one, a whole number is a <code>TAG_Int</code> and a decimal a
+ * <code>TAG_Double</code>; <code>true</code> and <code>false</code> are
+ * bytes. Any other unquoted word is a string. Keys and strings may be quoted
+ * with either kind of quote.
+ * </p>
+ * 
+ * <p>
+ * The text is read through a small buffer, so it need not be held in memory.
+ * Errors are reported with the line and column at which they were found.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see SNBTWriter
+ */
+public class SNBTParser implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position, limit;
+
+    private int line = 1, column = 1;
+
+    private final StringBuilder token = new StringBuilder();
+
+    public SNBTParser(Reader reader) {
+	this.reader = reader;
+    }
+
+    /**
+     * Parses a tag from a string.
+     * 
+     * @param text
+     *            The text.
+     * @return The tag, with an empty name.
+     * @throws IOException
+     *             if the text is malformed.
+     */
+    public static Tag<?> parse(String text) throws IOException {
+	SNBTParser parser = new SNBTParser(new StringReader(text));
+	Tag<?> tag = parser.readTag();
+	parser.skipWhitespace();
+	if (parser.peek() != -1)
+	    throw parser.error("Unexpected '" + (char) parser.peek()
+		    + "' after the end of the tag");
+	return tag;
+    }
+
+    /**
+     * Reads the next tag.
+     * 
+     * @return The tag, with an empty name.
+     * @throws IOException
+     *             if an I/O error occurs or the text is malformed.
+     */
+    public Tag<?> readTag() throws IOException {
+	return readValue("");
+    }
+
+    private Tag<?> readValue(String name) throws IOException {
+	skipWhitespace();
+	int c = peek();
+	switch (c) {
+	case -1:
+	    throw error("Unexpected end of text");
+	case '{':
+	    return readCompound(name);
+	case '[':
+	    return readList(name);
+	case '"':
+	case '\'':
+	    return new StringTag(name, readQuoted());
+	default:
+	    return readWord(name);
+	}
+    }
+
+    private CompoundTag readCompound(String name) throws IOException {
+	expect('{');
+	IndexedMap<Tag<?>> map = new IndexedMap<Tag<?>>();
+	skipWhitespace();
+	if (accept('}'))
+	    return new CompoundTag(name, map);
+	do {
+	    skipWhitespace();
+	    String key = readKey();
+	    skipWhitespace();
+	    expect(':');
+	    Tag<?> child = readValue(key);
+	    map.put(key, child);
+	    skipWhitespace();
+	} while (accept(','));
+	expect('}');
+	return new CompoundTag(name, map);
+    }
+
+    private String readKey() throws IOException {
+	int c = peek();
+	if (c == '"' || c == '\'')
+	    return readQuoted();
+	token.setLength(0);
+	while ((c = peek()) != -1 && SNBTWriter.isPlain((char) c)) {
+	    token.append((char) c);
+	    read();
+	}
+	if (token.length() == 0)
+	    throw unexpected("a key");
+	return token.toString();
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private Tag<?> readList(String name) throws IOException {
+	expect('[');
+	int c = peek();
+	if (c == 'B' || c == 'I' || c == 'L') {
+	    // only an array has a letter followed by a semicolon
+	    read();
+	    skipWhitespace();
+	    if (accept(';'))
+		return readArray(name, c);
+	    unread();
+	}
+
+	List<Tag<?>> items = new ArrayList<Tag<?>>();
+	int type = NBTConstants.TYPE_END;
+	skipWhitespace();
+	if (!accept(']')) {
+	    do {
+		int line = this.line, column = this.column;
+		Tag<?> item = readValue("");
+		int itemType = item.getTagType();
+		if (type == NBTConstants.TYPE_END) {
+		    type = itemType;
+		} else if (itemType != type) {
+		    throw new IOException("Expected "
+			    + NBTUtils.getTypeName(type) + " but found "
+			    + NBTUtils.getTypeName(itemType) + " at line "
+			    + line + ", column " + column + ".");
+		}
+		items.add(item);
+		skipWhitespace();
+	    } while (accept(','));
+	    expect(']');
+	}
+
+	Class itemClass = NBTUtils.getTypeClass(type);
+	if (NumericListTag.isNumeric(type)) {
+	    NumericListTag list = new NumericListTag(name, itemClass,
+		    items.size());
+	    for (Tag<?> item : items)
+		list.add(item);
+	    list.mark();
+	    return list;
+	}
+	return new ListTag(name, items, itemClass);
+    }
+
+    private Tag<?> readArray(String name, int kind) throws IOException {
+	int type;
+	switch (kind) {
+	case 'B':
+	    type = NBTConstants.TYPE_BYTE;
+	    break;
+	case 'I':
+	    type = NBTConstants.TYPE_INT;
+	    break;
+	default:
+	    type = NBTConstants.TYPE_LONG;
+	}
+
+	long[] values = new long[16];
+	int count = 0;
+	skipWhitespace();
+	if (!accept(']')) {
+	    do {
+		skipWhitespace();
+		int line = this.line, column = this.column;
+		Tag<?> item = readWord("");
+		int itemType = item.getTagType();
+		// a bare number is an int, which a long array accepts
+		if (itemType != type
+			&& !(type == NBTConstants.TYPE_LONG
+			&& itemType == NBTConstants.TYPE_INT))
+		    throw new IOException("Expected "
+			    + NBTUtils.getTypeName(type) + " but found "
+			    + NBTUtils.getTypeName(itemType) + " at line "
+			    + line + ", column " + column + ".");
+		if (count == values.length)
+		    values = Arrays.copyOf(values, count * 2);
+		values[count++] = ((Number) item.getValue()).longValue();
+		skipWhitespace();
+	    } while (accept(','));
+	    expect(']');
+	}
+
+	switch (type) {
+	case NBTConstants.TYPE_BYTE:
+	    byte[] bytes = new byte[count];
+	    for (int i = 0; i < count; i++)
+		bytes[i] = (byte) values[i];
+	    return new ByteArrayTag(name, bytes);
+	case NBTConstants.TYPE_INT:
+	    int[] ints = new int[count];
+	    for (int i = 0; i < count; i++)
+		ints[i] = (int) values[i];
+	    return new IntArrayTag(name, ints);
+	default:
+	    return new LongArrayTag(name, Arrays.copyOf(values, count));
+	}
+    }
+
+    /**
+     * Reads an unquoted number, boolean or string.
+     */
+    private Tag<?> readWord(String name) throws IOException {
+	token.setLength(0);
+	int c;
+	while ((c = peek()) != -1 && SNBTWriter.isPlain((char) c)) {
+	    token.append((char) c);
+	    read();
+	}
+	if (token.length() == 0)
+	    throw unexpected("a value");
+
+	String word = token.toString();
+	Tag<?> number = parseNumber(name, word);
+	if (number != null)
+	    return number;
+	if (word.equals("true"))
+	    return new ByteTag(name, (byte) 1);
+	if (word.equals("false"))
+	    return new ByteTag(name, (byte) 0);
+	return new StringTag(name, word);
+    }
+
+    private static Tag<?> parseNumber(String name, String word) {
+	int length = word.length();
+	char first = word.charAt(0);
+	if (first == '-' || first == '+')
+	    first = (length > 1 ? word.charAt(1) : first);
+	// NaN and Infinity are the only numbers that start with a letter
+	if (!(first >= '0' && first <= '9') && first != '.' && first != 'N'
+		&& first != 'I')
+	    return null;
+
+	char suffix = Character.toLowerCase(word.charAt(length - 1));
+	String digits = word;
+	if (suffix >= 'a' && suffix <= 'z')
+	    digits = word.substring(0, length - 1);
+	try {
+	    switch (suffix) {
+	    case 'b':
+		return new ByteTag(name, Byte.parseByte(digits));
+	    case 's':
+		return new ShortTag(name, Short.parseShort(digits));
+	    case 'l':
+		return new LongTag(name, Long.parseLong(digits));
+	    case 'f':
+		return new FloatTag(name, Float.parseFloat(digits));
+	    case 'd':
+		return new DoubleTag(name, Double.parseDouble(digits));
+	    default:
+		if (suffix >= 'a' && suffix <= 'z')
+		    return null;
+		if (isWhole(digits))
+		    return new IntTag(name, Integer.parseInt(digits));
+		return new DoubleTag(name, Double.parseDouble(digits));
+	    }
+	} catch (NumberFormatException e) {
+	    // not a number after all, for example an id like 1-2
+	    return null;
+	}
+    }
+
+    private static boolean isWhole(String digits) {
+	for (int i = 0; i < digits.length(); i++) {
+	    char c = digits.charAt(i);
+	    if (!(c >= '0' && c <= '9') && !(i == 0 && (c == '-' || c == '+')))
+		return false;
+	}
+	return true;
+    }
+
+    private String readQuoted() throws IOException {
+	int quote = read();
+	StringBuilder sb = new StringBuilder();
+	while (true) {
+	    int c = read();
+	    if (c == -1)
+		throw error("Unterminated string");
+	    if (c == quote)
+		return sb.toString();
+	    if (c == '\\') {
+		c = read();
+		switch (c) {
+		case 'n':
+		    sb.append('\n');
+		    break;
+		case 'r':
+		    sb.append('\r');
+		    break;
+		case 't':
+		    sb.append('\t');
+		    break;
+		case 'u':
+		    int code = 0;
+		    for (int i = 0; i < 4; i++) {
+			int digit = Character.digit(read(), 16);
+			if (digit == -1)
+			    throw error("Invalid unicode escape");
+			code = code * 16 + digit;
+		    }
+		    sb.append((char) code);
+		    break;
+		case '\\':
+		case '"':
+		case '\'':
+		    sb.append((char) c);
+		    break;
+		case -1:
+		    throw error("Unterminated string");
+		default:
+		    throw error("Invalid escape '\\" + (char) c + "'");
+		}
+	    } else {
+		sb.append((char) c);
+	    }
+	}
+    }
+
+    private void skipWhitespace() throws IOException {
+	int c;
+	while ((c = peek()) != -1 && Character.isWhitespace(c))
+	    read();
+    }
+
+    private boolean accept(char c) throws IOException {
+	if (peek() != c)
+	    return false;
+	read();
+	return true;
+    }
+
+    private void expect(char c) throws IOException {
+	if (!accept(c))
+	    throw unexpected("'" + c + "'");
+    }
+
+    private int peek() throws IOException {
+	if (position == limit) {
+	    limit = reader.read(buffer, 0, buffer.length);
+	    position = 0;
+	    if (limit <= 0) {
+		limit = 0;
+		return -1;
+	    }
+	}
+	return buffer[position];
+    }
+
+    private int read() throws IOException {
+	int c = peek();
+	if (c != -1) {
+	    position++;
+	    if (c == '\n') {
+		line++;
+		column = 1;
+	    } else {
+		column++;
+	    }
+	}
+	return c;
+    }
+
+    /**
+     * Steps back over a character which was just read and was not a line
+     * break. The buffer always still holds it, since nothing has been read
+     * after it.
+     */
+    private void unread() {
+	position--;
+	column--;
+    }
+
+    private IOException unexpected(String expected) throws IOException {
+	int c = peek();
+	String found = (c == -1 ? "the end of the text" : "'" + (char) c + "'");
+	return error("Expected " + expected + " but found " + found);
+    }
+
+    private IOException error(String message) {
+	return new IOException(message + " at line " + line + ", column "
+		+ column + ".");
+    }
+
+    @Override
+    public void close() throws IOException {
+	reader.close();
+    }
+
+}
@@ -0,0 +1,457 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Writes tags as stringified NBT, the text format of Minecraft commands:
+ * </p>
+ * 
+ * <pre>
+ * {Level:{xPos:5,Pos:[1.5d,2.5d],Blocks:[B;1b,2b],Name:&quot;Steve&quot;}}
+ * </pre>
+ * 
+ * <p>
+ * Text is written as it is produced, so memory does not grow with the size of
+ * the tag, and {@link #write(NBTReader)} converts a binary stream without
+ * building the tags at all. The name of the outermost tag is not written,
+ * since stringified NBT has no place for it.
+ * </p>
+ * 
+ * <p>
+ * Output is compact unless an indent is set. Arrays longer than the array
+ * limit are cut short with <code>...</code>, which makes the text readable but
+ * no longer parseable.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see SNBTParser
+ */
+public class SNBTWriter implements Closeable, Flushable {
+
+    private final Writer out;
+
+    private String indent = "";
+    private int arrayLimit = Integer.MAX_VALUE;
+
+    public SNBTWriter(Writer out) {
+	if (out instanceof BufferedWriter || out instanceof StringWriter) {
+	    this.out = out;
+	} else {
+	    this.out = new BufferedWriter(out);
+	}
+    }
+
+    /**
+     * Writes a tag as compact text.
+     * 
+     * @param tag
+     *            The tag.
+     * @return The text.
+     */
+    public static String format(Tag<?> tag) {
+	StringWriter sw = new StringWriter();
+	try {
+	    new SNBTWriter(sw).write(tag);
+	} catch (IOException e) {
+	    // a StringWriter does not throw
+	    throw new IllegalStateException(e);
+	}
+	return sw.toString();
+    }
+
+    public String getIndent() {
+	return indent;
+    }
+
+    /**
+     * Sets the indent of each level of compounds and lists.
+     * 
+     * @param indent
+     *            The indent, or an empty string to write everything on one
+     *            line.
+     */
+    public void setIndent(String indent) {
+	this.indent = (indent == null ? "" : indent);
+    }
+
+    public int getArrayLimit() {
+	return arrayLimit;
+    }
+
+    /**
+     * Sets the number of items written from each byte, int and long array.
+     * 
+     * @param arrayLimit
+     *            The number of items, or <code>Integer.MAX_VALUE</code> to
+     *            write every item.
+     */
+    public void setArrayLimit(int arrayLimit) {
+	if (arrayLimit < 0)
+	    throw new IllegalArgumentException("arrayLimit must not be negative");
+	this.arrayLimit = arrayLimit;
+    }
+
+    private boolean isPretty() {
+	return !indent.isEmpty();
+    }
+
+    /**
+     * Writes a tag and everything within it.
+     * 
+     * @param tag
+     *            The tag.
+     * @throws IOException
+     *             if an I/O error occurs, or if the tag is of a type that
+     *             stringified NBT cannot express.
+     */
+    public void write(Tag<?> tag) throws IOException {
+	writeTag(tag, 0);
+    }
+
+    /**
+     * Reads the next tag from a stream and writes it.
+     * 
+     * @param reader
+     *            The reader.
+     * @return <code>false</code> if the enclosing compound or list has ended
+     *         and nothing was written.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public boolean write(NBTReader reader) throws IOException {
+	if (reader.next() == NBTConstants.TYPE_END)
+	    return false;
+	writeTag(reader, 0);
+	return true;
+    }
+
+    private void writeTag(Tag<?> tag, int depth) throws IOException {
+	if (tag instanceof CompoundTag) {
+	    Map<String, Tag<?>> map = ((CompoundTag) tag).getValue();
+	    out.write('{');
+	    boolean first = true;
+	    for (Tag<?> child : map.values()) {
+		separate(first, depth + 1, true);
+		first = false;
+		writeKey(child.getName());
+		writeTag(child, depth + 1);
+	    }
+	    close(first, depth, '}');
+	} else if (tag instanceof NumericListTag) {
+	    NumericListTag<?> list = (NumericListTag<?>) tag;
+	    int type = list.getElementType();
+	    out.write('[');
+	    for (int i = 0; i < list.size(); i++) {
+		separate(i == 0, depth + 1, false);
+		switch (type) {
+		case NBTConstants.TYPE_FLOAT:
+		    writeFloat((float) list.getDouble(i));
+		    break;
+		case NBTConstants.TYPE_DOUBLE:
+		    writeDouble(list.getDouble(i));
+		    break;
+		default:
+		    writeIntegral(type, list.getLong(i));
+		}
+	    }
+	    out.write(']');
+	} else if (tag instanceof ListTag) {
+	    ListTag<?> list = (ListTag<?>) tag;
+	    List<? extends Tag<?>> items = list.getValue();
+	    boolean nested = isContainer(NBTUtils.getTypeCode(list.getType()));
+	    out.write('[');
+	    boolean first = true;
+	    for (Tag<?> item : items) {
+		separate(first, depth + 1, nested);
+		first = false;
+		writeTag(item, depth + 1);
+	    }
+	    if (nested) {
+		close(first, depth, ']');
+	    } else {
+		out.write(']');
+	    }
+	} else if (tag instanceof ByteTag) {
+	    writeIntegral(NBTConstants.TYPE_BYTE, (Byte) tag.getValue());
+	} else if (tag instanceof ShortTag) {
+	    writeIntegral(NBTConstants.TYPE_SHORT, (Short) tag.getValue());
+	} else if (tag instanceof IntTag) {
+	    writeIntegral(NBTConstants.TYPE_INT, (Integer) tag.getValue());
+	} else if (tag instanceof LongTag) {
+	    writeIntegral(NBTConstants.TYPE_LONG, (Long) tag.getValue());
+	} else if (tag instanceof FloatTag) {
+	    writeFloat((Float) tag.getValue());
+	} else if (tag instanceof DoubleTag) {
+	    writeDouble((Double) tag.getValue());
+	} else if (tag instanceof StringTag) {
+	    writeString((String) tag.getValue());
+	} else if (tag instanceof ByteArrayTag) {
+	    writeByteArray(((ByteArrayTag) tag).getValue());
+	} else if (tag instanceof IntArrayTag) {
+	    writeIntArray(((IntArrayTag) tag).getValue());
+	} else if (tag instanceof LongArrayTag) {
+	    writeLongArray(((LongArrayTag) tag).getValue());
+	} else {
+	    throw new IOException("Tag type not supported: "
+		    + NBTUtils.getTypeName(tag.getTagType()) + ".");
+	}
+    }
+
+    private void writeTag(NBTReader reader, int depth) throws IOException {
+	int type = reader.tagType();
+	switch (type) {
+	case NBTConstants.TYPE_BYTE:
+	    writeIntegral(type, reader.byteValue());
+	    break;
+	case NBTConstants.TYPE_SHORT:
+	    writeIntegral(type, reader.shortValue());
+	    break;
+	case NBTConstants.TYPE_INT:
+	    writeIntegral(type, reader.intValue());
+	    break;
+	case NBTConstants.TYPE_LONG:
+	    writeIntegral(type, reader.longValue());
+	    break;
+	case NBTConstants.TYPE_FLOAT:
+	    writeFloat(reader.floatValue());
+	    break;
+	case NBTConstants.TYPE_DOUBLE:
+	    writeDouble(reader.doubleValue());
+	    break;
+	case NBTConstants.TYPE_STRING:
+	    writeString(reader.stringValue());
+	    break;
+	case NBTConstants.TYPE_BYTE_ARRAY:
+	    writeByteArray(reader.byteArrayValue());
+	    break;
+	case NBTConstants.TYPE_INT_ARRAY:
+	    writeIntArray(reader.intArrayValue());
+	    break;
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    writeLongArray(reader.longArrayValue());
+	    break;
+	case NBTConstants.TYPE_LIST:
+	    boolean nested = isContainer(reader.listType());
+	    out.write('[');
+	    boolean first = true;
+	    while (reader.next() != NBTConstants.TYPE_END) {
+		separate(first, depth + 1, nested);
+		first = false;
+		writeTag(reader, depth + 1);
+	    }
+	    if (nested) {
+		close(first, depth, ']');
+	    } else {
+		out.write(']');
+	    }
+	    break;
+	case NBTConstants.TYPE_COMPOUND:
+	    out.write('{');
+	    first = true;
+	    while (reader.next() != NBTConstants.TYPE_END) {
+		separate(first, depth + 1, true);
+		first = false;
+		writeKey(reader.name());
+		writeTag(reader, depth + 1);
+	    }
+	    close(first, depth, '}');
+	    break;
+	default:
+	    writeTag(reader.readTag(), depth);
+	}
+    }
+
+    private static boolean isContainer(int type) {
+	return (type == NBTConstants.TYPE_COMPOUND
+		|| type == NBTConstants.TYPE_LIST);
+    }
+
+    /**
+     * Writes what comes before an entry of a compound or list: a comma unless
+     * it is the first, and a line break if the entries are laid out one per
+     * line.
+     */
+    private void separate(boolean first, int depth, boolean lines)
+	    throws IOException {
+	if (!first)
+	    out.write(',');
+	if (lines && isPretty()) {
+	    newLine(depth);
+	} else if (!first && isPretty()) {
+	    out.write(' ');
+	}
+    }
+
+    private void close(boolean empty, int depth, char c) throws IOException {
+	if (!empty && isPretty())
+	    newLine(depth);
+	out.write(c);
+    }
+
+    private void newLine(int depth) throws IOException {
+	out.write('\n');
+	for (int i = 0; i < depth; i++)
+	    out.write(indent);
+    }
+
+    private void writeKey(String name) throws IOException {
+	if (isPlain(name)) {
+	    out.write(name);
+	} else {
+	    writeString(name);
+	}
+	out.write(':');
+	if (isPretty())
+	    out.write(' ');
+    }
+
+    /**
+     * Returns <code>true</code> if a name can be written without quotes.
+     */
+    static boolean isPlain(String name) {
+	if (name.isEmpty())
+	    return false;
+	for (int i = 0; i < name.length(); i++) {
+	    if (!isPlain(name.charAt(i)))
+		return false;
+	}
+	return true;
+    }
+
+    static boolean isPlain(char c) {
+	return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+		|| (c >= '0' && c <= '9') || c == '_' || c == '-' || c == '.'
+		|| c == '+';
+    }
+
+    private void writeIntegral(int type, long value) throws IOException {
+	out.write(Long.toString(value));
+	switch (type) {
+	case NBTConstants.TYPE_BYTE:
+	    out.write('b');
+	    break;
+	case NBTConstants.TYPE_SHORT:
+	    out.write('s');
+	    break;
+	case NBTConstants.TYPE_LONG:
+	    out.write('L');
+	    break;
+	}
+    }
+
+    private void writeFloat(float value) throws IOException {
+	out.write(Float.toString(value));
+	out.write('f');
+    }
+
+    private void writeDouble(double value) throws IOException {
+	out.write(Double.toString(value));
+	out.write('d');
+    }
+
+    private void writeString(String s) throws IOException {
+	out.write('"');
+	int start = 0;
+	for (int i = 0; i < s.length(); i++) {
+	    char c = s.charAt(i);
+	    String escape;
+	    switch (c) {
+	    case '"':
+		escape = "\\\"";
+		break;
+	    case '\\':
+		escape = "\\\\";
+		break;
+	    case '\n':
+		escape = "\\n";
+		break;
+	    case '\r':
+		escape = "\\r";
+		break;
+	    case '\t':
+		escape = "\\t";
+		break;
+	    default:
+		continue;
+	    }
+	    out.write(s, start, i - start);
+	    out.write(escape);
+	    start = i + 1;
+	}
+	out.write(s, start, s.length() - start);
+	out.write('"');
+    }
+
+    private void writeByteArray(byte[] bytes) throws IOException {
+	out.write("[B;");
+	int count = Math.min(bytes.length, arrayLimit);
+	for (int i = 0; i < count; i++) {
+	    separate(i == 0, 0, false);
+	    writeIntegral(NBTConstants.TYPE_BYTE, bytes[i]);
+	}
+	endArray(bytes.length, count);
+    }
+
+    private void writeIntArray(int[] ints) throws IOException {
+	out.write("[I;");
+	int count = Math.min(ints.length, arrayLimit);
+	for (int i = 0; i < count; i++) {
+	    separate(i == 0, 0, false);
+	    writeIntegral(NBTConstants.TYPE_INT, ints[i]);
+	}
+	endArray(ints.length, count);
+    }
+
+    private void writeLongArray(long[] longs) throws IOException {
+	out.write("[L;");
+	int count = Math.min(longs.length, arrayLimit);
+	for (int i = 0; i < count; i++) {
+	    separate(i == 0, 0, false);
+	    writeIntegral(NBTConstants.TYPE_LONG, longs[i]);
+	}
+	endArray(longs.length, count);
+    }
+
+    private void endArray(int length, int written) throws IOException {
+	if (written < length) {
+	    separate(written == 0, 0, false);
+	    out.write("...");
+	}
+	out.write(']');
+    }
+
+    @Override
+    public void flush() throws IOException {
+	out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+	out.close();
+    }
+
+}
@@ -3,7 +3,6 @@ package org.jnbt;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 
-import com.nbt.NBTBranch;
 import com.nbt.NBTNode;
 import com.nbt.data.Sprite;
 import com.tag.ImageFactory;
@@ -63,7 +62,29 @@ public abstract class Tag<T> implements NBTNode, Saveable, Sprite {
     private String name;
     private T value;
 
-    private int hashCode;
+    /**
+     * The compound or list which contains this tag, or <code>null</code>.
+     */
+    private Tag<?> parent;
+
+    /**
+     * <code>true</code> if this tag or any tag within it has been modified
+     * since it was last marked. A changed tag's ancestors are always changed
+     * as well, so an unchanged tag never contains a changed one.
+     */
+    private boolean changed;
+
+    /**
+     * The index over the tree this tag is the root of, or <code>null</code>.
+     */
+    private TagIndex index;
+
+    /**
+     * The fingerprint of the payload of this tag, kept while
+     * <code>fingerprinted</code> is <code>true</code>.
+     */
+    private long payloadFingerprint;
+    private boolean fingerprinted;
 
     /**
      * Creates the tag with the specified name.
@@ -102,6 +123,7 @@ public abstract class Tag<T> implements NBTNode, Saveable, Sprite {
 	if (name == null)
 	    name = createDefaultName();
 	this.name = name;
+	setChanged();
     }
 
     protected String createDefaultName() {
@@ -112,7 +134,6 @@ public abstract class Tag<T> implements NBTNode, Saveable, Sprite {
      * Gets the value of this tag.
      * 
      * @return The value of this tag.
-     * @throws IllegalStateException
      */
     public T getValue() {
 	if (value == null)
@@ -125,15 +146,153 @@ public abstract class Tag<T> implements NBTNode, Saveable, Sprite {
      * 
      * @param value
      *            the new value to be set
+     * @throws IllegalArgumentException
+     *             if the value is <code>null</code> and this type of tag has
+     *             no default value
      */
     public void setValue(T value) {
 	if (value == null)
 	    value = createDefaultValue();
 	this.value = value;
+	setChanged();
+	invalidateIndexes(this);
+	if (parent != null)
+	    parent.childValueSet(this);
+    }
+
+    /**
+     * Called after the value of a child of this tag has been set, for tags
+     * which hold the values of their children themselves.
+     */
+    void childValueSet(Tag<?> child) {
+    }
+
+    /**
+     * Sets the value without recording a change, for subclasses which replace
+     * one representation of their value with another.
+     */
+    void initValue(T value) {
+	this.value = value;
+    }
+
+    /**
+     * Gets the value without creating a default one.
+     */
+    final T peekValue() {
+	return value;
+    }
+
+    /**
+     * Gets the compound or list which contains this tag.
+     * 
+     * @return The parent, or <code>null</code> if this tag is not contained by
+     *         another.
+     */
+    public Tag<?> getParent() {
+	return parent;
+    }
+
+    /**
+     * Makes this tag the parent of a child which has been added to it.
+     */
+    void adopt(Tag<?> child) {
+	child.parent = this;
+	if (child.changed)
+	    setChanged();
+	if (indexesChildren())
+	    invalidateIndexes(child);
+    }
+
+    /**
+     * Detaches a child which has been removed from this tag.
+     */
+    void orphan(Tag<?> child) {
+	if (child.parent == this)
+	    child.parent = null;
+	if (indexesChildren())
+	    invalidateIndexes(child);
+    }
+
+    /**
+     * Returns <code>false</code> for tags whose children are views of values
+     * held by the tag itself, which are indexed along with it.
+     */
+    boolean indexesChildren() {
+	return true;
+    }
+
+    final TagIndex getTagIndex() {
+	return index;
+    }
+
+    final void setTagIndex(TagIndex index) {
+	this.index = index;
+    }
+
+    /**
+     * Tells every index over a tree which contains this tag that the values
+     * within a tag may have changed.
+     */
+    final void invalidateIndexes(Tag<?> tag) {
+	for (Tag<?> t = this; t != null; t = t.parent) {
+	    if (t.index != null)
+		t.index.invalidate(tag);
+	}
+    }
+
+    /**
+     * Gets a 64 bit fingerprint of the content of this tag, including its
+     * name, which is the same wherever and however the tag is hashed.
+     * 
+     * @return The fingerprint.
+     * @see TagFingerprint
+     */
+    public final long getFingerprint() {
+	return TagFingerprint.of(this);
+    }
+
+    /**
+     * Gets the fingerprint of the payload of this tag, computing it only if
+     * this tag has changed since it was last computed.
+     */
+    final long getPayloadFingerprint() {
+	if (!fingerprinted) {
+	    payloadFingerprint = TagFingerprint.hashPayload(this);
+	    fingerprinted = true;
+	}
+	return payloadFingerprint;
+    }
+
+    /**
+     * <p>
+     * Records that this tag has been modified, along with every tag which
+     * contains it. The fingerprint of each of them is discarded, even where
+     * the tag was already changed, since a fingerprint may have been taken
+     * since.
+     * </p>
+     * 
+     * <p>
+     * Setters and the methods of {@link Mutable} call this themselves. It only
+     * needs to be called after changing an array or collection returned by
+     * {@link #getValue()} in place.
+     * </p>
+     */
+    public void setChanged() {
+	for (Tag<?> tag = this; tag != null; tag = tag.parent) {
+	    tag.changed = true;
+	    tag.fingerprinted = false;
+	}
+    }
+
+    /**
+     * Clears the change of this tag alone.
+     */
+    final void clearChanged() {
+	this.changed = false;
     }
 
     protected T createDefaultValue() {
-	throw new IllegalStateException();
+	throw new IllegalArgumentException("value must not be null");
     }
 
     protected String toString(String tagType) {
@@ -145,6 +304,24 @@ public abstract class Tag<T> implements NBTNode, Saveable, Sprite {
 	return sb.toString();
     }
 
+    /**
+     * Appends the text of {@link #toString()}, indenting every line after the
+     * first. Compounds and lists append their children directly instead of
+     * indenting the text of each.
+     */
+    void appendTo(StringBuilder sb, String indent) {
+	String s = toString();
+	int start = 0;
+	if (!indent.isEmpty()) {
+	    int end;
+	    while ((end = s.indexOf("\r\n", start)) != -1) {
+		sb.append(s, start, end + 2).append(indent);
+		start = end + 2;
+	    }
+	}
+	sb.append(s, start, s.length());
+    }
+
     @Override
     public boolean isCellEditable(int column) {
 	return true;
@@ -176,28 +353,18 @@ public abstract class Tag<T> implements NBTNode, Saveable, Sprite {
 	}
     }
 
+    /**
+     * Marks this tag as unchanged. Compounds and lists also mark the children
+     * which have changed.
+     */
     @Override
     public void mark() {
-	this.hashCode = hashCode();
+	this.changed = false;
     }
 
     @Override
     public boolean hasChanged() {
-	// TODO: this should go in ListTag and CompoundTag
-	// temporary until Saveable is decoupled
-	if (this instanceof NBTBranch) {
-	    NBTBranch branch = (NBTBranch) this;
-	    int count = branch.getChildCount();
-	    for (int i = 0; i < count; i++) {
-		Object child = branch.getChild(i);
-		if (child instanceof Saveable) {
-		    Saveable saveable = (Saveable) child;
-		    if (saveable.hasChanged())
-			return true;
-		}
-	    }
-	}
-	return (this.hashCode != hashCode());
+	return changed;
     }
     
     @Override
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Reads and writes the payload of a tag type which is not built into NBT.
+ * 
+ * @author Taggart Spilman
+ * @see TagRegistry#register(int, String, Class, TagCodec)
+ */
+public interface TagCodec<T extends Tag<?>> {
+
+    /**
+     * Reads the payload of a tag.
+     * 
+     * @param name
+     *            The name of the tag.
+     * @param in
+     *            The input, positioned after the name.
+     * @return The tag.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    T read(String name, DataInput in) throws IOException;
+
+    /**
+     * Writes the payload of a tag.
+     * 
+     * @param tag
+     *            The tag.
+     * @param out
+     *            The output, positioned after the name.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    void write(T tag, DataOutput out) throws IOException;
+
+    /**
+     * Skips the payload of a tag without decoding it.
+     * 
+     * @param in
+     *            The input, positioned after the name.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    void skip(DataInput in) throws IOException;
+
+}
@@ -0,0 +1,558 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * <p>
+ * Computes 64 bit fingerprints of the content of tags. Equal tags have equal
+ * fingerprints in every run, on every machine, whether they were hashed in
+ * memory or while being read from a stream, so a fingerprint can identify
+ * content across snapshots and archives. It is not a cryptographic hash.
+ * </p>
+ * 
+ * <p>
+ * A fingerprint hashes the binary encoding of a tag: its type, its name and
+ * its payload, with the fingerprint of the payload of each array, list and
+ * compound within it standing in for that payload. The fingerprints of those
+ * payloads are kept by the tags themselves until they change, so after a
+ * change only the tags between it and the root are hashed again. Changes
+ * made in place to an array or collection returned by
+ * {@link Tag#getValue()} must be followed by {@link Tag#setChanged()}.
+ * </p>
+ * 
+ * <p>
+ * As an {@link NBTVisitor}, it fingerprints a tag as it is read by
+ * {@link NBTInputStream#readTag(NBTVisitor)}, without building any tags.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see Tag#getFingerprint()
+ */
+public final class TagFingerprint implements NBTVisitor {
+
+    private static final long C1 = 0x87C37B91114253D5L;
+    private static final long C2 = 0x4CF5AD432745937FL;
+
+    /**
+     * Hashes the tag being visited, and the payloads that are open within it.
+     */
+    private final Hasher root = new Hasher();
+    private Hasher[] frames = new Hasher[8];
+    private boolean[] lists = new boolean[8];
+    private int depth;
+    private boolean visited;
+
+    /**
+     * Gets the fingerprint of a tag.
+     * 
+     * @param tag
+     *            The tag.
+     * @return The fingerprint.
+     */
+    public static long of(Tag<?> tag) {
+	Hasher hasher = new Hasher();
+	putTag(hasher, tag);
+	return hasher.finish();
+    }
+
+    /**
+     * Reads the next tag from a stream and gets its fingerprint.
+     * 
+     * @param in
+     *            The stream.
+     * @return The fingerprint.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public static long of(NBTInputStream in) throws IOException {
+	TagFingerprint fingerprint = new TagFingerprint();
+	in.readTag(fingerprint);
+	return fingerprint.getFingerprint();
+    }
+
+    /**
+     * Gets the fingerprint of the last tag visited.
+     * 
+     * @return The fingerprint.
+     * @throws IllegalStateException
+     *             if no tag has been visited completely.
+     */
+    public long getFingerprint() {
+	if (!visited || depth != 0)
+	    throw new IllegalStateException("no tag has been visited");
+	return root.finish();
+    }
+
+    private static void putTag(Hasher hasher, Tag<?> tag) {
+	hasher.putByte(tag.getTagType());
+	hasher.putString(tag.getName());
+	putPayload(hasher, tag);
+    }
+
+    /**
+     * Hashes the payload of a tag, or the fingerprint of the payload if it is
+     * not a single value.
+     */
+    private static void putPayload(Hasher hasher, Tag<?> tag) {
+	switch (tag.getTagType()) {
+	case NBTConstants.TYPE_END:
+	    break;
+	case NBTConstants.TYPE_BYTE:
+	    hasher.putByte(((ByteTag) tag).getValue());
+	    break;
+	case NBTConstants.TYPE_SHORT:
+	    hasher.putShort(((ShortTag) tag).getValue());
+	    break;
+	case NBTConstants.TYPE_INT:
+	    hasher.putInt(((IntTag) tag).getValue());
+	    break;
+	case NBTConstants.TYPE_LONG:
+	    hasher.putLong(((LongTag) tag).getValue());
+	    break;
+	case NBTConstants.TYPE_FLOAT:
+	    hasher.putInt(Float.floatToIntBits(((FloatTag) tag).getValue()));
+	    break;
+	case NBTConstants.TYPE_DOUBLE:
+	    hasher.putLong(Double.doubleToLongBits(((DoubleTag) tag)
+		    .getValue()));
+	    break;
+	case NBTConstants.TYPE_STRING:
+	    hasher.putString(((StringTag) tag).getValue());
+	    break;
+	default:
+	    hasher.putLong(tag.getPayloadFingerprint());
+	}
+    }
+
+    /**
+     * Computes the fingerprint of the payload of an array, list, compound or
+     * registered tag. {@link Tag#getPayloadFingerprint()} keeps the result.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    static long hashPayload(Tag<?> tag) {
+	int type = tag.getTagType();
+	Hasher hasher = new Hasher();
+	switch (type) {
+	case NBTConstants.TYPE_BYTE_ARRAY:
+	    if (tag instanceof ByteArrayTagView) {
+		// hash the bytes where they are rather than copying them out
+		ByteBuffer buffer = ((ByteArrayTagView) tag).getBuffer();
+		hasher.putInt(buffer.remaining());
+		hasher.putBytes(buffer);
+	    } else {
+		byte[] bytes = ((ByteArrayTag) tag).getValue();
+		hasher.putInt(bytes.length);
+		hasher.putBytes(bytes, 0, bytes.length);
+	    }
+	    return hasher.finish();
+	case NBTConstants.TYPE_INT_ARRAY:
+	    return hash(((IntArrayTag) tag).getValue());
+	case NBTConstants.TYPE_LONG_ARRAY:
+	    return hash(((LongArrayTag) tag).getValue());
+	case NBTConstants.TYPE_LIST:
+	    if (tag instanceof NumericListTag) {
+		putItems(hasher, (NumericListTag<?>) tag);
+	    } else {
+		ListTag<?> list = (ListTag<?>) tag;
+		List<? extends Tag<?>> items = list.getValue();
+		hasher.putByte(NBTUtils.getTypeCode(list.getType()));
+		hasher.putInt(items.size());
+		for (Tag<?> item : items)
+		    putPayload(hasher, item);
+	    }
+	    return hasher.finish();
+	case NBTConstants.TYPE_COMPOUND:
+	    for (Tag<?> child : ((CompoundTag) tag).getValue().values())
+		putTag(hasher, child);
+	    hasher.putByte(NBTConstants.TYPE_END);
+	    return hasher.finish();
+	default:
+	    TagCodec codec = TagRegistry.getCodec(type);
+	    if (codec == null)
+		throw new IllegalArgumentException("Invalid tag type: " + type
+			+ ".");
+	    try {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		codec.write(tag, new DataOutputStream(payload));
+		hasher.putBytes(payload.toByteArray(), 0, payload.size());
+		return hasher.finish();
+	    } catch (IOException e) {
+		throw new IllegalArgumentException(e);
+	    }
+	}
+    }
+
+    /**
+     * Hashes the items of a numeric list straight from its array, as they
+     * would be encoded.
+     */
+    private static void putItems(Hasher hasher, NumericListTag<?> list) {
+	int type = list.getElementType();
+	int size = list.size();
+	hasher.putByte(type);
+	hasher.putInt(size);
+	switch (type) {
+	case NBTConstants.TYPE_BYTE:
+	    for (int i = 0; i < size; i++)
+		hasher.putByte((int) list.getLong(i));
+	    break;
+	case NBTConstants.TYPE_SHORT:
+	    for (int i = 0; i < size; i++)
+		hasher.putShort((int) list.getLong(i));
+	    break;
+	case NBTConstants.TYPE_INT:
+	    for (int i = 0; i < size; i++)
+		hasher.putInt((int) list.getLong(i));
+	    break;
+	case NBTConstants.TYPE_LONG:
+	    for (int i = 0; i < size; i++)
+		hasher.putLong(list.getLong(i));
+	    break;
+	case NBTConstants.TYPE_FLOAT:
+	    for (int i = 0; i < size; i++)
+		hasher.putInt(Float.floatToIntBits((float) list.getDouble(i)));
+	    break;
+	default:
+	    for (int i = 0; i < size; i++)
+		hasher.putLong(Double.doubleToLongBits(list.getDouble(i)));
+	}
+    }
+
+    private static long hash(int[] ints) {
+	Hasher hasher = new Hasher();
+	hasher.putInt(ints.length);
+	for (int i : ints)
+	    hasher.putInt(i);
+	return hasher.finish();
+    }
+
+    private static long hash(long[] longs) {
+	Hasher hasher = new Hasher();
+	hasher.putInt(longs.length);
+	for (long l : longs)
+	    hasher.putLong(l);
+	return hasher.finish();
+    }
+
+    /**
+     * Starts a tag, hashing its type and name into the payload that contains
+     * it unless that is a list.
+     * 
+     * @return The hasher for the payload that contains the tag.
+     */
+    private Hasher start(int type, String name) {
+	if (depth == 0) {
+	    root.reset();
+	    visited = true;
+	    root.putByte(type);
+	    root.putString(name);
+	    return root;
+	}
+	Hasher hasher = frames[depth - 1];
+	if (!lists[depth - 1]) {
+	    hasher.putByte(type);
+	    hasher.putString(name);
+	}
+	return hasher;
+    }
+
+    private Hasher push(boolean list) {
+	if (depth == frames.length) {
+	    Hasher[] frames = new Hasher[depth * 2];
+	    System.arraycopy(this.frames, 0, frames, 0, depth);
+	    this.frames = frames;
+	    boolean[] lists = new boolean[depth * 2];
+	    System.arraycopy(this.lists, 0, lists, 0, depth);
+	    this.lists = lists;
+	}
+	Hasher hasher = frames[depth];
+	if (hasher == null)
+	    hasher = frames[depth] = new Hasher();
+	hasher.reset();
+	lists[depth++] = list;
+	return hasher;
+    }
+
+    private void pop() {
+	long fingerprint = frames[--depth].finish();
+	Hasher outer = (depth == 0 ? root : frames[depth - 1]);
+	outer.putLong(fingerprint);
+    }
+
+    @Override
+    public void startCompound(String name) {
+	start(NBTConstants.TYPE_COMPOUND, name);
+	push(false);
+    }
+
+    @Override
+    public void endCompound() {
+	frames[depth - 1].putByte(NBTConstants.TYPE_END);
+	pop();
+    }
+
+    @Override
+    public void startList(String name, int type, int length) {
+	start(NBTConstants.TYPE_LIST, name);
+	Hasher hasher = push(true);
+	hasher.putByte(type);
+	hasher.putInt(length);
+    }
+
+    @Override
+    public void endList() {
+	pop();
+    }
+
+    @Override
+    public void visitByte(String name, byte value) {
+	start(NBTConstants.TYPE_BYTE, name).putByte(value);
+    }
+
+    @Override
+    public void visitShort(String name, short value) {
+	start(NBTConstants.TYPE_SHORT, name).putShort(value);
+    }
+
+    @Override
+    public void visitInt(String name, int value) {
+	start(NBTConstants.TYPE_INT, name).putInt(value);
+    }
+
+    @Override
+    public void visitLong(String name, long value) {
+	start(NBTConstants.TYPE_LONG, name).putLong(value);
+    }
+
+    @Override
+    public void visitFloat(String name, float value) {
+	start(NBTConstants.TYPE_FLOAT, name).putInt(
+		Float.floatToIntBits(value));
+    }
+
+    @Override
+    public void visitDouble(String name, double value) {
+	start(NBTConstants.TYPE_DOUBLE, name).putLong(
+		Double.doubleToLongBits(value));
+    }
+
+    @Override
+    public void visitString(String name, String value) {
+	start(NBTConstants.TYPE_STRING, name).putString(value);
+    }
+
+    @Override
+    public void startByteArray(String name, int length) {
+	start(NBTConstants.TYPE_BYTE_ARRAY, name);
+	push(false).putInt(length);
+    }
+
+    @Override
+    public void visitBytes(byte[] buffer, int offset, int length) {
+	frames[depth - 1].putBytes(buffer, offset, length);
+    }
+
+    @Override
+    public void endByteArray() {
+	pop();
+    }
+
+    @Override
+    public void startIntArray(String name, int length) {
+	start(NBTConstants.TYPE_INT_ARRAY, name);
+	push(false).putInt(length);
+    }
+
+    @Override
+    public void visitInts(int[] buffer, int offset, int length) {
+	Hasher hasher = frames[depth - 1];
+	for (int i = offset; i < offset + length; i++)
+	    hasher.putInt(buffer[i]);
+    }
+
+    @Override
+    public void endIntArray() {
+	pop();
+    }
+
+    @Override
+    public void startLongArray(String name, int length) {
+	start(NBTConstants.TYPE_LONG_ARRAY, name);
+	push(false).putInt(length);
+    }
+
+    @Override
+    public void visitLongs(long[] buffer, int offset, int length) {
+	Hasher hasher = frames[depth - 1];
+	for (int i = offset; i < offset + length; i++)
+	    hasher.putLong(buffer[i]);
+    }
+
+    @Override
+    public void endLongArray() {
+	pop();
+    }
+
+    @Override
+    public void visitTag(Tag<?> tag) {
+	start(tag.getTagType(), tag.getName()).putLong(
+		tag.getPayloadFingerprint());
+    }
+
+    /**
+     * Hashes a sequence of bytes eight at a time, in the manner of the 64 bit
+     * MurmurHash3. Multi-byte values are hashed as their big-endian bytes, so
+     * a value hashes the same as its encoding.
+     */
+    private static final class Hasher {
+
+	private long hash;
+	private long length;
+
+	/**
+	 * Up to seven bytes that have not been mixed in yet, the first in the
+	 * lowest bits.
+	 */
+	private long pending;
+	private int count;
+
+	public void reset() {
+	    hash = 0;
+	    length = 0;
+	    pending = 0;
+	    count = 0;
+	}
+
+	public void putByte(int value) {
+	    put(value & 0xFF, 1);
+	}
+
+	public void putShort(int value) {
+	    put(Long.reverseBytes(value) >>> 48, 2);
+	}
+
+	public void putInt(int value) {
+	    put(Long.reverseBytes(value) >>> 32, 4);
+	}
+
+	public void putLong(long value) {
+	    put(Long.reverseBytes(value), 8);
+	}
+
+	public void putBytes(byte[] bytes, int offset, int length) {
+	    int end = offset + length;
+	    while (count != 0 && offset < end)
+		putByte(bytes[offset++]);
+	    for (; offset + 8 <= end; offset += 8) {
+		mix((bytes[offset] & 0xFFL)
+			| (bytes[offset + 1] & 0xFFL) << 8
+			| (bytes[offset + 2] & 0xFFL) << 16
+			| (bytes[offset + 3] & 0xFFL) << 24
+			| (bytes[offset + 4] & 0xFFL) << 32
+			| (bytes[offset + 5] & 0xFFL) << 40
+			| (bytes[offset + 6] & 0xFFL) << 48
+			| (bytes[offset + 7] & 0xFFL) << 56);
+		this.length += 8;
+	    }
+	    while (offset < end)
+		putByte(bytes[offset++]);
+	}
+
+	public void putBytes(ByteBuffer buffer) {
+	    if (buffer.hasArray()) {
+		putBytes(buffer.array(), buffer.arrayOffset()
+			+ buffer.position(), buffer.remaining());
+		return;
+	    }
+	    byte[] bytes = new byte[Math.min(buffer.remaining(), 8192)];
+	    while (buffer.hasRemaining()) {
+		int n = Math.min(buffer.remaining(), bytes.length);
+		buffer.get(bytes, 0, n);
+		putBytes(bytes, 0, n);
+	    }
+	}
+
+	/**
+	 * Hashes a string as it is encoded, with a two byte length followed by
+	 * its UTF-8 bytes.
+	 */
+	public void putString(String s) {
+	    int length = s.length();
+	    for (int i = 0; i < length; i++) {
+		if (s.charAt(i) >= 0x80) {
+		    byte[] bytes = s.getBytes(NBTConstants.CHARSET);
+		    putShort(bytes.length);
+		    putBytes(bytes, 0, bytes.length);
+		    return;
+		}
+	    }
+	    putShort(length);
+	    for (int i = 0; i < length; i++)
+		putByte(s.charAt(i));
+	}
+
+	/**
+	 * Adds bytes packed with the first in the lowest bits.
+	 */
+	private void put(long bytes, int n) {
+	    length += n;
+	    int space = 8 - count;
+	    if (n < space) {
+		pending |= bytes << (count << 3);
+		count += n;
+		return;
+	    }
+	    mix(pending | bytes << (count << 3));
+	    count = n - space;
+	    pending = (count == 0 ? 0 : bytes >>> (space << 3));
+	}
+
+	private void mix(long k) {
+	    hash ^= scramble(k);
+	    hash = Long.rotateLeft(hash, 27) * 5 + 0x52DCE729;
+	}
+
+	private static long scramble(long k) {
+	    k *= C1;
+	    k = Long.rotateLeft(k, 31);
+	    return k * C2;
+	}
+
+	/**
+	 * Gets the hash of the bytes so far, without ending the sequence.
+	 */
+	public long finish() {
+	    long h = hash;
+	    if (count != 0)
+		h ^= scramble(pending);
+	    h ^= length;
+	    h ^= h >>> 33;
+	    h *= 0xFF51AFD7ED558CCDL;
+	    h ^= h >>> 33;
+	    h *= 0xC4CEB9FE1A85EC53L;
+	    return h ^ (h >>> 33);
+	}
+
+    }
+
+}
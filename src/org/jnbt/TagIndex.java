@@ -0,0 +1,446 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.nbt.NBTBranch;
+
+/**
+ * <p>
+ * An inverted index from the values in a tree of tags to the tags which hold
+ * them, so that every occurrence of an item id, a name or a coordinate can be
+ * found without walking the tree.
+ * </p>
+ * 
+ * <p>
+ * Numbers and strings are indexed, including the items of numeric lists.
+ * Integral numbers are compared as <code>long</code>s and floating point
+ * numbers as <code>double</code>s, so <code>find(5)</code> finds a
+ * <code>TAG_Byte</code> of 5 as well as a <code>TAG_Long</code>, while a
+ * <code>TAG_Float</code> of 0.1 has to be looked for as <code>0.1f</code>.
+ * </p>
+ * 
+ * <p>
+ * The index follows changes made through the tags themselves: setters, the
+ * methods of {@link Mutable}, and those of <code>NumericListTag</code>. The
+ * tags they touch are queued and brought up to date by the next lookup.
+ * Changes made to a collection returned by {@link Tag#getValue()} are not
+ * seen. An index is not thread-safe.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see CompoundTag#search(Object)
+ */
+public final class TagIndex {
+
+    private final Tag<?> root;
+
+    /**
+     * The tag which holds each value, or a set of them if there are several.
+     * A numeric list holds each of its distinct items.
+     */
+    private final Map<Object, Object> postings = new HashMap<Object, Object>();
+
+    /**
+     * The value each indexed tag held when it was indexed; for a numeric list,
+     * an array of its distinct items.
+     */
+    private final Map<Tag<?>, Object> keys =
+	    new IdentityHashMap<Tag<?>, Object>();
+
+    /**
+     * The positions of the items of lists which have been looked up since the
+     * tree last changed.
+     */
+    private final Map<ListTag<?>, Map<Tag<?>, Integer>> positions =
+	    new IdentityHashMap<ListTag<?>, Map<Tag<?>, Integer>>();
+
+    private final Set<Tag<?>> pending = newIdentitySet();
+    private boolean flushing;
+
+    /**
+     * Indexes a tree of tags and attaches the index to its root.
+     * 
+     * @param root
+     *            The root of the tree.
+     * @throws IllegalStateException
+     *             if the root already has an index.
+     */
+    public TagIndex(Tag<?> root) {
+	if (root.getTagIndex() != null)
+	    throw new IllegalStateException("tag is already indexed");
+	this.root = root;
+	add(root);
+	root.setTagIndex(this);
+    }
+
+    private static Set<Tag<?>> newIdentitySet() {
+	return Collections
+		.newSetFromMap(new IdentityHashMap<Tag<?>, Boolean>());
+    }
+
+    public Tag<?> getRoot() {
+	return root;
+    }
+
+    /**
+     * Detaches this index from its root and discards it.
+     */
+    public void detach() {
+	if (root.getTagIndex() == this)
+	    root.setTagIndex(null);
+	postings.clear();
+	keys.clear();
+	positions.clear();
+	pending.clear();
+    }
+
+    /**
+     * Finds every tag within the tree which holds a value.
+     * 
+     * @param value
+     *            A number or a string.
+     * @return The tags and their paths, in the order they would be written.
+     * @throws IllegalArgumentException
+     *             if the value is neither a number nor a string.
+     */
+    public List<NBTPath.Match> find(Object value) {
+	Object key = key(value);
+	if (key == null)
+	    throw new IllegalArgumentException("not a number or a string: "
+		    + value);
+	List<Hit> hits = hits(key, root);
+	Collections.sort(hits);
+	List<NBTPath.Match> matches = new ArrayList<NBTPath.Match>(
+		hits.size());
+	for (Hit hit : hits)
+	    matches.add(new NBTPath.Match(hit.path, hit.tag));
+	return matches;
+    }
+
+    /**
+     * Finds the first tag within a tag which holds a value, using an index
+     * over a tree that contains it if there is one, and walking it otherwise.
+     */
+    static Tag<?> search(Tag<?> within, Object value) {
+	Object key = key(value);
+	if (key == null)
+	    return null;
+	for (Tag<?> tag = within; tag != null; tag = tag.getParent()) {
+	    TagIndex index = tag.getTagIndex();
+	    if (index != null) {
+		List<Hit> hits = index.hits(key, within);
+		return (hits.isEmpty() ? null : Collections.min(hits).tag);
+	    }
+	}
+	return scan(within, key);
+    }
+
+    private static Tag<?> scan(Tag<?> tag, Object key) {
+	if (tag instanceof NumericListTag) {
+	    NumericListTag<?> list = (NumericListTag<?>) tag;
+	    for (int i = 0; i < list.size(); i++) {
+		if (key.equals(key(list, i)))
+		    return (Tag<?>) list.getChild(i);
+	    }
+	} else if (tag instanceof CompoundTag || tag instanceof ListTag) {
+	    NBTBranch branch = (NBTBranch) tag;
+	    int count = branch.getChildCount();
+	    for (int i = 0; i < count; i++) {
+		Tag<?> found = scan((Tag<?>) branch.getChild(i), key);
+		if (found != null)
+		    return found;
+	    }
+	} else if (key.equals(key(tag.getValue()))) {
+	    return tag;
+	}
+	return null;
+    }
+
+    /**
+     * Collects the occurrences of a value below a tag.
+     */
+    private List<Hit> hits(Object key, Tag<?> within) {
+	flush();
+	List<Hit> hits = new ArrayList<Hit>();
+	Object posting = postings.get(key);
+	if (posting == null)
+	    return hits;
+	for (Tag<?> holder : holders(posting)) {
+	    if (holder instanceof NumericListTag) {
+		NumericListTag<?> list = (NumericListTag<?>) holder;
+		for (int i = 0; i < list.size(); i++) {
+		    if (key.equals(key(list, i))) {
+			Hit hit = locate(holder, i, within);
+			if (hit != null)
+			    hits.add(hit);
+		    }
+		}
+	    } else {
+		Hit hit = locate(holder, -1, within);
+		if (hit != null)
+		    hits.add(hit);
+	    }
+	}
+	return hits;
+    }
+
+    /**
+     * Finds the position of a tag, or of an item of a numeric list, relative
+     * to the root.
+     * 
+     * @return The position, or <code>null</code> if the tag is not below
+     *         <code>within</code>.
+     */
+    private Hit locate(Tag<?> holder, int item, Tag<?> within) {
+	List<Integer> positions = new ArrayList<Integer>();
+	List<Object> segments = new ArrayList<Object>();
+	if (item != -1) {
+	    positions.add(item);
+	    segments.add(item);
+	}
+
+	boolean inside = false;
+	Tag<?> tag = holder;
+	while (tag != root) {
+	    if (tag == within)
+		inside = true;
+	    Tag<?> parent = tag.getParent();
+	    if (parent == null)
+		return null;
+	    if (parent instanceof CompoundTag) {
+		positions.add(((CompoundTag) parent).getIndexOfChild(tag));
+		segments.add(tag.getName());
+	    } else {
+		int index = indexOf((ListTag<?>) parent, tag);
+		positions.add(index);
+		segments.add(index);
+	    }
+	    tag = parent;
+	}
+	if (!inside && within != root)
+	    return null;
+
+	int[] position = new int[positions.size()];
+	String path = "";
+	for (int i = 0; i < position.length; i++) {
+	    int j = position.length - 1 - i;
+	    position[i] = positions.get(j);
+	    Object segment = segments.get(j);
+	    if (segment instanceof String) {
+		path = NBTPath.appendName(path, (String) segment);
+	    } else {
+		path = NBTPath.appendIndex(path, (Integer) segment);
+	    }
+	}
+	if (item != -1)
+	    holder = (Tag<?>) ((NumericListTag<?>) holder).getChild(item);
+	return new Hit(position, path, holder);
+    }
+
+    /**
+     * Finds an item of a list by identity, since items are compared by value.
+     */
+    private int indexOf(ListTag<?> list, Tag<?> item) {
+	Map<Tag<?>, Integer> map = positions.get(list);
+	if (map == null) {
+	    List<? extends Tag<?>> items = list.getValue();
+	    map = new IdentityHashMap<Tag<?>, Integer>(items.size());
+	    for (int i = 0; i < items.size(); i++)
+		map.put(items.get(i), i);
+	    positions.put(list, map);
+	}
+	Integer index = map.get(item);
+	return (index == null ? -1 : index);
+    }
+
+    /**
+     * Queues a tag whose values, or whose place in the tree, may have changed.
+     */
+    void invalidate(Tag<?> tag) {
+	if (flushing)
+	    return;
+	Tag<?> parent = tag.getParent();
+	if (parent != null && !parent.indexesChildren())
+	    return;
+	pending.add(tag);
+    }
+
+    /**
+     * Brings the queued tags up to date: everything within them is removed
+     * from the index, and those which are still in the tree are added back.
+     */
+    private void flush() {
+	if (pending.isEmpty())
+	    return;
+	List<Tag<?>> tags = new ArrayList<Tag<?>>(pending);
+	pending.clear();
+	positions.clear();
+	flushing = true;
+	try {
+	    for (Tag<?> tag : tags)
+		remove(tag);
+	    for (Tag<?> tag : tags) {
+		if (isAttached(tag))
+		    add(tag);
+	    }
+	} finally {
+	    flushing = false;
+	}
+    }
+
+    private boolean isAttached(Tag<?> tag) {
+	for (Tag<?> t = tag; t != null; t = t.getParent()) {
+	    if (t == root)
+		return true;
+	}
+	return false;
+    }
+
+    private void add(Tag<?> tag) {
+	if (tag instanceof NumericListTag) {
+	    if (keys.containsKey(tag))
+		return;
+	    NumericListTag<?> list = (NumericListTag<?>) tag;
+	    Set<Object> distinct = new LinkedHashSet<Object>();
+	    for (int i = 0; i < list.size(); i++)
+		distinct.add(key(list, i));
+	    keys.put(tag, distinct.toArray());
+	    for (Object key : distinct)
+		post(key, tag);
+	} else if (tag instanceof CompoundTag || tag instanceof ListTag) {
+	    NBTBranch branch = (NBTBranch) tag;
+	    int count = branch.getChildCount();
+	    for (int i = 0; i < count; i++)
+		add((Tag<?>) branch.getChild(i));
+	} else if (!keys.containsKey(tag)) {
+	    Object key = key(tag.getValue());
+	    if (key != null) {
+		keys.put(tag, key);
+		post(key, tag);
+	    }
+	}
+    }
+
+    private void remove(Tag<?> tag) {
+	Object key = keys.remove(tag);
+	if (key instanceof Object[]) {
+	    for (Object k : (Object[]) key)
+		unpost(k, tag);
+	} else if (key != null) {
+	    unpost(key, tag);
+	} else if (tag instanceof CompoundTag
+		|| (tag instanceof ListTag && !(tag instanceof NumericListTag))) {
+	    NBTBranch branch = (NBTBranch) tag;
+	    int count = branch.getChildCount();
+	    for (int i = 0; i < count; i++)
+		remove((Tag<?>) branch.getChild(i));
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<Tag<?>> holders(Object posting) {
+	if (posting instanceof Tag)
+	    return Collections.<Tag<?>> singleton((Tag<?>) posting);
+	return (Set<Tag<?>>) posting;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void post(Object key, Tag<?> tag) {
+	Object posting = postings.get(key);
+	if (posting == null) {
+	    postings.put(key, tag);
+	} else if (posting instanceof Tag) {
+	    if (posting != tag) {
+		Set<Tag<?>> holders = newIdentitySet();
+		holders.add((Tag<?>) posting);
+		holders.add(tag);
+		postings.put(key, holders);
+	    }
+	} else {
+	    ((Set<Tag<?>>) posting).add(tag);
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    private void unpost(Object key, Tag<?> tag) {
+	Object posting = postings.get(key);
+	if (posting == tag) {
+	    postings.remove(key);
+	} else if (posting instanceof Set) {
+	    Set<Tag<?>> holders = (Set<Tag<?>>) posting;
+	    holders.remove(tag);
+	    if (holders.size() == 1) {
+		postings.put(key, holders.iterator().next());
+	    }
+	}
+    }
+
+    private static Object key(Object value) {
+	if (value instanceof Float || value instanceof Double)
+	    return Double.valueOf(((Number) value).doubleValue());
+	if (value instanceof Byte || value instanceof Short
+		|| value instanceof Integer || value instanceof Long)
+	    return Long.valueOf(((Number) value).longValue());
+	if (value instanceof String)
+	    return value;
+	return null;
+    }
+
+    private static Object key(NumericListTag<?> list, int index) {
+	switch (list.getElementType()) {
+	case NBTConstants.TYPE_FLOAT:
+	case NBTConstants.TYPE_DOUBLE:
+	    return Double.valueOf(list.getDouble(index));
+	default:
+	    return Long.valueOf(list.getLong(index));
+	}
+    }
+
+    private static final class Hit implements Comparable<Hit> {
+
+	private final int[] position;
+	private final String path;
+	private final Tag<?> tag;
+
+	public Hit(int[] position, String path, Tag<?> tag) {
+	    this.position = position;
+	    this.path = path;
+	    this.tag = tag;
+	}
+
+	@Override
+	public int compareTo(Hit other) {
+	    int length = Math.min(position.length, other.position.length);
+	    for (int i = 0; i < length; i++) {
+		if (position[i] != other.position[i])
+		    return (position[i] < other.position[i] ? -1 : 1);
+	    }
+	    return position.length - other.position.length;
+	}
+
+    }
+
+}
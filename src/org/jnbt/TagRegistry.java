@@ -0,0 +1,196 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Maps tag types to their names, classes and codecs. Types are looked up by
+ * index and classes by hash, so neither walks a chain of comparisons.
+ * </p>
+ * 
+ * <p>
+ * The built-in types are registered when this class is loaded. Applications
+ * may register further types together with a {@link TagCodec}, which the
+ * streams use to read, write and skip them.
+ * </p>
+ * 
+ * @author Taggart Spilman
+ * @see NBTUtils
+ */
+public class TagRegistry {
+
+    private static final int MAX_TYPE = 0xFF;
+
+    private static final String[] names = new String[MAX_TYPE + 1];
+    private static final Class<?>[] classes = new Class<?>[MAX_TYPE + 1];
+    private static final TagCodec<?>[] codecs = new TagCodec<?>[MAX_TYPE + 1];
+    private static final ConcurrentMap<Class<?>, Integer> types = new ConcurrentHashMap<Class<?>, Integer>();
+
+    static {
+	define(NBTConstants.TYPE_END, EndTag.TAG_NAME, EndTag.class);
+	define(NBTConstants.TYPE_BYTE, ByteTag.TAG_NAME, ByteTag.class);
+	define(NBTConstants.TYPE_SHORT, ShortTag.TAG_NAME, ShortTag.class);
+	define(NBTConstants.TYPE_INT, IntTag.TAG_NAME, IntTag.class);
+	define(NBTConstants.TYPE_LONG, LongTag.TAG_NAME, LongTag.class);
+	define(NBTConstants.TYPE_FLOAT, FloatTag.TAG_NAME, FloatTag.class);
+	define(NBTConstants.TYPE_DOUBLE, DoubleTag.TAG_NAME, DoubleTag.class);
+	define(NBTConstants.TYPE_BYTE_ARRAY, ByteArrayTag.TAG_NAME,
+		ByteArrayTag.class);
+	define(NBTConstants.TYPE_STRING, StringTag.TAG_NAME, StringTag.class);
+	define(NBTConstants.TYPE_LIST, ListTag.TAG_NAME, ListTag.class);
+	define(NBTConstants.TYPE_COMPOUND, CompoundTag.TAG_NAME,
+		CompoundTag.class);
+	define(NBTConstants.TYPE_INT_ARRAY, IntArrayTag.TAG_NAME,
+		IntArrayTag.class);
+	define(NBTConstants.TYPE_LONG_ARRAY, LongArrayTag.TAG_NAME,
+		LongArrayTag.class);
+    }
+
+    /**
+     * Default private constructor.
+     */
+    private TagRegistry() {
+
+    }
+
+    private static void define(int type, String name, Class<?> clazz) {
+	names[type] = name;
+	classes[type] = clazz;
+	types.put(clazz, type);
+    }
+
+    /**
+     * Registers a tag type which is not built into NBT.
+     * 
+     * @param type
+     *            The type code, which must not be in use.
+     * @param name
+     *            The type name, for example <code>TAG_Uuid</code>.
+     * @param clazz
+     *            The tag class.
+     * @param codec
+     *            The codec used to read and write the payload.
+     * @throws IllegalArgumentException
+     *             if the type code or the class is already registered.
+     */
+    // types should be registered before any stream encounters them
+    public static synchronized <T extends Tag<?>> void register(int type,
+	    String name, Class<T> clazz, TagCodec<T> codec) {
+	if (type <= 0 || type > MAX_TYPE)
+	    throw new IllegalArgumentException("Invalid tag type: " + type
+		    + ".");
+	if (name == null || clazz == null || codec == null)
+	    throw new IllegalArgumentException(
+		    "name, class and codec must not be null");
+	if (classes[type] != null)
+	    throw new IllegalArgumentException("Tag type " + type
+		    + " is already registered (" + names[type] + ").");
+	if (types.containsKey(clazz))
+	    throw new IllegalArgumentException("Tag class "
+		    + clazz.getName() + " is already registered.");
+
+	codecs[type] = codec;
+	define(type, name, clazz);
+    }
+
+    /**
+     * Checks whether a tag type has been registered.
+     * 
+     * @param type
+     *            The type code.
+     * @return <code>true</code> if the type is known
+     */
+    public static boolean isRegistered(int type) {
+	return (type >= 0 && type <= MAX_TYPE && classes[type] != null);
+    }
+
+    /**
+     * Gets the type name of a type code.
+     * 
+     * @param type
+     *            The type code.
+     * @return The type name.
+     * @throws IllegalArgumentException
+     *             if the tag type is invalid.
+     */
+    public static String getName(int type) {
+	checkType(type);
+	return names[type];
+    }
+
+    /**
+     * Gets the class of a type code.
+     * 
+     * @param type
+     *            The type code.
+     * @return The class.
+     * @throws IllegalArgumentException
+     *             if the tag type is invalid.
+     */
+    @SuppressWarnings("rawtypes")
+    public static Class<? extends Tag> getClass(int type) {
+	checkType(type);
+	return classes[type].asSubclass(Tag.class);
+    }
+
+    /**
+     * Gets the type code of a tag class. Subclasses of a registered class,
+     * such as {@link LazyCompoundTag}, share its type code.
+     * 
+     * @param clazz
+     *            The tag class.
+     * @return The type code.
+     * @throws IllegalArgumentException
+     *             if the tag class is invalid.
+     */
+    public static int getType(Class<?> clazz) {
+	Integer type = types.get(clazz);
+	if (type == null) {
+	    Class<?> superclass = clazz.getSuperclass();
+	    if (superclass == null || !Tag.class.isAssignableFrom(superclass))
+		throw new IllegalArgumentException("Invalid tag class ("
+			+ clazz.getName() + ").");
+	    type = getType(superclass);
+	    types.putIfAbsent(clazz, type);
+	}
+	return type;
+    }
+
+    /**
+     * Gets the codec of a type which is not built into NBT.
+     * 
+     * @param type
+     *            The type code.
+     * @return The codec, or <code>null</code> for built-in and unknown types.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Tag<?>> TagCodec<T> getCodec(int type) {
+	if (type < 0 || type > MAX_TYPE)
+	    return null;
+	return (TagCodec<T>) codecs[type];
+    }
+
+    private static void checkType(int type) {
+	if (!isRegistered(type))
+	    throw new IllegalArgumentException("Invalid tag type : " + type
+		    + ".");
+    }
+
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Passes data through unchanged.
+ * 
+ * @author Taggart Spilman
+ */
+public class UncompressedCodec extends CompressionCodec {
+
+    public UncompressedCodec() {
+	this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize
+     *            The size of the buffer placed in front of the streams.
+     */
+    public UncompressedCodec(int bufferSize) {
+	super(0, bufferSize);
+    }
+
+    @Override
+    public String getName() {
+	return "none";
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+	return new BufferedOutputStream(out, getBufferSize());
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+	return new BufferedInputStream(in, getBufferSize());
+    }
+
+    @Override
+    protected boolean matches(byte[] magic, int length) {
+	return true;
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+	byte[] bytes = new byte[length];
+	System.arraycopy(data, offset, bytes, 0, length);
+	return bytes;
+    }
+
+}
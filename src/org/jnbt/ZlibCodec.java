@@ -0,0 +1,130 @@
+/**
+ * Copyright 2011 Taggart Spilman
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.jnbt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The zlib format, used by the chunks of a region file.
+ * 
+ * @author Taggart Spilman
+ */
+public class ZlibCodec extends CompressionCodec {
+
+    public ZlibCodec() {
+	this(Deflater.DEFAULT_COMPRESSION, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param level
+     *            The deflate level, from 0 to 9, or
+     *            <code>Deflater.DEFAULT_COMPRESSION</code>.
+     * @param bufferSize
+     *            The size of the buffer used by the streams.
+     */
+    public ZlibCodec(int level, int bufferSize) {
+	super(level, bufferSize);
+	checkLevel(level);
+    }
+
+    static void checkLevel(int level) {
+	if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+	    throw new IllegalArgumentException("Invalid deflate level: "
+		    + level + ".");
+    }
+
+    @Override
+    public String getName() {
+	return "zlib";
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+	return new DeflaterOutputStream(out, new Deflater(getLevel()),
+		getBufferSize()) {
+
+	    @Override
+	    public void close() throws IOException {
+		try {
+		    super.close();
+		} finally {
+		    def.end();
+		}
+	    }
+
+	};
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+	return new InflaterInputStream(in, new Inflater(), getBufferSize()) {
+
+	    @Override
+	    public void close() throws IOException {
+		try {
+		    super.close();
+		} finally {
+		    inf.end();
+		}
+	    }
+
+	};
+    }
+
+    @Override
+    protected boolean matches(byte[] magic, int length) {
+	if (length < 2)
+	    return false;
+	int cmf = magic[0] & 0xFF, flg = magic[1] & 0xFF;
+	// deflate with a window of at most 32K, and a valid check value
+	return ((cmf & 0x0F) == 8 && (cmf >> 4) <= 7
+		&& ((cmf << 8) | flg) % 31 == 0);
+    }
+
+    /**
+     * Deflates into a buffer sized from zlib's worst case for the input, so it
+     * never has to grow.
+     */
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+	Deflater deflater = new Deflater(getLevel());
+	try {
+	    deflater.setInput(data, offset, length);
+	    deflater.finish();
+	    int bound = length + (length >> 12) + (length >> 14)
+		    + (length >> 25) + 13;
+	    byte[] buffer = new byte[bound];
+	    int n = 0;
+	    while (!deflater.finished()) {
+		if (n == buffer.length)
+		    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		n += deflater.deflate(buffer, n, buffer.length - n);
+	    }
+	    return Arrays.copyOf(buffer, n);
+	} finally {
+	    deflater.end();
+	}
+    }
+
+}